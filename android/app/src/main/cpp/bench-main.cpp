@@ -0,0 +1,138 @@
+// Host build of the inference benchmark: runs inference_generate, the code behind
+// nativeGenerate, on a dev machine with a small GGUF. Built by CMakeLists.txt when not
+// targeting Android:
+//
+//   cmake -S android/app/src/main/cpp -B build-bench -DCMAKE_BUILD_TYPE=Release
+//   cmake --build build-bench --target trunotes-bench -j
+//   build-bench/trunotes-bench -m model.gguf -p 256 -n 64 -r 3 -t 4,8 -b 128,256 -c 1280 -k f16,q8_0
+//
+// --parallel 1,2,4 runs that many generations at once through batch_scheduler (the path
+// behind concurrent generate calls) and reports their aggregate tokens/s; n_ctx has to hold
+// all of them. Every combination of the comma-separated lists is one configuration. Prints a table on
+// stderr and one JSON object per configuration on stdout (same fields as AIBridge.benchmark).
+
+#include "inference.h"
+
+#include "llama.h"
+
+#include <cstdio>
+#include <cstdlib>
+#include <cstring>
+#include <sstream>
+#include <string>
+#include <vector>
+
+// Build info that common.h expects; llama-android.cpp defines these for the app library
+int LLAMA_BUILD_NUMBER = 0;
+const char * LLAMA_COMMIT = "unknown";
+const char * LLAMA_COMPILER = "host";
+const char * LLAMA_BUILD_TARGET = "host";
+
+static std::vector<std::string> split(const std::string & list) {
+    std::vector<std::string> parts;
+    std::stringstream in(list);
+    std::string part;
+    while (std::getline(in, part, ',')) {
+        if (!part.empty()) parts.push_back(part);
+    }
+    return parts;
+}
+
+static std::vector<int> split_ints(const std::string & list) {
+    std::vector<int> values;
+    for (const std::string & part : split(list)) values.push_back(std::atoi(part.c_str()));
+    return values;
+}
+
+static void usage(const char * argv0) {
+    fprintf(stderr,
+        "usage: %s -m model.gguf [-p pp] [-n tg] [-r reps] [-t threads,...] [-b n_batch,...]\n"
+        "          [-c n_ctx,...] [-k f16|q8_0|q4_0,...] [--parallel n,...] [--mmap 0|1] [--ngl n_gpu_layers]\n", argv0);
+}
+
+static void quiet_log(ggml_log_level level, const char * text, void *) {
+    if (level == GGML_LOG_LEVEL_ERROR) fputs(text, stderr);
+}
+
+int main(int argc, char ** argv) {
+    // Defaults match what the app loads with (AIBridge.loadModel, load_model_impl)
+    std::string model_path;
+    int pp = 128, tg = 64, reps = 3, n_gpu_layers = 0;
+    bool use_mmap = true;
+    std::string threads = "4", batches = "256", ctxs = "1280", kv_types = "f16", parallels = "1";
+
+    for (int i = 1; i < argc; i++) {
+        std::string arg = argv[i];
+        if (i + 1 >= argc) { usage(argv[0]); return 1; }
+        std::string value = argv[++i];
+        if (arg == "-m") model_path = value;
+        else if (arg == "-p") pp = std::atoi(value.c_str());
+        else if (arg == "-n") tg = std::atoi(value.c_str());
+        else if (arg == "-r") reps = std::atoi(value.c_str());
+        else if (arg == "-t") threads = value;
+        else if (arg == "-b") batches = value;
+        else if (arg == "-c") ctxs = value;
+        else if (arg == "-k") kv_types = value;
+        else if (arg == "--parallel") parallels = value;
+        else if (arg == "--mmap") use_mmap = value != "0";
+        else if (arg == "--ngl") n_gpu_layers = std::atoi(value.c_str());
+        else { usage(argv[0]); return 1; }
+    }
+    if (model_path.empty()) { usage(argv[0]); return 1; }
+
+    llama_log_set(quiet_log, nullptr);
+    llama_backend_init();
+
+    llama_model_params model_params = llama_model_default_params();
+    model_params.use_mmap = use_mmap;
+    model_params.n_gpu_layers = n_gpu_layers;
+    llama_model * model = llama_model_load_from_file(model_path.c_str(), model_params);
+    if (!model) {
+        fprintf(stderr, "failed to load %s\n", model_path.c_str());
+        return 1;
+    }
+
+    fprintf(stderr, "%-8s %-8s %-6s %-5s %-4s %8s %8s %10s %10s %9s %10s\n",
+            "threads", "n_batch", "n_ctx", "kv", "par", "pp", "tg", "pp t/s", "tg t/s", "ttft ms", "peak MiB");
+
+    int failures = 0;
+    for (int n_threads : split_ints(threads)) {
+        for (int n_batch : split_ints(batches)) {
+            for (int n_ctx : split_ints(ctxs)) {
+                for (const std::string & kv : split(kv_types)) {
+                    for (int n_parallel : split_ints(parallels)) {
+                        bench_config config;
+                        config.n_threads = n_threads;
+                        config.n_batch = n_batch;
+                        config.n_ctx = n_ctx;
+                        config.n_parallel = n_parallel;
+
+                        bench_result result;
+                        if (kv_type_from_name(kv, &config.type_kv)) {
+                            result = inference_benchmark(model, config, pp, tg, reps);
+                        } else {
+                            result.config = config;
+                            result.error = "unknown kv type";
+                        }
+
+                        if (result.error.empty()) {
+                            fprintf(stderr, "%-8d %-8d %-6d %-5s %-4d %8d %8d %10.1f %10.1f %9.1f %10.1f\n",
+                                    n_threads, n_batch, n_ctx, kv.c_str(), n_parallel, result.n_prompt, result.n_generated,
+                                    result.prefill_tps, result.decode_tps, result.ttft_ms,
+                                    result.peak_rss_kb >= 0 ? result.peak_rss_kb / 1024.0 : -1.0);
+                        } else {
+                            fprintf(stderr, "%-8d %-8d %-6d %-5s %-4d error: %s\n", n_threads, n_batch, n_ctx, kv.c_str(), n_parallel, result.error.c_str());
+                            failures++;
+                        }
+                        printf("%s\n", bench_result_json(result).c_str());
+                        fflush(stdout);
+                    }
+                }
+            }
+        }
+    }
+
+    llama_model_free(model);
+    llama_backend_free();
+    return failures == 0 ? 0 : 2;
+}
@@ -0,0 +1,794 @@
+#include "inference.h"
+
+#include "common.h"
+
+#include <algorithm>
+#include <chrono>
+#include <cstdio>
+#include <fstream>
+#include <optional>
+#include <sstream>
+#include <thread>
+
+#define TAG "inference.cpp"
+#include "native_log.h"
+#include "native_trace.h"
+
+using clock_type = std::chrono::steady_clock;
+
+static double elapsed_ms(clock_type::time_point since) {
+    return std::chrono::duration<double, std::milli>(clock_type::now() - since).count();
+}
+
+// Helper to check if a string ends with a complete UTF-8 character
+static bool is_complete_utf8(const std::string & str) {
+    if (str.empty()) return true;
+    unsigned char last = (unsigned char)str.back();
+    if ((last & 0x80) == 0) return true; // ASCII is always complete
+
+    size_t len = str.length();
+    for (size_t i = 0; i < 4 && i < len; i++) {
+        unsigned char c = (unsigned char)str[len - 1 - i];
+        if ((c & 0xC0) == 0x80) continue; // Continuation byte
+        if ((c & 0xE0) == 0xC0) return (i == 1); // 2-byte char
+        if ((c & 0xF0) == 0xE0) return (i == 2); // 3-byte char
+        if ((c & 0xF8) == 0xF0) return (i == 3); // 4-byte char
+        return true; // Catch-all for other headers (shouldn't happen in valid stream)
+    }
+    return false;
+}
+
+static size_t common_prefix(const std::vector<llama_token> & a, const std::vector<llama_token> & b) {
+    size_t n = 0;
+    while (n < a.size() && n < b.size() && a[n] == b[n]) n++;
+    return n;
+}
+
+// top-k -> top-p -> temperature -> repetition penalty -> seeded draw
+static llama_sampler * make_sampler(const generation_params & params) {
+    llama_sampler_chain_params sparams = llama_sampler_chain_default_params();
+    llama_sampler * smpl = llama_sampler_chain_init(sparams);
+
+    llama_sampler_chain_add(smpl, llama_sampler_init_top_k(params.top_k));
+    llama_sampler_chain_add(smpl, llama_sampler_init_top_p(params.top_p, 1)); // min_keep = 1
+    llama_sampler_chain_add(smpl, llama_sampler_init_temp(params.temperature));
+
+    // Repetition penalty over the last 64 tokens (prevents looping/garbage);
+    // frequency and presence penalties off
+    llama_sampler_chain_add(smpl, llama_sampler_init_penalties(
+        64,                     // penalty_last_n (standard default)
+        params.penalty,         // penalty_repeat (user value, e.g. 1.1)
+        0.0f,                   // penalty_freq
+        0.0f                    // penalty_present
+    ));
+
+    llama_sampler_chain_add(smpl, llama_sampler_init_dist(params.seed));
+    return smpl;
+}
+
+std::string inference_generate(llama_context * ctx, std::vector<llama_token> & past_tokens,
+                               const std::string & prompt, const generation_params & params,
+                               const std::atomic<bool> & stop, const piece_callback & on_piece,
+                               generation_stats * stats) {
+    const auto t_start = clock_type::now();
+    trace_section trace("generate chars=%zu n_predict=%d", prompt.size(), params.n_predict);
+    generation_stats local_stats;
+    generation_stats & st = stats ? *stats : local_stats;
+    st = generation_stats();
+
+    std::string response;
+    std::string pending_output; // Buffer for partial UTF-8 sequences
+
+    // 1. Tokenize the new prompt
+    trace_section trace_tokenize("tokenize bytes=%zu", prompt.size());
+    std::vector<llama_token> tokens_list = common_tokenize(ctx, prompt, true, true);
+    trace_tokenize.end();
+    trace_counter("prompt_tokens", (int64_t) tokens_list.size());
+
+    if (tokens_list.empty()) {
+        return "Error: No tokens generated from prompt";
+    }
+
+    // 2. Incremental KV Cache Management & Context Shifting
+    // Find common prefix length with previously stored tokens
+    trace_section trace_prefix("kv_prefix_match past=%zu", past_tokens.size());
+    size_t n_keep = common_prefix(past_tokens, tokens_list);
+    trace_prefix.end();
+
+    // Context Shifting (PocketPal Optimization)
+    // If context is nearly full, remove the oldest non-system tokens
+    int n_ctx = llama_n_ctx(ctx);
+    int n_past = past_tokens.size();
+    int n_new = (int)tokens_list.size() - (int)n_keep;
+    llama_memory_t mem = llama_get_memory(ctx);
+
+    if (n_past + n_new > n_ctx - 64) { // 64 buffer for safety
+        int n_discard = (n_past - n_keep) / 2; // Discard half of the history tokens
+        if (n_discard < 128) n_discard = 128; // Minimum discard size
+
+        LOGi("KV Cache FULL: Shifting context. Discarding %d tokens after index %zu", n_discard, n_keep);
+        trace_section trace_shift("context_shift keep=%zu discard=%d", n_keep, n_discard);
+
+        // Remove from KV cache
+        llama_memory_seq_rm(mem, 0, n_keep, n_keep + n_discard);
+        // Shift remaining tokens back
+        llama_memory_seq_add(mem, 0, n_keep + n_discard, -1, -n_discard);
+
+        // Update token history to match shifted cache
+        if (n_keep + n_discard < past_tokens.size()) {
+            past_tokens.erase(past_tokens.begin() + n_keep, past_tokens.begin() + n_keep + n_discard);
+        }
+
+        // Re-align n_keep for evaluation
+        n_keep = common_prefix(past_tokens, tokens_list);
+    }
+
+    // Remove tokens from cache that are no longer part of the current prompt path
+    if (n_keep < past_tokens.size()) {
+        LOGi("KV Cache: Removing %zu tokens from index %zu", past_tokens.size() - n_keep, n_keep);
+        llama_memory_seq_rm(mem, 0, n_keep, -1);
+    }
+
+    past_tokens.resize(n_keep);
+
+    // 3. Evaluate the prompt in chunks (Prefill)
+    // Capping at n_ctx - 128 to leave room for generation
+    if (tokens_list.size() > (size_t)(n_ctx - 128)) {
+        LOGe("Prompt too long (%zu tokens), capping to %d", tokens_list.size(), n_ctx - 128);
+        tokens_list.resize(n_ctx - 128);
+    }
+    st.n_prompt = (int)tokens_list.size();
+    st.n_reused = (int)n_keep;
+    trace_counter("kv_reused_tokens", (int64_t) n_keep);
+
+    {
+        // One decode per n_batch tokens, the most the context accepts at once
+        const int n_eval_batch_size = (int)llama_n_batch(ctx);
+        llama_batch batch = llama_batch_init(n_eval_batch_size, 0, 1);
+        const auto t_prefill = clock_type::now();
+        trace_section trace_prefill("prefill tokens=%zu batch=%d", tokens_list.size() - n_keep, n_eval_batch_size);
+
+        for (size_t i = n_keep; i < tokens_list.size(); i += (size_t)n_eval_batch_size) {
+            int n_eval = (int)std::min((size_t)n_eval_batch_size, tokens_list.size() - i);
+
+            trace_section trace_chunk("prefill_chunk pos=%zu n=%d", i, n_eval);
+            common_batch_clear(batch);
+            for (int j = 0; j < n_eval; j++) {
+                bool is_last_token = (i + j == tokens_list.size() - 1);
+                common_batch_add(batch, tokens_list[i + j], (int)(i + j), { 0 }, is_last_token);
+            }
+
+            if (stop) {
+                LOGi("Generation stopped during prefill");
+                llama_batch_free(batch);
+                return ""; // Return empty immediately
+            }
+
+            if (llama_decode(ctx, batch) != 0) {
+                LOGe("llama_decode failed during prefill");
+                llama_batch_free(batch);
+                return "Error: Decode failed during prefill";
+            }
+        }
+        st.prefill_ms = elapsed_ms(t_prefill);
+        llama_batch_free(batch);
+    }
+
+    // 4. Sample and Generate loop
+    int n_cur = tokens_list.size();
+
+    llama_sampler * smpl = make_sampler(params);
+
+    const llama_vocab * vocab = llama_model_get_vocab(llama_get_model(ctx));
+
+    // Track what we generate to append to past_tokens for next turn
+    std::vector<llama_token> generated_tokens;
+    llama_batch batch = llama_batch_init(1, 0, 1);
+    clock_type::time_point t_first_token;
+    // Sampling the first token closes the prefill; everything after it is decode
+    trace_section trace_first("first_token");
+    std::optional<trace_section> trace_decode;
+
+    for (int i = 0; i < params.n_predict; i++) {
+        if (stop) break;
+
+        llama_token new_token_id = llama_sampler_sample(smpl, ctx, -1);
+        if (i == 0) {
+            t_first_token = clock_type::now();
+            st.ttft_ms = std::chrono::duration<double, std::milli>(t_first_token - t_start).count();
+            trace_first.end();
+            trace_counter("ttft_ms", (int64_t) st.ttft_ms);
+            trace_decode.emplace("decode n_predict=%d", params.n_predict);
+        }
+        trace_section trace_step("decode_token i=%d", i);
+
+        if (!params.ignore_eog && llama_vocab_is_eog(vocab, new_token_id)) break;
+
+        std::string piece = common_token_to_piece(ctx, new_token_id);
+        response += piece;
+        generated_tokens.push_back(new_token_id);
+
+        // Accumulate pieces and only hand out complete UTF-8
+        pending_output += piece;
+
+        if (on_piece && !pending_output.empty() && is_complete_utf8(pending_output)) {
+            on_piece(pending_output);
+            pending_output.clear();
+        }
+
+        common_batch_clear(batch);
+        common_batch_add(batch, new_token_id, n_cur, { 0 }, true);
+
+        n_cur += 1;
+
+        if (llama_decode(ctx, batch) != 0) break;
+        trace_counter("generated_tokens", i + 1);
+    }
+    trace_decode.reset();
+    if (!generated_tokens.empty()) {
+        st.decode_ms = elapsed_ms(t_first_token);
+    }
+    st.n_generated = (int)generated_tokens.size();
+
+    // Flush any remaining partial bytes (though likely invalid if incomplete)
+    if (on_piece && !pending_output.empty()) {
+        on_piece(pending_output);
+    }
+
+    // Update past tokens with full path (Prompt + Response)
+    past_tokens = tokens_list;
+    past_tokens.insert(past_tokens.end(), generated_tokens.begin(), generated_tokens.end());
+    llama_sampler_free(smpl);
+    llama_batch_free(batch);
+
+    return response;
+}
+
+// ---- Continuous batching ----
+
+struct batch_scheduler::request {
+    std::vector<llama_token> prompt;
+    generation_params params;
+    // stop_epoch at submission; a different value means stop_all ran since
+    unsigned epoch = 0;
+    // The caller's own stop flag; null when only stop_all can end it
+    const std::atomic<bool> * stop = nullptr;
+    clock_type::time_point t_start;
+    clock_type::time_point t_prefill;
+    clock_type::time_point t_first_token;
+    bool first_sampled = false;
+
+    // Loop thread only while running
+    llama_sampler * smpl = nullptr;
+    // Sampled but not yet decoded; goes into the next step
+    bool has_next = false;
+    llama_token next = 0;
+    std::string response;
+    std::string pending_output; // Buffer for partial UTF-8 sequences
+    generation_stats stats;
+
+    // Hand-off to the calling thread
+    std::mutex mutex;
+    std::condition_variable cv;
+    std::deque<std::string> pieces;
+    std::string result;
+    bool done = false;
+
+    bool stopped(unsigned stop_epoch) const {
+        return stop_epoch != epoch || (stop && stop->load());
+    }
+
+    void deliver(const std::string & piece) {
+        std::lock_guard<std::mutex> lock(mutex);
+        pieces.push_back(piece);
+        cv.notify_one();
+    }
+
+    void complete(const std::string & text) {
+        std::lock_guard<std::mutex> lock(mutex);
+        result = text;
+        done = true;
+        cv.notify_one();
+    }
+};
+
+batch_scheduler::batch_scheduler(llama_context * ctx, int n_seqs, std::mutex & decode_mutex, std::atomic<unsigned> & stop_epoch)
+    : ctx_(ctx),
+      vocab_(llama_model_get_vocab(llama_get_model(ctx))),
+      n_ctx_((int) llama_n_ctx(ctx)),
+      n_batch_((int) llama_n_batch(ctx)),
+      n_threads_((int) llama_n_threads(ctx)),
+      current_threads_((int) llama_n_threads(ctx)),
+      decode_mutex_(decode_mutex),
+      stop_epoch_(stop_epoch),
+      sequences_(std::max(1, n_seqs)) {
+    for (size_t i = 0; i < sequences_.size(); i++) sequences_[i].id = (int) i;
+    thread_ = std::thread(&batch_scheduler::loop, this);
+}
+
+batch_scheduler::~batch_scheduler() {
+    {
+        std::lock_guard<std::mutex> lock(mutex_);
+        stopping_ = true;
+    }
+    cv_.notify_all();
+    thread_.join();
+
+    // Callers hold the model while they wait, so normally nothing is left here
+    for (sequence & seq : sequences_) {
+        if (seq.req) finish(seq, "Error: Model unloaded");
+    }
+    for (const std::shared_ptr<request> & req : queue_) {
+        n_active_--;
+        req->complete("Error: Model unloaded");
+    }
+    queue_.clear();
+}
+
+std::string batch_scheduler::generate(const std::string & prompt, const generation_params & params,
+                                      const piece_callback & on_piece, generation_stats * stats,
+                                      const std::atomic<bool> * stop) {
+    auto req = std::make_shared<request>();
+    req->t_start = clock_type::now();
+    req->epoch = stop_epoch_;
+    req->stop = stop;
+    req->params = params;
+    trace_section trace("generate chars=%zu n_predict=%d", prompt.size(), params.n_predict);
+
+    trace_section trace_tokenize("tokenize bytes=%zu", prompt.size());
+    req->prompt = common_tokenize(vocab_, prompt, true, true);
+    trace_tokenize.end();
+    trace_counter("prompt_tokens", (int64_t) req->prompt.size());
+    if (req->prompt.empty()) {
+        return "Error: No tokens generated from prompt";
+    }
+    // Capping at n_ctx - 128 to leave room for generation
+    if (req->prompt.size() > (size_t)(n_ctx_ - 128)) {
+        LOGe("Prompt too long (%zu tokens), capping to %d", req->prompt.size(), n_ctx_ - 128);
+        req->prompt.resize(n_ctx_ - 128);
+    }
+
+    {
+        std::lock_guard<std::mutex> lock(mutex_);
+        if (stopping_) return "Error: Model not loaded";
+        queue_.push_back(req);
+        n_active_++;
+    }
+    cv_.notify_one();
+
+    std::unique_lock<std::mutex> lock(req->mutex);
+    for (;;) {
+        req->cv.wait(lock, [&] { return req->done || !req->pieces.empty(); });
+        std::deque<std::string> pieces;
+        pieces.swap(req->pieces);
+        bool done = req->done;
+        lock.unlock();
+        if (on_piece) {
+            for (const std::string & piece : pieces) on_piece(piece);
+        }
+        if (done) break;
+        lock.lock();
+    }
+    if (stats) *stats = req->stats;
+    return req->result;
+}
+
+void batch_scheduler::stop_all() {
+    stop_epoch_++;
+    cv_.notify_one();
+}
+
+void batch_scheduler::loop() {
+    llama_batch batch = llama_batch_init(n_batch_, 0, 1);
+    for (;;) {
+        {
+            std::unique_lock<std::mutex> lock(mutex_);
+            cv_.wait(lock, [&] { return stopping_ || !queue_.empty() || running_ > 0; });
+            if (stopping_) break;
+            admit_locked();
+        }
+        step(batch);
+    }
+    llama_batch_free(batch);
+}
+
+// The most cells a request can come to hold: its prompt plus every token it may generate
+static size_t cells_needed(const std::vector<llama_token> & prompt, const generation_params & params, int n_ctx) {
+    return std::min((size_t) n_ctx, prompt.size() + (size_t) std::max(0, params.n_predict));
+}
+
+// Queued requests join between steps, in order, each on the free sequence whose cached
+// tokens share the longest prefix with its prompt (the least recently used one on a tie).
+// A request joins only if every running one can still grow to its full length next to it,
+// so nothing is cut short for lack of cells; otherwise it waits for one to finish.
+void batch_scheduler::admit_locked() {
+    llama_memory_t mem = llama_get_memory(ctx_);
+    size_t reserved = 0;
+    for (const sequence & seq : sequences_) {
+        if (seq.req) reserved += cells_needed(seq.req->prompt, seq.req->params, n_ctx_);
+    }
+    // Stopped requests leave the queue at once instead of waiting for a sequence
+    for (auto it = queue_.begin(); it != queue_.end();) {
+        if ((*it)->stopped(stop_epoch_)) {
+            n_active_--;
+            (*it)->complete("");
+            it = queue_.erase(it);
+        } else {
+            ++it;
+        }
+    }
+    while (!queue_.empty()) {
+        const std::vector<llama_token> & prompt = queue_.front()->prompt;
+        size_t needed = cells_needed(prompt, queue_.front()->params, n_ctx_);
+        if (running_ > 0 && reserved + needed > (size_t) n_ctx_) return;
+        sequence * best = nullptr;
+        size_t best_keep = 0;
+        for (sequence & seq : sequences_) {
+            if (seq.req) continue;
+            size_t keep = common_prefix(seq.cells, prompt);
+            if (!best || keep > best_keep || (keep == best_keep && seq.last_used < best->last_used)) {
+                best = &seq;
+                best_keep = keep;
+            }
+        }
+        if (!best) return;
+
+        std::shared_ptr<request> req = queue_.front();
+        queue_.pop_front();
+        // The last prompt token is always decoded again: its logits start the sampling
+        size_t keep = std::min(best_keep, req->prompt.size() - 1);
+        if (keep < best->cells.size()) {
+            llama_memory_seq_rm(mem, best->id, (llama_pos) keep, -1);
+            best->cells.resize(keep);
+        }
+        req->stats.n_prompt = (int) req->prompt.size();
+        req->stats.n_reused = (int) keep;
+        req->smpl = make_sampler(req->params);
+        req->t_prefill = clock_type::now();
+        trace_counter("kv_reused_tokens", (int64_t) keep);
+        best->req = req;
+        running_++;
+        reserved += needed;
+    }
+}
+
+// One decode: the pending token of every decoding sequence first, then prompt tokens of
+// prefilling ones up to n_batch
+void batch_scheduler::step(llama_batch & batch) {
+    common_batch_clear(batch);
+    int threads = 0;
+    for (sequence & seq : sequences_) {
+        seq.added.clear();
+        seq.logits_index = -1;
+        if (!seq.req) continue;
+        request & req = *seq.req;
+        if (req.stopped(stop_epoch_)) {
+            finish(seq, "");
+            continue;
+        }
+        threads = std::max(threads, req.params.n_threads > 0 ? req.params.n_threads : n_threads_);
+        if (req.has_next) {
+            seq.logits_index = batch.n_tokens;
+            common_batch_add(batch, req.next, (llama_pos) seq.cells.size(), { seq.id }, true);
+            seq.added.push_back(req.next);
+        }
+    }
+    for (sequence & seq : sequences_) {
+        if (!seq.req || seq.req->has_next) continue;
+        const std::vector<llama_token> & prompt = seq.req->prompt;
+        for (size_t pos = seq.cells.size(); pos < prompt.size() && batch.n_tokens < n_batch_; pos++) {
+            bool is_last_token = pos == prompt.size() - 1;
+            if (is_last_token) seq.logits_index = batch.n_tokens;
+            common_batch_add(batch, prompt[pos], (llama_pos) pos, { seq.id }, is_last_token);
+            seq.added.push_back(prompt[pos]);
+        }
+    }
+    if (batch.n_tokens == 0 || !make_room(batch.n_tokens)) return;
+
+    if (threads != current_threads_) {
+        llama_set_n_threads(ctx_, threads, threads);
+        current_threads_ = threads;
+    }
+
+    int decoded;
+    {
+        trace_section trace("batch_step seqs=%d tokens=%d", running_, batch.n_tokens);
+        std::lock_guard<std::mutex> lock(decode_mutex_);
+        decoded = llama_decode(ctx_, batch);
+    }
+    steps_++;
+    trace_counter("batch_sequences", running_);
+
+    if (decoded != 0) {
+        LOGe("llama_decode failed in batch step (%d)", decoded);
+        for (sequence & seq : sequences_) {
+            if (seq.added.empty()) continue;
+            // A failed step can leave part of the batch in the cache
+            llama_memory_seq_rm(llama_get_memory(ctx_), seq.id, (llama_pos) seq.cells.size(), -1);
+            if (seq.req) finish(seq, seq.req->has_next ? "" : "Error: Decode failed during prefill");
+        }
+        return;
+    }
+
+    for (sequence & seq : sequences_) {
+        if (seq.added.empty()) continue;
+        seq.cells.insert(seq.cells.end(), seq.added.begin(), seq.added.end());
+        seq.last_used = steps_;
+        seq.req->has_next = false;
+        if (seq.logits_index >= 0) sample(seq);
+    }
+}
+
+// The sequences share n_ctx cells, and idle ones give theirs up, oldest first. Admission
+// leaves room for every running sequence, so ending the one holding the most cells (as a
+// lone generation would at the end of its context) is only a fallback. Returns false when
+// the step must be rebuilt.
+bool batch_scheduler::make_room(int n_needed) {
+    size_t used = 0;
+    for (const sequence & seq : sequences_) used += seq.cells.size();
+
+    while (used + n_needed > (size_t) n_ctx_) {
+        sequence * idle = nullptr;
+        for (sequence & seq : sequences_) {
+            if (!seq.req && !seq.cells.empty() && (!idle || seq.last_used < idle->last_used)) idle = &seq;
+        }
+        if (!idle) break;
+        llama_memory_seq_rm(llama_get_memory(ctx_), idle->id, -1, -1);
+        used -= idle->cells.size();
+        idle->cells.clear();
+    }
+    if (used + n_needed <= (size_t) n_ctx_) return true;
+
+    sequence * longest = nullptr;
+    for (sequence & seq : sequences_) {
+        if (seq.req && (!longest || seq.cells.size() > longest->cells.size())) longest = &seq;
+    }
+    LOGi("KV cache full with %d sequences: ending sequence %d at %zu tokens", running_, longest->id, longest->cells.size());
+    finish(*longest, longest->req->has_next ? "" : "Error: Context full");
+    return false;
+}
+
+void batch_scheduler::sample(sequence & seq) {
+    request & req = *seq.req;
+    if (req.params.n_predict <= 0) {
+        // Prefill only, e.g. warming a shared system prompt
+        req.stats.prefill_ms = elapsed_ms(req.t_prefill);
+        finish(seq, "");
+        return;
+    }
+
+    llama_token token = llama_sampler_sample(req.smpl, ctx_, seq.logits_index);
+    if (!req.first_sampled) {
+        req.first_sampled = true;
+        req.t_first_token = clock_type::now();
+        req.stats.prefill_ms = std::chrono::duration<double, std::milli>(req.t_first_token - req.t_prefill).count();
+        req.stats.ttft_ms = std::chrono::duration<double, std::milli>(req.t_first_token - req.t_start).count();
+        trace_counter("ttft_ms", (int64_t) req.stats.ttft_ms);
+    }
+    if (!req.params.ignore_eog && llama_vocab_is_eog(vocab_, token)) {
+        finish(seq, "");
+        return;
+    }
+
+    std::string piece = common_token_to_piece(ctx_, token);
+    req.response += piece;
+    req.stats.n_generated++;
+    // Accumulate pieces and only hand out complete UTF-8
+    req.pending_output += piece;
+    if (is_complete_utf8(req.pending_output)) {
+        req.deliver(req.pending_output);
+        req.pending_output.clear();
+    }
+
+    if (req.stats.n_generated >= req.params.n_predict || seq.cells.size() + 1 >= (size_t) n_ctx_) {
+        finish(seq, "");
+        return;
+    }
+    req.next = token;
+    req.has_next = true;
+}
+
+// Hands the result over and frees the sequence; its cells stay cached for the next request
+void batch_scheduler::finish(sequence & seq, const std::string & error) {
+    std::shared_ptr<request> req = seq.req;
+    // Flush any remaining partial bytes (though likely invalid if incomplete)
+    if (!req->pending_output.empty()) {
+        req->deliver(req->pending_output);
+        req->pending_output.clear();
+    }
+    if (req->first_sampled) req->stats.decode_ms = elapsed_ms(req->t_first_token);
+    if (req->smpl) {
+        llama_sampler_free(req->smpl);
+        req->smpl = nullptr;
+    }
+    {
+        std::lock_guard<std::mutex> lock(mutex_);
+        seq.req.reset();
+    }
+    running_--;
+    n_active_--;
+    req->complete(error.empty() ? req->response : error);
+}
+
+// ---- Benchmark ----
+
+static long read_peak_rss_kb() {
+    std::ifstream status("/proc/self/status");
+    std::string line;
+    while (std::getline(status, line)) {
+        if (line.compare(0, 6, "VmHWM:") == 0) {
+            return std::strtol(line.c_str() + 6, nullptr, 10);
+        }
+    }
+    return -1;
+}
+
+// Writing 5 to clear_refs resets VmHWM (Linux 4.0+), so each configuration reports its own
+// peak rather than the largest one so far
+static bool reset_peak_rss() {
+    FILE * f = std::fopen("/proc/self/clear_refs", "w");
+    if (!f) return false;
+    bool ok = std::fputs("5", f) >= 0;
+    return std::fclose(f) == 0 && ok;
+}
+
+// Plain prose, repeated and cut to the requested token count
+static std::string build_prompt(const llama_vocab * vocab, int n_prompt) {
+    static const char * filler =
+        "The quick brown fox jumps over the lazy dog while the morning light settles on the hills. "
+        "A short note about groceries, a meeting moved to Thursday, and a reminder to call the dentist. ";
+    std::string text;
+    std::vector<llama_token> tokens;
+    while ((int)tokens.size() < n_prompt) {
+        text += filler;
+        tokens = common_tokenize(vocab, text, false, false);
+    }
+    tokens.resize(n_prompt);
+    return common_detokenize(vocab, tokens, false);
+}
+
+// n_parallel copies of the prompt at once through a fresh batch_scheduler. Per-stream stats,
+// except that prefill, TTFT and decode time are the longest of any stream, so stream count
+// times tokens over them is the aggregate rate.
+static std::string generate_parallel(llama_context * ctx, const std::string & prompt, const generation_params & params,
+                                     int n_parallel, generation_stats * out) {
+    std::mutex decode_mutex;
+    std::atomic<unsigned> stop_epoch(0);
+    batch_scheduler scheduler(ctx, n_parallel, decode_mutex, stop_epoch);
+    std::vector<generation_stats> stats(n_parallel);
+    std::vector<std::string> responses(n_parallel);
+    std::vector<std::thread> streams;
+    for (int i = 0; i < n_parallel; i++) {
+        streams.emplace_back([&, i] { responses[i] = scheduler.generate(prompt, params, nullptr, &stats[i]); });
+    }
+    for (std::thread & stream : streams) stream.join();
+
+    *out = stats[0];
+    for (int i = 0; i < n_parallel; i++) {
+        if (responses[i].compare(0, 6, "Error:") == 0) return responses[i];
+        out->prefill_ms = std::max(out->prefill_ms, stats[i].prefill_ms);
+        out->ttft_ms = std::max(out->ttft_ms, stats[i].ttft_ms);
+        out->decode_ms = std::max(out->decode_ms, stats[i].decode_ms);
+    }
+    return responses[0];
+}
+
+bench_result inference_benchmark(llama_model * model, const bench_config & config, int n_prompt, int n_gen, int reps) {
+    bench_result result;
+    result.config = config;
+
+    if (n_prompt < 1 || n_gen < 1 || reps < 1) {
+        result.error = "pp, tg and reps must be positive";
+        return result;
+    }
+    if (config.n_parallel < 1) {
+        result.error = "parallel must be positive";
+        return result;
+    }
+    // inference_generate caps prompts at n_ctx - 128 and shifts the context near the end;
+    // parallel streams share the cells
+    if ((n_prompt + n_gen) * config.n_parallel > config.n_ctx - 128) {
+        result.error = "(pp + tg) * parallel must fit in n_ctx - 128";
+        return result;
+    }
+
+    bool rss_reset = reset_peak_rss();
+
+    llama_context_params ctx_params = llama_context_default_params();
+    ctx_params.n_ctx = config.n_ctx;
+    ctx_params.n_batch = config.n_batch;
+    ctx_params.n_ubatch = config.n_batch;
+    ctx_params.n_threads = config.n_threads;
+    ctx_params.n_threads_batch = config.n_threads;
+    ctx_params.type_k = config.type_kv;
+    ctx_params.type_v = config.type_kv;
+    ctx_params.n_seq_max = config.n_parallel;
+    ctx_params.kv_unified = true;
+
+    llama_context * ctx = llama_init_from_model(model, ctx_params);
+    if (!ctx) {
+        // A quantized V cache also needs flash attention support in the build
+        result.error = "llama_init_from_model failed";
+        return result;
+    }
+
+    std::string prompt = build_prompt(llama_model_get_vocab(model), n_prompt);
+    generation_params params;
+    params.n_predict = n_gen;
+    params.ignore_eog = true;
+    std::atomic<bool> stop(false);
+
+    double prefill_tps = 0, decode_tps = 0, ttft_ms = 0;
+    for (int rep = 0; rep < reps; rep++) {
+        // Cold prompt every rep: nothing reused from the previous one
+        std::vector<llama_token> past_tokens;
+        llama_memory_clear(llama_get_memory(ctx), true);
+
+        generation_stats stats;
+        std::string response = config.n_parallel == 1
+            ? inference_generate(ctx, past_tokens, prompt, params, stop, nullptr, &stats)
+            : generate_parallel(ctx, prompt, params, config.n_parallel, &stats);
+        if (response.compare(0, 6, "Error:") == 0) {
+            result.error = response;
+            break;
+        }
+
+        result.reps++;
+        result.n_prompt = stats.n_prompt;
+        result.n_generated = stats.n_generated;
+        int streams = config.n_parallel;
+        prefill_tps += stats.prefill_ms > 0 ? streams * stats.n_prompt * 1000.0 / stats.prefill_ms : 0;
+        // The first sampled token comes out of the prefill; the rest are decode steps
+        decode_tps += stats.decode_ms > 0 ? streams * (stats.n_generated - 1) * 1000.0 / stats.decode_ms : 0;
+        ttft_ms += stats.ttft_ms;
+    }
+
+    if (result.reps > 0) {
+        result.prefill_tps = prefill_tps / result.reps;
+        result.decode_tps = decode_tps / result.reps;
+        result.ttft_ms = ttft_ms / result.reps;
+    }
+    if (rss_reset) result.peak_rss_kb = read_peak_rss_kb();
+
+    llama_free(ctx);
+    return result;
+}
+
+bool kv_type_from_name(const std::string & name, ggml_type * out) {
+    if (name == "f16") *out = GGML_TYPE_F16;
+    else if (name == "q8_0") *out = GGML_TYPE_Q8_0;
+    else if (name == "q4_0") *out = GGML_TYPE_Q4_0;
+    else return false;
+    return true;
+}
+
+const char * kv_type_name(ggml_type type) {
+    switch (type) {
+        case GGML_TYPE_F16:  return "f16";
+        case GGML_TYPE_Q8_0: return "q8_0";
+        case GGML_TYPE_Q4_0: return "q4_0";
+        default:             return ggml_type_name(type);
+    }
+}
+
+std::string bench_result_json(const bench_result & r) {
+    std::ostringstream out;
+    out << "{\"threads\":" << r.config.n_threads
+        << ",\"nBatch\":" << r.config.n_batch
+        << ",\"nCtx\":" << r.config.n_ctx
+        << ",\"kvType\":\"" << kv_type_name(r.config.type_kv) << "\""
+        << ",\"parallel\":" << r.config.n_parallel
+        << ",\"reps\":" << r.reps
+        << ",\"pp\":" << r.n_prompt
+        << ",\"tg\":" << r.n_generated
+        << ",\"prefillTokensPerSec\":" << r.prefill_tps
+        << ",\"decodeTokensPerSec\":" << r.decode_tps
+        << ",\"ttftMs\":" << r.ttft_ms
+        << ",\"peakRssKb\":" << r.peak_rss_kb;
+    if (!r.error.empty()) {
+        // Errors are fixed ASCII strings from this file
+        out << ",\"error\":\"" << r.error << "\"";
+    }
+    out << "}";
+    return out.str();
+}
@@ -0,0 +1,163 @@
+#pragma once
+
+// The text generation path behind nativeGenerate, without JNI, so the Android library and
+// the host benchmark (bench-main.cpp) run exactly the same code.
+
+#include "llama.h"
+
+#include <atomic>
+#include <condition_variable>
+#include <deque>
+#include <functional>
+#include <memory>
+#include <mutex>
+#include <string>
+#include <thread>
+#include <vector>
+
+struct generation_params {
+    int   n_predict   = 256;
+    float temperature = 0.5f;
+    int   top_k       = 20;
+    float top_p       = 0.85f;
+    float penalty     = 1.2f;
+    // Benchmarks decode exactly n_predict tokens instead of stopping at end-of-generation
+    bool  ignore_eog  = false;
+    // Threads for this generation's decodes; 0 keeps the context's
+    int   n_threads   = 0;
+    // Sampler seed; LLAMA_DEFAULT_SEED draws a random one
+    uint32_t seed     = LLAMA_DEFAULT_SEED;
+};
+
+struct generation_stats {
+    int    n_prompt    = 0; // after capping to the context
+    int    n_reused    = 0; // prompt tokens already in the KV cache
+    int    n_generated = 0;
+    double prefill_ms  = 0; // prompt decode only
+    double ttft_ms     = 0; // call start (including tokenize) to first sampled token
+    double decode_ms   = 0; // first sampled token to the end of the loop
+};
+
+// Called with each piece of output once it ends on a complete UTF-8 character
+using piece_callback = std::function<void(const std::string &)>;
+
+// Tokenize -> KV prefix reuse / context shift -> chunked prefill (llama_n_batch tokens per
+// decode) -> sampler chain -> decode loop. past_tokens mirrors what the context's KV cache
+// holds for sequence 0 and is updated. Returns the response, or a string starting with
+// "Error:".
+std::string inference_generate(llama_context * ctx, std::vector<llama_token> & past_tokens,
+                               const std::string & prompt, const generation_params & params,
+                               const std::atomic<bool> & stop, const piece_callback & on_piece,
+                               generation_stats * stats);
+
+// Continuous batching over one context. Every running generation has its own sequence id,
+// and each step is one llama_decode holding the next token of every decoding sequence plus
+// as many prompt tokens of newly joined ones as n_batch leaves room for, so a request
+// starts without waiting for the others to finish. On CPU a step of 2-4 sequences costs
+// little more than one, since decoding is bound by reading the weights.
+//
+// A finished sequence keeps its tokens in the KV cache until the space is needed, and a new
+// request takes the free sequence sharing the longest prefix with its prompt, so a warmed
+// system prompt or the previous chat turn is not prefilled again.
+class batch_scheduler {
+public:
+    // ctx needs n_seq_max >= n_seqs and a unified KV cache; only the scheduler's own thread
+    // decodes on it. decode_mutex is held around each step, so whoever else holds it (the
+    // benchmark) pauses the loop. stop_epoch is stop_all's counter; pass a shared one to let
+    // callers stop generations without touching the scheduler.
+    batch_scheduler(llama_context * ctx, int n_seqs, std::mutex & decode_mutex, std::atomic<unsigned> & stop_epoch);
+    // Ends whatever is still queued or running with an error, then stops the loop
+    ~batch_scheduler();
+
+    batch_scheduler(const batch_scheduler &) = delete;
+    batch_scheduler & operator=(const batch_scheduler &) = delete;
+
+    // Same result as inference_generate; blocks until the generation ends. on_piece is
+    // called on the calling thread, never on the scheduler's. Setting stop (optional) ends
+    // this generation only, queued or running; it has to outlive the call.
+    std::string generate(const std::string & prompt, const generation_params & params,
+                         const piece_callback & on_piece, generation_stats * stats,
+                         const std::atomic<bool> * stop = nullptr);
+
+    // Ends the generations submitted before the call; later ones are not affected
+    void stop_all();
+
+    // Generations queued or running
+    int active() const { return n_active_; }
+
+private:
+    struct request;
+    struct sequence {
+        int id = 0;
+        // Mirrors what the KV cache holds for this sequence
+        std::vector<llama_token> cells;
+        std::shared_ptr<request> req;
+        // Step of the last use, for evicting idle sequences oldest first
+        long last_used = 0;
+        // Set while building a step
+        std::vector<llama_token> added;
+        int logits_index = -1;
+    };
+
+    void loop();
+    void admit_locked();
+    void step(llama_batch & batch);
+    bool make_room(int n_needed);
+    void sample(sequence & seq);
+    void finish(sequence & seq, const std::string & error);
+
+    llama_context * ctx_;
+    const llama_vocab * vocab_;
+    int n_ctx_;
+    int n_batch_;
+    // The context's own thread count, and the one its decodes currently use
+    int n_threads_;
+    int current_threads_;
+    // Loop thread only
+    long steps_ = 0;
+    int running_ = 0;
+    std::mutex & decode_mutex_;
+    std::atomic<unsigned> & stop_epoch_;
+    std::vector<sequence> sequences_;
+
+    // Guards queue_, stopping_ and sequences_[i].req
+    std::mutex mutex_;
+    std::condition_variable cv_;
+    std::deque<std::shared_ptr<request>> queue_;
+    bool stopping_ = false;
+    std::atomic<int> n_active_{0};
+    std::thread thread_;
+};
+
+struct bench_config {
+    int       n_threads  = 4;
+    int       n_batch    = 256;
+    int       n_ctx      = 1280;
+    ggml_type type_kv    = GGML_TYPE_F16;
+    // Concurrent generations through batch_scheduler; 1 runs inference_generate
+    int       n_parallel = 1;
+};
+
+struct bench_result {
+    bench_config config;
+    int    reps        = 0;
+    int    n_prompt    = 0;
+    int    n_generated = 0;
+    // Means over reps; with n_parallel > 1 the rates add up all streams
+    double prefill_tps = 0;
+    double decode_tps  = 0;
+    double ttft_ms     = 0;
+    // Process high-water mark while this configuration ran, when the kernel lets us reset it
+    long   peak_rss_kb = -1;
+    std::string error;
+};
+
+// Runs inference_generate reps times on a fresh context built from config, with a prompt
+// of about n_prompt tokens and n_gen decoded tokens. The model is only read.
+bench_result inference_benchmark(llama_model * model, const bench_config & config, int n_prompt, int n_gen, int reps);
+
+// "f16", "q8_0", "q4_0"
+bool kv_type_from_name(const std::string & name, ggml_type * out);
+const char * kv_type_name(ggml_type type);
+
+std::string bench_result_json(const bench_result & result);
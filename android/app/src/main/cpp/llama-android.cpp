@@ -1,5 +1,6 @@
 #include <android/log.h>
 #include <jni.h>
+#include <algorithm>
 #include <iomanip>
 #include <math.h>
 #include <string>
@@ -12,7 +13,9 @@ const char * LLAMA_COMMIT = "unknown";
 const char * LLAMA_COMPILER = "clang";
 const char * LLAMA_BUILD_TARGET = "android";
 
-#include "common.h" 
+#include "common.h"
+#include "inference.h"
+#include "native_trace.h"
 
 // Write C++ code here.
 //
@@ -90,36 +93,83 @@ static void log_callback(ggml_log_level level, const char * fmt, void * data) {
 #include <sstream>
 #include <atomic>
 #include <mutex>
+#include <shared_mutex>
+
+// One loaded model and its context. Locks are per slot, so an embedding never waits for a
+// generation: model_mutex is held shared by everything that uses the model (tokenizer calls
+// need nothing more) and exclusively only to load or free it; context_mutex serializes
+// decoding on the context and is always taken after model_mutex. No call holds the locks of
+// both slots at once.
+struct model_slot {
+    std::shared_mutex model_mutex;
+    std::mutex context_mutex;
+    llama_model * model = nullptr;
+    llama_context * context = nullptr;
+    // The file the model was loaded from, as passed to nativeLoadModel
+    std::string path;
+    int n_threads = 4;
+    // Generative slot only: decodes every generation on the context, one step at a time
+    // under context_mutex
+    std::unique_ptr<batch_scheduler> scheduler;
+};
+
+static model_slot g_gen;
+static model_slot g_embed;
+// Bumped by stop and unload; ends the generations submitted before
+static std::atomic<unsigned> g_stop_epoch(0);
+static std::atomic<int> g_generating(0);
+static std::once_flag g_backend_once;
+
+// Generations decoded together; on CPU a batched step of 2-4 costs little more than one
+static const int GEN_SEQUENCES = 4;
+
+// Embedding threads while a generation runs, so the two do not fight over the big cores
+static const int EMBED_THREADS_WHILE_GENERATING = 2;
+
+// Same rule as InferenceEngine.isEmbeddingModelPath
+static bool is_embedding_path(const std::string & path) {
+    return path.find("bge-") != std::string::npos || path.find("embedding") != std::string::npos;
+}
 
-// Global state
-static llama_model * g_model = nullptr;
-static llama_context * g_context = nullptr;
-static llama_model * g_embed_model = nullptr;
-static llama_context * g_embed_context = nullptr;
-static std::atomic<bool> g_stop_generation(false);
-static std::vector<llama_token> g_past_tokens;
-static std::mutex g_mutex;
+// Frees the slot's context and model; the caller holds model_mutex exclusively
+static void free_slot(model_slot & slot) {
+    slot.scheduler.reset();
+    if (slot.context) llama_free(slot.context);
+    if (slot.model) llama_model_free(slot.model);
+    slot.context = nullptr;
+    slot.model = nullptr;
+    slot.path.clear();
+}
 
 extern "C"
 JNIEXPORT jfloatArray JNICALL
-Java_com_trunotes_v2_plugins_AIBridge_nativeEmbed(JNIEnv *env, jobject thiz, jstring jtext) {
+Java_com_trunotes_v2_ai_LlamaEngine_nativeEmbed(JNIEnv *env, jobject thiz, jstring jtext) {
     const char * text = env->GetStringUTFChars(jtext, 0);
     std::string text_str(text);
     env->ReleaseStringUTFChars(jtext, text);
 
-    std::lock_guard<std::mutex> lock(g_mutex);
+    trace_section trace("embed bytes=%zu", text_str.size());
+    trace_section trace_wait("wait_embed_lock");
+    std::shared_lock<std::shared_mutex> model_lock(g_embed.model_mutex);
+    std::lock_guard<std::mutex> context_lock(g_embed.context_mutex);
+    trace_wait.end();
 
-    if (!g_embed_model || !g_embed_context) {
+    if (!g_embed.model || !g_embed.context) {
         LOGe("Embed model not loaded. Please load bge-small-en first.");
         return nullptr;
     }
 
+    int n_threads = g_generating > 0 ? std::min(g_embed.n_threads, EMBED_THREADS_WHILE_GENERATING) : g_embed.n_threads;
+    llama_set_n_threads(g_embed.context, n_threads, n_threads);
+
     // 1. Tokenize
-    std::vector<llama_token> tokens = common_tokenize(g_embed_context, text_str, true, true);
+    trace_section trace_tokenize("embed_tokenize");
+    std::vector<llama_token> tokens = common_tokenize(g_embed.context, text_str, true, true);
+    trace_tokenize.end();
     if (tokens.empty()) return nullptr;
 
     // 2. Clear KV cache for fresh embedding if needed (usually embeddings don't need context history)
-    llama_memory_clear(llama_get_memory(g_embed_context), true);
+    llama_memory_clear(llama_get_memory(g_embed.context), true);
 
     // 3. Decode
     llama_batch batch = llama_batch_init(tokens.size(), 0, 1);
@@ -127,7 +177,10 @@ Java_com_trunotes_v2_plugins_AIBridge_nativeEmbed(JNIEnv *env, jobject thiz, jst
         common_batch_add(batch, tokens[i], (int)i, { 0 }, i == tokens.size() - 1);
     }
 
-    if (llama_decode(g_embed_context, batch) != 0) {
+    trace_section trace_decode("embed_decode tokens=%zu", tokens.size());
+    int decoded = llama_decode(g_embed.context, batch);
+    trace_decode.end();
+    if (decoded != 0) {
         LOGe("llama_decode failed in nativeEmbed");
         llama_batch_free(batch);
         return nullptr;
@@ -135,10 +188,10 @@ Java_com_trunotes_v2_plugins_AIBridge_nativeEmbed(JNIEnv *env, jobject thiz, jst
 
     // 4. Retrieve embeddings
     // bge-small-en uses pooling (usually MEAN or CLS). llama.cpp handles this if pooling_type is set.
-    float * emb = llama_get_embeddings(g_embed_context);
+    float * emb = llama_get_embeddings(g_embed.context);
     if (!emb) {
         // Fallback or specific seq embedding
-        emb = llama_get_embeddings_seq(g_embed_context, 0);
+        emb = llama_get_embeddings_seq(g_embed.context, 0);
     }
 
     if (!emb) {
@@ -147,7 +200,7 @@ Java_com_trunotes_v2_plugins_AIBridge_nativeEmbed(JNIEnv *env, jobject thiz, jst
         return nullptr;
     }
 
-    int n_embd = llama_model_n_embd(g_embed_model);
+    int n_embd = llama_model_n_embd(g_embed.model);
     jfloatArray result = env->NewFloatArray(n_embd);
     env->SetFloatArrayRegion(result, 0, n_embd, emb);
 
@@ -155,40 +208,28 @@ Java_com_trunotes_v2_plugins_AIBridge_nativeEmbed(JNIEnv *env, jobject thiz, jst
     return result;
 }
 
-extern "C"
-JNIEXPORT jboolean JNICALL
-Java_com_trunotes_v2_plugins_AIBridge_nativeLoadModel(JNIEnv *env, jobject, jstring filename, jboolean use_mmap, jint n_threads, jint n_gpu_layers, jint n_ctx_size) {
-    std::lock_guard<std::mutex> lock(g_mutex);
-    g_stop_generation = true; // Signal current to stop if any
-
+// Implementations behind the LlamaEngine entry points at the end of the file.
+static jboolean load_model_impl(JNIEnv *env, jstring filename, jboolean use_mmap, jint n_threads, jint n_gpu_layers, jint n_ctx_size) {
     auto path_to_model = env->GetStringUTFChars(filename, 0);
     std::string path_str(path_to_model);
-    bool is_embedding_model = (path_str.find("bge-") != std::string::npos || path_str.find("embedding") != std::string::npos);
+    bool is_embedding_model = is_embedding_path(path_str);
+    model_slot & slot = is_embedding_model ? g_embed : g_gen;
+
+    // Replacing the chat model ends running generations; the embedding slot has nothing to stop
+    if (!is_embedding_model) g_stop_epoch++;
+    trace_section trace_wait("wait_slot_lock");
+    std::unique_lock<std::shared_mutex> lock(slot.model_mutex);
+    trace_wait.end();
 
     // Cleanup previous if exists for the correct slot
-    if (is_embedding_model) {
-        if (g_embed_context) llama_free(g_embed_context);
-        if (g_embed_model) llama_model_free(g_embed_model);
-        g_embed_context = nullptr;
-        g_embed_model = nullptr;
-        LOGi("Loading Embedding model: %s", path_to_model);
-    } else {
-        if (g_context) llama_free(g_context);
-        if (g_model) llama_model_free(g_model);
-        g_context = nullptr;
-        g_model = nullptr;
-        g_past_tokens.clear();
-        LOGi("Loading Generative model: %s", path_to_model);
-    }
+    free_slot(slot);
+    LOGi("Loading %s model: %s", is_embedding_model ? "Embedding" : "Generative", path_to_model);
 
-    // Initialize backend once
-    static bool is_backend_initialized = false;
-    if (!is_backend_initialized) {
+    std::call_once(g_backend_once, [] {
         LOGi("Initializing llama backend...");
         llama_backend_init();
-        is_backend_initialized = true;
         LOGi("llama backend initialized");
-    }
+    });
 
     llama_model_params model_params = llama_model_default_params();
     model_params.use_mmap = use_mmap;
@@ -197,7 +238,9 @@ Java_com_trunotes_v2_plugins_AIBridge_nativeLoadModel(JNIEnv *env, jobject, jstr
     
     LOGi("Loading model with %d threads and %d GPU layers", n_threads, n_gpu_layers);
 
+    trace_section trace_load("model_load mmap=%d gpu_layers=%d", (int) use_mmap, (int) n_gpu_layers);
     llama_model * loaded_model = llama_model_load_from_file(path_to_model, model_params);
+    trace_load.end();
     env->ReleaseStringUTFChars(filename, path_to_model);
 
     if (!loaded_model) {
@@ -205,8 +248,7 @@ Java_com_trunotes_v2_plugins_AIBridge_nativeLoadModel(JNIEnv *env, jobject, jstr
         return JNI_FALSE;
     }
 
-    if (is_embedding_model) g_embed_model = loaded_model;
-    else g_model = loaded_model;
+    trace_counter("model_bytes", (int64_t) llama_model_size(loaded_model));
 
     // Initialize context
     llama_context_params ctx_params = llama_context_default_params();
@@ -216,6 +258,9 @@ Java_com_trunotes_v2_plugins_AIBridge_nativeLoadModel(JNIEnv *env, jobject, jstr
         ctx_params.pooling_type = LLAMA_POOLING_TYPE_MEAN;
     } else {
         ctx_params.n_ctx = (n_ctx_size > 256) ? n_ctx_size : 1280;
+        // Sequences share the cells, so a lone chat still gets the whole context
+        ctx_params.n_seq_max = GEN_SEQUENCES;
+        ctx_params.kv_unified = true;
     }
     ctx_params.n_threads = n_threads;
     ctx_params.n_threads_batch = n_threads;
@@ -224,271 +269,358 @@ Java_com_trunotes_v2_plugins_AIBridge_nativeLoadModel(JNIEnv *env, jobject, jstr
     // KV cache stays at default (F16) on all paths — fastest for ARM NEON attention
     // GPU layer offloading is handled via model_params.n_gpu_layers above
 
+    trace_section trace_init("context_init n_ctx=%u threads=%d", ctx_params.n_ctx, (int) n_threads);
     llama_context * loaded_ctx = llama_init_from_model(loaded_model, ctx_params);
+    trace_init.end();
     if (!loaded_ctx) {
         LOGe("llama_init_from_model() failed");
         llama_model_free(loaded_model);
-        if (is_embedding_model) g_embed_model = nullptr;
-        else g_model = nullptr;
         return JNI_FALSE;
     }
 
-    if (is_embedding_model) g_embed_context = loaded_ctx;
-    else g_context = loaded_ctx;
-
+    slot.model = loaded_model;
+    slot.context = loaded_ctx;
+    slot.path = path_str;
+    slot.n_threads = n_threads;
+    if (!is_embedding_model) {
+        slot.scheduler.reset(new batch_scheduler(loaded_ctx, GEN_SEQUENCES, slot.context_mutex, g_stop_epoch));
+    }
     return JNI_TRUE;
 }
 
-// Text generation
-extern "C"
-// Helper to check if a string ends with a complete UTF-8 character
-bool is_complete_utf8(const std::string& str) {
-    if (str.empty()) return true;
-    unsigned char last = (unsigned char)str.back();
-    if ((last & 0x80) == 0) return true; // ASCII is always complete
-
-    size_t len = str.length();
-    for (int i = 0; i < 4 && i < len; i++) {
-        unsigned char c = (unsigned char)str[len - 1 - i];
-        if ((c & 0xC0) == 0x80) continue; // Continuation byte
-        if ((c & 0xE0) == 0xC0) return (i == 1); // 2-byte char
-        if ((c & 0xF0) == 0xE0) return (i == 2); // 3-byte char
-        if ((c & 0xF8) == 0xF0) return (i == 3); // 4-byte char
-        return true; // Catch-all for other headers (shouldn't happen in valid stream)
-    }
-    return false;
-}
+// Text generation; concurrent calls are decoded together by the slot's batch_scheduler
+// (shared with the host benchmark), and each call's pieces come back on its own thread.
+// stop_flag is a nativeNewStopFlag handle ending just this call, or 0.
+static jstring generate_impl(JNIEnv *env, jobject thiz, jstring prompt, jint nPredict, jfloat temperature, jint topK, jfloat topP, jfloat penalty, jint n_threads, jint seed, jlong stop_flag) {
+    trace_section trace_wait("wait_model_lock");
+    std::shared_lock<std::shared_mutex> model_lock(g_gen.model_mutex);
+    trace_wait.end();
 
-extern "C"
-JNIEXPORT jstring JNICALL
-Java_com_trunotes_v2_plugins_AIBridge_nativeGenerate(JNIEnv *env, jobject thiz, jstring prompt, jint nPredict, jfloat temperature, jint topK, jfloat topP, jfloat penalty, jint n_threads) {
-    std::lock_guard<std::mutex> lock(g_mutex);
-    g_stop_generation = false; // Reset stop flag for new generation
-
-    if (!g_model || !g_context) {
+    if (!g_gen.model || !g_gen.scheduler) {
         return env->NewStringUTF("Error: Model not loaded");
     }
 
-    // Apply thread count for this generation (can differ from model load time)
-    llama_set_n_threads(g_context, n_threads, n_threads);
-
     // Get callback method ID
     jclass cls = env->GetObjectClass(thiz);
     jmethodID mid_callback = env->GetMethodID(cls, "onNativeToken", "(Ljava/lang/String;)V");
+    if (!mid_callback) env->ExceptionClear(); // Without a token callback the caller just gets the full string
 
     const char * text = env->GetStringUTFChars(prompt, 0);
     std::string prompt_str(text);
     env->ReleaseStringUTFChars(prompt, text);
 
-    std::string response = "";
-    std::string pending_output = ""; // Buffer for partial UTF-8 sequences
+    generation_params params;
+    params.n_predict = nPredict;
+    params.temperature = temperature;
+    params.top_k = topK;
+    params.top_p = topP;
+    params.penalty = penalty;
+    // Thread count for this generation (can differ from model load time)
+    params.n_threads = n_threads;
+    // -1 (GenerationParams.RANDOM_SEED) is LLAMA_DEFAULT_SEED
+    params.seed = (uint32_t) seed;
+
+    piece_callback on_piece;
+    if (mid_callback) {
+        on_piece = [env, thiz, mid_callback](const std::string & piece) {
+            jstring jpiece = env->NewStringUTF(piece.c_str());
+            env->CallVoidMethod(thiz, mid_callback, jpiece);
+            env->DeleteLocalRef(jpiece);
+        };
+    }
 
-    // 1. Tokenize the new prompt
-    std::vector<llama_token> tokens_list = common_tokenize(g_context, prompt_str, true, true);
+    generation_stats stats;
+    g_generating++;
+    std::string response = g_gen.scheduler->generate(prompt_str, params, on_piece, &stats,
+                                                      reinterpret_cast<const std::atomic<bool> *>(stop_flag));
+    g_generating--;
+    LOGi("Generated %d tokens: prompt %d (%d reused), prefill %.0f ms, TTFT %.0f ms, decode %.0f ms",
+         stats.n_generated, stats.n_prompt, stats.n_reused, stats.prefill_ms, stats.ttft_ms, stats.decode_ms);
+    return env->NewStringUTF(response.c_str());
+}
 
-    if (tokens_list.empty()) {
-        return env->NewStringUTF("Error: No tokens generated from prompt");
-    }
+extern "C"
+JNIEXPORT void JNICALL
+Java_com_trunotes_v2_ai_LlamaEngine_nativeStopGenerate(JNIEnv *env, jobject) {
+    g_stop_epoch++;
+}
+
+// Per-call stop flags: LlamaEngine owns each one from nativeNewStopFlag to
+// nativeFreeStopFlag and frees it only after the generation using it has returned.
+extern "C"
+JNIEXPORT jlong JNICALL
+Java_com_trunotes_v2_ai_LlamaEngine_nativeNewStopFlag(JNIEnv *env, jobject) {
+    return reinterpret_cast<jlong>(new std::atomic<bool>(false));
+}
 
-    // 2. Incremental KV Cache Management & Context Shifting
-    // Find common prefix length with previously stored tokens
-    size_t n_keep = 0;
-    while (n_keep < g_past_tokens.size() && n_keep < tokens_list.size() && g_past_tokens[n_keep] == tokens_list[n_keep]) {
-        n_keep++;
+extern "C"
+JNIEXPORT void JNICALL
+Java_com_trunotes_v2_ai_LlamaEngine_nativeSetStopFlag(JNIEnv *env, jobject, jlong flag) {
+    reinterpret_cast<std::atomic<bool> *>(flag)->store(true);
+}
+
+extern "C"
+JNIEXPORT void JNICALL
+Java_com_trunotes_v2_ai_LlamaEngine_nativeFreeStopFlag(JNIEnv *env, jobject, jlong flag) {
+    delete reinterpret_cast<std::atomic<bool> *>(flag);
+}
+
+// Stops running generations, then frees one slot at a time: each exclusive lock waits only
+// for the calls using that slot.
+static void unload_model_impl() {
+    LOGi("nativeUnloadModel initiated...");
+    g_stop_epoch++;
+
+    {
+        std::unique_lock<std::shared_mutex> lock(g_gen.model_mutex);
+        free_slot(g_gen);
     }
+    {
+        std::unique_lock<std::shared_mutex> lock(g_embed.model_mutex);
+        free_slot(g_embed);
+    }
+    LOGi("All models and contexts successfully unloaded");
+}
 
-    // Context Shifting (PocketPal Optimization)
-    // If context is nearly full, remove the oldest non-system tokens
-    int n_ctx = llama_n_ctx(g_context);
-    int n_past = g_past_tokens.size();
-    int n_new = (int)tokens_list.size() - (int)n_keep;
-
-    if (n_past + n_new > n_ctx - 64) { // 64 buffer for safety
-        int n_discard = (n_past - n_keep) / 2; // Discard half of the history tokens
-        if (n_discard < 128) n_discard = 128; // Minimum discard size
-        
-        LOGi("KV Cache FULL: Shifting context. Discarding %d tokens after index %zu", n_discard, n_keep);
-        
-        // Remove from KV cache
-        llama_memory_seq_rm(llama_get_memory(g_context), 0, n_keep, n_keep + n_discard);
-        // Shift remaining tokens back
-        llama_memory_seq_add(llama_get_memory(g_context), 0, n_keep + n_discard, -1, -n_discard);
-        
-        // Update global token history to match shifted cache
-        if (n_keep + n_discard < g_past_tokens.size()) {
-            g_past_tokens.erase(g_past_tokens.begin() + n_keep, g_past_tokens.begin() + n_keep + n_discard);
-        }
-        
-        // Re-align n_keep for evaluation
-        n_keep = 0;
-        while (n_keep < g_past_tokens.size() && n_keep < tokens_list.size() && g_past_tokens[n_keep] == tokens_list[n_keep]) {
-            n_keep++;
-        }
+// Frees the slot the path belongs to if it still holds the model loaded from that path, so a
+// caller never frees a model someone else loaded in its place.
+static jboolean unload_path_impl(JNIEnv *env, jstring path) {
+    const char * text = env->GetStringUTFChars(path, 0);
+    std::string path_str(text);
+    env->ReleaseStringUTFChars(path, text);
+    bool is_embedding_model = is_embedding_path(path_str);
+    model_slot & slot = is_embedding_model ? g_embed : g_gen;
+
+    {
+        std::shared_lock<std::shared_mutex> lock(slot.model_mutex);
+        if (!slot.model || slot.path != path_str) return JNI_FALSE;
     }
+    if (!is_embedding_model) g_stop_epoch++;
+    std::unique_lock<std::shared_mutex> lock(slot.model_mutex);
+    // Replaced while the generations stopped
+    if (!slot.model || slot.path != path_str) return JNI_FALSE;
+    free_slot(slot);
+    LOGi("Unloaded %s", path_str.c_str());
+    return JNI_TRUE;
+}
+
+// Token counts for a batch of strings using the generative model's vocab.
+// Returns null when no generative model is loaded.
+static jintArray count_tokens_impl(JNIEnv *env, jobjectArray texts) {
+    // The vocab is read-only: tokenizing runs alongside a generation
+    std::shared_lock<std::shared_mutex> lock(g_gen.model_mutex);
 
-    // Remove tokens from cache that are no longer part of the current prompt path
-    if (n_keep < g_past_tokens.size()) {
-        LOGi("KV Cache: Removing %zu tokens from index %zu", g_past_tokens.size() - n_keep, n_keep);
-        llama_memory_seq_rm(llama_get_memory(g_context), 0, n_keep, -1);
+    if (!g_gen.model) {
+        return nullptr;
     }
-    
-    g_past_tokens.resize(n_keep);
 
-    // 3. Evaluate the prompt in chunks (Prefill)
-    // Capping at n_ctx - 128 to leave room for generation
-    if (tokens_list.size() > (size_t)(n_ctx - 128)) {
-        LOGe("Prompt too long (%zu tokens), capping to %d", tokens_list.size(), n_ctx - 128);
-        tokens_list.resize(n_ctx - 128);
+    const llama_vocab * vocab = llama_model_get_vocab(g_gen.model);
+    jsize n = env->GetArrayLength(texts);
+    std::vector<jint> counts(n, 0);
+
+    for (jsize i = 0; i < n; i++) {
+        jstring jtext = (jstring) env->GetObjectArrayElement(texts, i);
+        if (!jtext) continue;
+        const char * text = env->GetStringUTFChars(jtext, 0);
+        // parse_special matches nativeGenerate so chat-template markers count as one token
+        counts[i] = (jint) common_tokenize(vocab, text, false, true).size();
+        env->ReleaseStringUTFChars(jtext, text);
+        env->DeleteLocalRef(jtext);
     }
 
-    {
-        // Match n_batch set at context init (256)
-        int n_eval_batch_size = 256;
-        llama_batch batch = llama_batch_init(n_eval_batch_size, 0, 1);
-        
-        for (size_t i = n_keep; i < tokens_list.size(); i += (size_t)n_eval_batch_size) {
-            int n_eval = (int)std::min((size_t)n_eval_batch_size, tokens_list.size() - i);
-            
-            common_batch_clear(batch); 
-            for (int j = 0; j < n_eval; j++) {
-                bool is_last_token = (i + j == tokens_list.size() - 1);
-                common_batch_add(batch, tokens_list[i + j], (int)(i + j), { 0 }, is_last_token);
-            }
+    jintArray result = env->NewIntArray(n);
+    env->SetIntArrayRegion(result, 0, n, counts.data());
+    return result;
+}
 
-            if (g_stop_generation) {
-                LOGi("Generation stopped during prefill");
-                llama_batch_free(batch);
-                return env->NewStringUTF(""); // Return empty immediately
-            }
+// Token ids for a batch of strings, tokenized exactly like count_tokens_impl.
+// Returns null when no generative model is loaded.
+static jobjectArray tokenize_impl(JNIEnv *env, jobjectArray texts) {
+    // The vocab is read-only: tokenizing runs alongside a generation
+    std::shared_lock<std::shared_mutex> lock(g_gen.model_mutex);
 
-            if (llama_decode(g_context, batch) != 0) {
-                LOGe("llama_decode failed during prefill");
-                llama_batch_free(batch);
-                return env->NewStringUTF("Error: Decode failed during prefill");
-            }
-        }
-        llama_batch_free(batch);
+    if (!g_gen.model) {
+        return nullptr;
     }
 
-    // 4. Sample and Generate loop
-    int n_cur = tokens_list.size();
-    int n_len = nPredict; 
+    const llama_vocab * vocab = llama_model_get_vocab(g_gen.model);
+    jsize n = env->GetArrayLength(texts);
+    jobjectArray result = env->NewObjectArray(n, env->FindClass("[I"), nullptr);
+
+    for (jsize i = 0; i < n; i++) {
+        jstring jtext = (jstring) env->GetObjectArrayElement(texts, i);
+        std::vector<llama_token> tokens;
+        if (jtext) {
+            const char * text = env->GetStringUTFChars(jtext, 0);
+            tokens = common_tokenize(vocab, text, false, true);
+            env->ReleaseStringUTFChars(jtext, text);
+            env->DeleteLocalRef(jtext);
+        }
+        // llama_token is int32_t, the same width as jint
+        jintArray ids = env->NewIntArray((jsize) tokens.size());
+        env->SetIntArrayRegion(ids, 0, (jsize) tokens.size(), reinterpret_cast<const jint *>(tokens.data()));
+        env->SetObjectArrayElement(result, i, ids);
+        env->DeleteLocalRef(ids);
+    }
+    return result;
+}
 
-    llama_sampler_chain_params sparams = llama_sampler_chain_default_params(); 
-    llama_sampler * smpl = llama_sampler_chain_init(sparams);
-    
-    // Add samplers based on user config
-    llama_sampler_chain_add(smpl, llama_sampler_init_top_k(topK));
-    llama_sampler_chain_add(smpl, llama_sampler_init_top_p(topP, 1)); // min_keep = 1
-    llama_sampler_chain_add(smpl, llama_sampler_init_temp(temperature));
-    
-    // REPETITION PENALTY FIX (Prevents "Euphoria"/Looping/Garbage)
-    // We must use the correct signature for llama_sampler_init_penalties
-    // int32_t n_vocab = llama_n_vocab(g_model);
-    // llama_token eos_token = llama_token_eos(g_model); -- might need model context
-    // Safe approach: check if we can get vocab size. 
-    // Using penalty_last_n = 64 (standard/good default).
-    
-    const llama_vocab * vocab_obj = llama_model_get_vocab(g_model);
-    int32_t n_vocab_size = llama_vocab_n_tokens(vocab_obj);
-    
-    // NOTE: If using recent llama.cpp, we need to pass the penalties correctly.
-    // REPETITION PENALTY FIX (Prevents "Euphoria"/Looping/Garbage)
-    // Using the 4-argument signature found in the user's installed header:
-    // int32_t penalty_last_n, float penalty_repeat, float penalty_freq, float penalty_present
-    
-    llama_sampler_chain_add(smpl, llama_sampler_init_penalties(
-        64,                     // penalty_last_n (standard default)
-        penalty,                // penalty_repeat (user value, e.g. 1.1)
-        0.0f,                   // penalty_freq
-        0.0f                    // penalty_present
-    ));
-    
-    // Dist/Greedy
-    llama_sampler_chain_add(smpl, llama_sampler_init_dist(LLAMA_DEFAULT_SEED));
+// The first (or, with keep_tail, the last) max_tokens tokens of text, as text. A cut inside
+// a multi-byte character would leave invalid UTF-8, so the cut moves one token inward until
+// it does not. Returns the input unchanged when it already fits, null without a model.
+static jstring truncate_impl(JNIEnv *env, jstring jtext, jint max_tokens, jboolean keep_tail) {
+    // The vocab is read-only: tokenizing runs alongside a generation
+    std::shared_lock<std::shared_mutex> lock(g_gen.model_mutex);
 
-    const llama_vocab * vocab = vocab_obj; // Reuse
-    
-    // Track what we generate to append to g_past_tokens for next turn
-    std::vector<llama_token> generated_tokens;
-    llama_batch batch = llama_batch_init(1, 0, 1);
+    if (!g_gen.model) {
+        return nullptr;
+    }
 
-    for (int i = 0; i < n_len; i++) {
-        if (g_stop_generation) break;
+    const llama_vocab * vocab = llama_model_get_vocab(g_gen.model);
+    const char * text = env->GetStringUTFChars(jtext, 0);
+    std::vector<llama_token> tokens = common_tokenize(vocab, text, false, true);
+    env->ReleaseStringUTFChars(jtext, text);
 
-        llama_token new_token_id = llama_sampler_sample(smpl, g_context, -1);
+    if ((jint) tokens.size() <= max_tokens) {
+        return jtext;
+    }
 
-        if (llama_vocab_is_eog(vocab, new_token_id)) break;
+    size_t keep = (size_t) std::max(0, (int) max_tokens);
+    std::vector<llama_token> kept = keep_tail
+        ? std::vector<llama_token>(tokens.end() - keep, tokens.end())
+        : std::vector<llama_token>(tokens.begin(), tokens.begin() + keep);
+    std::string out = common_detokenize(vocab, kept, true);
+    while (!kept.empty() && !is_valid_utf8(out.c_str())) {
+        if (keep_tail) {
+            kept.erase(kept.begin());
+        } else {
+            kept.pop_back();
+        }
+        out = common_detokenize(vocab, kept, true);
+    }
+    return env->NewStringUTF(out.c_str());
+}
 
-        std::string piece = common_token_to_piece(g_context, new_token_id);
-        response += piece;
-        generated_tokens.push_back(new_token_id);
-        
-        // BUFFERING FIX: Accumulate piece and only send if complete UTF-8
-        pending_output += piece;
+static jint context_size_impl() {
+    std::shared_lock<std::shared_mutex> lock(g_gen.model_mutex);
+    return g_gen.context ? (jint) llama_n_ctx(g_gen.context) : 0;
+}
 
-        if (mid_callback && !pending_output.empty() && is_complete_utf8(pending_output)) {
-            jstring jpiece = env->NewStringUTF(pending_output.c_str());
-            env->CallVoidMethod(thiz, mid_callback, jpiece);
-            env->DeleteLocalRef(jpiece);
-            pending_output = "";
-        }
+static jstring model_path_impl(JNIEnv *env, jboolean embedding) {
+    model_slot & slot = embedding ? g_embed : g_gen;
+    std::shared_lock<std::shared_mutex> lock(slot.model_mutex);
+    return slot.model ? env->NewStringUTF(slot.path.c_str()) : nullptr;
+}
 
-        common_batch_clear(batch);
-        common_batch_add(batch, new_token_id, n_cur, { 0 }, true);
-        
-        n_cur += 1;
+// One bench_config per index of the arrays; returns a JSON array with one result each.
+// Holds the generative context lock throughout, so generation waits until the benchmark is done.
+static jstring benchmark_impl(JNIEnv *env, jint pp, jint tg, jint reps, jintArray threads, jintArray batches, jintArray ctxs, jobjectArray kv_types) {
+    std::shared_lock<std::shared_mutex> model_lock(g_gen.model_mutex);
+    std::lock_guard<std::mutex> context_lock(g_gen.context_mutex);
 
-        if (llama_decode(g_context, batch) != 0) break;
+    if (!g_gen.model) {
+        return nullptr;
     }
-    
-    // Flush any remaining partial bytes (though likely invalid if incomplete)
-    if (mid_callback && !pending_output.empty()) {
-         jstring jpiece = env->NewStringUTF(pending_output.c_str());
-         env->CallVoidMethod(thiz, mid_callback, jpiece);
-         env->DeleteLocalRef(jpiece);
+
+    jsize n = env->GetArrayLength(threads);
+    std::vector<jint> thread_counts(n), batch_sizes(n), ctx_sizes(n);
+    env->GetIntArrayRegion(threads, 0, n, thread_counts.data());
+    env->GetIntArrayRegion(batches, 0, n, batch_sizes.data());
+    env->GetIntArrayRegion(ctxs, 0, n, ctx_sizes.data());
+
+    std::string json = "[";
+    for (jsize i = 0; i < n; i++) {
+        bench_config config;
+        config.n_threads = thread_counts[i];
+        config.n_batch = batch_sizes[i];
+        config.n_ctx = ctx_sizes[i];
+
+        jstring jkv = (jstring) env->GetObjectArrayElement(kv_types, i);
+        const char * kv = env->GetStringUTFChars(jkv, 0);
+        bool kv_ok = kv_type_from_name(kv, &config.type_kv);
+        env->ReleaseStringUTFChars(jkv, kv);
+        env->DeleteLocalRef(jkv);
+
+        bench_result result;
+        if (kv_ok) {
+            result = inference_benchmark(g_gen.model, config, pp, tg, reps);
+        } else {
+            result.config = config;
+            result.error = "unknown kv type";
+        }
+        LOGi("Benchmark %s", bench_result_json(result).c_str());
+
+        if (i > 0) json += ",";
+        json += bench_result_json(result);
     }
+    json += "]";
+    return env->NewStringUTF(json.c_str());
+}
 
-    // Update global past tokens with full path (Prompt + Response)
-    g_past_tokens = tokens_list;
-    g_past_tokens.insert(g_past_tokens.end(), generated_tokens.begin(), generated_tokens.end());
-    llama_sampler_free(smpl);
-    llama_batch_free(batch);
+// ---- LlamaEngine entry points (InferenceEngine in :core) ----
 
-    return env->NewStringUTF(response.c_str());
+extern "C"
+JNIEXPORT jboolean JNICALL
+Java_com_trunotes_v2_ai_LlamaEngine_nativeLoadModel(JNIEnv *env, jobject, jstring filename, jboolean use_mmap, jint n_threads, jint n_gpu_layers, jint n_ctx_size) {
+    return load_model_impl(env, filename, use_mmap, n_threads, n_gpu_layers, n_ctx_size);
+}
+
+extern "C"
+JNIEXPORT jstring JNICALL
+Java_com_trunotes_v2_ai_LlamaEngine_nativeGenerate(JNIEnv *env, jobject thiz, jstring prompt, jint nPredict, jfloat temperature, jint topK, jfloat topP, jfloat penalty, jint n_threads, jint seed, jlong stop_flag) {
+    return generate_impl(env, thiz, prompt, nPredict, temperature, topK, topP, penalty, n_threads, seed, stop_flag);
 }
 
 extern "C"
 JNIEXPORT void JNICALL
-Java_com_trunotes_v2_plugins_AIBridge_nativeStopGenerate(JNIEnv *env, jobject) {
-    g_stop_generation = true;
+Java_com_trunotes_v2_ai_LlamaEngine_nativeUnloadModel(JNIEnv *env, jobject) {
+    unload_model_impl();
+}
+
+extern "C"
+JNIEXPORT jboolean JNICALL
+Java_com_trunotes_v2_ai_LlamaEngine_nativeUnloadModelPath(JNIEnv *env, jobject, jstring path) {
+    return unload_path_impl(env, path);
+}
+
+extern "C"
+JNIEXPORT jintArray JNICALL
+Java_com_trunotes_v2_ai_LlamaEngine_nativeCountTokens(JNIEnv *env, jobject, jobjectArray texts) {
+    return count_tokens_impl(env, texts);
+}
+
+extern "C"
+JNIEXPORT jobjectArray JNICALL
+Java_com_trunotes_v2_ai_LlamaEngine_nativeTokenize(JNIEnv *env, jobject, jobjectArray texts) {
+    return tokenize_impl(env, texts);
+}
+
+extern "C"
+JNIEXPORT jstring JNICALL
+Java_com_trunotes_v2_ai_LlamaEngine_nativeTruncate(JNIEnv *env, jobject, jstring text, jint maxTokens, jboolean keepTail) {
+    return truncate_impl(env, text, maxTokens, keepTail);
+}
+
+extern "C"
+JNIEXPORT jint JNICALL
+Java_com_trunotes_v2_ai_LlamaEngine_nativeContextSize(JNIEnv *env, jobject) {
+    return context_size_impl();
+}
+
+extern "C"
+JNIEXPORT jstring JNICALL
+Java_com_trunotes_v2_ai_LlamaEngine_nativeModelPath(JNIEnv *env, jobject, jboolean embedding) {
+    return model_path_impl(env, embedding);
+}
+
+extern "C"
+JNIEXPORT jstring JNICALL
+Java_com_trunotes_v2_ai_LlamaEngine_nativeBenchmark(JNIEnv *env, jobject, jint pp, jint tg, jint reps, jintArray threads, jintArray batches, jintArray ctxs, jobjectArray kv_types) {
+    return benchmark_impl(env, pp, tg, reps, threads, batches, ctxs, kv_types);
 }
 
 extern "C"
 JNIEXPORT void JNICALL
-Java_com_trunotes_v2_plugins_AIBridge_nativeUnloadModel(JNIEnv *env, jobject) {
-    LOGi("nativeUnloadModel initiated...");
-    g_stop_generation = true; 
-    
-    // Wait for mutex to ensure generate() has finished its loop
-    std::lock_guard<std::mutex> lock(g_mutex);
-    
-    if (g_context) {
-        llama_free(g_context);
-        g_context = nullptr;
-    }
-    if (g_model) {
-        llama_model_free(g_model);
-        g_model = nullptr;
-    }
-    if (g_embed_context) {
-        llama_free(g_embed_context);
-        g_embed_context = nullptr;
-    }
-    if (g_embed_model) {
-        llama_model_free(g_embed_model);
-        g_embed_model = nullptr;
-    }
-    g_past_tokens.clear();
-    LOGi("All models and contexts successfully unloaded");
+Java_com_trunotes_v2_ai_LlamaEngine_nativeSetTracing(JNIEnv *env, jobject, jboolean enabled) {
+    g_trace_enabled = enabled;
 }
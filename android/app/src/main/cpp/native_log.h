@@ -0,0 +1,13 @@
+#pragma once
+
+// Logging that works in the Android library and in host builds of the same sources.
+// Each .cpp defines TAG before including this.
+#ifdef __ANDROID__
+#include <android/log.h>
+#define LOGi(...) __android_log_print(ANDROID_LOG_INFO, TAG, __VA_ARGS__)
+#define LOGe(...) __android_log_print(ANDROID_LOG_ERROR, TAG, __VA_ARGS__)
+#else
+#include <cstdio>
+#define LOGi(...) (fprintf(stderr, "I/%s: ", TAG), fprintf(stderr, __VA_ARGS__), fputc('\n', stderr))
+#define LOGe(...) (fprintf(stderr, "E/%s: ", TAG), fprintf(stderr, __VA_ARGS__), fputc('\n', stderr))
+#endif
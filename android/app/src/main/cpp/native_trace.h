@@ -0,0 +1,78 @@
+#pragma once
+
+// System trace sections and counters for the native inference path, the counterpart of
+// Tracer.java. On Android they go to ATrace and show up in Perfetto under the app's
+// process; host builds compile them to nothing. Off until LlamaEngine passes Tracer's
+// switch down (nativeSetTracing); when off, a section costs one relaxed atomic load and
+// its name is never formatted.
+//
+//   trace_section trace("prefill tokens=%d", n);
+//   trace_counter("kv_reused_tokens", n_keep);
+
+#include <atomic>
+#include <cstdarg>
+#include <cstdint>
+#include <cstdio>
+
+#ifdef __ANDROID__
+#include <android/trace.h>
+#include <dlfcn.h>
+#endif
+
+inline std::atomic<bool> g_trace_enabled(false);
+
+inline bool trace_active() {
+#ifdef __ANDROID__
+    // ATrace_isEnabled: is a trace being captured at all
+    return g_trace_enabled.load(std::memory_order_relaxed) && ATrace_isEnabled();
+#else
+    return false;
+#endif
+}
+
+inline void trace_counter(const char * name, int64_t value) {
+#ifdef __ANDROID__
+    // ATrace_setCounter is API 29 and minSdk is 24, so look it up instead of linking it
+    using set_counter_fn = void (*)(const char *, int64_t);
+    static const set_counter_fn set_counter = (set_counter_fn) dlsym(RTLD_DEFAULT, "ATrace_setCounter");
+    if (set_counter && trace_active()) set_counter(name, value);
+#else
+    (void) name;
+    (void) value;
+#endif
+}
+
+// Scoped section with a printf-style name. Must end on the thread that began it; end()
+// closes it early.
+class trace_section {
+public:
+    __attribute__((format(printf, 2, 3)))
+    explicit trace_section(const char * fmt, ...) : open_(trace_active()) {
+#ifdef __ANDROID__
+        if (!open_) return;
+        char name[128];
+        va_list args;
+        va_start(args, fmt);
+        vsnprintf(name, sizeof(name), fmt, args);
+        va_end(args);
+        ATrace_beginSection(name);
+#else
+        (void) fmt;
+#endif
+    }
+
+    ~trace_section() { end(); }
+
+    void end() {
+#ifdef __ANDROID__
+        if (open_) ATrace_endSection();
+#endif
+        open_ = false;
+    }
+
+    trace_section(const trace_section &) = delete;
+    trace_section & operator=(const trace_section &) = delete;
+
+private:
+    bool open_;
+};
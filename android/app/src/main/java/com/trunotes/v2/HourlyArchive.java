@@ -0,0 +1,176 @@
+package com.trunotes.v2;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Finished days of widget hourly logs, one small binary file per day, kept until the app
+ * has merged them into its own storage.
+ *
+ * HourlyRolloverWorker moves the active day here after midnight, so a day's entries
+ * survive the reset even when the app is not opened that night. The app drains the
+ * archive on resume and removes each day once it is saved.
+ *
+ * Layout (big-endian, strings are int length + UTF-8 bytes):
+ * magic, version, dateKey, entry count, entries (hour byte, text).
+ */
+public final class HourlyArchive {
+    private static final String TAG = "HourlyArchive";
+    private static final String DIR_NAME = "hourly_archive";
+    private static final String SUFFIX = ".bin";
+
+    private static final int MAGIC = 0x544E4841; // "TNHA"
+    private static final int VERSION = 1;
+
+    // Days the app has not drained for this long are dropped, oldest first
+    private static final int MAX_DAYS = 60;
+
+    private static HourlyArchive instance;
+
+    private final File dir;
+
+    public static synchronized HourlyArchive get(Context context) {
+        if (instance == null) {
+            instance = new HourlyArchive(new File(context.getApplicationContext().getFilesDir(), DIR_NAME));
+        }
+        return instance;
+    }
+
+    private HourlyArchive(File dir) {
+        this.dir = dir;
+    }
+
+    public static final class Day {
+        public final String dateKey;
+        /** Keyed by hour of day as a string, unmodifiable. */
+        public final Map<String, String> entries;
+
+        Day(String dateKey, Map<String, String> entries) {
+            this.dateKey = dateKey;
+            this.entries = Collections.unmodifiableMap(entries);
+        }
+    }
+
+    /** Adds a day's entries; an hour already archived for that day is replaced. */
+    public synchronized void put(String dateKey, Map<String, String> entries) throws IOException {
+        if (entries.isEmpty()) return;
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Failed to create " + dir.getName());
+        }
+        File file = fileFor(dateKey);
+        Map<String, String> merged = new HashMap<>();
+        Day existing = read(file);
+        if (existing != null) merged.putAll(existing.entries);
+        merged.putAll(entries);
+        write(file, dateKey, merged);
+        prune();
+    }
+
+    /** Archived days, oldest first. */
+    public synchronized List<Day> days() {
+        List<Day> days = new ArrayList<>();
+        for (File file : sortedFiles()) {
+            Day day = read(file);
+            if (day != null) days.add(day);
+        }
+        return days;
+    }
+
+    public synchronized void remove(String dateKey) {
+        File file = fileFor(dateKey);
+        if (file.exists() && !file.delete()) {
+            Log.w(TAG, "Failed to delete archived day " + dateKey);
+        }
+    }
+
+    private File fileFor(String dateKey) {
+        return new File(dir, dateKey + SUFFIX);
+    }
+
+    // Date keys are yyyy-MM-dd, so name order is date order
+    private File[] sortedFiles() {
+        File[] files = dir.listFiles((parent, name) -> name.endsWith(SUFFIX));
+        if (files == null) return new File[0];
+        Arrays.sort(files);
+        return files;
+    }
+
+    private void prune() {
+        File[] files = sortedFiles();
+        for (int i = 0; i < files.length - MAX_DAYS; i++) {
+            Log.w(TAG, "Dropping undrained archived day " + files[i].getName());
+            if (!files[i].delete()) {
+                Log.w(TAG, "Failed to delete " + files[i].getName());
+            }
+        }
+    }
+
+    // Write-then-rename, as WidgetSnapshot does
+    private static void write(File file, String dateKey, Map<String, String> entries) throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            writeString(out, dateKey);
+            out.writeInt(entries.size());
+            for (Map.Entry<String, String> entry : entries.entrySet()) {
+                out.writeByte(Integer.parseInt(entry.getKey()));
+                writeString(out, entry.getValue());
+            }
+        }
+        if (!temp.renameTo(file)) {
+            throw new IOException("Failed to replace " + file.getName());
+        }
+    }
+
+    private static Day read(File file) {
+        if (!file.exists()) return null;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                Log.w(TAG, "Ignoring archived day with unknown format: " + file.getName());
+                return null;
+            }
+            String dateKey = readString(in);
+            int count = in.readInt();
+            Map<String, String> entries = new HashMap<>(count * 2);
+            for (int i = 0; i < count; i++) {
+                int hour = in.readByte();
+                entries.put(String.valueOf(hour), readString(in));
+            }
+            return new Day(dateKey, entries);
+        } catch (IOException | RuntimeException e) {
+            Log.e(TAG, "Failed to read archived day " + file.getName(), e);
+            return null;
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = (value != null ? value : "").getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > 1 << 20) throw new IOException("Bad string length " + length);
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
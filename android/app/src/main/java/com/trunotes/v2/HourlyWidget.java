@@ -3,52 +3,72 @@ package com.trunotes.v2;
 import android.app.PendingIntent;
 import android.appwidget.AppWidgetManager;
 import android.appwidget.AppWidgetProvider;
-import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
+import android.content.SharedPreferences;
 import android.widget.RemoteViews;
-import org.json.JSONObject;
+
+import com.trunotes.v2.workers.HourlyRolloverWorker;
+
 import java.util.Calendar;
+import java.util.Locale;
 
 public class HourlyWidget extends AppWidgetProvider {
 
-    private static int currentBrowsedHour = -1; // -1 means actual current hour
-
     public static final String ACTION_PREV = "com.trunotes.v2.ACTION_PREV";
     public static final String ACTION_NEXT = "com.trunotes.v2.ACTION_NEXT";
 
-    static void updateAppWidget(Context context, AppWidgetManager appWidgetManager, int appWidgetId) {
-        RemoteViews views = new RemoteViews(context.getPackageName(), R.layout.widget_hourly);
+    // Browsed hour per appWidgetId; missing or -1 means the actual current hour
+    private static final String STATE_PREFS = "HourlyWidgetState";
+    private static final String NO_LOG_TEXT = "No log for this hour yet...";
 
-        int hourToShow = currentBrowsedHour;
-        if (hourToShow == -1) {
-            hourToShow = Calendar.getInstance().get(Calendar.HOUR_OF_DAY);
+    private static final String[] HOUR_LABELS = new String[24];
+    static {
+        for (int hour = 0; hour < 24; hour++) {
+            HOUR_LABELS[hour] = String.format(Locale.US, "%02d:00 - %02d:00", hour, (hour + 1) % 24);
         }
+    }
+
+    static String hourLabel(int hour) {
+        return HOUR_LABELS[hour];
+    }
 
-        String hourLabel = String.format("%02d:00 - %02d:00", hourToShow, (hourToShow + 1) % 24);
-        views.setTextViewText(R.id.log_hour, hourLabel);
+    /** The hour a widget instance is showing. */
+    static int getBrowsedHour(Context context, int appWidgetId) {
+        int stored = stateFor(context).getInt(stateKey(appWidgetId), -1);
+        return stored == -1 ? Calendar.getInstance().get(Calendar.HOUR_OF_DAY) : stored;
+    }
 
-        try {
-            JSONObject logs = WidgetUtils.getHourlyLogs(context);
-            String content = logs.optString(String.valueOf(hourToShow), "No log for this hour yet...");
-            views.setTextViewText(R.id.log_content, content);
-        } catch (Exception e) {
-            views.setTextViewText(R.id.log_content, "Error loading logs");
+    static void updateAppWidget(Context context, AppWidgetManager appWidgetManager, int appWidgetId) {
+        Tracer.restore(context);
+        try (Tracer.Section trace = Tracer.begin("HourlyWidget.update", "id", appWidgetId)) {
+            buildAndUpdate(context, appWidgetManager, appWidgetId);
         }
+    }
+
+    private static void buildAndUpdate(Context context, AppWidgetManager appWidgetManager, int appWidgetId) {
+        RemoteViews views = new RemoteViews(context.getPackageName(), R.layout.widget_hourly);
+        bindHour(context, views, getBrowsedHour(context, appWidgetId));
+
+        // Request codes are per widget so each instance keeps its own PendingIntents
+        int base = appWidgetId * 4;
 
         // Intents for navigation
-        Intent prev = new Intent(context, HourlyWidget.class).setAction(ACTION_PREV);
-        views.setOnClickPendingIntent(R.id.btn_prev_hour, PendingIntent.getBroadcast(context, 10, prev, PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_MUTABLE));
+        Intent prev = new Intent(context, HourlyWidget.class).setAction(ACTION_PREV)
+            .putExtra(AppWidgetManager.EXTRA_APPWIDGET_ID, appWidgetId);
+        views.setOnClickPendingIntent(R.id.btn_prev_hour, PendingIntent.getBroadcast(context, base, prev, PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_MUTABLE));
 
-        Intent next = new Intent(context, HourlyWidget.class).setAction(ACTION_NEXT);
-        views.setOnClickPendingIntent(R.id.btn_next_hour, PendingIntent.getBroadcast(context, 11, next, PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_MUTABLE));
+        Intent next = new Intent(context, HourlyWidget.class).setAction(ACTION_NEXT)
+            .putExtra(AppWidgetManager.EXTRA_APPWIDGET_ID, appWidgetId);
+        views.setOnClickPendingIntent(R.id.btn_next_hour, PendingIntent.getBroadcast(context, base + 1, next, PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_MUTABLE));
 
-        // Edit button
+        // Edit button; QuickEditActivity looks up the hour this widget is on when it opens,
+        // so partial updates do not have to refresh this intent
         Intent editIntent = new Intent(context, QuickEditActivity.class);
         editIntent.putExtra("type", "hourly");
-        editIntent.putExtra("hour", hourToShow);
+        editIntent.putExtra(AppWidgetManager.EXTRA_APPWIDGET_ID, appWidgetId);
         editIntent.setFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
-        views.setOnClickPendingIntent(R.id.btn_edit_log, PendingIntent.getActivity(context, 12, editIntent, PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_MUTABLE));
+        views.setOnClickPendingIntent(R.id.btn_edit_log, PendingIntent.getActivity(context, base + 2, editIntent, PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_MUTABLE));
 
         // Redirect to app on header click
         Intent openAppIntent = context.getPackageManager().getLaunchIntentForPackage(context.getPackageName());
@@ -62,6 +82,22 @@ public class HourlyWidget extends AppWidgetProvider {
         appWidgetManager.updateAppWidget(appWidgetId, views);
     }
 
+    /** Label and log text only; the buttons and their intents stay as the last full update set them. */
+    static void updateContent(Context context, AppWidgetManager appWidgetManager, int appWidgetId) {
+        Tracer.restore(context);
+        try (Tracer.Section trace = Tracer.begin("HourlyWidget.updateContent", "id", appWidgetId)) {
+            RemoteViews views = new RemoteViews(context.getPackageName(), R.layout.widget_hourly);
+            bindHour(context, views, getBrowsedHour(context, appWidgetId));
+            appWidgetManager.partiallyUpdateAppWidget(appWidgetId, views);
+        }
+    }
+
+    private static void bindHour(Context context, RemoteViews views, int hour) {
+        views.setTextViewText(R.id.log_hour, HOUR_LABELS[hour]);
+        String content = WidgetDataCache.get(context).getHourlyLogs().get(hour);
+        views.setTextViewText(R.id.log_content, content != null ? content : NO_LOG_TEXT);
+    }
+
     @Override
     public void onUpdate(Context context, AppWidgetManager appWidgetManager, int[] appWidgetIds) {
         for (int appWidgetId : appWidgetIds) {
@@ -70,21 +106,47 @@ public class HourlyWidget extends AppWidgetProvider {
     }
 
     @Override
-    public void onReceive(Context context, Intent intent) {
-        super.onReceive(context, intent);
-        int hour = currentBrowsedHour;
-        if (hour == -1) hour = Calendar.getInstance().get(Calendar.HOUR_OF_DAY);
-
-        if (ACTION_PREV.equals(intent.getAction())) {
-            currentBrowsedHour = (hour - 1 + 24) % 24;
-        } else if (ACTION_NEXT.equals(intent.getAction())) {
-            currentBrowsedHour = (hour + 1) % 24;
-        } else {
-            return;
+    public void onEnabled(Context context) {
+        HourlyRolloverWorker.schedule(context);
+    }
+
+    @Override
+    public void onDeleted(Context context, int[] appWidgetIds) {
+        SharedPreferences.Editor editor = stateFor(context).edit();
+        for (int appWidgetId : appWidgetIds) {
+            editor.remove(stateKey(appWidgetId));
         }
+        editor.apply();
+    }
+
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        // Taps run on the widget thread, so repeated prev/next on one widget apply in order
+        WidgetExecutor.runAsync(this, "HourlyWidget " + intent.getAction(), () -> {
+            super.onReceive(context, intent);
+            int step;
+            if (ACTION_PREV.equals(intent.getAction())) {
+                step = -1;
+            } else if (ACTION_NEXT.equals(intent.getAction())) {
+                step = 1;
+            } else {
+                return;
+            }
+
+            int appWidgetId = intent.getIntExtra(AppWidgetManager.EXTRA_APPWIDGET_ID, AppWidgetManager.INVALID_APPWIDGET_ID);
+            if (appWidgetId == AppWidgetManager.INVALID_APPWIDGET_ID) return;
+
+            int hour = (getBrowsedHour(context, appWidgetId) + step + 24) % 24;
+            stateFor(context).edit().putInt(stateKey(appWidgetId), hour).apply();
+            updateContent(context, AppWidgetManager.getInstance(context), appWidgetId);
+        });
+    }
+
+    private static SharedPreferences stateFor(Context context) {
+        return context.getSharedPreferences(STATE_PREFS, Context.MODE_PRIVATE);
+    }
 
-        AppWidgetManager mgr = AppWidgetManager.getInstance(context);
-        ComponentName cn = new ComponentName(context, HourlyWidget.class);
-        onUpdate(context, mgr, mgr.getAppWidgetIds(cn));
+    private static String stateKey(int appWidgetId) {
+        return "hour_" + appWidgetId;
     }
 }
@@ -2,17 +2,13 @@ package com.trunotes.v2;
 
 import android.app.Activity;
 import android.appwidget.AppWidgetManager;
-import android.content.ComponentName;
+import android.content.Context;
 import android.os.Bundle;
 import android.view.Window;
 import android.view.WindowManager;
 import android.widget.Button;
 import android.widget.EditText;
 import android.widget.TextView;
-import android.content.Intent;
-import org.json.JSONArray;
-import org.json.JSONObject;
-import java.util.List;
 import java.util.UUID;
 
 public class QuickEditActivity extends Activity {
@@ -30,7 +26,11 @@ public class QuickEditActivity extends Activity {
         setContentView(R.layout.activity_quick_edit);
 
         type = getIntent().getStringExtra("type");
-        hour = getIntent().getIntExtra("hour", -1);
+        // The hourly widget passes its id; the hour is whatever that instance is showing now
+        int appWidgetId = getIntent().getIntExtra(AppWidgetManager.EXTRA_APPWIDGET_ID, AppWidgetManager.INVALID_APPWIDGET_ID);
+        hour = appWidgetId != AppWidgetManager.INVALID_APPWIDGET_ID
+            ? HourlyWidget.getBrowsedHour(this, appWidgetId)
+            : getIntent().getIntExtra("hour", -1);
 
         TextView titleView = findViewById(R.id.edit_title);
         EditText input = findViewById(R.id.edit_input);
@@ -41,20 +41,29 @@ public class QuickEditActivity extends Activity {
             titleView.setText("Add Daily Task");
             input.setHint("What needs to be done?");
         } else {
-            String hourRange = String.format("%02d:00 - %02d:00", hour, (hour + 1) % 24);
-            titleView.setText("Log for " + hourRange);
+            titleView.setText("Log for " + HourlyWidget.hourLabel(hour));
             
-            // Pre-load existing log
-            JSONObject logs = WidgetUtils.getHourlyLogs(this);
-            input.setText(logs.optString(String.valueOf(hour), ""));
+            // Pre-load existing log off the main thread; skip it if the user already started typing
+            Context appContext = getApplicationContext();
+            WidgetExecutor.execute(() -> {
+                String existing = WidgetDataCache.get(appContext).getHourlyLogs().get(hour);
+                if (existing == null) return;
+                runOnUiThread(() -> {
+                    if (!isFinishing() && input.getText().length() == 0) input.setText(existing);
+                });
+            });
         }
 
         btnCancel.setOnClickListener(v -> finish());
         btnSave.setOnClickListener(v -> {
             String text = input.getText().toString().trim();
             if (!text.isEmpty()) {
-                saveData(text);
-                updateWidgets();
+                // The save outlives this activity; it runs in order with widget taps
+                Context appContext = getApplicationContext();
+                WidgetExecutor.execute(() -> {
+                    saveData(appContext, text);
+                    updateWidgets(appContext);
+                });
             }
             finish();
         });
@@ -64,46 +73,19 @@ public class QuickEditActivity extends Activity {
         getWindow().setSoftInputMode(WindowManager.LayoutParams.SOFT_INPUT_STATE_ALWAYS_VISIBLE);
     }
 
-    private void saveData(String text) {
-        try {
-            if ("todo".equals(type)) {
-                List<JSONObject> todos = WidgetUtils.getTodos(this);
-                JSONObject newTodo = new JSONObject();
-                newTodo.put("id", UUID.randomUUID().toString());
-                newTodo.put("text", text);
-                newTodo.put("completed", false);
-                newTodo.put("createdAt", System.currentTimeMillis());
-                newTodo.put("updatedAt", System.currentTimeMillis());
-                newTodo.put("targetDate", ""); // Important: Empty string puts it in Backlog/Pending Tasks
-                
-                // Get today string from JS if possible, or calculate here
-                // For simplicity, we assume the app will fix the date on sync
-                
-                JSONArray arr = new JSONArray();
-                arr.put(newTodo); // Prepend new task
-                for (JSONObject t : todos) arr.put(t);
-                WidgetUtils.setString(this, "widget_todos", arr.toString());
-            } else {
-                JSONObject logs = WidgetUtils.getHourlyLogs(this);
-                logs.put(String.valueOf(hour), text);
-                WidgetUtils.setString(this, "widget_hourly", logs.toString());
-            }
-            WidgetUtils.setString(this, "needs_native_sync", "true");
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
-    }
-
-    private void updateWidgets() {
-        AppWidgetManager mgr = AppWidgetManager.getInstance(this);
+    private void saveData(Context context, String text) {
+        // Both are logged as widget ops for the app to apply on next resume
+        WidgetDataCache cache = WidgetDataCache.get(context);
         if ("todo".equals(type)) {
-            mgr.notifyAppWidgetViewDataChanged(mgr.getAppWidgetIds(new ComponentName(this, TodoWidget.class)), R.id.todo_list);
+            // The app fixes the target date on sync
+            cache.addTodo(UUID.randomUUID().toString(), text);
         } else {
-            ComponentName cn = new ComponentName(this, HourlyWidget.class);
-            Intent intent = new Intent(this, HourlyWidget.class);
-            intent.setAction(AppWidgetManager.ACTION_APPWIDGET_UPDATE);
-            intent.putExtra(AppWidgetManager.EXTRA_APPWIDGET_IDS, mgr.getAppWidgetIds(cn));
-            sendBroadcast(intent);
+            cache.setHourlyLog(hour, text);
         }
     }
+
+    private void updateWidgets(Context context) {
+        int types = "todo".equals(type) ? WidgetRefreshScheduler.TODO : WidgetRefreshScheduler.HOURLY;
+        WidgetRefreshScheduler.get(context).request(types, false);
+    }
 }
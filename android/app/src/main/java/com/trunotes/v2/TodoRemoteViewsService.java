@@ -6,7 +6,9 @@ import android.graphics.Color;
 import android.graphics.Paint;
 import android.widget.RemoteViews;
 import android.widget.RemoteViewsService;
-import org.json.JSONObject;
+
+import com.trunotes.v2.core.TodoItem;
+
 import java.util.List;
 
 public class TodoRemoteViewsService extends RemoteViewsService {
@@ -17,8 +19,14 @@ public class TodoRemoteViewsService extends RemoteViewsService {
 }
 
 class TodoRemoteViewsFactory implements RemoteViewsService.RemoteViewsFactory {
+    // Item id of the "+N more" row; a todo hash landing exactly here is not a practical concern
+    private static final long MORE_ROW_ID = Long.MIN_VALUE;
+    private static final TodoItem[] NO_ROWS = new TodoItem[0];
+
     private Context context;
-    private List<JSONObject> todos;
+    // Bound window in display order; anything past it is summarised by the "+N more" row
+    private TodoItem[] rows = NO_ROWS;
+    private int hiddenCount;
 
     public TodoRemoteViewsFactory(Context context) {
         this.context = context;
@@ -29,21 +37,24 @@ class TodoRemoteViewsFactory implements RemoteViewsService.RemoteViewsFactory {
 
     @Override
     public void onDataSetChanged() {
-        todos = WidgetUtils.getTodos(context);
-        // Sort: incomplete at top, then newest at top
-        todos.sort((a, b) -> {
-            try {
-                boolean aComp = a.getBoolean("completed");
-                boolean bComp = b.getBoolean("completed");
-                if (aComp != bComp) return aComp ? 1 : -1;
-                
-                long aTime = a.optLong("createdAt", 0);
-                long bTime = b.optLong("createdAt", 0);
-                return Long.compare(bTime, aTime);
-            } catch (Exception e) {
-                return 0;
-            }
-        });
+        Tracer.restore(context);
+        try (Tracer.Section trace = Tracer.begin("TodoWidget.dataSetChanged")) {
+            loadRows();
+        }
+    }
+
+    private void loadRows() {
+        // Already in display order: incomplete at top, then newest at top
+        List<TodoItem> todos = WidgetDataCache.get(context).getTodos();
+        Tracer.counter("widget_todo_count", todos.size());
+        int maxRows = context.getResources().getInteger(R.integer.todo_widget_max_rows);
+        int bound = Math.min(todos.size(), maxRows);
+        TodoItem[] window = new TodoItem[bound];
+        for (int i = 0; i < bound; i++) {
+            window[i] = todos.get(i);
+        }
+        rows = window;
+        hiddenCount = todos.size() - bound;
     }
 
     @Override
@@ -51,52 +62,55 @@ class TodoRemoteViewsFactory implements RemoteViewsService.RemoteViewsFactory {
 
     @Override
     public int getCount() {
-        return todos != null ? todos.size() : 0;
+        return rows.length + (hiddenCount > 0 ? 1 : 0);
     }
 
     @Override
     public RemoteViews getViewAt(int position) {
         if (position < 0 || position >= getCount()) return null;
 
+        if (position == rows.length) {
+            RemoteViews more = new RemoteViews(context.getPackageName(), R.layout.widget_todo_more);
+            more.setTextViewText(R.id.todo_more_text, "+" + hiddenCount + " more");
+            return more;
+        }
+
         RemoteViews rv = new RemoteViews(context.getPackageName(), R.layout.widget_todo_item);
-        try {
-            JSONObject todo = todos.get(position);
-            String text = todo.getString("text");
-            boolean completed = todo.getBoolean("completed");
-
-            rv.setTextViewText(R.id.todo_text, text);
-            
-            if (completed) {
-                rv.setImageViewResource(R.id.todo_checkbox, R.drawable.ic_checkbox_selected);
-                rv.setTextColor(R.id.todo_text, Color.parseColor("#44FFFFFF"));
-            } else {
-                rv.setImageViewResource(R.id.todo_checkbox, R.drawable.ic_checkbox_unselected);
-                rv.setTextColor(R.id.todo_text, Color.WHITE);
-            }
-
-            // Set dynamic behavior: Toggling completion
-            // We'll broadcast a toggle intent when the item is clicked
-            Intent fillInIntent = new Intent();
-            fillInIntent.putExtra("todo_id", todo.getString("id"));
-            fillInIntent.putExtra("target_val", !completed);
-            rv.setOnClickFillInIntent(R.id.todo_checkbox, fillInIntent);
-            rv.setOnClickFillInIntent(R.id.todo_text, fillInIntent); // clicking text also toggles
-
-        } catch (Exception e) {
-            e.printStackTrace();
+        TodoItem todo = rows[position];
+        boolean completed = todo.completed;
+
+        rv.setTextViewText(R.id.todo_text, todo.text);
+
+        if (completed) {
+            rv.setImageViewResource(R.id.todo_checkbox, R.drawable.ic_checkbox_selected);
+            rv.setTextColor(R.id.todo_text, Color.parseColor("#44FFFFFF"));
+        } else {
+            rv.setImageViewResource(R.id.todo_checkbox, R.drawable.ic_checkbox_unselected);
+            rv.setTextColor(R.id.todo_text, Color.WHITE);
         }
 
+        // Set dynamic behavior: Toggling completion
+        // We'll broadcast a toggle intent when the item is clicked
+        Intent fillInIntent = new Intent();
+        fillInIntent.putExtra("todo_id", todo.id);
+        fillInIntent.putExtra("target_val", !completed);
+        rv.setOnClickFillInIntent(R.id.todo_checkbox, fillInIntent);
+        rv.setOnClickFillInIntent(R.id.todo_text, fillInIntent); // clicking text also toggles
+
         return rv;
     }
 
     @Override
     public RemoteViews getLoadingView() { return null; }
 
+    // Task rows and the "+N more" row
     @Override
-    public int getViewTypeCount() { return 1; }
+    public int getViewTypeCount() { return 2; }
 
     @Override
-    public long getItemId(int position) { return position; }
+    public long getItemId(int position) {
+        return position < rows.length ? rows[position].stableId : MORE_ROW_ID;
+    }
 
     @Override
     public boolean hasStableIds() { return true; }
@@ -8,9 +8,6 @@ import android.content.Context;
 import android.content.Intent;
 import android.net.Uri;
 import android.widget.RemoteViews;
-import org.json.JSONArray;
-import org.json.JSONObject;
-import java.util.List;
 
 public class TodoWidget extends AppWidgetProvider {
 
@@ -18,6 +15,13 @@ public class TodoWidget extends AppWidgetProvider {
     public static final String ACTION_ADD = "com.trunotes.v2.ACTION_ADD";
 
     static void updateAppWidget(Context context, AppWidgetManager appWidgetManager, int appWidgetId) {
+        Tracer.restore(context);
+        try (Tracer.Section trace = Tracer.begin("TodoWidget.update", "id", appWidgetId)) {
+            buildAndUpdate(context, appWidgetManager, appWidgetId);
+        }
+    }
+
+    private static void buildAndUpdate(Context context, AppWidgetManager appWidgetManager, int appWidgetId) {
         RemoteViews views = new RemoteViews(context.getPackageName(), R.layout.widget_todo);
 
         // Set up list view
@@ -61,39 +65,26 @@ public class TodoWidget extends AppWidgetProvider {
 
     @Override
     public void onReceive(Context context, Intent intent) {
-        super.onReceive(context, intent);
-        if (ACTION_TOGGLE.equals(intent.getAction())) {
-            String id = intent.getStringExtra("todo_id");
-            boolean target = intent.getBooleanExtra("target_val", false);
-            
-            toggleTodo(context, id, target);
-            
-            // Notify managers to refresh
-            AppWidgetManager mgr = AppWidgetManager.getInstance(context);
-            ComponentName cn = new ComponentName(context, TodoWidget.class);
-            mgr.notifyAppWidgetViewDataChanged(mgr.getAppWidgetIds(cn), R.id.todo_list);
-        }
+        // Updates and toggles both run on the widget thread, in arrival order
+        WidgetExecutor.runAsync(this, "TodoWidget " + intent.getAction(), () -> {
+            super.onReceive(context, intent);
+            if (ACTION_TOGGLE.equals(intent.getAction())) {
+                String id = intent.getStringExtra("todo_id");
+                boolean target = intent.getBooleanExtra("target_val", false);
+
+                toggleTodo(context, id, target);
+
+                // Refresh once the op is logged, so the list reloads with it applied
+                AppWidgetManager mgr = AppWidgetManager.getInstance(context);
+                ComponentName cn = new ComponentName(context, TodoWidget.class);
+                mgr.notifyAppWidgetViewDataChanged(mgr.getAppWidgetIds(cn), R.id.todo_list);
+            }
+        });
     }
 
     private void toggleTodo(Context context, String id, boolean target) {
-        try {
-            List<JSONObject> todos = WidgetUtils.getTodos(context);
-            for (JSONObject todo : todos) {
-                if (todo.getString("id").equals(id)) {
-                    todo.put("completed", target);
-                    todo.put("updatedAt", System.currentTimeMillis());
-                    break;
-                }
-            }
-            // Save back
-            JSONArray arr = new JSONArray();
-            for (JSONObject t : todos) arr.put(t);
-            WidgetUtils.setString(context, "widget_todos", arr.toString());
-            
-            // OPTIONAL: Mark that a sync is needed when app opens
-            WidgetUtils.setString(context, "needs_native_sync", "true");
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
+        if (id == null) return;
+        // Logged as a widget op; the app applies it on next resume
+        WidgetDataCache.get(context).setTodoCompleted(id, target);
     }
 }
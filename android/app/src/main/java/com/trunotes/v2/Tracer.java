@@ -0,0 +1,103 @@
+package com.trunotes.v2;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Build;
+import android.os.Trace;
+
+/**
+ * Named sections and counters for system traces (Perfetto, or systrace on older devices),
+ * covering the AI and widget pipelines. Native sections come from native_trace.h and
+ * LlamaEngine turns them on and off with this switch.
+ *
+ * Off by default and toggled at runtime (AIBridge.setTracing). The setting is persisted so
+ * background work in a fresh process, such as VoiceNotesWorker, traces too once it has
+ * called restore. When off, begin is one volatile read and returns a shared no-op section;
+ * nothing is formatted or allocated.
+ *
+ *   try (Tracer.Section s = Tracer.begin("embed", "chars", text.length())) { ... }
+ *
+ * Capture with the "app" category, e.g. record_android_trace -a com.trunotes.v2 app.
+ */
+public final class Tracer {
+    private static final String PREFS_NAME = "TRACE_PREFS";
+    private static final String KEY_ENABLED = "enabled";
+    // Trace.beginSection throws for longer names
+    private static final int MAX_NAME_LENGTH = 127;
+
+    private static volatile boolean enabled;
+    private static volatile boolean restored;
+
+    /** Ends the section it was returned for; closing the no-op section does nothing. */
+    public static final class Section implements AutoCloseable {
+        private final boolean open;
+
+        private Section(boolean open) {
+            this.open = open;
+        }
+
+        @Override
+        public void close() {
+            if (open) Trace.endSection();
+        }
+    }
+
+    private static final Section OPEN = new Section(true);
+    private static final Section NOOP = new Section(false);
+
+    private Tracer() {}
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    public static void setEnabled(Context context, boolean on) {
+        enabled = on;
+        restored = true;
+        context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE).edit().putBoolean(KEY_ENABLED, on).apply();
+    }
+
+    /** Loads the persisted switch once per process; cheap to call from every entry point. */
+    public static void restore(Context context) {
+        if (restored) return;
+        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        enabled = prefs.getBoolean(KEY_ENABLED, false);
+        restored = true;
+    }
+
+    public static Section begin(String name) {
+        if (!active()) return NOOP;
+        Trace.beginSection(clip(name));
+        return OPEN;
+    }
+
+    /** Section named "name key=value", so the counter shows in the slice title. */
+    public static Section begin(String name, String key, long value) {
+        if (!active()) return NOOP;
+        Trace.beginSection(clip(name + " " + key + "=" + value));
+        return OPEN;
+    }
+
+    public static Section begin(String name, String key1, long value1, String key2, long value2) {
+        if (!active()) return NOOP;
+        Trace.beginSection(clip(name + " " + key1 + "=" + value1 + " " + key2 + "=" + value2));
+        return OPEN;
+    }
+
+    /** A counter track (API 29+; older devices only get the sections). */
+    public static void counter(String name, long value) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q && active()) {
+            Trace.setCounter(name, value);
+        }
+    }
+
+    private static boolean active() {
+        if (!enabled) return false;
+        // Skip the string work when no trace is being captured; the check needs API 29
+        return Build.VERSION.SDK_INT < Build.VERSION_CODES.Q || Trace.isEnabled();
+    }
+
+    private static String clip(String name) {
+        return name.length() <= MAX_NAME_LENGTH ? name : name.substring(0, MAX_NAME_LENGTH);
+    }
+}
@@ -0,0 +1,379 @@
+package com.trunotes.v2;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import com.trunotes.v2.core.TodoItem;
+import com.trunotes.v2.core.TodoList;
+import com.trunotes.v2.core.WidgetOp;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Process-wide parsed copy of the widget data the app writes to CapacitorStorage.
+ *
+ * The app pushes a pre-sorted WidgetSnapshot through WidgetBridge; it is installed here
+ * directly and read back from its file after a process restart. Data from builds that wrote
+ * JSON into Preferences is still read: each blob is parsed once and reused until a
+ * SharedPreferences listener sees the stored string change. When a push fails the app writes
+ * Preferences instead, so such a write also drops the snapshot. Widget edits are not written
+ * back into the blobs; they go to WidgetOpLog and are overlaid on the snapshots until the
+ * app drains them and pushes fresh data.
+ */
+public final class WidgetDataCache {
+    private static final String TAG = "WidgetDataCache";
+
+    static final String KEY_TODOS = "widget_todos";
+    static final String KEY_HOURLY = "widget_hourly";
+    static final String KEY_HOURLY_DATE = "widget_hourly_date";
+
+    private static WidgetDataCache instance;
+
+    private final Context context;
+    private final WidgetOpLog opLog;
+    private final SharedPreferences prefs;
+    private final File snapshotFile;
+    // SharedPreferences only keeps a weak reference to its listeners
+    private final SharedPreferences.OnSharedPreferenceChangeListener listener = this::onPreferenceChanged;
+
+    // Latest pushed snapshot; while there is one, Preferences are not read
+    private WidgetSnapshot snapshot;
+    private boolean snapshotChecked;
+    // As the app last wrote them
+    private TodoSnapshot todos;
+    private HourlyLogs hourly;
+    // Snapshots with pending widget ops applied, valid while the op log version matches
+    private List<TodoItem> mergedTodos;
+    private long mergedTodosVersion;
+    private HourlyLogs mergedHourly;
+    private long mergedHourlyVersion;
+
+    private String todayKey;
+    private long nextMidnight;
+
+    private long hits;
+    private long misses;
+    private long invalidations;
+
+    public static synchronized WidgetDataCache get(Context context) {
+        if (instance == null) {
+            instance = new WidgetDataCache(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private WidgetDataCache(Context context) {
+        this.context = context;
+        this.opLog = WidgetOpLog.get(context);
+        this.prefs = context.getSharedPreferences(WidgetUtils.PREFS_NAME, Context.MODE_PRIVATE);
+        this.snapshotFile = WidgetSnapshot.file(context);
+        prefs.registerOnSharedPreferenceChangeListener(listener);
+    }
+
+    /** Unmodifiable, in display order (see TodoList.DISPLAY_ORDER), including tasks added from the widget. */
+    public synchronized List<TodoItem> getTodos() {
+        long version = opLog.version();
+        if (todos != null && mergedTodos != null && mergedTodosVersion == version) {
+            hits++;
+            return mergedTodos;
+        }
+        if (todos == null) {
+            misses++;
+            todos = loadTodos();
+        } else {
+            hits++;
+        }
+        mergedTodos = TodoList.applyOps(todos.items, opLog.pending());
+        mergedTodosVersion = version;
+        return mergedTodos;
+    }
+
+    /**
+     * Today's logs. Never writes: a stored day other than today reads as empty until
+     * rollOverHourly() archives it.
+     */
+    public synchronized HourlyLogs getHourlyLogs() {
+        String today = todayKey();
+        long version = opLog.version();
+        if (hourly != null && today.equals(hourly.dateKey) && mergedHourly != null && mergedHourlyVersion == version) {
+            hits++;
+            return mergedHourly;
+        }
+        if (hourly != null && today.equals(hourly.dateKey)) {
+            hits++;
+        } else {
+            misses++;
+            hourly = loadHourly(today);
+        }
+        mergedHourly = applyHourlyOps(hourly, opLog.pending());
+        mergedHourlyVersion = version;
+        return mergedHourly;
+    }
+
+    public synchronized void setTodoCompleted(String id, boolean completed) {
+        opLog.appendToggle(id, completed, System.currentTimeMillis());
+    }
+
+    /** The app gives widget-added tasks an empty targetDate, which lists them as pending. */
+    public synchronized void addTodo(String id, String text) {
+        opLog.appendAdd(id, text, System.currentTimeMillis());
+    }
+
+    public synchronized void setHourlyLog(int hour, String text) {
+        opLog.appendHourly(todayKey(), hour, text, System.currentTimeMillis());
+    }
+
+    /** Takes a snapshot the app just pushed; it is already on disk. */
+    public synchronized void installSnapshot(WidgetSnapshot pushed) {
+        snapshot = pushed;
+        snapshotChecked = true;
+        todos = new TodoSnapshot(pushed.todos, null);
+        hourly = snapshotHourly(pushed, todayKey());
+        mergedTodos = null;
+        mergedHourly = null;
+    }
+
+    public synchronized Stats getStats() {
+        return new Stats(hits, misses, invalidations, todos != null ? todos.items.size() : -1, opLog.pending().size());
+    }
+
+    private WidgetSnapshot snapshot() {
+        if (!snapshotChecked) {
+            snapshot = WidgetSnapshot.readFrom(snapshotFile);
+            snapshotChecked = true;
+        }
+        return snapshot;
+    }
+
+    private TodoSnapshot loadTodos() {
+        WidgetSnapshot pushed = snapshot();
+        if (pushed != null) {
+            return new TodoSnapshot(pushed.todos, null);
+        }
+        TodoSnapshot parsed = parseTodos(WidgetUtils.getString(context, KEY_TODOS));
+        return new TodoSnapshot(TodoList.sortedForDisplay(parsed.items), parsed.raw);
+    }
+
+    private static HourlyLogs snapshotHourly(WidgetSnapshot pushed, String today) {
+        // A snapshot from an earlier day has nothing for today
+        return new HourlyLogs(today, today.equals(pushed.dateKey) ? pushed.hourly : Collections.emptyMap(), null);
+    }
+
+    private HourlyLogs loadHourly(String today) {
+        WidgetSnapshot pushed = snapshot();
+        if (pushed != null) {
+            return snapshotHourly(pushed, today);
+        }
+        String raw = WidgetUtils.getString(context, KEY_HOURLY);
+        if (!today.equals(WidgetUtils.getString(context, KEY_HOURLY_DATE))) {
+            return new HourlyLogs(today, Collections.emptyMap(), raw);
+        }
+        return parseHourly(today, raw);
+    }
+
+    /**
+     * Moves the active hourly day into the archive when it is not today, with the widget
+     * edits made on that day applied, and starts an empty day. Returns the archived date,
+     * or null when the active day is already today. Edits stay in the op log as well, so
+     * the app still applies them when it drains.
+     */
+    public synchronized String rollOverHourly(HourlyArchive archive) throws IOException {
+        String today = todayKey();
+        WidgetSnapshot pushed = snapshot();
+        String activeDate = pushed != null ? pushed.dateKey : WidgetUtils.getString(context, KEY_HOURLY_DATE);
+        if (today.equals(activeDate)) return null;
+
+        if (activeDate != null) {
+            HourlyLogs active = pushed != null
+                ? new HourlyLogs(activeDate, pushed.hourly, null)
+                : parseHourly(activeDate, WidgetUtils.getString(context, KEY_HOURLY));
+            archive.put(activeDate, applyHourlyOps(active, opLog.pending()).entries);
+        }
+
+        if (pushed != null) {
+            WidgetSnapshot reset = new WidgetSnapshot(System.currentTimeMillis(), today, pushed.todos, Collections.emptyMap());
+            reset.writeTo(snapshotFile);
+            installSnapshot(reset);
+        } else {
+            WidgetUtils.setString(context, KEY_HOURLY, "{}");
+            WidgetUtils.setString(context, KEY_HOURLY_DATE, today);
+            invalidateHourly();
+        }
+        return activeDate;
+    }
+
+    private static HourlyLogs applyHourlyOps(HourlyLogs base, List<WidgetOp> ops) {
+        HourlyLogs result = base;
+        for (WidgetOp op : ops) {
+            if (WidgetOp.TYPE_HOURLY.equals(op.type) && base.dateKey.equals(op.date)) {
+                result = result.with(op.hour, op.text);
+            }
+        }
+        return result;
+    }
+
+    private synchronized void onPreferenceChanged(SharedPreferences sharedPreferences, String key) {
+        // A null key means the whole file was cleared (API 30+)
+        String name = key == null ? null : key.startsWith("_cap_") ? key.substring(5) : key;
+        boolean todosKey = name == null || KEY_TODOS.equals(name);
+        boolean hourlyKey = name == null || KEY_HOURLY.equals(name) || KEY_HOURLY_DATE.equals(name);
+        if (!todosKey && !hourlyKey) return;
+
+        if (snapshot() != null) {
+            // The app fell back to Preferences after a failed push; they are newer than the snapshot
+            dropSnapshot();
+            return;
+        }
+        if (todosKey && todos != null && (name == null || !Objects.equals(todos.raw, WidgetUtils.getString(context, KEY_TODOS)))) {
+            invalidateTodos();
+        }
+        if (hourlyKey && hourly != null && (name == null || !Objects.equals(hourly.raw, WidgetUtils.getString(context, KEY_HOURLY))
+                || !Objects.equals(hourly.dateKey, WidgetUtils.getString(context, KEY_HOURLY_DATE)))) {
+            invalidateHourly();
+        }
+    }
+
+    private void dropSnapshot() {
+        if (!snapshotFile.delete() && snapshotFile.exists()) {
+            Log.w(TAG, "Failed to delete widget snapshot " + snapshotFile);
+        }
+        snapshot = null;
+        snapshotChecked = false;
+        invalidateTodos();
+        invalidateHourly();
+    }
+
+    private void invalidateTodos() {
+        mergedTodos = null;
+        if (todos != null) {
+            todos = null;
+            invalidations++;
+        }
+    }
+
+    private void invalidateHourly() {
+        mergedHourly = null;
+        if (hourly != null) {
+            hourly = null;
+            invalidations++;
+        }
+    }
+
+    // Recomputed once a day instead of formatting a date on every read
+    private String todayKey() {
+        long now = System.currentTimeMillis();
+        if (todayKey == null || now >= nextMidnight) {
+            Calendar calendar = Calendar.getInstance();
+            calendar.setTimeInMillis(now);
+            todayKey = String.format(Locale.US, "%04d-%02d-%02d",
+                calendar.get(Calendar.YEAR), calendar.get(Calendar.MONTH) + 1, calendar.get(Calendar.DAY_OF_MONTH));
+            calendar.set(Calendar.HOUR_OF_DAY, 0);
+            calendar.set(Calendar.MINUTE, 0);
+            calendar.set(Calendar.SECOND, 0);
+            calendar.set(Calendar.MILLISECOND, 0);
+            calendar.add(Calendar.DAY_OF_MONTH, 1);
+            nextMidnight = calendar.getTimeInMillis();
+        }
+        return todayKey;
+    }
+
+    private static TodoSnapshot parseTodos(String raw) {
+        if (raw == null) {
+            return new TodoSnapshot(Collections.emptyList(), null);
+        }
+        try {
+            return new TodoSnapshot(TodoList.parse(raw), raw);
+        } catch (JSONException e) {
+            Log.e(TAG, "Failed to parse widget todos", e);
+            return new TodoSnapshot(Collections.emptyList(), raw);
+        }
+    }
+
+    private static HourlyLogs parseHourly(String dateKey, String raw) {
+        if (raw == null) {
+            return new HourlyLogs(dateKey, Collections.emptyMap(), null);
+        }
+        try {
+            JSONObject json = new JSONObject(raw);
+            Map<String, String> entries = new HashMap<>();
+            Iterator<String> keys = json.keys();
+            while (keys.hasNext()) {
+                String key = keys.next();
+                entries.put(key, json.optString(key, ""));
+            }
+            return new HourlyLogs(dateKey, entries, raw);
+        } catch (JSONException e) {
+            Log.e(TAG, "Failed to parse widget hourly logs", e);
+            return new HourlyLogs(dateKey, Collections.emptyMap(), raw);
+        }
+    }
+
+    private static final class TodoSnapshot {
+        final List<TodoItem> items;
+        final String raw;
+
+        TodoSnapshot(List<TodoItem> items, String raw) {
+            this.items = items;
+            this.raw = raw;
+        }
+    }
+
+    /** One day's hourly log entries keyed by hour of day. */
+    public static final class HourlyLogs {
+        public final String dateKey;
+        private final Map<String, String> entries;
+        private final String[] byHour = new String[24];
+        final String raw;
+
+        HourlyLogs(String dateKey, Map<String, String> entries, String raw) {
+            this.dateKey = dateKey;
+            this.entries = Collections.unmodifiableMap(entries);
+            this.raw = raw;
+            for (int hour = 0; hour < 24; hour++) {
+                byHour[hour] = entries.get(String.valueOf(hour));
+            }
+        }
+
+        /** The entry for the hour, or null. */
+        public String get(int hour) {
+            return hour >= 0 && hour < 24 ? byHour[hour] : null;
+        }
+
+        HourlyLogs with(int hour, String text) {
+            Map<String, String> updated = new HashMap<>(entries);
+            updated.put(String.valueOf(hour), text);
+            // Overlay only; never compared against the stored string
+            return new HourlyLogs(dateKey, updated, null);
+        }
+    }
+
+    public static final class Stats {
+        public final long hits;
+        public final long misses;
+        public final long invalidations;
+        // -1 while the todo list is not loaded
+        public final int cachedTodos;
+        public final int pendingOps;
+
+        Stats(long hits, long misses, long invalidations, int cachedTodos, int pendingOps) {
+            this.hits = hits;
+            this.misses = misses;
+            this.invalidations = invalidations;
+            this.cachedTodos = cachedTodos;
+            this.pendingOps = pendingOps;
+        }
+    }
+}
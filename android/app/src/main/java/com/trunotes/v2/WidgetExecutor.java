@@ -0,0 +1,55 @@
+package com.trunotes.v2;
+
+import android.content.BroadcastReceiver;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Single background thread for widget work: reading and parsing widget data, appending to
+ * the op log and building RemoteViews. One thread keeps mutations to the same store in
+ * order without extra locking, and keeps the receiver's main thread free, so taps on a
+ * busy launcher do not pile up into ANRs.
+ */
+public final class WidgetExecutor {
+    private static final String TAG = "WidgetExecutor";
+
+    private static final ExecutorService EXECUTOR = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "widget-worker");
+        thread.setPriority(Thread.NORM_PRIORITY - 1);
+        return thread;
+    });
+
+    private WidgetExecutor() {}
+
+    public static void execute(Runnable work) {
+        EXECUTOR.execute(work);
+    }
+
+    /**
+     * Runs a broadcast's work off the main thread. goAsync() keeps the receiver alive until
+     * the work finishes; widget broadcasts are background broadcasts, so the work has about
+     * ten seconds before the system treats it as an ANR.
+     */
+    public static void runAsync(BroadcastReceiver receiver, String label, Runnable work) {
+        long receivedAt = SystemClock.elapsedRealtimeNanos();
+        BroadcastReceiver.PendingResult pending = receiver.goAsync();
+        EXECUTOR.execute(() -> {
+            long startedAt = SystemClock.elapsedRealtimeNanos();
+            Tracer.counter("widget_queue_ms", (startedAt - receivedAt) / 1_000_000);
+            try (Tracer.Section trace = Tracer.begin(label)) {
+                work.run();
+            } catch (Exception e) {
+                Log.e(TAG, label + " failed", e);
+            } finally {
+                pending.finish();
+                long finishedAt = SystemClock.elapsedRealtimeNanos();
+                Log.d(TAG, label + ": queued " + (startedAt - receivedAt) / 1_000_000 + "ms, work " + (finishedAt - startedAt) / 1_000_000 + "ms");
+            }
+        });
+        // Everything the main thread spent on this broadcast after dispatch
+        Log.d(TAG, label + ": main thread " + (SystemClock.elapsedRealtimeNanos() - receivedAt) / 1000 + "us");
+    }
+}
@@ -0,0 +1,181 @@
+package com.trunotes.v2;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.trunotes.v2.core.WidgetOp;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Append-only log of edits made from the widgets (add task, toggle task, edit hourly entry).
+ *
+ * Each edit is one JSON line in filesDir, so a tap costs one small append instead of
+ * rewriting the whole todo array. The app drains the log on resume, applies just those
+ * edits and acknowledges them by sequence number, which truncates the file. Until then
+ * WidgetDataCache overlays the pending edits on the data the app last pushed.
+ */
+public final class WidgetOpLog {
+    private static final String TAG = "WidgetOpLog";
+    private static final String FILE_NAME = "widget_ops.jsonl";
+    // Squash the file once it holds this many ops without the app draining it
+    private static final int COMPACT_THRESHOLD = 256;
+
+    private static WidgetOpLog instance;
+
+    private final File file;
+    private List<WidgetOp> ops;
+    private long lastSeq;
+    private long version;
+
+    public static synchronized WidgetOpLog get(Context context) {
+        if (instance == null) {
+            instance = new WidgetOpLog(new File(context.getApplicationContext().getFilesDir(), FILE_NAME));
+        }
+        return instance;
+    }
+
+    private WidgetOpLog(File file) {
+        this.file = file;
+    }
+
+    public static final class Drain {
+        public final List<WidgetOp> ops;
+        // Pass back to ack() once the ops are applied
+        public final long upToSeq;
+
+        Drain(List<WidgetOp> ops, long upToSeq) {
+            this.ops = ops;
+            this.upToSeq = upToSeq;
+        }
+    }
+
+    public synchronized WidgetOp appendAdd(String todoId, String text, long now) {
+        return append(new WidgetOp(lastSeq + 1, UUID.randomUUID().toString(), WidgetOp.TYPE_ADD, now, todoId, false, text, null, -1));
+    }
+
+    public synchronized WidgetOp appendToggle(String todoId, boolean completed, long now) {
+        return append(new WidgetOp(lastSeq + 1, UUID.randomUUID().toString(), WidgetOp.TYPE_TOGGLE, now, todoId, completed, null, null, -1));
+    }
+
+    public synchronized WidgetOp appendHourly(String date, int hour, String text, long now) {
+        return append(new WidgetOp(lastSeq + 1, UUID.randomUUID().toString(), WidgetOp.TYPE_HOURLY, now, null, false, text, date, hour));
+    }
+
+    /** Pending ops in log order, uncompacted. */
+    public synchronized List<WidgetOp> pending() {
+        load();
+        return ops;
+    }
+
+    /** Bumped on every append and ack so readers can tell when to re-apply the overlay. */
+    public synchronized long version() {
+        return version;
+    }
+
+    /** Compacted pending ops for the app to apply. The log is unchanged until ack(). */
+    public synchronized Drain drain() {
+        load();
+        return new Drain(WidgetOp.compact(ops), lastSeq);
+    }
+
+    /** Drops every op up to and including upToSeq; returns how many remain. */
+    public synchronized int ack(long upToSeq) {
+        load();
+        List<WidgetOp> remaining = new ArrayList<>();
+        for (WidgetOp op : ops) {
+            if (op.seq > upToSeq) remaining.add(op);
+        }
+        if (remaining.size() != ops.size()) {
+            rewrite(remaining);
+        }
+        return ops.size();
+    }
+
+    private WidgetOp append(WidgetOp op) {
+        load();
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(file, true), StandardCharsets.UTF_8)) {
+            writer.write(op.toJson().toString());
+            writer.write('\n');
+        } catch (IOException | JSONException e) {
+            Log.e(TAG, "Failed to append widget op", e);
+            return null;
+        }
+
+        List<WidgetOp> updated = new ArrayList<>(ops);
+        updated.add(op);
+        ops = Collections.unmodifiableList(updated);
+        lastSeq = op.seq;
+        version++;
+
+        if (ops.size() > COMPACT_THRESHOLD) {
+            rewrite(WidgetOp.compact(ops));
+        }
+        return op;
+    }
+
+    private void load() {
+        if (ops != null) return;
+        List<WidgetOp> loaded = new ArrayList<>();
+        if (file.exists()) {
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (line.isEmpty()) continue;
+                    try {
+                        WidgetOp op = WidgetOp.fromJson(new JSONObject(line));
+                        loaded.add(op);
+                        lastSeq = Math.max(lastSeq, op.seq);
+                    } catch (JSONException e) {
+                        // A torn final line from a killed process; everything before it is intact
+                        Log.w(TAG, "Skipping unreadable widget op line");
+                    }
+                }
+            } catch (IOException e) {
+                Log.e(TAG, "Failed to read widget op log", e);
+            }
+        }
+        ops = Collections.unmodifiableList(loaded);
+    }
+
+    // Write-then-rename so a crash mid-rewrite leaves the old log in place
+    private void rewrite(List<WidgetOp> remaining) {
+        if (remaining.isEmpty()) {
+            if (file.exists() && !file.delete()) {
+                Log.w(TAG, "Failed to delete widget op log");
+            }
+        } else {
+            File temp = new File(file.getPath() + ".tmp");
+            try (Writer writer = new OutputStreamWriter(new FileOutputStream(temp), StandardCharsets.UTF_8)) {
+                for (WidgetOp op : remaining) {
+                    writer.write(op.toJson().toString());
+                    writer.write('\n');
+                }
+            } catch (IOException | JSONException e) {
+                Log.e(TAG, "Failed to rewrite widget op log", e);
+                return;
+            }
+            if (!temp.renameTo(file)) {
+                Log.e(TAG, "Failed to replace widget op log");
+                return;
+            }
+        }
+        ops = Collections.unmodifiableList(new ArrayList<>(remaining));
+        version++;
+    }
+}
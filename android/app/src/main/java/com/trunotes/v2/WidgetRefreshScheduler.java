@@ -0,0 +1,150 @@
+package com.trunotes.v2;
+
+import android.appwidget.AppWidgetManager;
+import android.content.ComponentName;
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * Coalesces widget refresh requests per widget type.
+ *
+ * The app asks for a refresh after every save, so typing used to rebuild the widgets once
+ * per keystroke. Requests for a type that arrive within DEBOUNCE_MS of each other merge
+ * into one refresh (at most MAX_WAIT_MS after the first, so a long burst still shows
+ * progress). A merged todo refresh only tells the list its data changed; the widget's
+ * RemoteViews are rebuilt only when a request said the layout changed. The hourly widget
+ * has no list; it gets a partial update of its label and text unless the layout changed.
+ */
+public final class WidgetRefreshScheduler {
+    private static final String TAG = "WidgetRefreshScheduler";
+
+    public static final int TODO = 1;
+    public static final int HOURLY = 1 << 1;
+    public static final int ALL = TODO | HOURLY;
+
+    private static final long DEBOUNCE_MS = 300;
+    private static final long MAX_WAIT_MS = 1500;
+
+    private static WidgetRefreshScheduler instance;
+
+    private final Context context;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Slot todo = new Slot(TODO);
+    private final Slot hourly = new Slot(HOURLY);
+
+    public static synchronized WidgetRefreshScheduler get(Context context) {
+        if (instance == null) {
+            instance = new WidgetRefreshScheduler(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private WidgetRefreshScheduler(Context context) {
+        this.context = context;
+    }
+
+    /** Requested vs performed refreshes for one widget type. */
+    public static final class Counts {
+        public final long requested;
+        public final long performed;
+        public final long layoutRebuilds;
+
+        Counts(long requested, long performed, long layoutRebuilds) {
+            this.requested = requested;
+            this.performed = performed;
+            this.layoutRebuilds = layoutRebuilds;
+        }
+    }
+
+    private final class Slot {
+        final int type;
+        final Runnable flush = this::flush;
+        boolean pending;
+        boolean layoutChanged;
+        long firstRequestAt;
+        long requested;
+        long performed;
+        long layoutRebuilds;
+
+        Slot(int type) {
+            this.type = type;
+        }
+
+        // Called with the scheduler locked
+        void request(boolean layout) {
+            requested++;
+            layoutChanged |= layout;
+            long now = SystemClock.uptimeMillis();
+            if (!pending) {
+                pending = true;
+                firstRequestAt = now;
+            }
+            long delay = Math.max(0, Math.min(DEBOUNCE_MS, firstRequestAt + MAX_WAIT_MS - now));
+            handler.removeCallbacks(flush);
+            handler.postDelayed(flush, delay);
+        }
+
+        private void flush() {
+            boolean layout;
+            synchronized (WidgetRefreshScheduler.this) {
+                if (!pending) return;
+                pending = false;
+                layout = layoutChanged;
+                layoutChanged = false;
+            }
+            WidgetExecutor.execute(() -> perform(this, layout));
+        }
+    }
+
+    /**
+     * Asks for a refresh of the given widget types (TODO, HOURLY or ALL). Pass layoutChanged
+     * when more than the todo list's data changed, e.g. after the widget's header or intents
+     * changed.
+     */
+    public synchronized void request(int types, boolean layoutChanged) {
+        if ((types & TODO) != 0) todo.request(layoutChanged);
+        if ((types & HOURLY) != 0) hourly.request(layoutChanged);
+    }
+
+    public synchronized Counts counts(int type) {
+        Slot slot = type == TODO ? todo : hourly;
+        return new Counts(slot.requested, slot.performed, slot.layoutRebuilds);
+    }
+
+    // Runs on the widget thread
+    private void perform(Slot slot, boolean layoutChanged) {
+        AppWidgetManager mgr = AppWidgetManager.getInstance(context);
+        boolean rebuilt = false;
+        int[] ids;
+        if (slot.type == TODO) {
+            ids = mgr.getAppWidgetIds(new ComponentName(context, TodoWidget.class));
+            if (ids.length == 0) return;
+            if (layoutChanged) {
+                for (int id : ids) TodoWidget.updateAppWidget(context, mgr, id);
+                rebuilt = true;
+            }
+            mgr.notifyAppWidgetViewDataChanged(ids, R.id.todo_list);
+        } else {
+            ids = mgr.getAppWidgetIds(new ComponentName(context, HourlyWidget.class));
+            if (ids.length == 0) return;
+            for (int id : ids) {
+                if (layoutChanged) {
+                    HourlyWidget.updateAppWidget(context, mgr, id);
+                } else {
+                    HourlyWidget.updateContent(context, mgr, id);
+                }
+            }
+            rebuilt = layoutChanged;
+        }
+
+        synchronized (this) {
+            slot.performed++;
+            if (rebuilt) slot.layoutRebuilds++;
+            Log.d(TAG, (slot.type == TODO ? "Todo" : "Hourly") + " refresh of " + ids.length + " widget(s): "
+                + slot.performed + " performed / " + slot.requested + " requested");
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package com.trunotes.v2;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.trunotes.v2.core.TodoItem;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Widget data as the app pushes it through WidgetBridge.pushSnapshot: the visible tasks
+ * already sorted for display and today's hourly entries, in a small binary file the
+ * providers read without going through SharedPreferences or JSON.
+ *
+ * Layout (big-endian, strings are int length + UTF-8 bytes):
+ * magic, version, generatedAt, dateKey, todo count, todos (id, text, completed byte,
+ * createdAt, updatedAt), hourly count, entries (hour byte, text).
+ */
+public final class WidgetSnapshot {
+    private static final String TAG = "WidgetSnapshot";
+    private static final String FILE_NAME = "widget_snapshot.bin";
+
+    private static final int MAGIC = 0x544E5753; // "TNWS"
+    private static final int VERSION = 1;
+
+    public final long generatedAt;
+    public final String dateKey;
+    /** Display order, unmodifiable. */
+    public final List<TodoItem> todos;
+    /** Keyed by hour of day as a string, unmodifiable. */
+    public final Map<String, String> hourly;
+
+    public WidgetSnapshot(long generatedAt, String dateKey, List<TodoItem> todos, Map<String, String> hourly) {
+        this.generatedAt = generatedAt;
+        this.dateKey = dateKey;
+        this.todos = Collections.unmodifiableList(new ArrayList<>(todos));
+        this.hourly = Collections.unmodifiableMap(new HashMap<>(hourly));
+    }
+
+    public static File file(Context context) {
+        return new File(context.getFilesDir(), FILE_NAME);
+    }
+
+    /** Writes to a temp file and renames it over the old one, so readers never see half a file. */
+    public void writeTo(File file) throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(generatedAt);
+            writeString(out, dateKey);
+
+            out.writeInt(todos.size());
+            for (TodoItem todo : todos) {
+                writeString(out, todo.id);
+                writeString(out, todo.text);
+                out.writeByte(todo.completed ? 1 : 0);
+                out.writeLong(todo.createdAt);
+                out.writeLong(todo.updatedAt);
+            }
+
+            out.writeInt(hourly.size());
+            for (Map.Entry<String, String> entry : hourly.entrySet()) {
+                out.writeByte(Integer.parseInt(entry.getKey()));
+                writeString(out, entry.getValue());
+            }
+        }
+        if (!temp.renameTo(file)) {
+            throw new IOException("Failed to replace " + file.getName());
+        }
+    }
+
+    /** The stored snapshot, or null when there is none or it cannot be read. */
+    public static WidgetSnapshot readFrom(File file) {
+        if (!file.exists()) return null;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                Log.w(TAG, "Ignoring widget snapshot with unknown format");
+                return null;
+            }
+            long generatedAt = in.readLong();
+            String dateKey = readString(in);
+
+            int todoCount = in.readInt();
+            List<TodoItem> todos = new ArrayList<>(todoCount);
+            for (int i = 0; i < todoCount; i++) {
+                String id = readString(in);
+                String text = readString(in);
+                boolean completed = in.readByte() != 0;
+                long createdAt = in.readLong();
+                long updatedAt = in.readLong();
+                todos.add(new TodoItem(id, text, completed, createdAt, updatedAt));
+            }
+
+            int hourlyCount = in.readInt();
+            Map<String, String> hourly = new HashMap<>(hourlyCount * 2);
+            for (int i = 0; i < hourlyCount; i++) {
+                int hour = in.readByte();
+                hourly.put(String.valueOf(hour), readString(in));
+            }
+            return new WidgetSnapshot(generatedAt, dateKey, todos, hourly);
+        } catch (IOException | RuntimeException e) {
+            Log.e(TAG, "Failed to read widget snapshot", e);
+            return null;
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = (value != null ? value : "").getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > 1 << 20) throw new IOException("Bad string length " + length);
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
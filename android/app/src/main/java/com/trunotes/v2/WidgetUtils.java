@@ -2,14 +2,10 @@ package com.trunotes.v2;
 
 import android.content.Context;
 import android.content.SharedPreferences;
-import org.json.JSONArray;
-import org.json.JSONObject;
-import java.util.ArrayList;
-import java.util.List;
 
 public class WidgetUtils {
     // Capacitor Preferences storage name
-    private static final String PREFS_NAME = "CapacitorStorage";
+    static final String PREFS_NAME = "CapacitorStorage";
 
     public static String getString(Context context, String key) {
         SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
@@ -30,47 +26,4 @@ public class WidgetUtils {
             .putString(key, value)
             .apply();
     }
-
-    public static List<JSONObject> getTodos(Context context) {
-        List<JSONObject> list = new ArrayList<>();
-        try {
-            String json = getString(context, "widget_todos");
-            if (json != null) {
-                JSONArray array = new JSONArray(json);
-                for (int i = 0; i < array.length(); i++) {
-                    list.add(array.getJSONObject(i));
-                }
-            }
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
-        return list;
-    }
-
-    private static String getTodayDateKey() {
-        java.text.SimpleDateFormat sdf = new java.text.SimpleDateFormat("yyyy-MM-dd", java.util.Locale.US);
-        return sdf.format(new java.util.Date());
-    }
-
-    public static JSONObject getHourlyLogs(Context context) {
-        try {
-            String storedDate = getString(context, "widget_hourly_date");
-            String today = getTodayDateKey();
-            
-            if (storedDate == null || !storedDate.equals(today)) {
-                // Clear old logs for a new day
-                setString(context, "widget_hourly", "{}");
-                setString(context, "widget_hourly_date", today);
-                return new JSONObject();
-            }
-
-            String json = getString(context, "widget_hourly");
-            if (json != null) {
-                return new JSONObject(json);
-            }
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
-        return new JSONObject();
-    }
 }
@@ -0,0 +1,65 @@
+package com.trunotes.v2.ai;
+
+import android.content.Context;
+
+import com.trunotes.v2.core.inference.InferenceEngine;
+import com.trunotes.v2.core.inference.ResponseCache;
+
+import java.io.File;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * The process-wide engine AIBridge and VoiceNotesWorker share; LlamaEngine unless replaced.
+ * Both use whatever generative model is loaded and hold it while they do, so neither frees
+ * the model under the other.
+ */
+public final class InferenceEngines {
+    private static final String RESPONSE_CACHE_DIR = "response_cache";
+    private static final long RESPONSE_CACHE_BYTES = 2L * 1024 * 1024;
+
+    private static InferenceEngine engine;
+    private static ResponseCache responseCache;
+    // Owners using the generative model now; the last one to let go unloads it
+    private static final Set<Object> modelHolders = new HashSet<>();
+
+    private InferenceEngines() {}
+
+    public static synchronized InferenceEngine get() {
+        if (engine == null) engine = new LlamaEngine();
+        return engine;
+    }
+
+    /** Swaps the engine, e.g. a SimulatedEngine in instrumentation tests. Unload the old one first. */
+    public static synchronized void set(InferenceEngine replacement) {
+        engine = replacement;
+    }
+
+    /**
+     * Marks owner as using the generative model, whoever loaded it, until releaseModel. Hold
+     * before checking what is loaded, so the model cannot be released in between.
+     */
+    public static synchronized void holdModel(Object owner) {
+        modelHolders.add(owner);
+    }
+
+    /**
+     * Drops owner's hold; once nobody holds the generative model it is unloaded. A no-op
+     * for an owner that held nothing.
+     */
+    public static synchronized void releaseModel(Object owner) {
+        if (!modelHolders.remove(owner) || !modelHolders.isEmpty()) return;
+        String path = get().modelPath();
+        if (path == null) return;
+        if (responseCache != null) responseCache.stop();
+        get().unload(path);
+    }
+
+    /** Repeatable responses of the engine, kept under the app's files across restarts. */
+    public static synchronized ResponseCache responseCache(Context context) {
+        if (responseCache == null) {
+            responseCache = new ResponseCache(new File(context.getApplicationContext().getFilesDir(), RESPONSE_CACHE_DIR), RESPONSE_CACHE_BYTES);
+        }
+        return responseCache;
+    }
+}
@@ -0,0 +1,143 @@
+package com.trunotes.v2.ai;
+
+import com.trunotes.v2.Tracer;
+import com.trunotes.v2.core.inference.InferenceEngine;
+
+/**
+ * InferenceEngine backed by llama.cpp through libllama-android. The native side keeps one
+ * generative and one embedding model for the whole process, so there is a single instance
+ * (see InferenceEngines). Each model has its own native locks: embed runs while a generation
+ * streams, and token counts only wait for a model load. Concurrent generate calls are
+ * decoded together (continuous batching), each streaming on its own thread; a
+ * StopSignal reaches its call through a native flag only that call checks.
+ *
+ * The library is loaded by the first load() (LlamaLibrary). Until then no model can be
+ * loaded, so the other calls answer as if none were, without touching native code.
+ */
+public final class LlamaEngine implements InferenceEngine {
+
+    // The native side calls onNativeToken on the thread that called generate
+    private final ThreadLocal<TokenListener> listener = new ThreadLocal<>();
+    // Last Tracer switch passed to native_trace.h
+    private volatile boolean nativeTracing;
+
+    LlamaEngine() {}
+
+    @Override
+    public boolean load(String path, ModelOptions options) {
+        if (!LlamaLibrary.ensureLoaded()) return false;
+        syncTracing();
+        return nativeLoadModel(path, options.useMmap, options.threads, options.gpuLayers, options.nCtx);
+    }
+
+    @Override
+    public String generate(String prompt, GenerationParams params, TokenListener listener, StopSignal stop) {
+        if (!LlamaLibrary.isReady()) return "Error: Model not loaded";
+        syncTracing();
+        // The flag is freed only once the signal can no longer set it
+        long stopFlag = stop == null ? 0 : nativeNewStopFlag();
+        if (stop != null) stop.onStop(() -> nativeSetStopFlag(stopFlag));
+        this.listener.set(listener);
+        try {
+            return nativeGenerate(prompt, params.nPredict, params.temperature, params.topK, params.topP, params.penalty, params.threads, params.seed, stopFlag);
+        } finally {
+            this.listener.remove();
+            if (stop != null) {
+                stop.onStop(null);
+                nativeFreeStopFlag(stopFlag);
+            }
+        }
+    }
+
+    @Override
+    public float[] embed(String text) {
+        if (!LlamaLibrary.isReady()) return null;
+        syncTracing();
+        return nativeEmbed(text);
+    }
+
+    @Override
+    public void stop() {
+        if (LlamaLibrary.isReady()) nativeStopGenerate();
+    }
+
+    @Override
+    public void unload() {
+        if (LlamaLibrary.isReady()) nativeUnloadModel();
+    }
+
+    @Override
+    public boolean unload(String path) {
+        return LlamaLibrary.isReady() && nativeUnloadModelPath(path);
+    }
+
+    @Override
+    public int[] countTokens(String[] texts) {
+        return LlamaLibrary.isReady() ? nativeCountTokens(texts) : null;
+    }
+
+    @Override
+    public int[][] tokenize(String[] texts) {
+        return LlamaLibrary.isReady() ? nativeTokenize(texts) : null;
+    }
+
+    @Override
+    public String truncate(String text, int maxTokens, boolean keepTail) {
+        return LlamaLibrary.isReady() ? nativeTruncate(text, maxTokens, keepTail) : null;
+    }
+
+    @Override
+    public int contextSize() {
+        return LlamaLibrary.isReady() ? nativeContextSize() : 0;
+    }
+
+    @Override
+    public String modelPath() {
+        return LlamaLibrary.isReady() ? nativeModelPath(false) : null;
+    }
+
+    @Override
+    public String embeddingModelPath() {
+        return LlamaLibrary.isReady() ? nativeModelPath(true) : null;
+    }
+
+    /**
+     * Prefill/decode measurements of the loaded generative model as a JSON array, one entry
+     * per configuration; null when no model is loaded. Only the native engine has one.
+     */
+    public String benchmark(int pp, int tg, int reps, int[] threads, int[] batches, int[] contexts, String[] kvTypes) {
+        if (!LlamaLibrary.isReady()) return null;
+        return nativeBenchmark(pp, tg, reps, threads, batches, contexts, kvTypes);
+    }
+
+    private void syncTracing() {
+        boolean enabled = Tracer.isEnabled();
+        if (enabled != nativeTracing) {
+            nativeSetTracing(enabled);
+            nativeTracing = enabled;
+        }
+    }
+
+    // Called from C++ JNI on the generating thread
+    private void onNativeToken(String token) {
+        TokenListener current = listener.get();
+        if (current != null) current.onToken(token);
+    }
+
+    private native boolean nativeLoadModel(String filename, boolean useMmap, int nThreads, int nGpuLayers, int nCtx);
+    private native String nativeGenerate(String prompt, int nPredict, float temperature, int topK, float topP, float penalty, int nThreads, int seed, long stopFlag);
+    private native void nativeStopGenerate();
+    private native long nativeNewStopFlag();
+    private native void nativeSetStopFlag(long flag);
+    private native void nativeFreeStopFlag(long flag);
+    private native void nativeUnloadModel();
+    private native boolean nativeUnloadModelPath(String path);
+    private native float[] nativeEmbed(String text);
+    private native int[] nativeCountTokens(String[] texts);
+    private native int[][] nativeTokenize(String[] texts);
+    private native String nativeTruncate(String text, int maxTokens, boolean keepTail);
+    private native int nativeContextSize();
+    private native String nativeModelPath(boolean embedding);
+    private native void nativeSetTracing(boolean enabled);
+    private native String nativeBenchmark(int pp, int tg, int reps, int[] threads, int[] batches, int[] contexts, String[] kvTypes);
+}
@@ -0,0 +1,114 @@
+package com.trunotes.v2.ai;
+
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.trunotes.v2.Tracer;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Loads libllama-android on first use instead of at class-load time. The library pulls in
+ * llama and ggml (several MB of code to map and relocate), which app starts and widget
+ * launches that never touch the AI stack should not pay for.
+ *
+ * Loading runs on its own background thread; preload() starts it and returns, ensureLoaded()
+ * waits for it. Listeners hear every status change (AIBridge forwards them as the
+ * "engineStatus" event).
+ */
+public final class LlamaLibrary {
+    private static final String TAG = "LlamaLibrary";
+    private static final String NAME = "llama-android";
+
+    public enum Status { NOT_LOADED, LOADING, READY, FAILED }
+
+    public interface Listener {
+        /** Called on the thread that changed the status; error is set for FAILED. */
+        void onStatus(Status status, String error);
+    }
+
+    private static final ExecutorService LOADER = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(() -> {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+            runnable.run();
+        }, "llama-loader");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private static final CopyOnWriteArrayList<Listener> LISTENERS = new CopyOnWriteArrayList<>();
+
+    private static volatile Status status = Status.NOT_LOADED;
+    private static volatile String error;
+    private static Future<Boolean> pending;
+
+    private LlamaLibrary() {}
+
+    public static Status status() {
+        return status;
+    }
+
+    public static String error() {
+        return error;
+    }
+
+    public static boolean isReady() {
+        return status == Status.READY;
+    }
+
+    public static void addListener(Listener listener) {
+        LISTENERS.addIfAbsent(listener);
+    }
+
+    public static void removeListener(Listener listener) {
+        LISTENERS.remove(listener);
+    }
+
+    /** Starts loading in the background unless it already has; returns at once. */
+    public static synchronized Future<Boolean> preload() {
+        if (pending == null) {
+            status = Status.LOADING;
+            notifyStatus();
+            pending = LOADER.submit(LlamaLibrary::load);
+        }
+        return pending;
+    }
+
+    /** Loads the library if needed and waits for it. Call off the main thread. True when usable. */
+    public static boolean ensureLoaded() {
+        if (status == Status.READY) return true;
+        try {
+            return preload().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (ExecutionException e) {
+            return false;
+        }
+    }
+
+    private static boolean load() {
+        long startedAt = SystemClock.elapsedRealtime();
+        try (Tracer.Section trace = Tracer.begin("loadLibrary " + NAME)) {
+            System.loadLibrary(NAME);
+            status = Status.READY;
+            Log.d(TAG, "Native library '" + NAME + "' loaded in " + (SystemClock.elapsedRealtime() - startedAt) + "ms");
+        } catch (UnsatisfiedLinkError e) {
+            error = e.getMessage();
+            status = Status.FAILED;
+            Log.e(TAG, "Failed to load native library '" + NAME + "': " + e.getMessage());
+        }
+        notifyStatus();
+        return status == Status.READY;
+    }
+
+    private static void notifyStatus() {
+        for (Listener listener : LISTENERS) {
+            listener.onStatus(status, error);
+        }
+    }
+}
@@ -0,0 +1,296 @@
+package com.trunotes.v2.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+
+import com.trunotes.v2.core.rag.AskPipeline;
+import com.trunotes.v2.core.rag.Bm25Index;
+import com.trunotes.v2.core.rag.NoteChunk;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Native copy of the notes, todos and journal logs that AIBridge.ask retrieves from, cut
+ * into chunks with their embeddings. The JS side keeps it in sync (indexNotes) by comparing
+ * the version it last sent for each item, so a question never ships the notes over the
+ * bridge.
+ *
+ * Chunks arrive without embeddings (unless the JS side already had one for a single-chunk
+ * item); EmbeddingIndexWorker fills them in later, off the interactive path. Retrieval
+ * scans every chunk, so the chunks are held in memory after the first ask and reloaded
+ * only after a write. Keyword search goes through an in-memory BM25 index that is updated
+ * in place.
+ */
+public class NoteIndexStore extends SQLiteOpenHelper implements AskPipeline.ChunkSource {
+    private static final String DB_NAME = "note_index.db";
+    private static final int DB_VERSION = 2;
+
+    private static final String ITEMS = "items";
+    private static final String CHUNKS = "chunks";
+
+    private static NoteIndexStore instance;
+
+    private volatile List<NoteChunk> snapshot;
+    // Bumped by every write; a loaded list is published only if no write committed meanwhile
+    private final AtomicLong generation = new AtomicLong();
+    // Guarded by this
+    private Bm25Index keywordIndex;
+
+    public static synchronized NoteIndexStore getInstance(Context context) {
+        if (instance == null) {
+            instance = new NoteIndexStore(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private NoteIndexStore(Context context) {
+        super(context, DB_NAME, null, DB_VERSION);
+        setWriteAheadLoggingEnabled(true);
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        // One row per indexed item; version is opaque to this side
+        db.execSQL("CREATE TABLE " + ITEMS + " (id TEXT PRIMARY KEY, version TEXT NOT NULL)");
+        db.execSQL("CREATE TABLE " + CHUNKS + " ("
+            + "id TEXT PRIMARY KEY, "
+            + "item_id TEXT NOT NULL, "
+            + "type TEXT NOT NULL, "
+            + "title TEXT, "
+            + "text TEXT, "
+            + "updated_at INTEGER NOT NULL DEFAULT 0, "
+            // float32, little-endian; null until embedded
+            + "embedding BLOB)");
+        db.execSQL("CREATE INDEX idx_chunks_item ON " + CHUNKS + " (item_id)");
+        createPendingIndex(db);
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        if (oldVersion < 2) {
+            createPendingIndex(db);
+        }
+    }
+
+    // Embedding queue scan: only chunks still waiting for a vector live in this index
+    private static void createPendingIndex(SQLiteDatabase db) {
+        db.execSQL("CREATE INDEX idx_chunks_pending ON " + CHUNKS + " (updated_at, id) WHERE embedding IS NULL");
+    }
+
+    /** Index size and embedding backlog, for scheduling and the stats the UI shows. */
+    public static class Stats {
+        public final int items;
+        public final int chunks;
+        public final int pending;
+        public final long pendingChars;
+        public final long oldestPendingUpdatedAt;
+
+        Stats(int items, int chunks, int pending, long pendingChars, long oldestPendingUpdatedAt) {
+            this.items = items;
+            this.chunks = chunks;
+            this.pending = pending;
+            this.pendingChars = pendingChars;
+            this.oldestPendingUpdatedAt = oldestPendingUpdatedAt;
+        }
+    }
+
+    public Stats getStats() {
+        SQLiteDatabase db = getReadableDatabase();
+        int items;
+        int chunks;
+        try (Cursor cursor = db.rawQuery("SELECT (SELECT COUNT(*) FROM " + ITEMS + "), COUNT(*) FROM " + CHUNKS, null)) {
+            cursor.moveToFirst();
+            items = cursor.getInt(0);
+            chunks = cursor.getInt(1);
+        }
+        try (Cursor cursor = db.rawQuery("SELECT COUNT(*), TOTAL(LENGTH(title) + LENGTH(text)), MIN(updated_at) FROM "
+                + CHUNKS + " WHERE " + PENDING_WHERE, null)) {
+            if (!cursor.moveToFirst()) return new Stats(items, chunks, 0, 0, 0);
+            return new Stats(items, chunks, cursor.getInt(0), (long) cursor.getDouble(1), cursor.isNull(2) ? 0 : cursor.getLong(2));
+        }
+    }
+
+    // Spelled out literally so the planner can pick the partial index
+    private static final String PENDING_WHERE = "embedding IS NULL";
+
+    /**
+     * Oldest-first chunks without an embedding, after the given (updatedAt, id) cursor. The
+     * cursor lets the worker step past chunks it could not embed.
+     */
+    public List<NoteChunk> listPending(long afterUpdatedAt, String afterId, int limit) {
+        List<NoteChunk> pending = new ArrayList<>();
+        try (Cursor cursor = getReadableDatabase().query(CHUNKS,
+                new String[] { "id", "item_id", "type", "title", "text", "updated_at" },
+                PENDING_WHERE + " AND (updated_at > ? OR (updated_at = ? AND id > ?))",
+                new String[] { String.valueOf(afterUpdatedAt), String.valueOf(afterUpdatedAt), afterId },
+                null, null, "updated_at, id", String.valueOf(limit))) {
+            while (cursor.moveToNext()) {
+                pending.add(new NoteChunk(cursor.getString(0), cursor.getString(1), cursor.getString(2),
+                        cursor.getString(3), cursor.getString(4), cursor.getLong(5), null));
+            }
+        }
+        return pending;
+    }
+
+    /**
+     * Stores the embeddings of a batch in one transaction. A chunk whose title or text changed
+     * since it was read (the item was re-indexed meanwhile) is left alone: its vector would
+     * describe the old text. Returns how many were stored.
+     */
+    public int setEmbeddings(List<NoteChunk> embedded) {
+        int stored = 0;
+        SQLiteDatabase db = getWritableDatabase();
+        db.beginTransaction();
+        try {
+            for (NoteChunk chunk : embedded) {
+                if (chunk.embedding == null) continue;
+                ContentValues values = new ContentValues();
+                values.put("embedding", toBlob(chunk.embedding));
+                stored += db.update(CHUNKS, values, "id = ? AND title = ? AND text = ?",
+                        new String[] { chunk.id, chunk.title, chunk.text });
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        if (stored > 0) invalidateSnapshot();
+        return stored;
+    }
+
+    /** Indexed item ids with the version they were indexed at. */
+    public Map<String, String> itemVersions() {
+        Map<String, String> versions = new HashMap<>();
+        try (Cursor cursor = getReadableDatabase().query(ITEMS, new String[] { "id", "version" },
+                null, null, null, null, null)) {
+            while (cursor.moveToNext()) {
+                versions.put(cursor.getString(0), cursor.getString(1));
+            }
+        }
+        return versions;
+    }
+
+    /** Replaces all chunks of one item. */
+    public void replaceItem(String itemId, String version, List<NoteChunk> chunks) {
+        SQLiteDatabase db = getWritableDatabase();
+        db.beginTransaction();
+        try {
+            db.delete(CHUNKS, "item_id = ?", new String[] { itemId });
+            for (NoteChunk chunk : chunks) {
+                ContentValues values = new ContentValues();
+                values.put("id", chunk.id);
+                values.put("item_id", chunk.itemId);
+                values.put("type", chunk.type);
+                values.put("title", chunk.title);
+                values.put("text", chunk.text);
+                values.put("updated_at", chunk.updatedAt);
+                if (chunk.embedding != null) values.put("embedding", toBlob(chunk.embedding));
+                db.insertWithOnConflict(CHUNKS, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+            }
+            ContentValues item = new ContentValues();
+            item.put("id", itemId);
+            item.put("version", version);
+            db.insertWithOnConflict(ITEMS, null, item, SQLiteDatabase.CONFLICT_REPLACE);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        invalidateSnapshot();
+        synchronized (this) {
+            if (keywordIndex != null) keywordIndex.replaceItem(itemId, chunks);
+        }
+    }
+
+    public void removeItems(List<String> itemIds) {
+        if (itemIds.isEmpty()) return;
+        SQLiteDatabase db = getWritableDatabase();
+        db.beginTransaction();
+        try {
+            for (String itemId : itemIds) {
+                String[] args = { itemId };
+                db.delete(CHUNKS, "item_id = ?", args);
+                db.delete(ITEMS, "id = ?", args);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        invalidateSnapshot();
+        synchronized (this) {
+            if (keywordIndex != null) {
+                for (String itemId : itemIds) keywordIndex.removeItem(itemId);
+            }
+        }
+    }
+
+    /**
+     * BM25 index over all chunks, built from the table on first use and then kept current by
+     * replaceItem and removeItems.
+     */
+    public synchronized Bm25Index keywordIndex() {
+        if (keywordIndex == null) {
+            Map<String, List<NoteChunk>> byItem = new HashMap<>();
+            for (NoteChunk chunk : chunks()) {
+                byItem.computeIfAbsent(chunk.itemId, id -> new ArrayList<>()).add(chunk);
+            }
+            Bm25Index index = new Bm25Index();
+            for (Map.Entry<String, List<NoteChunk>> entry : byItem.entrySet()) {
+                index.replaceItem(entry.getKey(), entry.getValue());
+            }
+            keywordIndex = index;
+        }
+        return keywordIndex;
+    }
+
+    @Override
+    public List<NoteChunk> chunks() {
+        List<NoteChunk> current = snapshot;
+        if (current != null) return current;
+
+        long loadedAt = generation.get();
+        List<NoteChunk> loaded = new ArrayList<>();
+        try (Cursor cursor = getReadableDatabase().query(CHUNKS,
+                new String[] { "id", "item_id", "type", "title", "text", "updated_at", "embedding" },
+                null, null, null, null, null)) {
+            while (cursor.moveToNext()) {
+                loaded.add(new NoteChunk(cursor.getString(0), cursor.getString(1), cursor.getString(2),
+                        cursor.getString(3), cursor.getString(4), cursor.getLong(5),
+                        cursor.isNull(6) ? null : fromBlob(cursor.getBlob(6))));
+            }
+        }
+        current = Collections.unmodifiableList(loaded);
+        synchronized (generation) {
+            if (generation.get() == loadedAt) snapshot = current;
+        }
+        return current;
+    }
+
+    // After the write has committed: a load that started before it must not publish its list
+    private void invalidateSnapshot() {
+        synchronized (generation) {
+            generation.incrementAndGet();
+            snapshot = null;
+        }
+    }
+
+    private static byte[] toBlob(float[] vector) {
+        ByteBuffer buffer = ByteBuffer.allocate(vector.length * 4).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.asFloatBuffer().put(vector);
+        return buffer.array();
+    }
+
+    private static float[] fromBlob(byte[] blob) {
+        float[] vector = new float[blob.length / 4];
+        ByteBuffer.wrap(blob).order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer().get(vector);
+        return vector;
+    }
+}
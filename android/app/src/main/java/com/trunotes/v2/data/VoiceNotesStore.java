@@ -0,0 +1,349 @@
+package com.trunotes.v2.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Native store for AI voice notes.
+ *
+ * Replaces the single {@code voice_notes_ai_items} JSON string in CapacitorStorage. Notes are
+ * rows with the fields the worker and UI query on as columns; anything else the JS side sends
+ * is kept verbatim in {@code extra} so notes round-trip unchanged.
+ */
+public class VoiceNotesStore extends SQLiteOpenHelper {
+    private static final String TAG = "VoiceNotesStore";
+    private static final String DB_NAME = "voice_notes.db";
+    private static final int DB_VERSION = 2;
+
+    private static final String TABLE = "voice_notes";
+    public static final String STATUS_QUEUED = "queued";
+    public static final String STATUS_COMPLETED = "completed";
+
+    // Legacy CapacitorStorage blob, migrated once on first open
+    private static final String LEGACY_PREFS_NAME = "CapacitorStorage";
+    private static final String LEGACY_NOTES_KEY = "voice_notes_ai_items";
+    private static final String STATE_PREFS_NAME = "VoiceNotesStore";
+    private static final String KEY_MIGRATED = "migrated_prefs_blob";
+
+    // Columns that map to note fields; everything else goes to "extra"
+    private static final String[] COLUMN_FIELDS = {
+        "id", "status", "transcript", "title", "summary", "excerpt", "summaryProvider", "createdAt", "updatedAt",
+        "queuedAt", "completedAt"
+    };
+
+    private static VoiceNotesStore instance;
+
+    private final Context appContext;
+
+    public static synchronized VoiceNotesStore getInstance(Context context) {
+        if (instance == null) {
+            instance = new VoiceNotesStore(context.getApplicationContext());
+            instance.migrateLegacyBlob();
+        }
+        return instance;
+    }
+
+    private VoiceNotesStore(Context context) {
+        super(context, DB_NAME, null, DB_VERSION);
+        this.appContext = context;
+        // Worker writes and UI paging can overlap
+        setWriteAheadLoggingEnabled(true);
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE + " ("
+            + "id TEXT PRIMARY KEY, "
+            + "status TEXT NOT NULL DEFAULT '" + STATUS_QUEUED + "', "
+            + "transcript TEXT, "
+            + "title TEXT, "
+            + "summary TEXT, "
+            + "excerpt TEXT, "
+            + "summary_provider TEXT, "
+            + "created_at INTEGER NOT NULL DEFAULT 0, "
+            + "updated_at INTEGER NOT NULL DEFAULT 0, "
+            + "queued_at INTEGER NOT NULL DEFAULT 0, "
+            + "completed_at INTEGER, "
+            + "extra TEXT)");
+        // Paging by status, newest first
+        db.execSQL("CREATE INDEX idx_voice_notes_status_updated ON " + TABLE + " (status, updated_at)");
+        // Paging across all statuses
+        db.execSQL("CREATE INDEX idx_voice_notes_updated ON " + TABLE + " (updated_at)");
+        // Worker queue scan: only unfinished rows live in this index
+        db.execSQL("CREATE INDEX idx_voice_notes_pending ON " + TABLE + " (updated_at) WHERE status <> '" + STATUS_COMPLETED + "'");
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        if (oldVersion < 2) {
+            // Queue-wait tracking
+            db.execSQL("ALTER TABLE " + TABLE + " ADD COLUMN queued_at INTEGER NOT NULL DEFAULT 0");
+            db.execSQL("ALTER TABLE " + TABLE + " ADD COLUMN completed_at INTEGER");
+            db.execSQL("UPDATE " + TABLE + " SET queued_at = created_at");
+        }
+    }
+
+    /** Size of the unfinished queue, for scheduling decisions. */
+    public static class Backlog {
+        public final int pending;
+        public final long transcriptChars;
+        public final long oldestQueuedAt;
+
+        Backlog(int pending, long transcriptChars, long oldestQueuedAt) {
+            this.pending = pending;
+            this.transcriptChars = transcriptChars;
+            this.oldestQueuedAt = oldestQueuedAt;
+        }
+    }
+
+    public Backlog getBacklog() {
+        try (Cursor cursor = getReadableDatabase().rawQuery(
+                "SELECT COUNT(*), TOTAL(LENGTH(transcript)), MIN(queued_at) FROM " + TABLE + " WHERE " + PENDING_WHERE, null)) {
+            if (!cursor.moveToFirst()) return new Backlog(0, 0, 0);
+            return new Backlog(cursor.getInt(0), (long) cursor.getDouble(1), cursor.isNull(2) ? 0 : cursor.getLong(2));
+        }
+    }
+
+    /** Most recently completed notes with their queue wait, newest first. */
+    public List<JSONObject> recentWaits(int limit) {
+        List<JSONObject> waits = new ArrayList<>();
+        try (Cursor cursor = getReadableDatabase().query(TABLE,
+                new String[] { "id", "queued_at", "completed_at" },
+                "status = ? AND completed_at IS NOT NULL", new String[] { STATUS_COMPLETED },
+                null, null, "updated_at DESC", String.valueOf(limit))) {
+            while (cursor.moveToNext()) {
+                long queuedAt = cursor.getLong(1);
+                long completedAt = cursor.getLong(2);
+                JSONObject wait = new JSONObject();
+                wait.put("id", cursor.getString(0));
+                wait.put("queuedAt", queuedAt);
+                wait.put("completedAt", completedAt);
+                wait.put("waitMs", Math.max(0, completedAt - queuedAt));
+                waits.add(wait);
+            }
+        } catch (JSONException e) {
+            throw new IllegalStateException(e);
+        }
+        return waits;
+    }
+
+    // Spelled out literally (not bound) so the planner can pick the partial index
+    private static final String PENDING_WHERE = "status <> '" + STATUS_COMPLETED + "'";
+
+    /**
+     * Oldest-first batch of notes that still need a summary, after the given (updatedAt, id)
+     * cursor. The cursor lets callers step past notes they chose to skip.
+     */
+    public List<JSONObject> listPending(long afterUpdatedAt, String afterId, int limit) {
+        List<JSONObject> notes = new ArrayList<>();
+        String after = String.valueOf(afterUpdatedAt);
+        try (Cursor cursor = getReadableDatabase().query(TABLE, null,
+                PENDING_WHERE + " AND (updated_at > ? OR (updated_at = ? AND id > ?))",
+                new String[] { after, after, afterId == null ? "" : afterId },
+                null, null, "updated_at ASC, id ASC", String.valueOf(limit))) {
+            while (cursor.moveToNext()) {
+                notes.add(fromCursor(cursor));
+            }
+        }
+        return notes;
+    }
+
+    /**
+     * Keyset page, newest first. Pass the previous page's last (updatedAt, id) as the cursor,
+     * or {@code beforeUpdatedAt <= 0} for the first page. {@code status} may be null for all notes.
+     */
+    public List<JSONObject> page(String status, long beforeUpdatedAt, String beforeId, int limit) {
+        StringBuilder where = new StringBuilder();
+        List<String> args = new ArrayList<>();
+        if (status != null) {
+            where.append("status = ?");
+            args.add(status);
+        }
+        if (beforeUpdatedAt > 0) {
+            if (where.length() > 0) where.append(" AND ");
+            where.append("(updated_at < ? OR (updated_at = ? AND id < ?))");
+            args.add(String.valueOf(beforeUpdatedAt));
+            args.add(String.valueOf(beforeUpdatedAt));
+            args.add(beforeId == null ? "" : beforeId);
+        }
+
+        List<JSONObject> notes = new ArrayList<>();
+        try (Cursor cursor = getReadableDatabase().query(TABLE, null,
+                where.length() > 0 ? where.toString() : null, args.toArray(new String[0]),
+                null, null, "updated_at DESC, id DESC", String.valueOf(limit))) {
+            while (cursor.moveToNext()) {
+                notes.add(fromCursor(cursor));
+            }
+        }
+        return notes;
+    }
+
+    public JSONObject get(String id) {
+        try (Cursor cursor = getReadableDatabase().query(TABLE, null, "id = ?", new String[] { id }, null, null, null)) {
+            return cursor.moveToFirst() ? fromCursor(cursor) : null;
+        }
+    }
+
+    public void upsert(JSONObject note) throws JSONException {
+        ContentValues values = toValues(note);
+        SQLiteDatabase db = getWritableDatabase();
+        db.beginTransaction();
+        try {
+            // Saving a note that is still waiting again keeps its place in the queue
+            if (!note.has("queuedAt")) {
+                try (Cursor cursor = db.query(TABLE, new String[] { "queued_at" }, "id = ? AND " + PENDING_WHERE,
+                        new String[] { values.getAsString("id") }, null, null, null)) {
+                    if (cursor.moveToFirst()) values.put("queued_at", cursor.getLong(0));
+                }
+            }
+            db.insertWithOnConflict(TABLE, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    public boolean delete(String id) {
+        return getWritableDatabase().delete(TABLE, "id = ?", new String[] { id }) > 0;
+    }
+
+    /** Row-level update used by the worker once a note has been summarized. */
+    public void markCompleted(String id, String title, String summary, String excerpt, String provider, long updatedAt) {
+        ContentValues values = new ContentValues();
+        values.put("status", STATUS_COMPLETED);
+        values.put("title", title);
+        values.put("summary", summary);
+        values.put("excerpt", excerpt);
+        values.put("summary_provider", provider);
+        values.put("updated_at", updatedAt);
+        values.put("completed_at", updatedAt);
+        getWritableDatabase().update(TABLE, values, "id = ?", new String[] { id });
+    }
+
+    public int countPending() {
+        try (Cursor cursor = getReadableDatabase().rawQuery(
+                "SELECT COUNT(*) FROM " + TABLE + " WHERE " + PENDING_WHERE, null)) {
+            return cursor.moveToFirst() ? cursor.getInt(0) : 0;
+        }
+    }
+
+    private JSONObject fromCursor(Cursor cursor) {
+        JSONObject note;
+        try {
+            String extra = cursor.getString(cursor.getColumnIndexOrThrow("extra"));
+            note = extra != null ? new JSONObject(extra) : new JSONObject();
+            note.put("id", cursor.getString(cursor.getColumnIndexOrThrow("id")));
+            note.put("status", cursor.getString(cursor.getColumnIndexOrThrow("status")));
+            putIfNotNull(note, "transcript", cursor.getString(cursor.getColumnIndexOrThrow("transcript")));
+            putIfNotNull(note, "title", cursor.getString(cursor.getColumnIndexOrThrow("title")));
+            putIfNotNull(note, "summary", cursor.getString(cursor.getColumnIndexOrThrow("summary")));
+            putIfNotNull(note, "excerpt", cursor.getString(cursor.getColumnIndexOrThrow("excerpt")));
+            putIfNotNull(note, "summaryProvider", cursor.getString(cursor.getColumnIndexOrThrow("summary_provider")));
+            note.put("createdAt", cursor.getLong(cursor.getColumnIndexOrThrow("created_at")));
+            note.put("updatedAt", cursor.getLong(cursor.getColumnIndexOrThrow("updated_at")));
+            note.put("queuedAt", cursor.getLong(cursor.getColumnIndexOrThrow("queued_at")));
+            int completedAt = cursor.getColumnIndexOrThrow("completed_at");
+            if (!cursor.isNull(completedAt)) {
+                note.put("completedAt", cursor.getLong(completedAt));
+            }
+        } catch (JSONException e) {
+            throw new IllegalStateException("Corrupt voice note row", e);
+        }
+        return note;
+    }
+
+    private ContentValues toValues(JSONObject note) throws JSONException {
+        String id = note.getString("id");
+        ContentValues values = new ContentValues();
+        values.put("id", id);
+        values.put("status", note.optString("status", STATUS_QUEUED));
+        values.put("transcript", note.optString("transcript", null));
+        values.put("title", note.optString("title", null));
+        values.put("summary", note.optString("summary", null));
+        values.put("excerpt", note.optString("excerpt", null));
+        values.put("summary_provider", note.optString("summaryProvider", null));
+        long createdAt = note.optLong("createdAt", 0);
+        values.put("created_at", createdAt);
+        long updatedAt = note.optLong("updatedAt", createdAt);
+        values.put("updated_at", updatedAt);
+        // A note enters the queue when first saved unfinished; upsert keeps the place of one
+        // already waiting unless the caller passes queuedAt
+        values.put("queued_at", note.optLong("queuedAt", updatedAt));
+        if (note.has("completedAt")) {
+            values.put("completed_at", note.optLong("completedAt"));
+        }
+
+        JSONObject extra = new JSONObject();
+        Iterator<String> keys = note.keys();
+        while (keys.hasNext()) {
+            String key = keys.next();
+            if (!isColumnField(key)) {
+                extra.put(key, note.get(key));
+            }
+        }
+        values.put("extra", extra.length() > 0 ? extra.toString() : null);
+        return values;
+    }
+
+    private static boolean isColumnField(String key) {
+        for (String field : COLUMN_FIELDS) {
+            if (field.equals(key)) return true;
+        }
+        return false;
+    }
+
+    private static void putIfNotNull(JSONObject note, String key, String value) throws JSONException {
+        if (value != null) note.put(key, value);
+    }
+
+    /**
+     * One-time import of the CapacitorStorage blob. The blob is removed afterwards so nothing
+     * keeps reading a stale copy; a failed import leaves it in place and retries next launch.
+     */
+    private void migrateLegacyBlob() {
+        SharedPreferences state = appContext.getSharedPreferences(STATE_PREFS_NAME, Context.MODE_PRIVATE);
+        if (state.getBoolean(KEY_MIGRATED, false)) return;
+
+        SharedPreferences legacy = appContext.getSharedPreferences(LEGACY_PREFS_NAME, Context.MODE_PRIVATE);
+        String raw = legacy.getString(LEGACY_NOTES_KEY, null);
+        if (raw == null) raw = legacy.getString("_cap_" + LEGACY_NOTES_KEY, null);
+
+        SQLiteDatabase db = getWritableDatabase();
+        int imported = 0;
+        try {
+            if (raw != null) {
+                JSONArray notes = new JSONArray(raw);
+                db.beginTransaction();
+                try {
+                    for (int i = 0; i < notes.length(); i++) {
+                        JSONObject note = notes.optJSONObject(i);
+                        if (note == null || !note.has("id")) continue;
+                        db.insertWithOnConflict(TABLE, null, toValues(note), SQLiteDatabase.CONFLICT_REPLACE);
+                        imported++;
+                    }
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+                legacy.edit().remove(LEGACY_NOTES_KEY).remove("_cap_" + LEGACY_NOTES_KEY).apply();
+            }
+            state.edit().putBoolean(KEY_MIGRATED, true).apply();
+            Log.i(TAG, "Migrated " + imported + " voice notes from CapacitorStorage");
+        } catch (Exception e) {
+            Log.e(TAG, "Voice notes migration failed", e);
+        }
+    }
+}
@@ -11,17 +11,49 @@ import android.util.Log;
 
 import androidx.activity.result.ActivityResult;
 
+import com.getcapacitor.JSArray;
 import com.getcapacitor.JSObject;
 import com.getcapacitor.Plugin;
 import com.getcapacitor.PluginCall;
 import com.getcapacitor.PluginMethod;
 import com.getcapacitor.annotation.ActivityCallback;
 import com.getcapacitor.annotation.CapacitorPlugin;
+import com.trunotes.v2.Tracer;
+import com.trunotes.v2.ai.InferenceEngines;
+import com.trunotes.v2.ai.LlamaEngine;
+import com.trunotes.v2.ai.LlamaLibrary;
+import com.trunotes.v2.core.inference.InferenceEngine;
+import com.trunotes.v2.core.inference.ResponseCache;
+import com.trunotes.v2.core.inference.TokenBudget;
+import com.trunotes.v2.core.rag.AskPipeline;
+import com.trunotes.v2.core.rag.Bm25Index;
+import com.trunotes.v2.core.rag.NoteChunk;
+import com.trunotes.v2.core.rag.NoteChunker;
+import com.trunotes.v2.core.rag.RankFusion;
+import com.trunotes.v2.core.rag.Retriever;
+import com.trunotes.v2.data.NoteIndexStore;
+import com.trunotes.v2.workers.EmbeddingIndexScheduler;
+import com.trunotes.v2.workers.EmbeddingIndexWorker;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
 
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 @CapacitorPlugin(name = "AIBridge")
 public class AIBridge extends Plugin {
@@ -29,17 +61,63 @@ public class AIBridge extends Plugin {
     private static final String PREFS_NAME = "AI_PREFS";
     private static final String KEY_LAST_MODEL = "last_model_path";
 
-    static {
-        try {
-            System.loadLibrary("llama-android");
-            Log.d(TAG, "Native library 'llama-android' loaded successfully");
-        } catch (UnsatisfiedLinkError e) {
-            Log.e(TAG, "Failed to load native library 'llama-android': " + e.getMessage());
-        }
+    // Which models are loaded is always asked of the engine: the voice notes worker loads and
+    // unloads the generative model too. Threads of this bridge's last load, the default of
+    // benchmark configurations.
+    private volatile int loadedThreads = 6;
+
+    private final LlamaLibrary.Listener libraryListener = (status, error) -> {
+        JSObject data = new JSObject();
+        data.put("status", engineStatusName(status));
+        if (error != null) data.put("message", error);
+        notifyListeners("engineStatus", data);
+    };
+    // indexNotes calls apply in order
+    private final ExecutorService indexExecutor = Executors.newSingleThreadExecutor();
+    // Prefills the ask system prompt while retrieval runs
+    private final ExecutorService askWarmer = Executors.newSingleThreadExecutor();
+    // generate and ask calls still running; stopGenerate ends these and no one else's
+    private final Set<InferenceEngine.StopSignal> activeStops = ConcurrentHashMap.newKeySet();
+    // Token counts of the loaded model; cleared whenever the model changes
+    private final TokenBudget tokenBudget = new TokenBudget(InferenceEngines.get());
+
+    // Runs while the bridge starts, before the first frame: only cheap work here. The native
+    // library loads on the first loadModel, or earlier if the UI calls prepareEngine.
+    @Override
+    public void load() {
+        LlamaLibrary.addListener(libraryListener);
     }
 
-    private boolean isModelLoaded = false;
-    private String loadedPath = null;
+    @Override
+    protected void handleOnDestroy() {
+        LlamaLibrary.removeListener(libraryListener);
+        InferenceEngines.releaseModel(this);
+        indexExecutor.shutdown();
+        askWarmer.shutdown();
+    }
+
+    /**
+     * Starts loading the native library in the background and resolves with the current
+     * status at once; "engineStatus" events follow. Call it when an AI screen opens so the
+     * first loadModel does not wait for the library.
+     */
+    @PluginMethod
+    public void prepareEngine(PluginCall call) {
+        LlamaLibrary.preload();
+        JSObject ret = new JSObject();
+        ret.put("status", engineStatusName(LlamaLibrary.status()));
+        if (LlamaLibrary.error() != null) ret.put("message", LlamaLibrary.error());
+        call.resolve(ret);
+    }
+
+    private static String engineStatusName(LlamaLibrary.Status status) {
+        switch (status) {
+            case LOADING: return "loading";
+            case READY: return "ready";
+            case FAILED: return "error";
+            default: return "idle";
+        }
+    }
 
     @PluginMethod
     public void loadModel(PluginCall call) {
@@ -50,7 +128,10 @@ public class AIBridge extends Plugin {
         }
 
         // REDUNDANT LOAD PREVENTION
-        if (isModelLoaded && path.equals(loadedPath)) {
+        InferenceEngine engine = InferenceEngines.get();
+        if (path.equals(InferenceEngine.isEmbeddingModelPath(path) ? engine.embeddingModelPath() : engine.modelPath())) {
+            // Possibly the voice notes worker's load; holding it keeps the worker from unloading it
+            if (!InferenceEngine.isEmbeddingModelPath(path)) InferenceEngines.holdModel(this);
             Log.d(TAG, "Model already loaded, skipping: " + path);
             JSObject ret = new JSObject();
             ret.put("status", "loaded");
@@ -75,27 +156,52 @@ public class AIBridge extends Plugin {
 
         // THREADED LOADING: Don't block Capacitor
         new Thread(() -> {
-            try {
+            Tracer.restore(getContext());
+            try (Tracer.Section trace = Tracer.begin("loadModel", "threads", threads, "n_ctx", nCtx)) {
                 File modelFile = new File(path);
-                if (!modelFile.exists()) {
+                boolean exists;
+                try (Tracer.Section check = Tracer.begin("loadModel.fileCheck")) {
+                    exists = modelFile.exists();
+                    if (exists) Tracer.counter("model_file_bytes", modelFile.length());
+                }
+                if (!exists) {
                     Log.e(TAG, "Model file NOT found at: " + path);
                     return;
                 }
 
-                boolean success = nativeLoadModel(path, useMmap, threads, nGpuLayers, nCtx);
+                // Loading a generative model ends the running generations. Held from before the
+                // load, so a worker finishing meanwhile cannot unload it.
+                if (!InferenceEngine.isEmbeddingModelPath(path)) {
+                    InferenceEngines.holdModel(this);
+                    responseCache().stop();
+                }
+                boolean success;
+                // Native load and context init have their own sections inside this one
+                try (Tracer.Section load = Tracer.begin("loadModel.native", "mmap", useMmap ? 1 : 0)) {
+                    success = engine.load(path, new InferenceEngine.ModelOptions(useMmap, threads, nGpuLayers, nCtx));
+                }
+                tokenBudget.clear();
                 if (success) {
-                    isModelLoaded = true;
-                    loadedPath = path;
-                    saveLastModelPath(path);
+                    loadedThreads = threads;
+                    if (InferenceEngine.isEmbeddingModelPath(path)) {
+                        // For EmbeddingIndexWorker; the voice worker must not pick it up as a chat model
+                        saveEmbeddingModelPath(path);
+                    } else {
+                        saveLastModelPath(path);
+                    }
                     
                     JSObject response = new JSObject();
                     response.put("status", "loaded");
                     response.put("path", path);
                     notifyListeners("modelStatus", response);
                 } else {
+                    // The slot is empty now; nothing left for this bridge to hold
+                    if (!InferenceEngine.isEmbeddingModelPath(path)) InferenceEngines.releaseModel(this);
                     JSObject error = new JSObject();
                     error.put("status", "error");
-                    error.put("message", "Native load failed");
+                    error.put("message", LlamaLibrary.status() == LlamaLibrary.Status.FAILED
+                            ? "Native library unavailable: " + LlamaLibrary.error()
+                            : "Native load failed");
                     notifyListeners("modelStatus", error);
                 }
             } catch (Exception e) {
@@ -373,9 +479,13 @@ public class AIBridge extends Plugin {
     @PluginMethod
     public void unloadModel(PluginCall call) {
         try {
-            nativeUnloadModel();
-            isModelLoaded = false;
-            loadedPath = null;
+            InferenceEngine engine = InferenceEngines.get();
+            String embeddingPath = engine.embeddingModelPath();
+            if (embeddingPath != null) engine.unload(embeddingPath);
+            // A running voice notes worker still holds the generative model; it goes once the
+            // worker is done
+            InferenceEngines.releaseModel(this);
+            tokenBudget.clear();
             SharedPreferences prefs = getContext().getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
             prefs.edit().remove(KEY_LAST_MODEL).apply();
             call.resolve();
@@ -398,16 +508,22 @@ public class AIBridge extends Plugin {
         float topP = call.getFloat("top_p", 0.85f);
         float penalty = call.getFloat("penalty", 1.2f);
         int threads = call.getInt("threads", 6); // Read BEFORE resolve
+        int seed = call.getInt("seed", InferenceEngine.GenerationParams.RANDOM_SEED);
 
         // INSTANT RESOLVE: UI can show bot bubble/loading immediately
         JSObject initialRet = new JSObject();
         initialRet.put("started", true);
         call.resolve(initialRet);
 
-        // Call native code for actual AI generation in background
+        // Generate in the background, streaming each piece as a "token" event. Seeded and
+        // low-temperature requests go through the response cache; a hit is one token event.
+        InferenceEngine.GenerationParams params = new InferenceEngine.GenerationParams(nPredict, temperature, topK, topP, penalty, threads, seed);
+        ResponseCache cache = responseCache();
+        InferenceEngine.StopSignal stop = new InferenceEngine.StopSignal();
+        activeStops.add(stop);
         Thread genThread = new Thread(() -> {
-            try {
-                String fullResponse = nativeGenerate(prompt, nPredict, temperature, topK, topP, penalty, threads);
+            try (Tracer.Section trace = Tracer.begin("AIBridge.generate", "chars", prompt.length(), "n_predict", nPredict)) {
+                String fullResponse = cache.generate(InferenceEngines.get(), prompt, params, this::onToken, stop);
 
                 // Final completion event
                 JSObject done = new JSObject();
@@ -415,12 +531,69 @@ public class AIBridge extends Plugin {
                 notifyListeners("done", done);
             } catch (Exception e) {
                 Log.e(TAG, "Generation failed", e);
+            } finally {
+                activeStops.remove(stop);
             }
         });
         genThread.setPriority(Thread.MAX_PRIORITY);
         genThread.start();
     }
 
+    /**
+     * Measures prefill and decode speed of the loaded model through the same code path as
+     * generate. Each entry of "configs" (threads, n_batch, n_ctx, kv_type) gets a fresh
+     * context; without configs the model's own load settings are measured. Generation
+     * waits while a benchmark runs.
+     */
+    @PluginMethod
+    public void benchmark(PluginCall call) {
+        InferenceEngine engine = InferenceEngines.get();
+        int nCtx = engine.contextSize();
+        if (nCtx == 0) {
+            call.reject("Load a model before benchmarking");
+            return;
+        }
+        if (!(engine instanceof LlamaEngine)) {
+            call.reject("Benchmark needs the native engine");
+            return;
+        }
+
+        int pp = call.getInt("pp", 128);
+        int tg = call.getInt("tg", 64);
+        int reps = call.getInt("reps", 3);
+        JSArray configs = call.getArray("configs", new JSArray());
+
+        int count = Math.max(1, configs.length());
+        int[] threads = new int[count];
+        int[] batches = new int[count];
+        int[] contexts = new int[count];
+        String[] kvTypes = new String[count];
+        for (int i = 0; i < count; i++) {
+            JSONObject config = configs.optJSONObject(i);
+            if (config == null) config = new JSONObject();
+            threads[i] = config.optInt("threads", loadedThreads);
+            batches[i] = config.optInt("n_batch", 256);
+            contexts[i] = config.optInt("n_ctx", nCtx);
+            kvTypes[i] = config.optString("kv_type", "f16");
+        }
+
+        new Thread(() -> {
+            try {
+                String json = ((LlamaEngine) engine).benchmark(pp, tg, reps, threads, batches, contexts, kvTypes);
+                if (json == null) {
+                    call.reject("No model loaded");
+                    return;
+                }
+                JSObject ret = new JSObject();
+                ret.put("results", new JSArray(json));
+                call.resolve(ret);
+            } catch (Exception e) {
+                Log.e(TAG, "Benchmark failed", e);
+                call.reject("Benchmark failed: " + e.getMessage());
+            }
+        }).start();
+    }
+
     @PluginMethod
     public void embed(PluginCall call) {
         String text = call.getString("text");
@@ -432,8 +605,8 @@ public class AIBridge extends Plugin {
         // Run directly or in thread? Llama embeddings are relatively fast but can take 50-100ms.
         // Let's use a thread to be safe with Capacitor lifecycle.
         new Thread(() -> {
-            try {
-                float[] vector = nativeEmbed(text);
+            try (Tracer.Section trace = Tracer.begin("AIBridge.embed", "chars", text.length())) {
+                float[] vector = InferenceEngines.get().embed(text);
                 if (vector != null) {
                     JSObject ret = new JSObject();
                     ret.put("vector", vector);
@@ -448,8 +621,363 @@ public class AIBridge extends Plugin {
         }).start();
     }
 
-    // Called from C++ JNI
-    public void onNativeToken(String token) {
+    /**
+     * Brings the native note index (what ask and searchNotes read) up to date. Each item is
+     * {id, type, title, content, updatedAt, version, embedding?}; items whose version is
+     * unchanged are skipped, removeIds are dropped. A note that fits in one chunk reuses the
+     * embedding sent with it; other chunks are left to EmbeddingIndexWorker, which this
+     * schedules, and are found by keyword until then.
+     */
+    @PluginMethod
+    public void indexNotes(PluginCall call) {
+        JSArray items = call.getArray("items", new JSArray());
+        JSArray removeIds = call.getArray("removeIds", new JSArray());
+        NoteIndexStore store = NoteIndexStore.getInstance(getContext());
+        indexExecutor.execute(() -> {
+            try (Tracer.Section trace = Tracer.begin("AIBridge.indexNotes", "items", items.length())) {
+                List<String> removed = new ArrayList<>();
+                for (int i = 0; i < removeIds.length(); i++) removed.add(removeIds.getString(i));
+                store.removeItems(removed);
+
+                Map<String, String> versions = store.itemVersions();
+                int indexed = 0;
+                int chunkCount = 0;
+                for (int i = 0; i < items.length(); i++) {
+                    JSONObject item = items.getJSONObject(i);
+                    String id = item.getString("id");
+                    String version = item.optString("version", String.valueOf(item.optLong("updatedAt")));
+                    if (version.equals(versions.get(id))) continue;
+
+                    List<NoteChunk> chunks = NoteChunker.split(id, item.optString("type", "note"),
+                            item.optString("title", ""), item.optString("content", ""), item.optLong("updatedAt"));
+                    float[] itemVector = toVector(item.optJSONArray("embedding"));
+                    if (chunks.size() == 1 && itemVector != null) {
+                        chunks.set(0, chunks.get(0).withEmbedding(itemVector));
+                    }
+                    store.replaceItem(id, version, chunks);
+                    indexed++;
+                    chunkCount += chunks.size();
+                }
+
+                NoteIndexStore.Stats stats = EmbeddingIndexScheduler.schedule(getContext());
+                JSObject ret = new JSObject();
+                ret.put("indexed", indexed);
+                ret.put("chunks", chunkCount);
+                ret.put("removed", removed.size());
+                ret.put("pendingEmbeddings", stats.pending);
+                call.resolve(ret);
+            } catch (Exception e) {
+                Log.e(TAG, "Indexing failed", e);
+                call.reject("Indexing failed: " + e.getMessage());
+            }
+        });
+    }
+
+    /** Indexed item ids mapped to the version they were indexed at, for diffing on the JS side. */
+    @PluginMethod
+    public void getIndexedVersions(PluginCall call) {
+        NoteIndexStore store = NoteIndexStore.getInstance(getContext());
+        indexExecutor.execute(() -> {
+            JSObject versions = new JSObject();
+            for (Map.Entry<String, String> entry : store.itemVersions().entrySet()) {
+                versions.put(entry.getKey(), entry.getValue());
+            }
+            JSObject ret = new JSObject();
+            ret.put("versions", versions);
+            call.resolve(ret);
+        });
+    }
+
+    /**
+     * Ranks indexed items for a query. mode "keyword" uses BM25 alone and never touches a
+     * model; "vector" ranks embedded chunks by cosine; "hybrid" (the default) merges both by
+     * reciprocal rank, falling back to BM25 when no embedding model is loaded. Only the query
+     * is ever embedded. One result per item.
+     */
+    @PluginMethod
+    public void searchNotes(PluginCall call) {
+        String query = call.getString("query");
+        if (query == null) {
+            call.reject("Query is required");
+            return;
+        }
+        int k = call.getInt("k", 7);
+        String mode = call.getString("mode", "hybrid");
+        NoteIndexStore store = NoteIndexStore.getInstance(getContext());
+        new Thread(() -> {
+            try (Tracer.Section trace = Tracer.begin("AIBridge.searchNotes", "chars", query.length())) {
+                long startedAt = System.nanoTime();
+                // Several chunks of one item can rank; fetch extra so k items survive the merge
+                int depth = k * 3;
+                Map<String, NoteChunk> chunksById = new HashMap<>();
+                List<List<String>> rankings = new ArrayList<>();
+                Set<String> keywordIds = new HashSet<>();
+                Set<String> vectorIds = new HashSet<>();
+
+                if (!"vector".equals(mode)) {
+                    List<String> ranking = new ArrayList<>();
+                    for (Bm25Index.Hit hit : store.keywordIndex().search(query, depth)) {
+                        chunksById.put(hit.chunk.id, hit.chunk);
+                        ranking.add(hit.chunk.id);
+                    }
+                    keywordIds.addAll(ranking);
+                    rankings.add(ranking);
+                }
+                if (!"keyword".equals(mode)) {
+                    float[] queryVector = NoteChunk.normalize(InferenceEngines.get().embed(query));
+                    List<String> ranking = new ArrayList<>();
+                    for (Retriever.Scored scored : Retriever.nearest(queryVector, store.chunks(), depth)) {
+                        chunksById.put(scored.chunk.id, scored.chunk);
+                        ranking.add(scored.chunk.id);
+                    }
+                    vectorIds.addAll(ranking);
+                    rankings.add(ranking);
+                }
+
+                JSArray results = new JSArray();
+                Set<String> seenItems = new HashSet<>();
+                for (RankFusion.Fused fused : RankFusion.fuse(rankings)) {
+                    if (seenItems.size() >= k) break;
+                    NoteChunk chunk = chunksById.get(fused.key);
+                    if (!seenItems.add(chunk.itemId)) continue;
+                    JSObject result = new JSObject();
+                    result.put("id", chunk.itemId);
+                    result.put("chunkId", chunk.id);
+                    result.put("type", chunk.type);
+                    result.put("title", chunk.title);
+                    result.put("score", fused.score);
+                    result.put("keyword", keywordIds.contains(chunk.id));
+                    result.put("semantic", vectorIds.contains(chunk.id));
+                    results.put(result);
+                }
+                JSObject ret = new JSObject();
+                ret.put("results", results);
+                ret.put("tookMs", (System.nanoTime() - startedAt) / 1_000_000.0);
+                call.resolve(ret);
+            } catch (Exception e) {
+                Log.e(TAG, "Search failed", e);
+                call.reject("Search failed: " + e.getMessage());
+            }
+        }).start();
+    }
+
+    /** Index size, embedding backlog and the last runs of EmbeddingIndexWorker. */
+    @PluginMethod
+    public void getIndexStats(PluginCall call) {
+        NoteIndexStore store = NoteIndexStore.getInstance(getContext());
+        indexExecutor.execute(() -> {
+            try {
+                NoteIndexStore.Stats stats = store.getStats();
+                JSObject ret = new JSObject();
+                ret.put("items", stats.items);
+                ret.put("chunks", stats.chunks);
+                ret.put("pending", stats.pending);
+                ret.put("pendingChars", stats.pendingChars);
+                ret.put("oldestPendingUpdatedAt", stats.oldestPendingUpdatedAt);
+                ret.put("runs", EmbeddingIndexWorker.runStats(getContext()));
+                call.resolve(ret);
+            } catch (Exception e) {
+                call.reject("Failed to read index stats: " + e.getMessage());
+            }
+        });
+    }
+
+    /** Schedules embedding of the backlog for the next idle or charging window. */
+    @PluginMethod
+    public void scheduleIndexing(PluginCall call) {
+        indexExecutor.execute(() -> {
+            NoteIndexStore.Stats stats = EmbeddingIndexScheduler.schedule(getContext());
+            JSObject ret = new JSObject();
+            ret.put("scheduled", stats.pending > 0);
+            ret.put("pending", stats.pending);
+            call.resolve(ret);
+        });
+    }
+
+    /**
+     * Answers a question from the indexed notes in one call: embeds the query, retrieves the
+     * top k chunks, fits them into the context by token count and generates, streaming
+     * "token" events. Resolves with the answer, the chunks it used and per-stage timings.
+     */
+    @PluginMethod
+    public void ask(PluginCall call) {
+        String query = call.getString("query");
+        if (query == null) {
+            call.reject("Query is required");
+            return;
+        }
+
+        int k = call.getInt("k", 5);
+        int nPredict = call.getInt("n_predict", 256);
+        float temperature = call.getFloat("temperature", 0.5f);
+        int topK = call.getInt("top_k", 20);
+        float topP = call.getFloat("top_p", 0.85f);
+        float penalty = call.getFloat("penalty", 1.2f);
+        int threads = call.getInt("threads", 6);
+        String preamble = call.getString("preamble",
+                "Date: " + new SimpleDateFormat("EEEE, yyyy-MM-dd HH:mm", Locale.US).format(new Date()));
+
+        InferenceEngine.GenerationParams params = new InferenceEngine.GenerationParams(nPredict, temperature, topK, topP, penalty, threads);
+        AskPipeline pipeline = new AskPipeline(InferenceEngines.get(), NoteIndexStore.getInstance(getContext()), askWarmer);
+        InferenceEngine.StopSignal stop = new InferenceEngine.StopSignal();
+        activeStops.add(stop);
+        Thread askThread = new Thread(() -> {
+            try (Tracer.Section trace = Tracer.begin("AIBridge.ask", "chars", query.length(), "k", k)) {
+                AskPipeline.Result result = pipeline.ask(query, new AskPipeline.Options(k, preamble, params), this::onToken, stop);
+
+                JSArray sources = new JSArray();
+                for (Retriever.Scored scored : result.sources) {
+                    JSObject source = new JSObject();
+                    source.put("id", scored.chunk.itemId);
+                    source.put("chunkId", scored.chunk.id);
+                    source.put("type", scored.chunk.type);
+                    source.put("title", scored.chunk.title);
+                    source.put("score", scored.score);
+                    sources.put(source);
+                }
+                AskPipeline.Timings t = result.timings;
+                JSObject timings = new JSObject();
+                timings.put("embedMs", t.embedMs);
+                timings.put("retrieveMs", t.retrieveMs);
+                timings.put("warmMs", t.warmMs);
+                timings.put("assembleMs", t.assembleMs);
+                timings.put("ttftMs", t.ttftMs);
+                timings.put("generateMs", t.generateMs);
+                timings.put("totalMs", t.totalMs);
+                timings.put("scanned", t.scanned);
+                timings.put("used", t.used);
+                timings.put("promptTokens", t.promptTokens);
+
+                JSObject ret = new JSObject();
+                ret.put("answer", result.answer);
+                ret.put("sources", sources);
+                ret.put("timings", timings);
+                call.resolve(ret);
+            } catch (Exception e) {
+                Log.e(TAG, "Ask failed", e);
+                call.reject("Ask failed: " + e.getMessage());
+            } finally {
+                activeStops.remove(stop);
+            }
+        });
+        askThread.setPriority(Thread.MAX_PRIORITY);
+        askThread.start();
+    }
+
+    /** Token ids of each text in "texts" with the loaded model's vocabulary. */
+    @PluginMethod
+    public void tokenize(PluginCall call) {
+        String[] texts = toStrings(call.getArray("texts", new JSArray()));
+        new Thread(() -> {
+            try (Tracer.Section trace = Tracer.begin("AIBridge.tokenize", "texts", texts.length)) {
+                int[][] ids = InferenceEngines.get().tokenize(texts);
+                if (ids == null) {
+                    call.reject("Model not loaded");
+                    return;
+                }
+                JSArray tokens = new JSArray();
+                for (int[] textIds : ids) {
+                    JSArray row = new JSArray();
+                    for (int id : textIds) row.put(id);
+                    tokens.put(row);
+                }
+                JSObject ret = new JSObject();
+                ret.put("tokens", tokens);
+                call.resolve(ret);
+            } catch (Exception e) {
+                Log.e(TAG, "Tokenize failed", e);
+                call.reject("Tokenize failed: " + e.getMessage());
+            }
+        }).start();
+    }
+
+    /**
+     * Token count of each text in "texts", plus the context size they have to fit in. Counts
+     * are cached per text, so recounting the same system prompt or records is free.
+     */
+    @PluginMethod
+    public void countTokens(PluginCall call) {
+        String[] texts = toStrings(call.getArray("texts", new JSArray()));
+        new Thread(() -> {
+            try (Tracer.Section trace = Tracer.begin("AIBridge.countTokens", "texts", texts.length)) {
+                int[] counts = tokenBudget.count(texts);
+                if (counts == null) {
+                    call.reject("Model not loaded");
+                    return;
+                }
+                JSArray list = new JSArray();
+                for (int count : counts) list.put(count);
+                JSObject ret = new JSObject();
+                ret.put("counts", list);
+                ret.put("nCtx", InferenceEngines.get().contextSize());
+                call.resolve(ret);
+            } catch (Exception e) {
+                Log.e(TAG, "Token count failed", e);
+                call.reject("Token count failed: " + e.getMessage());
+            }
+        }).start();
+    }
+
+    /**
+     * Fits prompt sections into maxTokens. Each section is {text, required?, keep?}: required
+     * ones are always kept, the others are added in order while they fit, the first that does
+     * not is cut to the tokens left (keeping its "head" or "tail") and the rest are dropped.
+     */
+    @PluginMethod
+    public void fitToBudget(PluginCall call) {
+        JSArray input = call.getArray("sections", new JSArray());
+        Integer maxTokens = call.getInt("maxTokens");
+        if (maxTokens == null) {
+            call.reject("maxTokens is required");
+            return;
+        }
+        new Thread(() -> {
+            try (Tracer.Section trace = Tracer.begin("AIBridge.fitToBudget", "sections", input.length(), "max_tokens", maxTokens)) {
+                List<TokenBudget.Section> sections = new ArrayList<>(input.length());
+                for (int i = 0; i < input.length(); i++) {
+                    JSONObject section = input.getJSONObject(i);
+                    sections.add(new TokenBudget.Section(section.optString("text", ""),
+                            section.optBoolean("required", false), "tail".equals(section.optString("keep", "head"))));
+                }
+                TokenBudget.Result result = tokenBudget.fit(sections, maxTokens);
+                if (result == null) {
+                    call.reject("Model not loaded");
+                    return;
+                }
+                JSArray fitted = new JSArray();
+                for (TokenBudget.Fitted section : result.sections) {
+                    JSObject out = new JSObject();
+                    out.put("text", section.text);
+                    out.put("tokens", section.tokens);
+                    out.put("truncated", section.truncated);
+                    out.put("dropped", section.dropped);
+                    fitted.put(out);
+                }
+                JSObject ret = new JSObject();
+                ret.put("sections", fitted);
+                ret.put("totalTokens", result.totalTokens);
+                call.resolve(ret);
+            } catch (Exception e) {
+                Log.e(TAG, "Fit to budget failed", e);
+                call.reject("Fit to budget failed: " + e.getMessage());
+            }
+        }).start();
+    }
+
+    private static String[] toStrings(JSONArray array) {
+        String[] strings = new String[array.length()];
+        for (int i = 0; i < strings.length; i++) strings[i] = array.optString(i, "");
+        return strings;
+    }
+
+    private static float[] toVector(JSONArray array) {
+        if (array == null || array.length() == 0) return null;
+        float[] vector = new float[array.length()];
+        for (int i = 0; i < vector.length; i++) vector[i] = (float) array.optDouble(i);
+        return vector;
+    }
+
+    private void onToken(String token) {
         JSObject data = new JSObject();
         data.put("token", token);
         notifyListeners("token", data);
@@ -553,16 +1081,51 @@ public class AIBridge extends Plugin {
         prefs.edit().putString(KEY_LAST_MODEL, path).apply();
     }
 
-    // Native methods
+    private void saveEmbeddingModelPath(String path) {
+        SharedPreferences prefs = getContext().getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        prefs.edit().putString(EmbeddingIndexScheduler.KEY_EMBEDDING_MODEL, new File(path).getAbsolutePath()).apply();
+    }
+
+    /** Turns trace sections on or off for this and later app processes, Java and native alike. */
+    @PluginMethod
+    public void setTracing(PluginCall call) {
+        Tracer.setEnabled(getContext(), call.getBoolean("enabled", false));
+        JSObject ret = new JSObject();
+        ret.put("enabled", Tracer.isEnabled());
+        call.resolve(ret);
+    }
+
+    /** Stops this bridge's generate and ask calls; background workers keep generating. */
     @PluginMethod
     public void stopGenerate(PluginCall call) {
-        nativeStopGenerate();
+        for (InferenceEngine.StopSignal stop : activeStops) stop.stop();
         call.resolve();
     }
 
-    private native boolean nativeLoadModel(String filename, boolean useMmap, int nThreads, int nGpuLayers, int nCtx);
-    private native String nativeGenerate(String prompt, int nPredict, float temperature, int topK, float topP, float penalty, int nThreads);
-    private native void nativeStopGenerate();
-    private native void nativeUnloadModel();
-    private native float[] nativeEmbed(String text);
+    /** Size and hit rate (since the app started) of the generate response cache. */
+    @PluginMethod
+    public void getResponseCacheStats(PluginCall call) {
+        new Thread(() -> {
+            ResponseCache.Stats stats = responseCache().stats();
+            JSObject ret = new JSObject();
+            ret.put("hits", stats.hits);
+            ret.put("misses", stats.misses);
+            ret.put("hitRate", stats.hitRate());
+            ret.put("entries", stats.entries);
+            ret.put("bytes", stats.bytes);
+            call.resolve(ret);
+        }).start();
+    }
+
+    @PluginMethod
+    public void clearResponseCache(PluginCall call) {
+        new Thread(() -> {
+            responseCache().clear();
+            call.resolve();
+        }).start();
+    }
+
+    private ResponseCache responseCache() {
+        return InferenceEngines.responseCache(getContext());
+    }
 }
@@ -1,63 +1,180 @@
 package com.trunotes.v2.plugins;
 
-import androidx.work.Constraints;
-import androidx.work.ExistingPeriodicWorkPolicy;
-import androidx.work.ExistingWorkPolicy;
-import androidx.work.OneTimeWorkRequest;
-import androidx.work.PeriodicWorkRequest;
-import androidx.work.WorkManager;
+import android.content.Context;
+import android.content.SharedPreferences;
 
+import com.getcapacitor.JSArray;
 import com.getcapacitor.JSObject;
 import com.getcapacitor.Plugin;
 import com.getcapacitor.PluginCall;
 import com.getcapacitor.PluginMethod;
 import com.getcapacitor.annotation.CapacitorPlugin;
-import com.trunotes.v2.workers.VoiceNotesWorker;
+import com.trunotes.v2.data.VoiceNotesStore;
+import com.trunotes.v2.workers.VoiceNotesScheduler;
 
-import java.util.concurrent.TimeUnit;
+import org.json.JSONObject;
+
+import java.util.List;
 
 @CapacitorPlugin(name = "BackgroundVoiceAI")
 public class BackgroundVoiceAIPlugin extends Plugin {
-    private static final String UNIQUE_ONE_TIME = "voice_ai_extract_once";
-    private static final String UNIQUE_PERIODIC = "voice_ai_extract_periodic";
+    private static final String AI_PREFS_NAME = "AI_PREFS";
+    private static final String KEY_RUN_STATS = "voice_worker_runs";
+    private static final int DEFAULT_PAGE_SIZE = 50;
+    private static final int MAX_PAGE_SIZE = 200;
 
     @PluginMethod
     public void scheduleProcessing(PluginCall call) {
-        enqueueProcessing();
+        VoiceNotesScheduler.Plan plan = enqueueProcessing();
 
         JSObject result = new JSObject();
         result.put("scheduled", true);
+        result.put("mode", plan.mode);
+        result.put("pending", plan.pending);
+        result.put("estimatedTokens", plan.estimatedTokens);
+        result.put("shards", plan.shards);
         call.resolve(result);
     }
 
     @PluginMethod
     public void cancelProcessing(PluginCall call) {
-        WorkManager workManager = WorkManager.getInstance(getContext());
-        workManager.cancelUniqueWork(UNIQUE_ONE_TIME);
-        workManager.cancelUniqueWork(UNIQUE_PERIODIC);
+        VoiceNotesScheduler.cancel(getContext());
 
         JSObject result = new JSObject();
         result.put("cancelled", true);
         call.resolve(result);
     }
 
-    private void enqueueProcessing() {
-        Constraints constraints = new Constraints.Builder()
-            .setRequiresCharging(true)
-            .setRequiresBatteryNotLow(true)
-            .build();
+    @PluginMethod
+    public void getRunStats(PluginCall call) {
+        SharedPreferences prefs = getContext().getSharedPreferences(AI_PREFS_NAME, Context.MODE_PRIVATE);
+        try {
+            JSObject result = new JSObject();
+            result.put("runs", new JSArray(prefs.getString(KEY_RUN_STATS, "[]")));
+            call.resolve(result);
+        } catch (Exception e) {
+            call.reject("Failed to read run stats: " + e.getMessage());
+        }
+    }
 
-        WorkManager workManager = WorkManager.getInstance(getContext());
+    /**
+     * Pages through voice notes, newest first. Pass back the returned cursor to get the next
+     * page; a null cursor means there are no more notes.
+     */
+    @PluginMethod
+    public void listNotes(PluginCall call) {
+        String status = call.getString("status");
+        int limit = Math.max(1, Math.min(MAX_PAGE_SIZE, call.getInt("limit", DEFAULT_PAGE_SIZE)));
+        JSObject cursor = call.getObject("cursor");
+        long beforeUpdatedAt = cursor != null ? cursor.optLong("updatedAt", 0) : 0;
+        String beforeId = cursor != null ? cursor.optString("id", "") : "";
 
-        OneTimeWorkRequest immediate = new OneTimeWorkRequest.Builder(VoiceNotesWorker.class)
-            .setConstraints(constraints)
-            .build();
+        try {
+            List<JSONObject> notes = VoiceNotesStore.getInstance(getContext()).page(status, beforeUpdatedAt, beforeId, limit);
+            JSArray items = new JSArray();
+            for (JSONObject note : notes) items.put(note);
 
-        PeriodicWorkRequest periodic = new PeriodicWorkRequest.Builder(VoiceNotesWorker.class, 1, TimeUnit.HOURS)
-            .setConstraints(constraints)
-            .build();
+            JSObject result = new JSObject();
+            result.put("notes", items);
+            if (notes.size() == limit) {
+                JSONObject last = notes.get(notes.size() - 1);
+                JSObject next = new JSObject();
+                next.put("updatedAt", last.optLong("updatedAt", 0));
+                next.put("id", last.optString("id", ""));
+                result.put("cursor", next);
+            } else {
+                result.put("cursor", JSONObject.NULL);
+            }
+            call.resolve(result);
+        } catch (Exception e) {
+            call.reject("Failed to list voice notes: " + e.getMessage());
+        }
+    }
+
+    @PluginMethod
+    public void getNote(PluginCall call) {
+        String id = call.getString("id");
+        if (id == null) {
+            call.reject("id is required");
+            return;
+        }
+        JSONObject note = VoiceNotesStore.getInstance(getContext()).get(id);
+        JSObject result = new JSObject();
+        result.put("note", note != null ? note : JSONObject.NULL);
+        call.resolve(result);
+    }
+
+    @PluginMethod
+    public void saveNote(PluginCall call) {
+        JSObject note = call.getObject("note");
+        if (note == null || !note.has("id")) {
+            call.reject("note with an id is required");
+            return;
+        }
+        try {
+            if (!note.has("updatedAt")) {
+                note.put("updatedAt", System.currentTimeMillis());
+            }
+            VoiceNotesStore.getInstance(getContext()).upsert(note);
+            // New or re-queued notes get summarized within minutes instead of on the next charge
+            if (call.getBoolean("schedule", true) && !VoiceNotesStore.STATUS_COMPLETED.equals(note.optString("status", VoiceNotesStore.STATUS_QUEUED))) {
+                enqueueProcessing();
+            }
+            call.resolve();
+        } catch (Exception e) {
+            call.reject("Failed to save voice note: " + e.getMessage());
+        }
+    }
+
+    @PluginMethod
+    public void deleteNote(PluginCall call) {
+        String id = call.getString("id");
+        if (id == null) {
+            call.reject("id is required");
+            return;
+        }
+        JSObject result = new JSObject();
+        result.put("deleted", VoiceNotesStore.getInstance(getContext()).delete(id));
+        call.resolve(result);
+    }
+
+    /** Queue size and per-note queue wait (queuedAt to completedAt) for recently finished notes. */
+    @PluginMethod
+    public void getQueueStats(PluginCall call) {
+        try {
+            VoiceNotesStore store = VoiceNotesStore.getInstance(getContext());
+            VoiceNotesStore.Backlog backlog = store.getBacklog();
+            List<JSONObject> waits = store.recentWaits(call.getInt("limit", 50));
+
+            JSArray recent = new JSArray();
+            long[] waitMs = new long[waits.size()];
+            for (int i = 0; i < waits.size(); i++) {
+                recent.put(waits.get(i));
+                waitMs[i] = waits.get(i).optLong("waitMs", 0);
+            }
+            java.util.Arrays.sort(waitMs);
+
+            JSObject result = new JSObject();
+            result.put("pending", backlog.pending);
+            result.put("estimatedTokens", VoiceNotesScheduler.estimateTokens(backlog.transcriptChars));
+            result.put("oldestQueuedAt", backlog.oldestQueuedAt);
+            result.put("oldestWaitMs", backlog.oldestQueuedAt > 0 ? System.currentTimeMillis() - backlog.oldestQueuedAt : 0);
+            result.put("p50WaitMs", percentile(waitMs, 0.5));
+            result.put("p90WaitMs", percentile(waitMs, 0.9));
+            result.put("recent", recent);
+            call.resolve(result);
+        } catch (Exception e) {
+            call.reject("Failed to read queue stats: " + e.getMessage());
+        }
+    }
+
+    private static long percentile(long[] sorted, double p) {
+        if (sorted.length == 0) return 0;
+        int index = (int) Math.ceil(p * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+    }
 
-        workManager.enqueueUniqueWork(UNIQUE_ONE_TIME, ExistingWorkPolicy.REPLACE, immediate);
-        workManager.enqueueUniquePeriodicWork(UNIQUE_PERIODIC, ExistingPeriodicWorkPolicy.UPDATE, periodic);
+    private VoiceNotesScheduler.Plan enqueueProcessing() {
+        return VoiceNotesScheduler.schedule(getContext());
     }
 }
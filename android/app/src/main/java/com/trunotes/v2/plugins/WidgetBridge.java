@@ -3,17 +3,34 @@ package com.trunotes.v2.plugins;
 import android.appwidget.AppWidgetManager;
 import android.content.ComponentName;
 import android.content.Context;
-import android.content.Intent;
 import android.util.Log;
 
+import org.json.JSONObject;
+
+import com.getcapacitor.JSArray;
 import com.getcapacitor.JSObject;
 import com.getcapacitor.Plugin;
 import com.getcapacitor.PluginCall;
 import com.getcapacitor.PluginMethod;
 import com.getcapacitor.annotation.CapacitorPlugin;
+import com.trunotes.v2.HourlyArchive;
 import com.trunotes.v2.TodoWidget;
+import com.trunotes.v2.WidgetDataCache;
+import com.trunotes.v2.WidgetExecutor;
+import com.trunotes.v2.WidgetOpLog;
+import com.trunotes.v2.WidgetRefreshScheduler;
+import com.trunotes.v2.WidgetSnapshot;
+import com.trunotes.v2.core.TodoItem;
+import com.trunotes.v2.core.WidgetOp;
 import com.trunotes.v2.HourlyWidget;
 import com.trunotes.v2.R;
+import com.trunotes.v2.workers.HourlyRolloverWorker;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 
 @CapacitorPlugin(name = "WidgetBridge")
 public class WidgetBridge extends Plugin {
@@ -22,45 +39,187 @@ public class WidgetBridge extends Plugin {
     @PluginMethod
     public void refreshWidgets(PluginCall call) {
         try {
-            Context context = getContext();
-            AppWidgetManager mgr = AppWidgetManager.getInstance(context);
-
-            // 1. Refresh TodoWidget
-            ComponentName todoComponent = new ComponentName(context, TodoWidget.class);
-            int[] todoIds = mgr.getAppWidgetIds(todoComponent);
-            if (todoIds.length > 0) {
-                // Notify the ListView adapter to reload data from SharedPreferences
-                mgr.notifyAppWidgetViewDataChanged(todoIds, R.id.todo_list);
-                
-                // Also send a full update broadcast
-                Intent todoIntent = new Intent(context, TodoWidget.class);
-                todoIntent.setAction(AppWidgetManager.ACTION_APPWIDGET_UPDATE);
-                todoIntent.putExtra(AppWidgetManager.EXTRA_APPWIDGET_IDS, todoIds);
-                context.sendBroadcast(todoIntent);
-                
-                Log.d(TAG, "Refreshed " + todoIds.length + " TodoWidget(s)");
+            call.resolve(refreshAll(getContext(), call.getBoolean("layout", false)));
+        } catch (Exception e) {
+            Log.e(TAG, "Failed to refresh widgets", e);
+            call.reject("Widget refresh failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Takes the widget data already trimmed and sorted by the app (pending todos, today's
+     * hourly entries), stores it as a WidgetSnapshot and refreshes the widgets. Replaces
+     * writing JSON into Preferences followed by refreshWidgets.
+     */
+    @PluginMethod
+    public void pushSnapshot(PluginCall call) {
+        String date = call.getString("date");
+        JSArray todosArray = call.getArray("todos", new JSArray());
+        JSObject hourlyObject = call.getObject("hourly", new JSObject());
+        if (date == null) {
+            call.reject("date is required");
+            return;
+        }
+
+        Context context = getContext();
+        // Runs in order with widget taps, which read the same cache
+        WidgetExecutor.execute(() -> {
+            try {
+                List<TodoItem> todos = new ArrayList<>(todosArray.length());
+                for (int i = 0; i < todosArray.length(); i++) {
+                    JSONObject todo = todosArray.optJSONObject(i);
+                    if (todo == null || !todo.has("id")) continue;
+                    todos.add(new TodoItem(
+                        todo.getString("id"),
+                        todo.optString("text", ""),
+                        todo.optBoolean("completed", false),
+                        todo.optLong("createdAt", 0),
+                        todo.optLong("updatedAt", 0)
+                    ));
+                }
+
+                Map<String, String> hourly = new HashMap<>();
+                Iterator<String> keys = hourlyObject.keys();
+                while (keys.hasNext()) {
+                    String key = keys.next();
+                    int hour;
+                    try {
+                        hour = Integer.parseInt(key);
+                    } catch (NumberFormatException e) {
+                        continue;
+                    }
+                    if (hour >= 0 && hour < 24) hourly.put(String.valueOf(hour), hourlyObject.optString(key, ""));
+                }
+
+                // A day the rollover job has not archived yet goes to the archive before
+                // the push replaces it
+                WidgetDataCache cache = WidgetDataCache.get(context);
+                cache.rollOverHourly(HourlyArchive.get(context));
+
+                WidgetSnapshot snapshot = new WidgetSnapshot(System.currentTimeMillis(), date, todos, hourly);
+                snapshot.writeTo(WidgetSnapshot.file(context));
+                cache.installSnapshot(snapshot);
+                HourlyRolloverWorker.schedule(context);
+
+                JSObject ret = refreshAll(context, false);
+                ret.put("todos", todos.size());
+                call.resolve(ret);
+            } catch (Exception e) {
+                Log.e(TAG, "Failed to push widget snapshot", e);
+                call.reject("Widget snapshot push failed: " + e.getMessage());
             }
+        });
+    }
+
+    // Refreshes go through the scheduler, so a burst of saves costs one rebuild
+    private JSObject refreshAll(Context context, boolean layoutChanged) {
+        AppWidgetManager mgr = AppWidgetManager.getInstance(context);
+        int[] todoIds = mgr.getAppWidgetIds(new ComponentName(context, TodoWidget.class));
+        int[] hourlyIds = mgr.getAppWidgetIds(new ComponentName(context, HourlyWidget.class));
+
+        WidgetRefreshScheduler.get(context).request(WidgetRefreshScheduler.ALL, layoutChanged);
+
+        JSObject ret = new JSObject();
+        ret.put("refreshed", true);
+        ret.put("todoWidgets", todoIds.length);
+        ret.put("hourlyWidgets", hourlyIds.length);
+        return ret;
+    }
+
+    @PluginMethod
+    public void getCacheStats(PluginCall call) {
+        WidgetDataCache.Stats stats = WidgetDataCache.get(getContext()).getStats();
+        JSObject ret = new JSObject();
+        ret.put("hits", stats.hits);
+        ret.put("misses", stats.misses);
+        ret.put("invalidations", stats.invalidations);
+        ret.put("cachedTodos", stats.cachedTodos);
+        ret.put("pendingOps", stats.pendingOps);
+        call.resolve(ret);
+    }
 
-            // 2. Refresh HourlyWidget
-            ComponentName hourlyComponent = new ComponentName(context, HourlyWidget.class);
-            int[] hourlyIds = mgr.getAppWidgetIds(hourlyComponent);
-            if (hourlyIds.length > 0) {
-                Intent hourlyIntent = new Intent(context, HourlyWidget.class);
-                hourlyIntent.setAction(AppWidgetManager.ACTION_APPWIDGET_UPDATE);
-                hourlyIntent.putExtra(AppWidgetManager.EXTRA_APPWIDGET_IDS, hourlyIds);
-                context.sendBroadcast(hourlyIntent);
-                
-                Log.d(TAG, "Refreshed " + hourlyIds.length + " HourlyWidget(s)");
+    @PluginMethod
+    public void getRefreshStats(PluginCall call) {
+        WidgetRefreshScheduler scheduler = WidgetRefreshScheduler.get(getContext());
+        JSObject ret = new JSObject();
+        ret.put("todo", countsToJson(scheduler.counts(WidgetRefreshScheduler.TODO)));
+        ret.put("hourly", countsToJson(scheduler.counts(WidgetRefreshScheduler.HOURLY)));
+        call.resolve(ret);
+    }
+
+    private JSObject countsToJson(WidgetRefreshScheduler.Counts counts) {
+        JSObject json = new JSObject();
+        json.put("requested", counts.requested);
+        json.put("performed", counts.performed);
+        json.put("layoutRebuilds", counts.layoutRebuilds);
+        return json;
+    }
+
+    /** Widget edits since the last ack, compacted and oldest first. Does not remove them. */
+    @PluginMethod
+    public void drainOps(PluginCall call) {
+        try {
+            WidgetOpLog.Drain drain = WidgetOpLog.get(getContext()).drain();
+            JSArray ops = new JSArray();
+            for (WidgetOp op : drain.ops) {
+                ops.put(op.toJson());
             }
+            JSObject ret = new JSObject();
+            ret.put("ops", ops);
+            ret.put("upToSeq", drain.upToSeq);
+            call.resolve(ret);
+        } catch (Exception e) {
+            Log.e(TAG, "Failed to drain widget ops", e);
+            call.reject("Widget op drain failed: " + e.getMessage());
+        }
+    }
+
+    /** Drops the ops covered by a drain once the app has applied them. */
+    @PluginMethod
+    public void ackOps(PluginCall call) {
+        Long upToSeq = call.getLong("upToSeq");
+        if (upToSeq == null) {
+            call.reject("upToSeq is required");
+            return;
+        }
+        JSObject ret = new JSObject();
+        ret.put("remaining", WidgetOpLog.get(getContext()).ack(upToSeq));
+        call.resolve(ret);
+    }
 
+    /** Hourly days the rollover archived, oldest first. Does not remove them. */
+    @PluginMethod
+    public void drainHourlyArchive(PluginCall call) {
+        try {
+            JSArray days = new JSArray();
+            for (HourlyArchive.Day day : HourlyArchive.get(getContext()).days()) {
+                JSObject json = new JSObject();
+                json.put("date", day.dateKey);
+                json.put("logs", new JSONObject(day.entries));
+                days.put(json);
+            }
             JSObject ret = new JSObject();
-            ret.put("refreshed", true);
-            ret.put("todoWidgets", todoIds.length);
-            ret.put("hourlyWidgets", hourlyIds.length);
+            ret.put("days", days);
             call.resolve(ret);
         } catch (Exception e) {
-            Log.e(TAG, "Failed to refresh widgets", e);
-            call.reject("Widget refresh failed: " + e.getMessage());
+            Log.e(TAG, "Failed to drain hourly archive", e);
+            call.reject("Hourly archive drain failed: " + e.getMessage());
+        }
+    }
+
+    /** Drops archived days once the app has saved them. */
+    @PluginMethod
+    public void ackHourlyArchive(PluginCall call) {
+        JSArray dates = call.getArray("dates");
+        if (dates == null) {
+            call.reject("dates is required");
+            return;
+        }
+        HourlyArchive archive = HourlyArchive.get(getContext());
+        for (int i = 0; i < dates.length(); i++) {
+            String date = dates.optString(i, null);
+            if (date != null) archive.remove(date);
         }
+        call.resolve();
     }
 }
@@ -0,0 +1,75 @@
+package com.trunotes.v2.workers;
+
+import android.content.Context;
+import android.os.Environment;
+import android.text.TextUtils;
+
+import androidx.work.BackoffPolicy;
+import androidx.work.Constraints;
+import androidx.work.ExistingWorkPolicy;
+import androidx.work.OneTimeWorkRequest;
+import androidx.work.WorkManager;
+
+import com.trunotes.v2.data.NoteIndexStore;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Schedules EmbeddingIndexWorker for chunks of the note index that have no embedding yet.
+ *
+ * The work should run while the device is idle or charging. WorkManager constraints can only
+ * be combined with AND, so there are two requests, one per condition; whichever runs first
+ * drains the backlog and the other finds nothing to do.
+ */
+public final class EmbeddingIndexScheduler {
+    public static final String UNIQUE_CHARGING = "note_index_embed_charging";
+    public static final String UNIQUE_IDLE = "note_index_embed_idle";
+
+    static final String AI_PREFS_NAME = "AI_PREFS";
+    public static final String KEY_EMBEDDING_MODEL = "embedding_model_path";
+    // Where downloadModel puts the model the JS side asks for
+    private static final String DEFAULT_MODEL_FILENAME = "bge-small-en-v1.5-q4_k_m.gguf";
+
+    private EmbeddingIndexScheduler() {}
+
+    public static NoteIndexStore.Stats schedule(Context context) {
+        NoteIndexStore.Stats stats = NoteIndexStore.getInstance(context).getStats();
+        if (stats.pending == 0) return stats;
+
+        WorkManager workManager = WorkManager.getInstance(context);
+        // KEEP: a worker runs until nothing is pending, so one waiting request covers every
+        // chunk indexed before it starts; appending would queue a run per indexNotes call
+        workManager.enqueueUniqueWork(UNIQUE_CHARGING, ExistingWorkPolicy.KEEP,
+            new OneTimeWorkRequest.Builder(EmbeddingIndexWorker.class)
+                .setConstraints(new Constraints.Builder()
+                    .setRequiresCharging(true)
+                    .setRequiresBatteryNotLow(true)
+                    .build())
+                .setBackoffCriteria(BackoffPolicy.EXPONENTIAL, 5, TimeUnit.MINUTES)
+                .build());
+        // Idle-mode work cannot have backoff criteria; a failed run waits for the next schedule
+        workManager.enqueueUniqueWork(UNIQUE_IDLE, ExistingWorkPolicy.KEEP,
+            new OneTimeWorkRequest.Builder(EmbeddingIndexWorker.class)
+                .setConstraints(new Constraints.Builder()
+                    .setRequiresDeviceIdle(true)
+                    .setRequiresBatteryNotLow(true)
+                    .build())
+                .build());
+        return stats;
+    }
+
+    public static void cancel(Context context) {
+        WorkManager workManager = WorkManager.getInstance(context);
+        workManager.cancelUniqueWork(UNIQUE_CHARGING);
+        workManager.cancelUniqueWork(UNIQUE_IDLE);
+    }
+
+    /** The embedding model AIBridge last loaded, else the default download; null if neither exists. */
+    static File embeddingModel(Context context) {
+        String saved = context.getSharedPreferences(AI_PREFS_NAME, Context.MODE_PRIVATE).getString(KEY_EMBEDDING_MODEL, null);
+        if (!TextUtils.isEmpty(saved) && new File(saved).exists()) return new File(saved);
+        File downloaded = new File(context.getExternalFilesDir(Environment.DIRECTORY_DOWNLOADS), DEFAULT_MODEL_FILENAME);
+        return downloaded.exists() ? downloaded : null;
+    }
+}
@@ -0,0 +1,165 @@
+package com.trunotes.v2.workers;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.work.Data;
+import androidx.work.Worker;
+import androidx.work.WorkerParameters;
+
+import com.trunotes.v2.Tracer;
+import com.trunotes.v2.ai.InferenceEngines;
+import com.trunotes.v2.core.inference.InferenceEngine;
+import com.trunotes.v2.core.rag.NoteChunk;
+import com.trunotes.v2.data.NoteIndexStore;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Embeds the chunks of the note index that are still missing a vector, oldest first, in
+ * batches that are each stored in one transaction. Until a chunk is embedded, ask and
+ * searchNotes find it by keyword only; nothing on the interactive path embeds notes.
+ */
+public class EmbeddingIndexWorker extends Worker {
+    private static final String TAG = "EmbeddingIndexWorker";
+    private static final int BATCH_SIZE = 16;
+    private static final int WORKER_THREADS = 4;
+    // bge-small reads at most 512 tokens
+    private static final int EMBED_N_CTX = 512;
+    private static final String KEY_RUN_STATS = "index_worker_runs";
+    private static final int MAX_RUN_STATS = 20;
+
+    public static final String PROGRESS_EMBEDDED = "embedded";
+    public static final String PROGRESS_PENDING = "pending";
+
+    private final InferenceEngine engine = InferenceEngines.get();
+
+    public EmbeddingIndexWorker(@NonNull Context context, @NonNull WorkerParameters params) {
+        super(context, params);
+    }
+
+    @NonNull
+    @Override
+    public Result doWork() {
+        Context context = getApplicationContext();
+        Tracer.restore(context);
+        long startedAt = System.currentTimeMillis();
+        NoteIndexStore store = NoteIndexStore.getInstance(context);
+        int pendingAtStart = store.getStats().pending;
+        if (pendingAtStart == 0) return Result.success();
+
+        // The app may have the embedding model loaded already; only load (and later unload)
+        // it when it is missing and no chat model would go down with it
+        boolean loadedHere = false;
+        if (engine.embed("probe") == null) {
+            File model = EmbeddingIndexScheduler.embeddingModel(context);
+            if (model == null) {
+                Log.i(TAG, pendingAtStart + " chunks waiting, but no embedding model is downloaded");
+                return Result.success();
+            }
+            try (Tracer.Section trace = Tracer.begin("EmbeddingIndexWorker.loadModel", "bytes", model.length())) {
+                loadedHere = engine.contextSize() == 0;
+                if (!engine.load(model.getPath(), new InferenceEngine.ModelOptions(true, WORKER_THREADS, 0, EMBED_N_CTX))) {
+                    Log.e(TAG, "Failed to load embedding model " + model);
+                    return Result.retry();
+                }
+            }
+        }
+
+        ThermalPolicy thermalPolicy = new ThermalPolicy(context, WORKER_THREADS);
+        int embedded = 0;
+        int failed = 0;
+        boolean stoppedForHeat = false;
+        try {
+            // Cursor over (updatedAt, id): steps past chunks the model could not embed
+            long cursorUpdatedAt = -1;
+            String cursorId = "";
+            while (!isStopped()) {
+                List<NoteChunk> batch = store.listPending(cursorUpdatedAt, cursorId, BATCH_SIZE);
+                if (batch.isEmpty()) break;
+
+                ThermalPolicy.Decision decision = thermalPolicy.next();
+                if (decision.stop) {
+                    Log.w(TAG, "Thermal level severe, stopping run early");
+                    stoppedForHeat = true;
+                    break;
+                }
+                if (!thermalPolicy.pause(decision) || isStopped()) break;
+
+                List<NoteChunk> vectors = new ArrayList<>(batch.size());
+                try (Tracer.Section trace = Tracer.begin("indexBatch", "chunks", batch.size())) {
+                    for (NoteChunk chunk : batch) {
+                        cursorUpdatedAt = chunk.updatedAt;
+                        cursorId = chunk.id;
+                        float[] vector = engine.embed(chunk.embeddingText());
+                        if (vector != null) {
+                            vectors.add(chunk.withEmbedding(vector));
+                        } else {
+                            failed++;
+                        }
+                    }
+                    embedded += store.setEmbeddings(vectors);
+                }
+                setProgressAsync(new Data.Builder()
+                    .putInt(PROGRESS_EMBEDDED, embedded)
+                    .putInt(PROGRESS_PENDING, Math.max(0, pendingAtStart - embedded - failed))
+                    .build());
+            }
+
+            recordRun(startedAt, embedded, failed, store.getStats().pending, stoppedForHeat);
+            return stoppedForHeat ? Result.retry() : Result.success();
+        } catch (Exception error) {
+            Log.e(TAG, "Embedding index worker failed", error);
+            return Result.retry();
+        } finally {
+            // Still no chat model: unloading frees only what this run loaded
+            if (loadedHere && engine.contextSize() == 0) {
+                try {
+                    engine.unload();
+                } catch (Throwable error) {
+                    Log.e(TAG, "Failed to unload embedding model in worker", error);
+                }
+            }
+        }
+    }
+
+    /** Keeps the last {@value #MAX_RUN_STATS} runs for AIBridge.getIndexStats(). */
+    private void recordRun(long startedAt, int embedded, int failed, int pending, boolean stoppedForHeat) {
+        try {
+            SharedPreferences prefs = getApplicationContext().getSharedPreferences(EmbeddingIndexScheduler.AI_PREFS_NAME, Context.MODE_PRIVATE);
+            long durationMs = System.currentTimeMillis() - startedAt;
+            JSONObject run = new JSONObject();
+            run.put("startedAt", startedAt);
+            run.put("durationMs", durationMs);
+            run.put("chunksEmbedded", embedded);
+            run.put("chunksFailed", failed);
+            run.put("chunksPerMinute", durationMs > 0 ? embedded * 60000.0 / durationMs : 0);
+            run.put("pendingAfter", pending);
+            run.put("stoppedForHeat", stoppedForHeat);
+
+            JSONArray previous = new JSONArray(prefs.getString(KEY_RUN_STATS, "[]"));
+            JSONArray runs = new JSONArray();
+            int from = Math.max(0, previous.length() - (MAX_RUN_STATS - 1));
+            for (int i = from; i < previous.length(); i++) {
+                runs.put(previous.get(i));
+            }
+            runs.put(run);
+            prefs.edit().putString(KEY_RUN_STATS, runs.toString()).apply();
+        } catch (Exception error) {
+            Log.e(TAG, "Failed to record worker run stats", error);
+        }
+    }
+
+    public static JSONArray runStats(Context context) throws JSONException {
+        SharedPreferences prefs = context.getSharedPreferences(EmbeddingIndexScheduler.AI_PREFS_NAME, Context.MODE_PRIVATE);
+        return new JSONArray(prefs.getString(KEY_RUN_STATS, "[]"));
+    }
+}
@@ -0,0 +1,79 @@
+package com.trunotes.v2.workers;
+
+import android.content.Context;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.work.ExistingPeriodicWorkPolicy;
+import androidx.work.PeriodicWorkRequest;
+import androidx.work.WorkManager;
+import androidx.work.Worker;
+import androidx.work.WorkerParameters;
+
+import com.trunotes.v2.HourlyArchive;
+import com.trunotes.v2.WidgetDataCache;
+import com.trunotes.v2.WidgetRefreshScheduler;
+
+import java.io.IOException;
+import java.util.Calendar;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Daily job, shortly after midnight, that archives the hourly widget's finished day and
+ * starts an empty one (see WidgetDataCache.rollOverHourly).
+ *
+ * Widget reads never depend on it running on time: a day other than today already reads
+ * as empty. A late or missed run only delays the archive, and the next run catches up
+ * because it compares against the stored date rather than assuming one day passed.
+ */
+public class HourlyRolloverWorker extends Worker {
+    private static final String TAG = "HourlyRolloverWorker";
+    public static final String UNIQUE_PERIODIC = "hourly_widget_rollover";
+
+    // Past midnight, so the run never lands on the day it should be archiving
+    private static final long AFTER_MIDNIGHT_MS = TimeUnit.MINUTES.toMillis(1);
+
+    public HourlyRolloverWorker(@NonNull Context context, @NonNull WorkerParameters params) {
+        super(context, params);
+    }
+
+    /** Safe to call often; an existing schedule is kept. */
+    public static void schedule(Context context) {
+        PeriodicWorkRequest periodic = new PeriodicWorkRequest.Builder(HourlyRolloverWorker.class, 1, TimeUnit.DAYS)
+            .setInitialDelay(untilNextMidnight(System.currentTimeMillis()) + AFTER_MIDNIGHT_MS, TimeUnit.MILLISECONDS)
+            .build();
+        WorkManager.getInstance(context)
+            .enqueueUniquePeriodicWork(UNIQUE_PERIODIC, ExistingPeriodicWorkPolicy.KEEP, periodic);
+    }
+
+    static long untilNextMidnight(long now) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(now);
+        calendar.set(Calendar.HOUR_OF_DAY, 0);
+        calendar.set(Calendar.MINUTE, 0);
+        calendar.set(Calendar.SECOND, 0);
+        calendar.set(Calendar.MILLISECOND, 0);
+        calendar.add(Calendar.DAY_OF_MONTH, 1);
+        return calendar.getTimeInMillis() - now;
+    }
+
+    @NonNull
+    @Override
+    public Result doWork() {
+        Context context = getApplicationContext();
+        try {
+            String archived = WidgetDataCache.get(context).rollOverHourly(HourlyArchive.get(context));
+            if (archived == null) {
+                Log.d(TAG, "Hourly log already on today");
+                return Result.success();
+            }
+            Log.d(TAG, "Archived hourly log for " + archived);
+            WidgetRefreshScheduler.get(context).request(WidgetRefreshScheduler.HOURLY, false);
+            return Result.success();
+        } catch (IOException e) {
+            // Nothing was reset, so the day is still in place for the retry
+            Log.e(TAG, "Hourly rollover failed", e);
+            return Result.retry();
+        }
+    }
+}
@@ -0,0 +1,177 @@
+package com.trunotes.v2.workers;
+
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.BatteryManager;
+import android.os.Build;
+import android.os.PowerManager;
+
+/**
+ * Adaptive execution policy for background inference.
+ *
+ * Checked before every unit of work (a note, or a chunk of a long note). As the device
+ * heats up it lowers the thread count and inserts cool-down pauses, and at SEVERE it tells
+ * the caller to stop. Sustained throttling hurts throughput more than running a little
+ * slower from the start, so we back off early instead of waiting for the governor.
+ *
+ * Signals, best available first: thermal headroom (API 30+), thermal status (API 29+),
+ * then battery temperature on older devices.
+ */
+public class ThermalPolicy {
+    public static final int LEVEL_COOL = 0;
+    public static final int LEVEL_WARM = 1;
+    public static final int LEVEL_HOT = 2;
+    public static final int LEVEL_SEVERE = 3;
+
+    // Forecast window handed to getThermalHeadroom(); roughly one note's worth of decode.
+    private static final int HEADROOM_FORECAST_SECONDS = 10;
+    // getThermalHeadroom() returns NaN when polled more than about once a second.
+    private static final long HEADROOM_MIN_INTERVAL_MS = 1000;
+
+    private static final long WARM_PAUSE_MS = 2_000;
+    private static final long HOT_PAUSE_MS = 10_000;
+    private static final int LOW_BATTERY_PERCENT = 30;
+
+    private final Context context;
+    private final PowerManager powerManager;
+    private final int maxThreads;
+
+    private long lastHeadroomAt = 0;
+    private float lastHeadroom = Float.NaN;
+
+    private int throttleEvents = 0;
+    private int maxLevel = LEVEL_COOL;
+    private long pausedMs = 0;
+
+    public ThermalPolicy(Context context, int maxThreads) {
+        this.context = context.getApplicationContext();
+        this.powerManager = (PowerManager) context.getSystemService(Context.POWER_SERVICE);
+        this.maxThreads = Math.max(1, maxThreads);
+    }
+
+    public static class Decision {
+        public final int level;
+        public final int threads;
+        public final long pauseMs;
+        public final boolean stop;
+
+        Decision(int level, int threads, long pauseMs, boolean stop) {
+            this.level = level;
+            this.threads = threads;
+            this.pauseMs = pauseMs;
+            this.stop = stop;
+        }
+    }
+
+    /** Reads the current thermal and battery state and decides how the next unit should run. */
+    public Decision next() {
+        int level = currentLevel();
+        maxLevel = Math.max(maxLevel, level);
+
+        int threads;
+        long pause;
+        switch (level) {
+            case LEVEL_SEVERE:
+                throttleEvents++;
+                return new Decision(level, 0, 0, true);
+            case LEVEL_HOT:
+                threads = Math.max(1, maxThreads / 2);
+                pause = HOT_PAUSE_MS;
+                break;
+            case LEVEL_WARM:
+                threads = Math.max(1, maxThreads - 1);
+                pause = WARM_PAUSE_MS;
+                break;
+            default:
+                threads = maxThreads;
+                pause = 0;
+        }
+
+        // On battery and running low: fewer threads finish more notes per mAh.
+        BatteryState battery = readBattery();
+        if (!battery.charging && battery.percent >= 0 && battery.percent < LOW_BATTERY_PERCENT) {
+            threads = Math.max(1, Math.min(threads, maxThreads / 2));
+        }
+
+        if (threads < maxThreads || pause > 0) {
+            throttleEvents++;
+        }
+        return new Decision(level, threads, pause, false);
+    }
+
+    /** Sleeps for the decision's pause; returns false if interrupted. */
+    public boolean pause(Decision decision) {
+        if (decision.pauseMs <= 0) return true;
+        try {
+            Thread.sleep(decision.pauseMs);
+            pausedMs += decision.pauseMs;
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    public int getThrottleEvents() { return throttleEvents; }
+    public int getMaxLevel() { return maxLevel; }
+    public long getPausedMs() { return pausedMs; }
+
+    public float getLastHeadroom() { return lastHeadroom; }
+
+    private int currentLevel() {
+        int level = LEVEL_COOL;
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.R && powerManager != null) {
+            long now = System.currentTimeMillis();
+            if (now - lastHeadroomAt >= HEADROOM_MIN_INTERVAL_MS) {
+                lastHeadroom = powerManager.getThermalHeadroom(HEADROOM_FORECAST_SECONDS);
+                lastHeadroomAt = now;
+            }
+            // 1.0 is where the platform reports SEVERE
+            if (!Float.isNaN(lastHeadroom)) {
+                if (lastHeadroom >= 1.0f) level = LEVEL_SEVERE;
+                else if (lastHeadroom >= 0.85f) level = LEVEL_HOT;
+                else if (lastHeadroom >= 0.7f) level = LEVEL_WARM;
+            }
+        }
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q && powerManager != null) {
+            int status = powerManager.getCurrentThermalStatus();
+            if (status >= PowerManager.THERMAL_STATUS_SEVERE) level = Math.max(level, LEVEL_SEVERE);
+            else if (status == PowerManager.THERMAL_STATUS_MODERATE) level = Math.max(level, LEVEL_HOT);
+            else if (status == PowerManager.THERMAL_STATUS_LIGHT) level = Math.max(level, LEVEL_WARM);
+            return level;
+        }
+
+        // Pre-Q: battery temperature is the only signal we get (tenths of a degree C)
+        int tenths = readBattery().temperatureTenths;
+        if (tenths >= 460) level = LEVEL_SEVERE;
+        else if (tenths >= 430) level = LEVEL_HOT;
+        else if (tenths >= 400) level = LEVEL_WARM;
+        return level;
+    }
+
+    private static class BatteryState {
+        int percent = -1;
+        boolean charging = false;
+        int temperatureTenths = 0;
+    }
+
+    private BatteryState readBattery() {
+        BatteryState state = new BatteryState();
+        // Sticky broadcast: no receiver is actually registered
+        Intent battery = context.registerReceiver(null, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+        if (battery == null) return state;
+
+        int level = battery.getIntExtra(BatteryManager.EXTRA_LEVEL, -1);
+        int scale = battery.getIntExtra(BatteryManager.EXTRA_SCALE, -1);
+        if (level >= 0 && scale > 0) {
+            state.percent = level * 100 / scale;
+        }
+        int plugged = battery.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0);
+        state.charging = plugged != 0;
+        state.temperatureTenths = battery.getIntExtra(BatteryManager.EXTRA_TEMPERATURE, 0);
+        return state;
+    }
+}
@@ -0,0 +1,192 @@
+package com.trunotes.v2.workers;
+
+import android.content.Context;
+import android.os.Build;
+import android.util.Log;
+
+import androidx.work.BackoffPolicy;
+import androidx.work.Constraints;
+import androidx.work.Data;
+import androidx.work.ExistingPeriodicWorkPolicy;
+import androidx.work.ExistingWorkPolicy;
+import androidx.work.OneTimeWorkRequest;
+import androidx.work.OutOfQuotaPolicy;
+import androidx.work.PeriodicWorkRequest;
+import androidx.work.WorkContinuation;
+import androidx.work.WorkManager;
+
+import com.trunotes.v2.ai.InferenceEngines;
+import com.trunotes.v2.data.VoiceNotesStore;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Picks how to run the voice-note queue based on its size.
+ *
+ * A short backlog (a note or two just recorded) runs straight away as expedited work without
+ * the charging constraint, so its summary shows up within minutes, unless the app has a chat
+ * model loaded: then the run waits a few minutes rather than decode next to the user's chat
+ * (it shares the chat's model, see InferenceEngines.holdModel). A long backlog is split
+ * into bounded shards chained one after another on the charger; each shard is short enough
+ * that losing one to a process kill costs little, and finished notes are already saved.
+ * The hourly periodic job stays as a safety net.
+ */
+public final class VoiceNotesScheduler {
+    private static final String TAG = "VoiceNotesScheduler";
+
+    public static final String UNIQUE_ONE_TIME = "voice_ai_extract_once";
+    public static final String UNIQUE_BATCH = "voice_ai_extract_batch";
+    public static final String UNIQUE_PERIODIC = "voice_ai_extract_periodic";
+
+    // Worker input keys
+    public static final String KEY_MODE = "mode";
+    public static final String KEY_MAX_NOTES = "max_notes";
+    public static final String KEY_MAX_TOKENS = "max_tokens";
+
+    public static final String MODE_EXPEDITED = "expedited";
+    public static final String MODE_BATCH = "batch";
+    public static final String MODE_PERIODIC = "periodic";
+
+    // Rough English average for speech transcripts; only used for sizing, never for prompts
+    static final int CHARS_PER_TOKEN = 4;
+
+    // "Small" means it finishes in a few minutes without a charger
+    private static final int SMALL_MAX_NOTES = 3;
+    private static final long SMALL_MAX_TOKENS = 6_000;
+    // Delay of a short backlog's run while the chat model is loaded
+    private static final long CHAT_DEFER_MINUTES = 10;
+
+    private static final int SHARD_MAX_NOTES = 8;
+    private static final long SHARD_MAX_TOKENS = 24_000;
+    // Longer chains are left to the next scheduling pass or the periodic job
+    private static final int MAX_CHAINED_SHARDS = 12;
+
+    private VoiceNotesScheduler() {}
+
+    /** Result of one scheduling pass, reported back to JS. */
+    public static class Plan {
+        public final String mode;
+        public final int pending;
+        public final long estimatedTokens;
+        public final int shards;
+
+        Plan(String mode, int pending, long estimatedTokens, int shards) {
+            this.mode = mode;
+            this.pending = pending;
+            this.estimatedTokens = estimatedTokens;
+            this.shards = shards;
+        }
+    }
+
+    public static long estimateTokens(long chars) {
+        return (chars + CHARS_PER_TOKEN - 1) / CHARS_PER_TOKEN;
+    }
+
+    public static Plan schedule(Context context) {
+        VoiceNotesStore.Backlog backlog = VoiceNotesStore.getInstance(context).getBacklog();
+        long tokens = estimateTokens(backlog.transcriptChars);
+        WorkManager workManager = WorkManager.getInstance(context);
+
+        enqueuePeriodic(workManager);
+
+        if (backlog.pending == 0) {
+            return new Plan(MODE_PERIODIC, 0, 0, 0);
+        }
+
+        if (backlog.pending <= SMALL_MAX_NOTES && tokens <= SMALL_MAX_TOKENS) {
+            boolean chatModelLoaded = InferenceEngines.get().modelPath() != null;
+            enqueueExpedited(workManager, chatModelLoaded);
+            Log.d(TAG, (chatModelLoaded ? "Deferred" : "Expedited") + " run for " + backlog.pending + " notes (~" + tokens + " tokens)");
+            return new Plan(MODE_EXPEDITED, backlog.pending, tokens, 1);
+        }
+
+        int shards = enqueueShards(workManager, backlog.pending, tokens);
+        Log.d(TAG, "Chained " + shards + " batch shards for " + backlog.pending + " notes (~" + tokens + " tokens)");
+        return new Plan(MODE_BATCH, backlog.pending, tokens, shards);
+    }
+
+    public static void cancel(Context context) {
+        WorkManager workManager = WorkManager.getInstance(context);
+        workManager.cancelUniqueWork(UNIQUE_ONE_TIME);
+        workManager.cancelUniqueWork(UNIQUE_BATCH);
+        workManager.cancelUniqueWork(UNIQUE_PERIODIC);
+    }
+
+    private static void enqueueExpedited(WorkManager workManager, boolean chatModelLoaded) {
+        OneTimeWorkRequest.Builder builder = new OneTimeWorkRequest.Builder(VoiceNotesWorker.class)
+            .setInputData(new Data.Builder()
+                .putString(KEY_MODE, MODE_EXPEDITED)
+                .putInt(KEY_MAX_NOTES, SMALL_MAX_NOTES)
+                .putLong(KEY_MAX_TOKENS, SMALL_MAX_TOKENS)
+                .build())
+            .setBackoffCriteria(BackoffPolicy.EXPONENTIAL, 5, TimeUnit.MINUTES);
+
+        // Expedited work only accepts network and storage constraints (build() throws on the
+        // battery one). Before S, expedited work runs as a foreground service and needs a
+        // notification; a plain one-time request already starts within seconds there. Nor can
+        // expedited work be delayed, so the deferred run is a plain request.
+        if (chatModelLoaded) {
+            builder.setInitialDelay(CHAT_DEFER_MINUTES, TimeUnit.MINUTES)
+                .setConstraints(new Constraints.Builder()
+                    .setRequiresBatteryNotLow(true)
+                    .build());
+        } else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.S) {
+            builder.setExpedited(OutOfQuotaPolicy.RUN_AS_NON_EXPEDITED_WORK_REQUEST);
+        } else {
+            builder.setConstraints(new Constraints.Builder()
+                .setRequiresBatteryNotLow(true)
+                .build());
+        }
+
+        // APPEND_OR_REPLACE: a note saved mid-run gets its own run after the current one
+        workManager.enqueueUniqueWork(UNIQUE_ONE_TIME, ExistingWorkPolicy.APPEND_OR_REPLACE, builder.build());
+    }
+
+    private static int enqueueShards(WorkManager workManager, int pending, long tokens) {
+        int byNotes = (pending + SHARD_MAX_NOTES - 1) / SHARD_MAX_NOTES;
+        int byTokens = (int) ((tokens + SHARD_MAX_TOKENS - 1) / SHARD_MAX_TOKENS);
+        int shards = Math.max(1, Math.min(MAX_CHAINED_SHARDS, Math.max(byNotes, byTokens)));
+
+        Constraints constraints = new Constraints.Builder()
+            .setRequiresCharging(true)
+            .setRequiresBatteryNotLow(true)
+            .build();
+
+        Data input = new Data.Builder()
+            .putString(KEY_MODE, MODE_BATCH)
+            .putInt(KEY_MAX_NOTES, SHARD_MAX_NOTES)
+            .putLong(KEY_MAX_TOKENS, SHARD_MAX_TOKENS)
+            .build();
+
+        // Every shard takes the oldest unfinished notes, so shards need no note assignment.
+        // KEEP: a running chain carries on; whatever it leaves is picked up by the next pass.
+        WorkContinuation chain = null;
+        for (int i = 0; i < shards; i++) {
+            OneTimeWorkRequest shard = new OneTimeWorkRequest.Builder(VoiceNotesWorker.class)
+                .setConstraints(constraints)
+                .setInputData(input)
+                .setBackoffCriteria(BackoffPolicy.EXPONENTIAL, 5, TimeUnit.MINUTES)
+                .build();
+            chain = chain == null
+                ? workManager.beginUniqueWork(UNIQUE_BATCH, ExistingWorkPolicy.KEEP, shard)
+                : chain.then(shard);
+        }
+        chain.enqueue();
+        return shards;
+    }
+
+    private static void enqueuePeriodic(WorkManager workManager) {
+        Constraints constraints = new Constraints.Builder()
+            .setRequiresCharging(true)
+            .setRequiresBatteryNotLow(true)
+            .build();
+
+        PeriodicWorkRequest periodic = new PeriodicWorkRequest.Builder(VoiceNotesWorker.class, 1, TimeUnit.HOURS)
+            .setConstraints(constraints)
+            .setInputData(new Data.Builder().putString(KEY_MODE, MODE_PERIODIC).build())
+            .setBackoffCriteria(BackoffPolicy.EXPONENTIAL, 5, TimeUnit.MINUTES)
+            .build();
+
+        workManager.enqueueUniquePeriodicWork(UNIQUE_PERIODIC, ExistingPeriodicWorkPolicy.UPDATE, periodic);
+    }
+}
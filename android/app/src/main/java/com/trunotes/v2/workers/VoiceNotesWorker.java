@@ -6,28 +6,54 @@ import android.text.TextUtils;
 import android.util.Log;
 
 import androidx.annotation.NonNull;
+import androidx.work.Data;
 import androidx.work.Worker;
 import androidx.work.WorkerParameters;
 
+import com.trunotes.v2.Tracer;
+import com.trunotes.v2.ai.InferenceEngines;
+import com.trunotes.v2.core.ExtractiveSummarizer;
+import com.trunotes.v2.core.SummaryText;
+import com.trunotes.v2.core.TranscriptChunker;
+import com.trunotes.v2.core.inference.InferenceEngine;
+import com.trunotes.v2.core.inference.ResponseCache;
+import com.trunotes.v2.data.VoiceNotesStore;
+
 import org.json.JSONArray;
 import org.json.JSONObject;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
 
 public class VoiceNotesWorker extends Worker {
     private static final String TAG = "VoiceNotesWorker";
-    private static final String PREFS_NAME = "CapacitorStorage";
-    private static final String NOTES_KEY = "voice_notes_ai_items";
+    private static final int PAGE_SIZE = 20;
     private static final String AI_PREFS_NAME = "AI_PREFS";
     private static final String KEY_LAST_MODEL = "last_model_path";
-
-    static {
-        try {
-            System.loadLibrary("llama-android");
-        } catch (UnsatisfiedLinkError error) {
-            Log.e(TAG, "Failed to load llama-android", error);
-        }
-    }
+    private static final String KEY_RUN_STATS = "voice_worker_runs";
+    private static final int MAX_RUN_STATS = 20;
+    private static final int WORKER_THREADS = 4;
+    private static final int WORKER_N_CTX = 1280;
+    // Room left in the context after prompt + answer; mirrors the native context-shift guard.
+    private static final int CONTEXT_MARGIN = 64;
+    // Answer budget for one chunk's notes in long-input mode.
+    private static final int CHUNK_PREDICT = 160;
+    private static final int MAX_REDUCE_ROUNDS = 4;
+    // Fixed so a retried run gets the same summaries, from the response cache
+    private static final int SUMMARY_SEED = 42;
+
+    private final InferenceEngine engine = InferenceEngines.get();
+    private ResponseCache responseCache;
+    // The generative model this run uses, loaded by it or already there; null without one
+    private String modelInUse;
+    // Someone loaded another model or unloaded it mid-run; the rest waits for a retry
+    private boolean modelLost = false;
+    private ThermalPolicy thermalPolicy;
+    private int threads = WORKER_THREADS;
+    private int minThreads = WORKER_THREADS;
+    private boolean stoppedForHeat = false;
+    private final ExtractiveSummarizer extractiveSummarizer = new ExtractiveSummarizer();
 
     public VoiceNotesWorker(@NonNull Context context, @NonNull WorkerParameters params) {
         super(context, params);
@@ -37,101 +63,145 @@ public class VoiceNotesWorker extends Worker {
     @Override
     public Result doWork() {
         boolean modelLoaded = false;
+        long startedAt = System.currentTimeMillis();
+        int completed = 0;
+        thermalPolicy = new ThermalPolicy(getApplicationContext(), WORKER_THREADS);
+        responseCache = InferenceEngines.responseCache(getApplicationContext());
+        Tracer.restore(getApplicationContext());
+
+        // Shard bounds from VoiceNotesScheduler; the periodic job runs unbounded
+        Data input = getInputData();
+        String mode = input.getString(VoiceNotesScheduler.KEY_MODE);
+        int maxNotes = input.getInt(VoiceNotesScheduler.KEY_MAX_NOTES, Integer.MAX_VALUE);
+        long maxTokens = input.getLong(VoiceNotesScheduler.KEY_MAX_TOKENS, Long.MAX_VALUE);
+        long estimatedTokens = 0;
 
         try {
-            SharedPreferences preferences = getApplicationContext().getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+            VoiceNotesStore store = VoiceNotesStore.getInstance(getApplicationContext());
             SharedPreferences aiPreferences = getApplicationContext().getSharedPreferences(AI_PREFS_NAME, Context.MODE_PRIVATE);
-            String raw = preferences.getString(NOTES_KEY, "[]");
-            JSONArray notes = new JSONArray(raw);
-            boolean changed = false;
 
-            String modelPath = aiPreferences.getString(KEY_LAST_MODEL, null);
-            if (!TextUtils.isEmpty(modelPath)) {
-                File file = new File(modelPath);
+            // The chat's model, if the app has one loaded, is used as it is: loading our own
+            // would replace it and end its generations
+            InferenceEngines.holdModel(this);
+            String modelPath = engine.modelPath();
+            String lastModel = aiPreferences.getString(KEY_LAST_MODEL, null);
+            if (modelPath == null && !TextUtils.isEmpty(lastModel)) {
+                File file = new File(lastModel);
                 if (file.exists()) {
-                    try {
-                        modelLoaded = nativeLoadModel(modelPath, true, 4, 0, 1280);
+                    try (Tracer.Section trace = Tracer.begin("VoiceNotesWorker.loadModel", "bytes", file.length())) {
+                        if (engine.load(lastModel, new InferenceEngine.ModelOptions(true, WORKER_THREADS, 0, WORKER_N_CTX))) {
+                            modelPath = lastModel;
+                        }
                     } catch (Throwable error) {
                         Log.e(TAG, "Failed to load local model for worker", error);
-                        modelLoaded = false;
                     }
                 }
             }
-
-            for (int index = 0; index < notes.length(); index++) {
-                JSONObject note = notes.getJSONObject(index);
-                String status = note.optString("status", "queued");
-                if ("completed".equals(status)) {
-                    continue;
+            modelLoaded = modelPath != null;
+            modelInUse = modelPath;
+
+            // Walk the pending index page by page; each finished note is written as its own row
+            long cursorUpdatedAt = -1;
+            String cursorId = "";
+            boolean interrupted = false;
+            while (!interrupted && completed < maxNotes && estimatedTokens < maxTokens) {
+                List<JSONObject> page = store.listPending(cursorUpdatedAt, cursorId, PAGE_SIZE);
+                if (page.isEmpty()) {
+                    break;
                 }
 
-                String transcript = normalizeTranscript(note.optString("transcript", ""));
-                if (TextUtils.isEmpty(transcript)) {
-                    continue;
-                }
+                for (JSONObject note : page) {
+                    if (completed >= maxNotes || estimatedTokens >= maxTokens) {
+                        break;
+                    }
+                    cursorUpdatedAt = note.optLong("updatedAt", 0);
+                    cursorId = note.getString("id");
 
-                Summary summary = modelLoaded ? summarizeWithQwen(transcript, modelPath) : null;
-                if (summary == null) {
-                    summary = summarizeFallback(transcript);
-                }
+                    String transcript = SummaryText.normalizeWhitespace(note.optString("transcript", ""));
+                    if (TextUtils.isEmpty(transcript)) {
+                        continue;
+                    }
 
-                note.put("title", summary.title);
-                note.put("summary", summary.summary);
-                note.put("excerpt", summary.excerpt);
-                note.put("summaryProvider", summary.provider);
-                note.put("status", "completed");
-                note.put("updatedAt", System.currentTimeMillis());
-                changed = true;
+                    // One section per note; model, fallback and store phases nest inside it
+                    try (Tracer.Section trace = Tracer.begin("voiceNote", "chars", transcript.length())) {
+                        // The extractive fallback is cheap; only model inference is throttled
+                        if (modelLoaded && !throttle()) {
+                            interrupted = true;
+                            break;
+                        }
+
+                        Summary summary = modelLoaded ? summarizeWithQwen(transcript, modelPath) : null;
+                        if (summary == null && (stoppedForHeat || modelLost || isStopped())) {
+                            // Interrupted mid-note: leave it queued rather than settle for the fallback
+                            interrupted = true;
+                            break;
+                        }
+                        if (summary == null) {
+                            summary = summarizeFallback(transcript);
+                        }
+
+                        long completedAt = System.currentTimeMillis();
+                        try (Tracer.Section write = Tracer.begin("voiceNote.store")) {
+                            store.markCompleted(cursorId, summary.title, summary.summary, summary.excerpt, summary.provider, completedAt);
+                        }
+                        completed++;
+                        estimatedTokens += VoiceNotesScheduler.estimateTokens(transcript.length());
+                        Log.d(TAG, "Note " + cursorId + " waited " + (completedAt - note.optLong("queuedAt", completedAt)) + "ms in queue");
+                    }
+                }
             }
 
-            if (changed) {
-                preferences.edit().putString(NOTES_KEY, notes.toString()).apply();
-            }
+            recordRun(aiPreferences, mode, startedAt, completed, modelLoaded);
 
-            return Result.success();
+            // Retry lets WorkManager's backoff act as the cool-down before the rest of the queue
+            return stoppedForHeat || modelLost ? Result.retry() : Result.success();
         } catch (Exception error) {
             Log.e(TAG, "Voice notes worker failed", error);
             return Result.retry();
         } finally {
-            if (modelLoaded) {
-                try {
-                    nativeUnloadModel();
-                } catch (Throwable error) {
-                    Log.e(TAG, "Failed to unload local model in worker", error);
-                }
+            // Unloads the model only if the app is not using it
+            try {
+                InferenceEngines.releaseModel(this);
+            } catch (Throwable error) {
+                Log.e(TAG, "Failed to unload local model in worker", error);
             }
         }
     }
 
-    private String normalizeTranscript(String transcript) {
-        if (transcript == null) return "";
-        return transcript.replaceAll("\\s+", " ").trim();
-    }
-
     private Summary summarizeWithQwen(String transcript, String modelPath) {
-        try {
+        try (Tracer.Section trace = Tracer.begin("voiceNote.model", "threads", threads)) {
             String prompt = wrapPrompt(buildVoiceSummaryPrompt(transcript), modelPath);
             int nPredict = Math.max(220, Math.min(420, (int) Math.ceil(transcript.length() * 0.55)));
-            String response = nativeGenerate(prompt, nPredict, 0.25f, 32, 0.88f, 1.12f, 4);
+            int nCtx = contextSize();
+            int[] promptTokens = countTokens(new String[] { prompt });
+            if (promptTokens != null) Tracer.counter("voice_prompt_tokens", promptTokens[0]);
+
+            String response;
+            if (promptTokens == null || promptTokens[0] + nPredict <= nCtx - CONTEXT_MARGIN) {
+                response = generate(prompt, nPredict, 0.25f);
+            } else {
+                // generate would cut the prompt at n_ctx - 128 and drop the end of the recording
+                Log.i(TAG, "Transcript needs " + promptTokens[0] + " prompt tokens (n_ctx " + nCtx + "), using map-reduce");
+                response = summarizeLongTranscript(transcript, modelPath, nCtx, nPredict);
+            }
 
             if (response == null || response.contains("Error:")) {
                 return null;
             }
 
-            String json = extractJsonObject(response);
+            String json = SummaryText.extractJsonObject(response);
             if (json == null) {
                 return null;
             }
 
             JSONObject parsed = new JSONObject(json);
-            String fallbackTitle = buildTitle(transcript);
-            String fallbackSummary = shorten(transcript, 180);
-            String fallbackExcerpt = shorten(transcript, 120);
+            // Fills any field the model left empty; takes a few milliseconds
+            ExtractiveSummarizer.Result fallback = extractiveSummarizer.summarize(transcript);
 
             return new Summary(
-                normalizeField(parsed.optString("title", ""), fallbackTitle, 80),
-                normalizeField(parsed.optString("summary", ""), fallbackSummary, 260),
-                normalizeField(parsed.optString("excerpt", ""), fallbackExcerpt, 120),
+                normalizeField(parsed.optString("title", ""), fallback.title, 80),
+                normalizeField(parsed.optString("summary", ""), fallback.summary, 260),
+                normalizeField(parsed.optString("excerpt", ""), fallback.excerpt, 120),
                 "qwen"
             );
         } catch (Exception error) {
@@ -140,15 +210,181 @@ public class VoiceNotesWorker extends Worker {
         }
     }
 
+    /**
+     * Long-input mode: summarize token-budgeted chunks into short notes (map), then fold the
+     * notes into the final JSON (reduce). Only the current chunk and the partial notes are
+     * held at once, and every prompt fits the context, so cost grows linearly with length.
+     */
+    private String summarizeLongTranscript(String transcript, String modelPath, int nCtx, int nPredict) {
+        List<String> notes = summarizeChunks(TranscriptChunker.splitSentences(transcript), CHUNK_INSTRUCTION, modelPath, nCtx);
+        if (notes == null || notes.isEmpty()) {
+            return null;
+        }
+
+        for (int round = 0; round < MAX_REDUCE_ROUNDS; round++) {
+            String finalPrompt = wrapPrompt(buildReducePrompt(notes), modelPath);
+            int[] finalTokens = countTokens(new String[] { finalPrompt });
+            if (finalTokens == null) {
+                return null;
+            }
+            if (finalTokens[0] + nPredict <= nCtx - CONTEXT_MARGIN || notes.size() == 1) {
+                return generate(finalPrompt, nPredict, 0.25f);
+            }
+
+            // Partial notes still too long for one prompt: condense them in groups and retry.
+            List<String> condensed = summarizeChunks(notes, CONDENSE_INSTRUCTION, modelPath, nCtx);
+            if (condensed == null || condensed.isEmpty()) {
+                return null;
+            }
+            notes = condensed;
+        }
+
+        Log.w(TAG, "Reduce did not converge after " + MAX_REDUCE_ROUNDS + " rounds");
+        return null;
+    }
+
+    /**
+     * Packs segments under the instruction's token budget and summarizes each pack.
+     * The instruction always comes first and the chunk text last, so consecutive prompts
+     * share a prefix and the native KV-cache prefix match skips re-prefilling it.
+     */
+    private List<String> summarizeChunks(List<String> segments, String instruction, String modelPath, int nCtx) {
+        if (segments.isEmpty()) {
+            return new ArrayList<>();
+        }
+
+        String[] texts = new String[segments.size() + 1];
+        texts[0] = wrapPrompt(instruction, modelPath);
+        for (int i = 0; i < segments.size(); i++) {
+            texts[i + 1] = segments.get(i);
+        }
+        int[] counts = countTokens(texts);
+        if (counts == null) {
+            return null;
+        }
+
+        int budget = nCtx - CONTEXT_MARGIN - CHUNK_PREDICT - counts[0];
+        if (budget < 64) {
+            Log.w(TAG, "Context too small for chunked summarization: " + nCtx);
+            return null;
+        }
+
+        int[] segmentCounts = new int[segments.size()];
+        System.arraycopy(counts, 1, segmentCounts, 0, segmentCounts.length);
+        List<String> chunks = TranscriptChunker.pack(segments, segmentCounts, budget);
+
+        List<String> notes = new ArrayList<>(chunks.size());
+        for (String chunk : chunks) {
+            // Long notes can run for minutes; re-check heat between chunks
+            if (isStopped() || !throttle()) {
+                return null;
+            }
+            String response;
+            try (Tracer.Section trace = Tracer.begin("voiceNote.chunk", "chars", chunk.length())) {
+                response = generate(wrapPrompt(instruction + chunk, modelPath), CHUNK_PREDICT, 0.2f);
+            }
+            if (response == null || response.contains("Error:")) {
+                return null;
+            }
+            String cleaned = response.replace("```", "").trim();
+            if (!cleaned.isEmpty()) {
+                notes.add(cleaned);
+            }
+        }
+        return notes;
+    }
+
+    /**
+     * Applies the thermal policy before the next unit of inference: adjusts {@link #threads}
+     * and sleeps through any cool-down. Returns false when the run should stop.
+     */
+    private boolean throttle() {
+        if (stoppedForHeat) return false;
+        try (Tracer.Section trace = Tracer.begin("voiceNote.thermal")) {
+            return applyThermalDecision();
+        }
+    }
+
+    private boolean applyThermalDecision() {
+
+        ThermalPolicy.Decision decision = thermalPolicy.next();
+        if (decision.stop) {
+            Log.w(TAG, "Thermal level severe, stopping run early");
+            stoppedForHeat = true;
+            return false;
+        }
+        if (decision.threads != threads || decision.pauseMs > 0) {
+            Log.i(TAG, "Thermal level " + decision.level + ": threads " + decision.threads + ", pause " + decision.pauseMs + "ms");
+        }
+        threads = decision.threads;
+        minThreads = Math.min(minThreads, threads);
+        return thermalPolicy.pause(decision) && !isStopped();
+    }
+
+    /** Keeps the last {@value #MAX_RUN_STATS} runs for BackgroundVoiceAI.getRunStats(). */
+    private void recordRun(SharedPreferences aiPreferences, String mode, long startedAt, int completed, boolean modelLoaded) {
+        try {
+            long durationMs = System.currentTimeMillis() - startedAt;
+            JSONObject run = new JSONObject();
+            run.put("mode", mode != null ? mode : VoiceNotesScheduler.MODE_PERIODIC);
+            run.put("startedAt", startedAt);
+            run.put("durationMs", durationMs);
+            run.put("notesCompleted", completed);
+            run.put("notesPerMinute", durationMs > 0 ? completed * 60000.0 / durationMs : 0);
+            run.put("modelLoaded", modelLoaded);
+            run.put("throttleEvents", thermalPolicy.getThrottleEvents());
+            run.put("pausedMs", thermalPolicy.getPausedMs());
+            run.put("maxThermalLevel", thermalPolicy.getMaxLevel());
+            run.put("minThreads", minThreads);
+            run.put("stoppedForHeat", stoppedForHeat);
+
+            JSONArray previous = new JSONArray(aiPreferences.getString(KEY_RUN_STATS, "[]"));
+            JSONArray runs = new JSONArray();
+            int from = Math.max(0, previous.length() - (MAX_RUN_STATS - 1));
+            for (int i = from; i < previous.length(); i++) {
+                runs.put(previous.get(i));
+            }
+            runs.put(run);
+            aiPreferences.edit().putString(KEY_RUN_STATS, runs.toString()).apply();
+        } catch (Exception error) {
+            Log.e(TAG, "Failed to record worker run stats", error);
+        }
+    }
+
+    private String generate(String prompt, int nPredict, float temperature) {
+        InferenceEngine.GenerationParams params = new InferenceEngine.GenerationParams(nPredict, temperature, 32, 0.88f, 1.12f, threads, SUMMARY_SEED);
+        String response = responseCache.generate(engine, prompt, params, null);
+        // A load or unload by the app stops the generation and leaves a cut-off response
+        if (!modelInUse.equals(engine.modelPath())) {
+            modelLost = true;
+            return null;
+        }
+        return response;
+    }
+
+    private int[] countTokens(String[] texts) {
+        try {
+            return engine.countTokens(texts);
+        } catch (Throwable error) {
+            Log.e(TAG, "Token counting unavailable", error);
+            return null;
+        }
+    }
+
+    private int contextSize() {
+        try {
+            int nCtx = engine.contextSize();
+            return nCtx > 0 ? nCtx : WORKER_N_CTX;
+        } catch (Throwable error) {
+            return WORKER_N_CTX;
+        }
+    }
+
     private Summary summarizeFallback(String transcript) {
-        String[] sentences = transcript.split("(?<=[.!?])\\s+");
-        String first = sentences.length > 0 ? sentences[0].trim() : transcript;
-        String second = sentences.length > 1 ? sentences[1].trim() : "";
-        String combined = (first + " " + second).trim();
-        String summary = shorten(combined.isEmpty() ? transcript : combined, 180);
-        String excerpt = shorten(combined.isEmpty() ? transcript : combined, 120);
-        String title = buildTitle(first.isEmpty() ? transcript : first);
-        return new Summary(title, summary, excerpt, "fallback");
+        try (Tracer.Section trace = Tracer.begin("voiceNote.fallback")) {
+            ExtractiveSummarizer.Result result = extractiveSummarizer.summarize(transcript);
+            return new Summary(result.title, result.summary, result.excerpt, ExtractiveSummarizer.PROVIDER);
+        }
     }
 
     private String buildVoiceSummaryPrompt(String transcript) {
@@ -167,6 +403,37 @@ public class VoiceNotesWorker extends Worker {
             + transcript;
     }
 
+    private static final String CHUNK_INSTRUCTION = "You are reading one part of a long voice note transcribed from speech to text.\n"
+        + "Write 2 to 4 short plain sentences capturing the decisions, plans, reminders, names, and facts in this part.\n"
+        + "Ignore filler words and repetition. Do not invent anything. No markdown, no JSON, no commentary.\n\n"
+        + "Transcript part:\n";
+
+    private static final String CONDENSE_INSTRUCTION = "You are merging notes taken from consecutive parts of one long voice note.\n"
+        + "Rewrite them as 2 to 4 short plain sentences, keeping decisions, plans, reminders, names, and facts.\n"
+        + "Do not invent anything. No markdown, no JSON, no commentary.\n\n"
+        + "Notes:\n";
+
+    private String buildReducePrompt(List<String> notes) {
+        StringBuilder joined = new StringBuilder();
+        for (String note : notes) {
+            if (joined.length() > 0) joined.append('\n');
+            joined.append("- ").append(note.replace('\n', ' '));
+        }
+        return "You are summarizing a long voice note. It was too long to read at once, so you are given\n"
+            + "notes written for each consecutive part of the transcript, in order.\n"
+            + "Combine them into one summary of the whole recording.\n"
+            + "Do not invent facts or actions that are not present in the notes.\n"
+            + "Return strict JSON only with this exact schema:\n"
+            + "{\"title\":\"string\",\"summary\":\"string\",\"excerpt\":\"string\"}\n"
+            + "Rules:\n"
+            + "- title: 4 to 8 words, specific and natural.\n"
+            + "- summary: 2 to 4 sentences, clean and useful, preserving decisions, plans, reminders, and intent.\n"
+            + "- excerpt: one short preview line under 120 characters.\n"
+            + "- no markdown, no code fences, no extra keys, no commentary.\n\n"
+            + "Notes by part:\n"
+            + joined;
+    }
+
     private String wrapPrompt(String prompt, String modelPath) {
         String lowerPath = modelPath == null ? "" : modelPath.toLowerCase();
 
@@ -181,47 +448,9 @@ public class VoiceNotesWorker extends Worker {
         return "<|im_start|>user\n" + prompt + "<|im_end|>\n<|im_start|>assistant\n";
     }
 
-    private String extractJsonObject(String response) {
-        String cleaned = response.replace("```json", "```").replace("```", "").trim();
-        int start = cleaned.indexOf('{');
-        int end = cleaned.lastIndexOf('}');
-        if (start == -1 || end == -1 || end <= start) {
-            return null;
-        }
-        return cleaned.substring(start, end + 1);
-    }
-
     private String normalizeField(String input, String fallback, int maxLength) {
-        String picked = TextUtils.isEmpty(input) ? fallback : input.replaceAll("\\s+", " ").trim();
-        return shorten(picked, maxLength);
-    }
-
-    private String buildTitle(String source) {
-        String cleaned = source.replaceAll("[^a-zA-Z0-9\\s]", " ").trim();
-        if (cleaned.isEmpty()) {
-            return "Voice Note";
-        }
-
-        String[] words = cleaned.split("\\s+");
-        StringBuilder builder = new StringBuilder();
-        int count = Math.min(words.length, 6);
-        for (int i = 0; i < count; i++) {
-            String word = words[i].toLowerCase();
-            if (i == 0 && !word.isEmpty()) {
-                word = Character.toUpperCase(word.charAt(0)) + word.substring(1);
-            }
-            if (builder.length() > 0) builder.append(' ');
-            builder.append(word);
-        }
-        return builder.toString();
-    }
-
-    private String shorten(String input, int maxLength) {
-        if (input == null) return "";
-        if (input.length() <= maxLength) {
-            return input;
-        }
-        return input.substring(0, Math.max(0, maxLength - 1)).trim() + "";
+        String picked = TextUtils.isEmpty(input) ? fallback : SummaryText.normalizeWhitespace(input);
+        return SummaryText.shorten(picked, maxLength);
     }
 
     private static class Summary {
@@ -237,8 +466,4 @@ public class VoiceNotesWorker extends Worker {
             this.provider = provider;
         }
     }
-
-    private native boolean nativeLoadModel(String filename, boolean useMmap, int nThreads, int nGpuLayers, int nCtx);
-    private native String nativeGenerate(String prompt, int nPredict, float temperature, int topK, float topP, float penalty, int nThreads);
-    private native void nativeUnloadModel();
 }
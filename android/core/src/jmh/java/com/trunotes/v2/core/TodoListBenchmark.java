@@ -0,0 +1,89 @@
+package com.trunotes.v2.core;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The todo widget's hot paths at list sizes from a typical user to a heavy one: parsing the
+ * app's JSON, sorting for display and overlaying a day's worth of widget taps.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TodoListBenchmark {
+    private static final int TOGGLES = 32;
+    private static final int ADDS = 4;
+
+    @Param({"100", "1000", "10000"})
+    public int size;
+
+    private String json;
+    private List<TodoItem> parsed;
+    private List<TodoItem> sorted;
+    private List<WidgetOp> ops;
+
+    @Setup
+    public void setUp() throws JSONException {
+        // Fixed seed so runs compare like for like
+        Random random = new Random(42);
+        long base = 1_700_000_000_000L;
+        JSONArray array = new JSONArray();
+        for (int i = 0; i < size; i++) {
+            long createdAt = base + random.nextInt(1_000_000_000);
+            array.put(new JSONObject()
+                .put("id", "todo-" + i)
+                .put("text", "Task number " + i + " with a short description")
+                .put("completed", random.nextInt(4) == 0)
+                .put("targetDate", "")
+                .put("createdAt", createdAt)
+                .put("updatedAt", createdAt));
+        }
+        json = array.toString();
+        parsed = TodoList.parse(json);
+        sorted = TodoList.sortedForDisplay(parsed);
+
+        ops = new ArrayList<>(TOGGLES + ADDS);
+        long seq = 0;
+        for (int i = 0; i < TOGGLES; i++) {
+            String id = "todo-" + random.nextInt(size);
+            ops.add(new WidgetOp(++seq, "op" + seq, WidgetOp.TYPE_TOGGLE, base + seq, id, random.nextBoolean(), null, null, -1));
+        }
+        for (int i = 0; i < ADDS; i++) {
+            ops.add(new WidgetOp(++seq, "op" + seq, WidgetOp.TYPE_ADD, base + seq, "widget-" + i, false, "Added from widget", null, -1));
+        }
+    }
+
+    @Benchmark
+    public List<TodoItem> parse() throws JSONException {
+        return TodoList.parse(json);
+    }
+
+    @Benchmark
+    public List<TodoItem> sortForDisplay() {
+        return TodoList.sortedForDisplay(parsed);
+    }
+
+    @Benchmark
+    public List<TodoItem> applyWidgetOps() {
+        return TodoList.applyOps(sorted, ops);
+    }
+
+    @Benchmark
+    public List<WidgetOp> compactOps() {
+        return WidgetOp.compact(ops);
+    }
+}
@@ -0,0 +1,91 @@
+package com.trunotes.v2.core;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The voice-note worker's per-note text work, over the transcript corpus in
+ * src/test/resources/transcripts: whitespace normalization, the extractive summary and
+ * pulling the JSON object out of a model response. ExtractiveSummarizerTest checks the
+ * summaries; their speed is measured only here.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TranscriptBenchmark {
+
+    @Param({"short.txt", "grocery-errands.txt", "project-standup.txt", "dentist-insurance.txt", "trip-planning.txt", "rambling-idea.txt"})
+    public String transcript;
+
+    private String clean;
+    private String messy;
+    private String response;
+    private final ExtractiveSummarizer summarizer = new ExtractiveSummarizer();
+
+    @Setup
+    public void setUp() throws IOException, JSONException {
+        String raw = load("/transcripts/" + transcript);
+        clean = SummaryText.normalizeWhitespace(raw);
+        // Speech-to-text output with the line breaks and double spaces it tends to leave
+        messy = clean.replace(". ", ".\n\n  ").replace(", ", " ,  ");
+
+        ExtractiveSummarizer.Result summary = summarizer.summarize(clean);
+        String object = new JSONObject()
+            .put("title", summary.title)
+            .put("summary", summary.summary)
+            .put("excerpt", summary.excerpt)
+            .toString();
+        response = "Here is the summary you asked for:\n```json\n" + object + "\n```\n";
+    }
+
+    @Benchmark
+    public String normalizeMessy() {
+        return SummaryText.normalizeWhitespace(messy);
+    }
+
+    @Benchmark
+    public String normalizeClean() {
+        return SummaryText.normalizeWhitespace(clean);
+    }
+
+    @Benchmark
+    public ExtractiveSummarizer.Result summarize() {
+        return summarizer.summarize(messy);
+    }
+
+    // The worker's path: the fallback and the field fill-in run on normalized text
+    @Benchmark
+    public ExtractiveSummarizer.Result summarizeClean() {
+        return summarizer.summarize(clean);
+    }
+
+    @Benchmark
+    public String extractJson() {
+        return SummaryText.extractJsonObject(response);
+    }
+
+    private static String load(String path) throws IOException {
+        try (InputStream in = TranscriptBenchmark.class.getResourceAsStream(path)) {
+            if (in == null) throw new IOException("Missing corpus file " + path);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = in.read(buffer)) != -1) out.write(buffer, 0, read);
+            return new String(out.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,251 @@
+package com.trunotes.v2.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Model-free summarizer used when no LLM is loaded.
+ *
+ * Sentences are scored by TF-IDF centrality: the cosine between each sentence's TF-IDF vector
+ * and the centroid of the whole transcript, so sentences that talk about what the recording
+ * is mostly about win. The top sentences (in original order) become the summary, the best one
+ * the excerpt, and the heaviest centroid terms the title. One pass to tokenize, one to score;
+ * terms are interned to int ids so scoring works on primitive arrays.
+ */
+public final class ExtractiveSummarizer {
+    public static final String PROVIDER = "extractive";
+
+    private static final int SUMMARY_MAX_CHARS = 260;
+    private static final int SUMMARY_MAX_SENTENCES = 3;
+    private static final int EXCERPT_MAX_CHARS = 120;
+    private static final int TITLE_KEYWORDS = 4;
+    private static final int MIN_WORD_LENGTH = 3;
+    // Larger than any single mention's weight, so a repeated term always beats a one-off
+    private static final double REPEATED_TERM_BONUS = 100.0;
+
+    // Function words plus the filler speech-to-text leaves behind
+    private static final Set<String> STOPWORDS = new HashSet<>(Arrays.asList(
+        "the", "and", "for", "are", "but", "not", "you", "all", "any", "can", "had", "her", "was", "one",
+        "our", "out", "has", "him", "his", "how", "its", "may", "new", "now", "old", "see", "two", "who",
+        "did", "get", "got", "let", "say", "she", "too", "use", "way", "yes", "yeah", "okay", "like", "just",
+        "that", "this", "with", "have", "from", "they", "will", "would", "there", "their", "what", "about",
+        "which", "when", "make", "than", "then", "them", "these", "some", "been", "into", "more", "also",
+        "could", "should", "were", "your", "only", "over", "such", "very", "much", "well", "really",
+        "actually", "basically", "literally", "thing", "things", "stuff", "going", "gonna", "wanna", "want",
+        "think", "know", "said", "because", "maybe", "kind", "sort", "mean", "right", "something", "anything",
+        "don't", "i'm", "it's", "that's", "i've", "we're", "you're", "there's", "can't", "didn't", "doesn't",
+        "here", "where", "while", "being", "does", "doing", "each", "other",
+        "um", "uh", "umm", "hmm", "erm", "alright", "anyway", "quick"
+    ));
+
+    public static class Result {
+        public final String title;
+        public final String summary;
+        public final String excerpt;
+
+        Result(String title, String summary, String excerpt) {
+            this.title = title;
+            this.summary = summary;
+            this.excerpt = excerpt;
+        }
+    }
+
+    public Result summarize(String transcript) {
+        String text = SummaryText.normalizeWhitespace(transcript);
+        List<String> sentences = TranscriptChunker.splitSentences(text);
+        if (sentences.isEmpty()) {
+            return new Result("Voice Note", "", "");
+        }
+
+        // Pass 1: intern terms, record per-sentence term ids and document frequency
+        Map<String, Integer> termIds = new HashMap<>();
+        List<String> terms = new ArrayList<>();
+        int[][] sentenceTerms = new int[sentences.size()][];
+        int[] df = new int[64];
+        int[] lastSeen = new int[64];
+        Arrays.fill(lastSeen, -1);
+        IntList scratch = new IntList();
+        StringBuilder word = new StringBuilder(24);
+
+        for (int s = 0; s < sentences.size(); s++) {
+            scratch.clear();
+            tokenize(sentences.get(s), word, termIds, terms, scratch);
+            sentenceTerms[s] = scratch.toArray();
+            if (terms.size() > df.length) {
+                int grown = Math.max(df.length * 2, terms.size());
+                df = Arrays.copyOf(df, grown);
+                int oldLength = lastSeen.length;
+                lastSeen = Arrays.copyOf(lastSeen, grown);
+                Arrays.fill(lastSeen, oldLength, grown, -1);
+            }
+            for (int id : sentenceTerms[s]) {
+                if (lastSeen[id] != s) {
+                    lastSeen[id] = s;
+                    df[id]++;
+                }
+            }
+        }
+
+        int vocab = terms.size();
+        if (vocab == 0) {
+            String only = sentences.get(0);
+            return new Result(SummaryText.buildTitle(only, 6), SummaryText.shorten(only, SUMMARY_MAX_CHARS), SummaryText.shorten(only, EXCERPT_MAX_CHARS));
+        }
+
+        // Smoothed idf stays positive even when every sentence shares a term (or there is one sentence)
+        double[] idf = new double[vocab];
+        int n = sentences.size();
+        for (int t = 0; t < vocab; t++) {
+            idf[t] = Math.log(1.0 + (double) n / df[t]);
+        }
+
+        // Pass 2: centroid of all sentence vectors, then cosine of each sentence to it
+        double[] centroid = new double[vocab];
+        int[] occurrences = new int[vocab];
+        for (int[] ids : sentenceTerms) {
+            for (int id : ids) {
+                centroid[id] += idf[id];
+                occurrences[id]++;
+            }
+        }
+        double centroidNorm = 0;
+        for (double v : centroid) centroidNorm += v * v;
+        centroidNorm = Math.sqrt(centroidNorm);
+
+        double[] scores = new double[n];
+        double[] tf = new double[vocab];
+        for (int s = 0; s < n; s++) {
+            int[] ids = sentenceTerms[s];
+            if (ids.length == 0) continue;
+            for (int id : ids) tf[id] += 1;
+            double dot = 0;
+            double norm = 0;
+            for (int id : ids) {
+                if (tf[id] == 0) continue; // already counted this term
+                double weight = tf[id] * idf[id];
+                dot += weight * centroid[id];
+                norm += weight * weight;
+                tf[id] = 0;
+            }
+            double score = norm > 0 ? dot / (Math.sqrt(norm) * centroidNorm) : 0;
+            // Fragments rarely stand alone; openers usually state the topic
+            if (ids.length < 4) score *= 0.5;
+            if (s == 0) score *= 1.1;
+            scores[s] = score;
+        }
+
+        Integer[] order = new Integer[n];
+        for (int i = 0; i < n; i++) order[i] = i;
+        final double[] ranked = scores;
+        Arrays.sort(order, (a, b) -> Double.compare(ranked[b], ranked[a]));
+
+        // Best sentences that fit the summary budget, read back in spoken order
+        boolean[] picked = new boolean[n];
+        int chars = 0;
+        int count = 0;
+        for (int i = 0; i < n && count < SUMMARY_MAX_SENTENCES; i++) {
+            int length = sentences.get(order[i]).length();
+            if (count > 0 && chars + 1 + length > SUMMARY_MAX_CHARS) continue;
+            picked[order[i]] = true;
+            chars += (count > 0 ? 1 : 0) + length;
+            count++;
+        }
+        StringBuilder summary = new StringBuilder(Math.min(chars, SUMMARY_MAX_CHARS) + 1);
+        for (int s = 0; s < n; s++) {
+            if (!picked[s]) continue;
+            if (summary.length() > 0) summary.append(' ');
+            summary.append(sentences.get(s));
+        }
+
+        String best = sentences.get(order[0]);
+        return new Result(
+            buildKeywordTitle(centroid, occurrences, terms, best),
+            SummaryText.shorten(summary.toString(), SUMMARY_MAX_CHARS),
+            SummaryText.shorten(best, EXCERPT_MAX_CHARS)
+        );
+    }
+
+    /**
+     * Heaviest centroid terms in order of first mention ("Dentist appointment thursday insurance").
+     * Terms mentioned more than once outrank one-offs, which are usually asides.
+     * Falls back to the lead words of the best sentence when the transcript has too few keywords.
+     */
+    private String buildKeywordTitle(double[] centroid, int[] occurrences, List<String> terms, String best) {
+        int vocab = terms.size();
+        int k = Math.min(TITLE_KEYWORDS, vocab);
+        int[] top = new int[k];
+        double[] topWeight = new double[k];
+        Arrays.fill(top, -1);
+
+        // Small fixed-size selection; term ids are already in first-mention order
+        for (int t = 0; t < vocab; t++) {
+            double weight = occurrences[t] > 1 ? centroid[t] + REPEATED_TERM_BONUS : centroid[t];
+            int weakest = 0;
+            for (int j = 1; j < k; j++) {
+                if (top[j] == -1 || (top[weakest] != -1 && topWeight[j] < topWeight[weakest])) weakest = j;
+            }
+            if (top[weakest] == -1 || weight > topWeight[weakest]) {
+                top[weakest] = t;
+                topWeight[weakest] = weight;
+            }
+        }
+
+        Arrays.sort(top);
+        StringBuilder title = new StringBuilder();
+        int words = 0;
+        for (int t : top) {
+            if (t < 0) continue;
+            String term = terms.get(t);
+            if (title.length() > 0) title.append(' ');
+            title.append(words == 0 ? Character.toUpperCase(term.charAt(0)) + term.substring(1) : term);
+            words++;
+        }
+        return words >= 2 ? title.toString() : SummaryText.buildTitle(best, 6);
+    }
+
+    private static void tokenize(String sentence, StringBuilder word, Map<String, Integer> termIds, List<String> terms, IntList out) {
+        word.setLength(0);
+        int length = sentence.length();
+        for (int i = 0; i <= length; i++) {
+            char c = i < length ? sentence.charAt(i) : ' ';
+            boolean inner = c == '\'' && word.length() > 0 && i + 1 < length && Character.isLetter(sentence.charAt(i + 1));
+            if (Character.isLetterOrDigit(c) || inner) {
+                word.append(Character.toLowerCase(c));
+                continue;
+            }
+            if (word.length() >= MIN_WORD_LENGTH) {
+                String term = word.toString();
+                if (!STOPWORDS.contains(term)) {
+                    Integer id = termIds.get(term);
+                    if (id == null) {
+                        id = terms.size();
+                        termIds.put(term, id);
+                        terms.add(term);
+                    }
+                    out.add(id);
+                }
+            }
+            word.setLength(0);
+        }
+    }
+
+    /** Growable int array so per-sentence term ids are not boxed. */
+    private static final class IntList {
+        private int[] values = new int[32];
+        private int size = 0;
+
+        void add(int value) {
+            if (size == values.length) values = Arrays.copyOf(values, size * 2);
+            values[size++] = value;
+        }
+
+        void clear() { size = 0; }
+
+        int[] toArray() { return Arrays.copyOf(values, size); }
+    }
+}
@@ -0,0 +1,97 @@
+package com.trunotes.v2.core;
+
+/**
+ * Small text helpers shared by the summarizers. These run for every note the worker touches,
+ * so they scan characters directly instead of going through regex replaceAll/split.
+ */
+public final class SummaryText {
+
+    private SummaryText() {}
+
+    /** Collapses every whitespace run to one space and trims. */
+    public static String normalizeWhitespace(String input) {
+        if (input == null) return "";
+        if (isNormalized(input)) return input;
+
+        int length = input.length();
+        StringBuilder builder = new StringBuilder(length);
+        boolean pendingSpace = false;
+        for (int i = 0; i < length; i++) {
+            char c = input.charAt(i);
+            if (Character.isWhitespace(c)) {
+                pendingSpace = builder.length() > 0;
+            } else {
+                if (pendingSpace) builder.append(' ');
+                builder.append(c);
+                pendingSpace = false;
+            }
+        }
+        return builder.toString();
+    }
+
+    // Most stored transcripts are already clean; checking first avoids the copy
+    private static boolean isNormalized(String input) {
+        int length = input.length();
+        if (length == 0) return true;
+        if (Character.isWhitespace(input.charAt(0)) || Character.isWhitespace(input.charAt(length - 1))) return false;
+        for (int i = 1; i < length - 1; i++) {
+            char c = input.charAt(i);
+            if (Character.isWhitespace(c) && (c != ' ' || Character.isWhitespace(input.charAt(i + 1)))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public static String shorten(String input, int maxLength) {
+        if (input == null) return "";
+        if (input.length() <= maxLength) {
+            return input;
+        }
+        return input.substring(0, Math.max(0, maxLength - 1)).trim() + "\u2026";
+    }
+
+    /** First few words of the source, letters and digits only, sentence-cased. */
+    public static String buildTitle(String source, int maxWords) {
+        StringBuilder builder = new StringBuilder();
+        int words = 0;
+        boolean inWord = false;
+
+        for (int i = 0; i < source.length() && words < maxWords; i++) {
+            char c = source.charAt(i);
+            if (isAsciiLetterOrDigit(c)) {
+                if (!inWord) {
+                    if (builder.length() > 0) builder.append(' ');
+                    inWord = true;
+                    c = words == 0 ? Character.toUpperCase(c) : Character.toLowerCase(c);
+                } else {
+                    c = Character.toLowerCase(c);
+                }
+                builder.append(c);
+            } else if (inWord) {
+                inWord = false;
+                words++;
+            }
+        }
+        return builder.length() == 0 ? "Voice Note" : builder.toString();
+    }
+
+    /**
+     * The outermost {...} span of a model response, with markdown code fences removed, or
+     * null when there is none. Not validated; the caller parses it.
+     */
+    public static String extractJsonObject(String response) {
+        if (response == null) return null;
+        String cleaned = response.replace("```json", "```").replace("```", "").trim();
+        int start = cleaned.indexOf('{');
+        int end = cleaned.lastIndexOf('}');
+        if (start == -1 || end == -1 || end <= start) {
+            return null;
+        }
+        return cleaned.substring(start, end + 1);
+    }
+
+    static boolean isAsciiLetterOrDigit(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9');
+    }
+}
@@ -0,0 +1,47 @@
+package com.trunotes.v2.core;
+
+import org.json.JSONObject;
+
+/** The fields of a task the widgets read. */
+public final class TodoItem {
+    public final String id;
+    public final String text;
+    public final boolean completed;
+    public final long createdAt;
+    public final long updatedAt;
+    /** Derived from id, so a row keeps its list item id across refreshes and reorders. */
+    public final long stableId;
+
+    public TodoItem(String id, String text, boolean completed, long createdAt, long updatedAt) {
+        this.id = id;
+        this.text = text;
+        this.completed = completed;
+        this.createdAt = createdAt;
+        this.updatedAt = updatedAt;
+        this.stableId = stableId(id);
+    }
+
+    // 64-bit FNV-1a over the UTF-16 units of the id
+    static long stableId(String id) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < id.length(); i++) {
+            hash ^= id.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    public static TodoItem fromJson(JSONObject json) {
+        return new TodoItem(
+            json.optString("id", ""),
+            json.optString("text", ""),
+            json.optBoolean("completed", false),
+            json.optLong("createdAt", 0),
+            json.optLong("updatedAt", 0)
+        );
+    }
+
+    public TodoItem withCompleted(boolean value, long now) {
+        return new TodoItem(id, text, value, createdAt, now);
+    }
+}
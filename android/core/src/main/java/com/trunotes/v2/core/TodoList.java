@@ -0,0 +1,75 @@
+package com.trunotes.v2.core;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/** Parsing, display order and widget edits for the todo list the widgets show. */
+public final class TodoList {
+
+    // Unfinished first, then newest; the order the app pushes and the list shows
+    public static final Comparator<TodoItem> DISPLAY_ORDER = (a, b) -> {
+        if (a.completed != b.completed) return a.completed ? 1 : -1;
+        return Long.compare(b.createdAt, a.createdAt);
+    };
+
+    private TodoList() {}
+
+    /** Tasks from the app's JSON array, in stored order; entries without an id are skipped. */
+    public static List<TodoItem> parse(String raw) throws JSONException {
+        JSONArray array = new JSONArray(raw);
+        List<TodoItem> items = new ArrayList<>(array.length());
+        for (int i = 0; i < array.length(); i++) {
+            JSONObject todo = array.optJSONObject(i);
+            if (todo != null && todo.has("id")) {
+                items.add(TodoItem.fromJson(todo));
+            }
+        }
+        return Collections.unmodifiableList(items);
+    }
+
+    /** An unmodifiable copy in DISPLAY_ORDER. */
+    public static List<TodoItem> sortedForDisplay(List<TodoItem> items) {
+        List<TodoItem> sorted = new ArrayList<>(items);
+        sorted.sort(DISPLAY_ORDER);
+        return Collections.unmodifiableList(sorted);
+    }
+
+    /**
+     * The list with widget add and toggle ops applied, back in display order. Returns base
+     * itself when no op changes it; hourly ops are ignored.
+     */
+    public static List<TodoItem> applyOps(List<TodoItem> base, List<WidgetOp> ops) {
+        if (ops.isEmpty()) return base;
+
+        List<TodoItem> items = new ArrayList<>(base);
+        boolean changed = false;
+        Map<String, Integer> positions = new HashMap<>(items.size() * 2);
+        for (int i = 0; i < items.size(); i++) {
+            positions.put(items.get(i).id, i);
+        }
+        for (WidgetOp op : ops) {
+            if (WidgetOp.TYPE_HOURLY.equals(op.type)) continue;
+            Integer position = positions.get(op.todoId);
+            if (position != null) {
+                // Also covers an add the app has already synced back into the list
+                items.set(position, items.get(position).withCompleted(op.completed, op.ts));
+                changed = true;
+            } else if (WidgetOp.TYPE_ADD.equals(op.type)) {
+                positions.put(op.todoId, items.size());
+                items.add(new TodoItem(op.todoId, op.text, op.completed, op.ts, op.ts));
+                changed = true;
+            }
+        }
+        if (!changed) return base;
+        items.sort(DISPLAY_ORDER);
+        return Collections.unmodifiableList(items);
+    }
+}
@@ -0,0 +1,123 @@
+package com.trunotes.v2.core;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Splits long text into pieces that fit a token budget.
+ *
+ * The chunker itself knows nothing about the model: callers hand it the token count
+ * of every segment (measured with the loaded model's vocab) and it packs consecutive
+ * segments greedily, so chunk boundaries always fall between sentences when possible.
+ */
+public final class TranscriptChunker {
+
+    private TranscriptChunker() {}
+
+    /**
+     * Splits text into sentence-sized segments, keeping the terminal punctuation.
+     * Text without sentence punctuation comes back as a single segment.
+     */
+    public static List<String> splitSentences(String text) {
+        List<String> sentences = new ArrayList<>();
+        if (text == null) return sentences;
+
+        int length = text.length();
+        int start = 0;
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            if ((c == '.' || c == '!' || c == '?') && (i + 1 == length || Character.isWhitespace(text.charAt(i + 1)))) {
+                addTrimmed(sentences, text, start, i + 1);
+                start = i + 1;
+            }
+        }
+        addTrimmed(sentences, text, start, length);
+        return sentences;
+    }
+
+    /**
+     * Packs segments into chunks of at most {@code maxTokens} tokens.
+     *
+     * @param segments    ordered text segments (usually sentences)
+     * @param tokenCounts token count of each segment, same order as {@code segments}
+     * @param maxTokens   budget per chunk; a separator space is counted as one token
+     */
+    public static List<String> pack(List<String> segments, int[] tokenCounts, int maxTokens) {
+        if (segments.size() != tokenCounts.length) {
+            throw new IllegalArgumentException("Expected " + segments.size() + " token counts, got " + tokenCounts.length);
+        }
+
+        int budget = Math.max(1, maxTokens);
+        List<String> chunks = new ArrayList<>();
+        StringBuilder current = new StringBuilder();
+        int currentTokens = 0;
+
+        for (int i = 0; i < segments.size(); i++) {
+            String segment = segments.get(i);
+            int tokens = Math.max(1, tokenCounts[i]);
+
+            if (tokens > budget) {
+                // A single run-on "sentence" (common with speech-to-text): flush and cut it by words.
+                if (current.length() > 0) {
+                    chunks.add(current.toString());
+                    current.setLength(0);
+                    currentTokens = 0;
+                }
+                chunks.addAll(splitByWords(segment, tokens, budget));
+                continue;
+            }
+
+            int needed = current.length() == 0 ? tokens : tokens + 1;
+            if (currentTokens + needed > budget) {
+                chunks.add(current.toString());
+                current.setLength(0);
+                currentTokens = 0;
+                needed = tokens;
+            }
+
+            if (current.length() > 0) current.append(' ');
+            current.append(segment);
+            currentTokens += needed;
+        }
+
+        if (current.length() > 0) {
+            chunks.add(current.toString());
+        }
+        return chunks;
+    }
+
+    /**
+     * Cuts an oversized segment into word groups. Without per-word counts we assume
+     * tokens are spread evenly across words, and leave 10% slack for the estimate.
+     */
+    static List<String> splitByWords(String segment, int segmentTokens, int maxTokens) {
+        List<String> pieces = new ArrayList<>();
+        String[] words = segment.trim().split(" +");
+        if (words.length == 0) return pieces;
+
+        double tokensPerWord = (double) segmentTokens / words.length;
+        int wordsPerPiece = Math.max(1, (int) Math.floor(maxTokens * 0.9 / tokensPerWord));
+
+        StringBuilder piece = new StringBuilder();
+        for (int i = 0; i < words.length; i++) {
+            if (piece.length() > 0) piece.append(' ');
+            piece.append(words[i]);
+            if ((i + 1) % wordsPerPiece == 0) {
+                pieces.add(piece.toString());
+                piece.setLength(0);
+            }
+        }
+        if (piece.length() > 0) {
+            pieces.add(piece.toString());
+        }
+        return pieces;
+    }
+
+    private static void addTrimmed(List<String> out, String text, int start, int end) {
+        while (start < end && Character.isWhitespace(text.charAt(start))) start++;
+        while (end > start && Character.isWhitespace(text.charAt(end - 1))) end--;
+        if (end > start) {
+            out.add(text.substring(start, end));
+        }
+    }
+}
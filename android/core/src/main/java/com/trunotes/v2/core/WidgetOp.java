@@ -0,0 +1,99 @@
+package com.trunotes.v2.core;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/** One edit made from a widget: add task, toggle task or edit an hourly entry. */
+public final class WidgetOp {
+    public static final String TYPE_ADD = "add";
+    public static final String TYPE_TOGGLE = "toggle";
+    public static final String TYPE_HOURLY = "hourly";
+
+    public final long seq;
+    public final String opId;
+    public final String type;
+    public final long ts;
+    // add / toggle
+    public final String todoId;
+    public final boolean completed;
+    // add / hourly
+    public final String text;
+    // hourly
+    public final String date;
+    public final int hour;
+
+    public WidgetOp(long seq, String opId, String type, long ts, String todoId, boolean completed, String text, String date, int hour) {
+        this.seq = seq;
+        this.opId = opId;
+        this.type = type;
+        this.ts = ts;
+        this.todoId = todoId;
+        this.completed = completed;
+        this.text = text;
+        this.date = date;
+        this.hour = hour;
+    }
+
+    public JSONObject toJson() throws JSONException {
+        JSONObject json = new JSONObject();
+        json.put("seq", seq);
+        json.put("id", opId);
+        json.put("type", type);
+        json.put("ts", ts);
+        if (TYPE_HOURLY.equals(type)) {
+            json.put("date", date);
+            json.put("hour", hour);
+            json.put("text", text);
+        } else {
+            json.put("todoId", todoId);
+            json.put("completed", completed);
+            if (TYPE_ADD.equals(type)) json.put("text", text);
+        }
+        return json;
+    }
+
+    public static WidgetOp fromJson(JSONObject json) {
+        return new WidgetOp(
+            json.optLong("seq", 0),
+            json.optString("id", ""),
+            json.optString("type", ""),
+            json.optLong("ts", 0),
+            json.optString("todoId", null),
+            json.optBoolean("completed", false),
+            json.optString("text", ""),
+            json.optString("date", null),
+            json.optInt("hour", -1)
+        );
+    }
+
+    // Same-key ops collapse to one; see compact()
+    String key() {
+        return TYPE_HOURLY.equals(type) ? "hourly:" + date + ":" + hour : "todo:" + todoId;
+    }
+
+    /**
+     * Collapses ops that touch the same task or the same hour: repeated toggles keep the last,
+     * a toggle of a task added in the log folds into the add, and repeated hourly edits keep
+     * the last text. A merged op takes the newer seq, so acking an older drain cannot drop it.
+     */
+    public static List<WidgetOp> compact(List<WidgetOp> source) {
+        Map<String, WidgetOp> byKey = new LinkedHashMap<>();
+        for (WidgetOp op : source) {
+            String key = op.key();
+            WidgetOp previous = byKey.get(key);
+            if (previous != null && TYPE_ADD.equals(previous.type) && TYPE_TOGGLE.equals(op.type)) {
+                op = new WidgetOp(op.seq, previous.opId, TYPE_ADD, op.ts, previous.todoId, op.completed, previous.text, null, -1);
+            }
+            byKey.put(key, op);
+        }
+        List<WidgetOp> result = new ArrayList<>(byKey.values());
+        Collections.sort(result, (a, b) -> Long.compare(a.seq, b.seq));
+        return result;
+    }
+}
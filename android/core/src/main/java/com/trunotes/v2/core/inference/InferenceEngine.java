@@ -0,0 +1,153 @@
+package com.trunotes.v2.core.inference;
+
+/**
+ * What the app needs from a local model: load, streamed generation, embeddings, stop and
+ * unload. The app binds it to llama.cpp through JNI; SimulatedEngine stands in on a plain
+ * JVM so queuing, cancellation and streaming can be load-tested without a device.
+ *
+ * Implementations hold one generative model and one embedding model (see
+ * isEmbeddingModelPath), each with its own locks, so embedding and generation run
+ * independently. Concurrent generate calls are decoded together in one batch, each
+ * streaming to its own listener; only load and unload wait for the calls on their model.
+ */
+public interface InferenceEngine {
+
+    /** Receives output as it is produced; pieces always end on a whole character. */
+    interface TokenListener {
+        void onToken(String piece);
+    }
+
+    final class ModelOptions {
+        public final boolean useMmap;
+        public final int threads;
+        public final int gpuLayers;
+        public final int nCtx;
+
+        public ModelOptions(boolean useMmap, int threads, int gpuLayers, int nCtx) {
+            this.useMmap = useMmap;
+            this.threads = threads;
+            this.gpuLayers = gpuLayers;
+            this.nCtx = nCtx;
+        }
+    }
+
+    final class GenerationParams {
+        /** Draws from a new random seed on every call. */
+        public static final int RANDOM_SEED = -1;
+
+        public final int nPredict;
+        public final float temperature;
+        public final int topK;
+        public final float topP;
+        public final float penalty;
+        public final int threads;
+        // Same seed, prompt and model: same response
+        public final int seed;
+
+        public GenerationParams(int nPredict, float temperature, int topK, float topP, float penalty, int threads) {
+            this(nPredict, temperature, topK, topP, penalty, threads, RANDOM_SEED);
+        }
+
+        public GenerationParams(int nPredict, float temperature, int topK, float topP, float penalty, int threads, int seed) {
+            this.nPredict = nPredict;
+            this.temperature = temperature;
+            this.topK = topK;
+            this.topP = topP;
+            this.penalty = penalty;
+            this.threads = threads;
+            this.seed = seed;
+        }
+    }
+
+    /**
+     * Stops one generate call from any thread and leaves everyone else's running. Make one
+     * per call; stopping it before the call starts makes the call return at once.
+     */
+    final class StopSignal {
+        private volatile boolean stopped;
+        // Guarded by this
+        private Runnable action;
+
+        public synchronized void stop() {
+            if (stopped) return;
+            stopped = true;
+            if (action != null) action.run();
+        }
+
+        public boolean isStopped() {
+            return stopped;
+        }
+
+        /**
+         * For engines: runs action on stop(), at once if already stopped; null detaches it,
+         * after which the old action is guaranteed not to run. Actions run under the
+         * signal's lock and must not block.
+         */
+        public synchronized void onStop(Runnable action) {
+            this.action = action;
+            if (stopped && action != null) action.run();
+        }
+    }
+
+    /** Embedding models load into their own slot and leave the generative model in place. */
+    static boolean isEmbeddingModelPath(String path) {
+        return path.contains("bge-") || path.contains("embedding");
+    }
+
+    /** Replaces the model in the slot the path belongs to. Returns false when loading failed. */
+    boolean load(String path, ModelOptions options);
+
+    /**
+     * Runs the prompt and returns the whole response, also handing each piece to listener
+     * (may be null) as it is produced. Failures come back as a response starting with
+     * "Error:"; a stopped generation returns what was produced so far.
+     */
+    default String generate(String prompt, GenerationParams params, TokenListener listener) {
+        return generate(prompt, params, listener, null);
+    }
+
+    /** generate that also ends early once stop (may be null) is stopped, queued or running. */
+    String generate(String prompt, GenerationParams params, TokenListener listener, StopSignal stop);
+
+    /** Null when no embedding model is loaded. */
+    float[] embed(String text);
+
+    /**
+     * Asks every generation running or queued now, whoever started it, to finish early; later
+     * calls are not affected. Safe from any thread. To stop only your own, use a StopSignal.
+     */
+    void stop();
+
+    /** Unloads both models, stopping a running generation first. */
+    void unload();
+
+    /**
+     * Unloads the model loaded from path, stopping its generations first, if its slot still
+     * holds that model; the other slot is left alone. False when someone replaced it.
+     */
+    boolean unload(String path);
+
+    /** Token counts with the generative model's vocabulary; null when it is not loaded. */
+    int[] countTokens(String[] texts);
+
+    /** Token ids per text, tokenized as countTokens does; null when no generative model is loaded. */
+    int[][] tokenize(String[] texts);
+
+    /**
+     * The first maxTokens tokens of text (the last ones with keepTail), turned back into text.
+     * Text that already fits comes back unchanged; null when no generative model is loaded.
+     */
+    String truncate(String text, int maxTokens, boolean keepTail);
+
+    /** Context size of the generative model, 0 when it is not loaded. */
+    int contextSize();
+
+    /**
+     * Path the generative model was loaded from, whoever loaded it; null when none is. Ask
+     * here rather than remembering your own load: another caller may have replaced it.
+     */
+    String modelPath();
+
+    /** Path the embedding model was loaded from; null when none is. */
+    String embeddingModelPath();
+}
@@ -0,0 +1,268 @@
+package com.trunotes.v2.core.inference;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Drives an InferenceEngine with the app's three kinds of traffic at once: chat (short
+ * prompts behind a shared system prompt, streamed), embeddings for search, and the voice
+ * notes worker (long transcript chunks). Reports latency percentiles and throughput per kind.
+ *
+ * Against SimulatedEngine this runs on any JVM:
+ *   ./gradlew :core:loadTest --args='chat=4 embed=2 worker=1 requests=10'
+ */
+public final class InferenceLoadHarness {
+
+    public enum Kind { CHAT, EMBED, WORKER }
+
+    public static final class Scenario {
+        public final int chatClients;
+        public final int embedClients;
+        public final int workerClients;
+        public final int requestsPerClient;
+        public final long thinkTimeMs;
+
+        public Scenario(int chatClients, int embedClients, int workerClients, int requestsPerClient, long thinkTimeMs) {
+            this.chatClients = chatClients;
+            this.embedClients = embedClients;
+            this.workerClients = workerClients;
+            this.requestsPerClient = requestsPerClient;
+            this.thinkTimeMs = thinkTimeMs;
+        }
+
+        int clients(Kind kind) {
+            switch (kind) {
+                case CHAT: return chatClients;
+                case EMBED: return embedClients;
+                default: return workerClients;
+            }
+        }
+    }
+
+    /** Latencies of one kind of request, in milliseconds. */
+    public static final class Stats {
+        public final int count;
+        public final int errors;
+        public final double p50Ms;
+        public final double p99Ms;
+        public final double maxMs;
+
+        Stats(int errors, double[] sortedMs) {
+            this.count = sortedMs.length;
+            this.errors = errors;
+            this.p50Ms = percentile(sortedMs, 50);
+            this.p99Ms = percentile(sortedMs, 99);
+            this.maxMs = sortedMs.length == 0 ? 0 : sortedMs[sortedMs.length - 1];
+        }
+    }
+
+    public static final class Report {
+        public final Map<Kind, Stats> latency;
+        // Time to first streamed piece for chat, the latency users notice
+        public final Stats chatTtft;
+        public final long wallMs;
+        public final long generatedPieces;
+
+        Report(Map<Kind, Stats> latency, Stats chatTtft, long wallMs, long generatedPieces) {
+            this.latency = Collections.unmodifiableMap(latency);
+            this.chatTtft = chatTtft;
+            this.wallMs = wallMs;
+            this.generatedPieces = generatedPieces;
+        }
+
+        public double requestsPerSecond() {
+            int total = 0;
+            for (Stats stats : latency.values()) total += stats.count;
+            return wallMs == 0 ? 0 : total * 1000.0 / wallMs;
+        }
+
+        public double piecesPerSecond() {
+            return wallMs == 0 ? 0 : generatedPieces * 1000.0 / wallMs;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder out = new StringBuilder();
+            out.append(String.format(Locale.US, "%-10s %6s %6s %10s %10s %10s%n", "kind", "count", "errors", "p50 ms", "p99 ms", "max ms"));
+            for (Map.Entry<Kind, Stats> entry : latency.entrySet()) {
+                appendRow(out, entry.getKey().name().toLowerCase(Locale.US), entry.getValue());
+            }
+            if (chatTtft.count > 0) appendRow(out, "chat ttft", chatTtft);
+            out.append(String.format(Locale.US, "wall %d ms, %.2f req/s, %.1f pieces/s%n", wallMs, requestsPerSecond(), piecesPerSecond()));
+            return out.toString();
+        }
+
+        private static void appendRow(StringBuilder out, String name, Stats stats) {
+            out.append(String.format(Locale.US, "%-10s %6d %6d %10.1f %10.1f %10.1f%n",
+                    name, stats.count, stats.errors, stats.p50Ms, stats.p99Ms, stats.maxMs));
+        }
+    }
+
+    // Mirrors the app's generation settings (AIBridge defaults, VoiceNotesWorker chunks)
+    private static final InferenceEngine.GenerationParams CHAT_PARAMS =
+            new InferenceEngine.GenerationParams(48, 0.7f, 40, 0.9f, 1.1f, 6);
+    private static final InferenceEngine.GenerationParams WORKER_PARAMS =
+            new InferenceEngine.GenerationParams(96, 0.2f, 32, 0.88f, 1.12f, 4);
+
+    private static final String SYSTEM_PROMPT =
+            "You are TruNotes, a helpful assistant for the user's notes. Answer briefly and only from the notes given. ";
+
+    private InferenceLoadHarness() {}
+
+    /** Runs the scenario against an engine whose models are already loaded. */
+    public static Report run(InferenceEngine engine, Scenario scenario) throws InterruptedException {
+        Map<Kind, List<Double>> latencies = new EnumMap<>(Kind.class);
+        Map<Kind, AtomicLong> errors = new EnumMap<>(Kind.class);
+        for (Kind kind : Kind.values()) {
+            latencies.put(kind, Collections.synchronizedList(new ArrayList<>()));
+            errors.put(kind, new AtomicLong());
+        }
+        List<Double> ttfts = Collections.synchronizedList(new ArrayList<>());
+        AtomicLong pieces = new AtomicLong();
+
+        int clients = scenario.chatClients + scenario.embedClients + scenario.workerClients;
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(clients, 1));
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> futures = new ArrayList<>(clients);
+        for (Kind kind : Kind.values()) {
+            for (int c = 0; c < scenario.clients(kind); c++) {
+                final int client = c;
+                futures.add(pool.submit(() -> {
+                    start.await();
+                    for (int r = 0; r < scenario.requestsPerClient; r++) {
+                        long began = System.nanoTime();
+                        boolean ok;
+                        try {
+                            ok = runOne(engine, kind, client, r, began, ttfts, pieces);
+                        } catch (RuntimeException e) {
+                            ok = false;
+                        }
+                        latencies.get(kind).add((System.nanoTime() - began) / 1e6);
+                        if (!ok) errors.get(kind).incrementAndGet();
+                        if (scenario.thinkTimeMs > 0) Thread.sleep(scenario.thinkTimeMs);
+                    }
+                    return null;
+                }));
+            }
+        }
+
+        long began = System.nanoTime();
+        start.countDown();
+        try {
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (java.util.concurrent.ExecutionException e) {
+                    throw new IllegalStateException("Load client failed", e.getCause());
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        long wallMs = (System.nanoTime() - began) / 1_000_000L;
+
+        Map<Kind, Stats> stats = new EnumMap<>(Kind.class);
+        for (Kind kind : Kind.values()) {
+            if (scenario.clients(kind) == 0) continue;
+            stats.put(kind, new Stats((int) errors.get(kind).get(), sorted(latencies.get(kind))));
+        }
+        return new Report(stats, new Stats(0, sorted(ttfts)), wallMs, pieces.get());
+    }
+
+    private static boolean runOne(InferenceEngine engine, Kind kind, int client, int request, long began,
+                                  List<Double> ttfts, AtomicLong pieces) {
+        switch (kind) {
+            case CHAT: {
+                long[] firstPiece = {0};
+                String response = engine.generate(chatPrompt(client, request), CHAT_PARAMS, piece -> {
+                    if (firstPiece[0] == 0) firstPiece[0] = System.nanoTime();
+                    pieces.incrementAndGet();
+                });
+                if (firstPiece[0] != 0) ttfts.add((firstPiece[0] - began) / 1e6);
+                return !response.startsWith("Error:");
+            }
+            case EMBED:
+                return engine.embed(noteText(client, request)) != null;
+            default: {
+                String response = engine.generate(workerPrompt(client, request), WORKER_PARAMS,
+                        piece -> pieces.incrementAndGet());
+                return !response.startsWith("Error:");
+            }
+        }
+    }
+
+    static String chatPrompt(int client, int request) {
+        return SYSTEM_PROMPT + "Question " + client + "." + request + ": what did I plan for the week after the review?";
+    }
+
+    static String noteText(int client, int request) {
+        return "Note " + client + "." + request + " groceries call the bank move the dentist appointment to friday";
+    }
+
+    static String workerPrompt(int client, int request) {
+        StringBuilder transcript = new StringBuilder("Summarize this part of a voice note transcript. ");
+        for (int i = 0; i < 60; i++) {
+            transcript.append("segment ").append(client).append('.').append(request).append('.').append(i)
+                    .append(" we talked about the budget and who follows up ");
+        }
+        return transcript.toString();
+    }
+
+    static double percentile(double[] sorted, double p) {
+        if (sorted.length == 0) return 0;
+        // Nearest rank
+        int rank = (int) Math.ceil(p / 100.0 * sorted.length);
+        return sorted[Math.max(rank, 1) - 1];
+    }
+
+    private static double[] sorted(List<Double> values) {
+        double[] array;
+        synchronized (values) {
+            array = new double[values.size()];
+            for (int i = 0; i < array.length; i++) array[i] = values.get(i);
+        }
+        Arrays.sort(array);
+        return array;
+    }
+
+    /** Runs a scenario against SimulatedEngine with mid-range phone latencies. Args are key=value. */
+    public static void main(String[] args) throws InterruptedException {
+        int chat = 4, embed = 2, worker = 1, requests = 5;
+        long think = 0;
+        double scale = 0.1;
+        for (String arg : args) {
+            String[] pair = arg.split("=", 2);
+            if (pair.length != 2) throw new IllegalArgumentException("Expected key=value: " + arg);
+            switch (pair[0]) {
+                case "chat": chat = Integer.parseInt(pair[1]); break;
+                case "embed": embed = Integer.parseInt(pair[1]); break;
+                case "worker": worker = Integer.parseInt(pair[1]); break;
+                case "requests": requests = Integer.parseInt(pair[1]); break;
+                case "think": think = Long.parseLong(pair[1]); break;
+                // Multiplies every simulated latency; 1 is real time on the reference phone
+                case "scale": scale = Double.parseDouble(pair[1]); break;
+                default: throw new IllegalArgumentException("Unknown option: " + pair[0]);
+            }
+        }
+
+        SimulatedEngine.Latencies phone = SimulatedEngine.Latencies.midRangePhone();
+        SimulatedEngine engine = new SimulatedEngine(new SimulatedEngine.Latencies(
+                (long) (phone.loadMs * scale), phone.prefillMicrosPerToken * scale,
+                phone.decodeMicrosPerToken * scale, phone.embedMicrosPerToken * scale));
+        engine.load("model.gguf", new InferenceEngine.ModelOptions(true, 6, 0, 1280));
+        engine.load("bge-small.gguf", new InferenceEngine.ModelOptions(true, 6, 0, 512));
+
+        System.out.print(run(engine, new Scenario(chat, embed, worker, requests, think)));
+        engine.unload();
+    }
+}
@@ -0,0 +1,242 @@
+package com.trunotes.v2.core.inference;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Responses of repeatable generations, stored one file per response and evicted least
+ * recently used once the directory grows past maxBytes.
+ *
+ * Digests and voice note summaries are run again on unchanged input after a restart or a
+ * worker retry; a hit returns the stored response without prefill or decode. Only requests
+ * whose output depends on nothing but the key are cached: seeded ones, and unseeded ones at
+ * or below {@value #MAX_UNSEEDED_TEMPERATURE}, where the draw barely changes the text. The
+ * key is a SHA-256 of the model identity, context size, sampling parameters and prompt.
+ *
+ * Failed and stopped generations are not stored. The engine cannot tell a stopped response
+ * from a finished one, so a caller stopping its own generation passes the StopSignal in, and
+ * whoever stops every generation, loads or unloads the generative model also calls
+ * {@link #stop()}. Recency survives restarts as the files' modification times.
+ */
+public final class ResponseCache {
+    public static final float MAX_UNSEEDED_TEMPERATURE = 0.3f;
+    private static final String KEY_VERSION = "1";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    public static final class Stats {
+        public final long hits;
+        public final long misses;
+        public final int entries;
+        public final long bytes;
+
+        Stats(long hits, long misses, int entries, long bytes) {
+            this.hits = hits;
+            this.misses = misses;
+            this.entries = entries;
+            this.bytes = bytes;
+        }
+
+        /** Hits over cacheable lookups since the process started; 0 before the first. */
+        public double hitRate() {
+            long lookups = hits + misses;
+            return lookups == 0 ? 0 : hits / (double) lookups;
+        }
+    }
+
+    private final File dir;
+    private final long maxBytes;
+    // Bumped by stop(); a response is stored only if it did not change during the generation
+    private final AtomicInteger stopEpoch = new AtomicInteger();
+    // Guarded by this; access order, so the eldest entry is the least recently used. Null
+    // until the directory is first read.
+    private LinkedHashMap<String, Long> sizes;
+    private long totalBytes;
+    private long hits;
+    private long misses;
+
+    public ResponseCache(File dir, long maxBytes) {
+        this.dir = dir;
+        this.maxBytes = maxBytes;
+    }
+
+    public static boolean isCacheable(InferenceEngine.GenerationParams params) {
+        return params.seed != InferenceEngine.GenerationParams.RANDOM_SEED
+            || params.temperature <= MAX_UNSEEDED_TEMPERATURE;
+    }
+
+    /**
+     * Path, size and modification time of a model file, so a replaced download with the same
+     * name gets new keys. Null for a null path.
+     */
+    static String modelIdentity(String path) {
+        if (path == null) return null;
+        File file = new File(path);
+        return file.getAbsolutePath() + ":" + file.length() + ":" + file.lastModified();
+    }
+
+    /**
+     * engine.generate through the cache. A hit hands the whole response to listener as one
+     * piece. The key takes the model and context size the engine has loaded at the time of
+     * the call, whoever loaded them. Without a generative model, or for a request that is
+     * not cacheable, the engine is called directly and nothing is counted.
+     */
+    public String generate(InferenceEngine engine, String prompt,
+                           InferenceEngine.GenerationParams params, InferenceEngine.TokenListener listener) {
+        return generate(engine, prompt, params, listener, null);
+    }
+
+    /** generate whose engine call ends early once stop (may be null) is stopped. */
+    public String generate(InferenceEngine engine, String prompt, InferenceEngine.GenerationParams params,
+                           InferenceEngine.TokenListener listener, InferenceEngine.StopSignal stop) {
+        if (!isCacheable(params)) {
+            return engine.generate(prompt, params, listener, stop);
+        }
+        int epoch = stopEpoch.get();
+        String modelId = modelIdentity(engine.modelPath());
+        int nCtx = engine.contextSize();
+        // A load between the two reads could pair one model's path with another's context
+        if (modelId == null || nCtx == 0 || stopEpoch.get() != epoch) {
+            return engine.generate(prompt, params, listener, stop);
+        }
+
+        String key = key(modelId, nCtx, prompt, params);
+        String cached = read(key);
+        if (cached != null) {
+            if (listener != null) listener.onToken(cached);
+            return cached;
+        }
+
+        String response = engine.generate(prompt, params, listener, stop);
+        boolean stopped = stopEpoch.get() != epoch || (stop != null && stop.isStopped());
+        if (!stopped && response != null && !response.isEmpty() && !response.startsWith("Error:")) {
+            write(key, response);
+        }
+        return response;
+    }
+
+    /** Keeps the generations running now out of the cache. Call with every stop, load and unload. */
+    public void stop() {
+        stopEpoch.incrementAndGet();
+    }
+
+    public synchronized Stats stats() {
+        load();
+        return new Stats(hits, misses, sizes.size(), totalBytes);
+    }
+
+    public synchronized void clear() {
+        load();
+        for (String key : sizes.keySet()) new File(dir, key).delete();
+        sizes.clear();
+        totalBytes = 0;
+    }
+
+    static String key(String modelId, int nCtx, String prompt, InferenceEngine.GenerationParams params) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        // Every field ends in a NUL, so no two field lists hash the same input
+        String fields = KEY_VERSION + '\0' + modelId + '\0' + nCtx + '\0' + params.nPredict + '\0'
+            + Float.floatToIntBits(params.temperature) + '\0' + params.topK + '\0'
+            + Float.floatToIntBits(params.topP) + '\0' + Float.floatToIntBits(params.penalty) + '\0'
+            + params.seed + '\0';
+        digest.update(fields.getBytes(StandardCharsets.UTF_8));
+        byte[] hash = digest.digest(prompt.getBytes(StandardCharsets.UTF_8));
+        StringBuilder hex = new StringBuilder(hash.length * 2);
+        for (byte b : hash) hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        return hex.toString();
+    }
+
+    private synchronized String read(String key) {
+        load();
+        if (sizes.get(key) == null) {
+            misses++;
+            return null;
+        }
+        File file = new File(dir, key);
+        try {
+            String response = new String(readFile(file), StandardCharsets.UTF_8);
+            file.setLastModified(System.currentTimeMillis());
+            hits++;
+            return response;
+        } catch (IOException e) {
+            totalBytes -= sizes.remove(key);
+            file.delete();
+            misses++;
+            return null;
+        }
+    }
+
+    private synchronized void write(String key, String response) {
+        load();
+        byte[] bytes = response.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > maxBytes) return;
+        File temp = new File(dir, key + TEMP_SUFFIX);
+        try {
+            if (!dir.isDirectory() && !dir.mkdirs()) return;
+            try (OutputStream out = new FileOutputStream(temp)) {
+                out.write(bytes);
+            }
+            if (!temp.renameTo(new File(dir, key))) {
+                temp.delete();
+                return;
+            }
+        } catch (IOException e) {
+            temp.delete();
+            return;
+        }
+        Long previous = sizes.put(key, (long) bytes.length);
+        totalBytes += bytes.length - (previous == null ? 0 : previous);
+
+        Iterator<Map.Entry<String, Long>> eldest = sizes.entrySet().iterator();
+        while (totalBytes > maxBytes && eldest.hasNext()) {
+            Map.Entry<String, Long> entry = eldest.next();
+            if (entry.getKey().equals(key)) continue;
+            new File(dir, entry.getKey()).delete();
+            totalBytes -= entry.getValue();
+            eldest.remove();
+        }
+    }
+
+    // java.nio.file needs API 26; the app still runs on 24
+    private static byte[] readFile(File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            byte[] bytes = new byte[(int) file.length()];
+            in.readFully(bytes);
+            return bytes;
+        }
+    }
+
+    // Rebuilds the LRU order from modification times; leftovers of interrupted writes go
+    private void load() {
+        if (sizes != null) return;
+        sizes = new LinkedHashMap<>(16, 0.75f, true);
+        File[] files = dir.listFiles();
+        if (files == null) return;
+        Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+        for (File file : files) {
+            if (file.getName().endsWith(TEMP_SUFFIX)) {
+                file.delete();
+            } else if (file.isFile()) {
+                sizes.put(file.getName(), file.length());
+                totalBytes += file.length();
+            }
+        }
+    }
+}
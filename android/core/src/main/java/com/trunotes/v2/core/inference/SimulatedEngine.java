@@ -0,0 +1,409 @@
+package com.trunotes.v2.core.inference;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BooleanSupplier;
+import java.util.function.Supplier;
+
+/**
+ * InferenceEngine with no model: output is a deterministic function of the prompt, and time
+ * is spent sleeping for configurable prefill, decode and embedding latencies.
+ *
+ * It keeps the parts of the native engine that shape scheduling: each model has a read-write
+ * model lock (written only by load and unload) and a context lock, so embeddings and token
+ * counts do not wait for a generation. Like the native batch_scheduler, up to
+ * {@value #SEQUENCES} generations run at once, each in its own sequence, and a decode step
+ * costs a little more per extra stream; a prompt prefix already in a sequence is not
+ * prefilled again, prompts are cut to n_ctx - 128 tokens, stop() only ends the
+ * generations submitted before it and a StopSignal only its own call. Tokens are
+ * whitespace-separated words.
+ */
+public final class SimulatedEngine implements InferenceEngine {
+    private static final String[] VOCABULARY = {
+        "the", "note", "plan", "today", "meeting", "call", "review", "list", "idea", "follow",
+        "up", "with", "team", "next", "week", "draft", "summary", "reminder", "check", "budget"
+    };
+    private static final int EMBEDDING_DIMENSIONS = 384;
+    // GEN_SEQUENCES in llama-android.cpp
+    static final int SEQUENCES = 4;
+    // Extra cost of a batched decode step per additional stream
+    private static final double BATCH_STEP_COST = 0.15;
+
+    public static final class Latencies {
+        public final long loadMs;
+        public final double prefillMicrosPerToken;
+        public final double decodeMicrosPerToken;
+        public final double embedMicrosPerToken;
+
+        public Latencies(long loadMs, double prefillMicrosPerToken, double decodeMicrosPerToken, double embedMicrosPerToken) {
+            this.loadMs = loadMs;
+            this.prefillMicrosPerToken = prefillMicrosPerToken;
+            this.decodeMicrosPerToken = decodeMicrosPerToken;
+            this.embedMicrosPerToken = embedMicrosPerToken;
+        }
+
+        /** Roughly a 1.5B Q4 model on a mid-range phone: ~60 tok/s prefill, ~12 tok/s decode. */
+        public static Latencies midRangePhone() {
+            return new Latencies(1500, 16_000, 80_000, 1_500);
+        }
+    }
+
+    // The native model_slot: model lock first, then context
+    private static final class Slot {
+        final ReentrantReadWriteLock model = new ReentrantReadWriteLock();
+        final Object context = new Object();
+    }
+
+    // One KV cache sequence of the generative context
+    private static final class Sequence {
+        List<String> tokens = Collections.emptyList();
+        boolean busy;
+        long lastUsed;
+    }
+
+    private final Latencies latencies;
+    private final Slot generative = new Slot();
+    private final Slot embedding = new Slot();
+    // Bumped by stop, unload and a generative load; a generation ends once it changes
+    private final AtomicInteger stopEpoch = new AtomicInteger();
+
+    // Written under the slot's model write lock
+    private boolean generativeLoaded;
+    private boolean embeddingLoaded;
+    private String generativePath;
+    private String embeddingPath;
+    private int nCtx;
+    // Guarded by generative.context
+    private final Sequence[] sequences = new Sequence[SEQUENCES];
+    private int active;
+    private long useCounter;
+
+    public SimulatedEngine(Latencies latencies) {
+        this.latencies = latencies;
+        for (int i = 0; i < SEQUENCES; i++) sequences[i] = new Sequence();
+    }
+
+    @Override
+    public boolean load(String path, ModelOptions options) {
+        boolean embeddingModel = InferenceEngine.isEmbeddingModelPath(path);
+        if (!embeddingModel) stopEpoch.incrementAndGet();
+        Lock lock = (embeddingModel ? embedding : generative).model.writeLock();
+        lock.lock();
+        try {
+            sleepNanos(latencies.loadMs * 1_000_000L);
+            if (embeddingModel) {
+                embeddingLoaded = true;
+                embeddingPath = path;
+            } else {
+                generativeLoaded = true;
+                generativePath = path;
+                nCtx = options.nCtx > 256 ? options.nCtx : 1280;
+                clearSequences();
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public String generate(String prompt, GenerationParams params, TokenListener listener, StopSignal stop) {
+        int epoch = stopEpoch.get();
+        BooleanSupplier stopped = () -> stopEpoch.get() != epoch || (stop != null && stop.isStopped());
+        return reading(generative, () -> generateShared(prompt, params, listener, stopped));
+    }
+
+    private String generateShared(String prompt, GenerationParams params, TokenListener listener, BooleanSupplier stopped) {
+        if (!generativeLoaded) {
+            return "Error: Model not loaded";
+        }
+
+        List<String> tokens = tokenize(prompt);
+        if (tokens.isEmpty()) {
+            return "Error: No tokens generated from prompt";
+        }
+        if (tokens.size() > nCtx - 128) {
+            tokens = tokens.subList(0, nCtx - 128);
+        }
+
+        Sequence sequence;
+        int keep;
+        synchronized (generative.context) {
+            sequence = claimSequence(tokens, stopped);
+            if (sequence == null) return "";
+            keep = commonPrefix(sequence.tokens, tokens);
+        }
+
+        StringBuilder response = new StringBuilder();
+        List<String> generated = new ArrayList<>(params.nPredict);
+        boolean prefilled = false;
+        try {
+            sleepNanos((long) ((tokens.size() - keep) * latencies.prefillMicrosPerToken * 1000));
+            if (stopped.getAsBoolean()) return "";
+            prefilled = true;
+
+            long state = seed(tokens) ^ params.seed;
+            long decodeNanos = (long) (latencies.decodeMicrosPerToken * 1000);
+            for (int i = 0; i < params.nPredict && !stopped.getAsBoolean(); i++) {
+                state = splitMix(state);
+                String word = VOCABULARY[(int) ((state >>> 33) % VOCABULARY.length)];
+                String piece = response.length() == 0 ? word : " " + word;
+                response.append(piece);
+                generated.add(word);
+                if (listener != null) listener.onToken(piece);
+                sleepNanos(decodeNanos + (long) (decodeNanos * BATCH_STEP_COST * (activeStreams() - 1)));
+            }
+            return response.toString();
+        } finally {
+            List<String> past;
+            if (!prefilled) {
+                past = tokens.subList(0, keep);
+            } else {
+                past = new ArrayList<>(tokens.size() + generated.size());
+                past.addAll(tokens);
+                past.addAll(generated);
+            }
+            releaseSequence(sequence, past);
+        }
+    }
+
+    // Free sequence with the longest cached prefix of the prompt, least recently used on a
+    // tie; waits while all are busy. Null once the generation is stopped.
+    private Sequence claimSequence(List<String> tokens, BooleanSupplier stopped) {
+        while (true) {
+            if (stopped.getAsBoolean()) return null;
+            Sequence best = null;
+            int bestPrefix = -1;
+            for (Sequence candidate : sequences) {
+                if (candidate.busy) continue;
+                int prefix = commonPrefix(candidate.tokens, tokens);
+                if (prefix > bestPrefix || (prefix == bestPrefix && candidate.lastUsed < best.lastUsed)) {
+                    best = candidate;
+                    bestPrefix = prefix;
+                }
+            }
+            if (best != null) {
+                best.busy = true;
+                active++;
+                return best;
+            }
+            try {
+                // Stops do not notify, so they are polled
+                generative.context.wait(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            }
+        }
+    }
+
+    private void releaseSequence(Sequence sequence, List<String> past) {
+        synchronized (generative.context) {
+            sequence.tokens = past;
+            sequence.lastUsed = ++useCounter;
+            sequence.busy = false;
+            active--;
+            generative.context.notifyAll();
+        }
+    }
+
+    private int activeStreams() {
+        synchronized (generative.context) {
+            return Math.max(1, active);
+        }
+    }
+
+    // Caller holds the generative model write lock
+    private void clearSequences() {
+        synchronized (generative.context) {
+            for (Sequence sequence : sequences) sequence.tokens = Collections.emptyList();
+        }
+    }
+
+    @Override
+    public float[] embed(String text) {
+        return reading(embedding, () -> {
+            synchronized (embedding.context) {
+                return embedLocked(text);
+            }
+        });
+    }
+
+    private float[] embedLocked(String text) {
+        if (!embeddingLoaded) return null;
+        List<String> tokens = tokenize(text);
+        sleepNanos((long) (Math.min(tokens.size(), 512) * latencies.embedMicrosPerToken * 1000));
+
+        float[] vector = new float[EMBEDDING_DIMENSIONS];
+        long state = seed(tokens);
+        double norm = 0;
+        for (int i = 0; i < vector.length; i++) {
+            state = splitMix(state);
+            vector[i] = (float) ((state >>> 11) * 0x1.0p-53 - 0.5);
+            norm += vector[i] * vector[i];
+        }
+        float scale = (float) (1 / Math.sqrt(norm));
+        for (int i = 0; i < vector.length; i++) vector[i] *= scale;
+        return vector;
+    }
+
+    @Override
+    public void stop() {
+        stopEpoch.incrementAndGet();
+    }
+
+    @Override
+    public void unload() {
+        stopEpoch.incrementAndGet();
+        // One slot at a time, like the native unload
+        Lock lock = generative.model.writeLock();
+        lock.lock();
+        try {
+            generativeLoaded = false;
+            generativePath = null;
+            clearSequences();
+        } finally {
+            lock.unlock();
+        }
+        lock = embedding.model.writeLock();
+        lock.lock();
+        try {
+            embeddingLoaded = false;
+            embeddingPath = null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean unload(String path) {
+        boolean embeddingModel = InferenceEngine.isEmbeddingModelPath(path);
+        Slot slot = embeddingModel ? embedding : generative;
+        if (!path.equals(embeddingModel ? embeddingModelPath() : modelPath())) return false;
+        if (!embeddingModel) stopEpoch.incrementAndGet();
+        Lock lock = slot.model.writeLock();
+        lock.lock();
+        try {
+            // Replaced while the generations stopped
+            if (embeddingModel) {
+                if (!path.equals(embeddingPath)) return false;
+                embeddingLoaded = false;
+                embeddingPath = null;
+            } else {
+                if (!path.equals(generativePath)) return false;
+                generativeLoaded = false;
+                generativePath = null;
+                clearSequences();
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int[] countTokens(String[] texts) {
+        return reading(generative, () -> {
+            if (!generativeLoaded) return null;
+            int[] counts = new int[texts.length];
+            for (int i = 0; i < texts.length; i++) {
+                counts[i] = texts[i] == null ? 0 : tokenize(texts[i]).size();
+            }
+            return counts;
+        });
+    }
+
+    @Override
+    public int[][] tokenize(String[] texts) {
+        return reading(generative, () -> {
+            if (!generativeLoaded) return null;
+            int[][] ids = new int[texts.length][];
+            for (int i = 0; i < texts.length; i++) {
+                List<String> tokens = texts[i] == null ? Collections.emptyList() : tokenize(texts[i]);
+                ids[i] = new int[tokens.size()];
+                for (int t = 0; t < ids[i].length; t++) ids[i][t] = tokens.get(t).hashCode();
+            }
+            return ids;
+        });
+    }
+
+    @Override
+    public String truncate(String text, int maxTokens, boolean keepTail) {
+        return reading(generative, () -> {
+            if (!generativeLoaded) return null;
+            List<String> tokens = tokenize(text);
+            if (tokens.size() <= maxTokens) return text;
+            int keep = Math.max(0, maxTokens);
+            return String.join(" ", keepTail ? tokens.subList(tokens.size() - keep, tokens.size()) : tokens.subList(0, keep));
+        });
+    }
+
+    @Override
+    public int contextSize() {
+        return reading(generative, () -> generativeLoaded ? nCtx : 0);
+    }
+
+    @Override
+    public String modelPath() {
+        return reading(generative, () -> generativePath);
+    }
+
+    @Override
+    public String embeddingModelPath() {
+        return reading(embedding, () -> embeddingPath);
+    }
+
+    // Every call but load and unload holds the model lock shared; embedding also takes the context
+    private static <T> T reading(Slot slot, Supplier<T> call) {
+        Lock lock = slot.model.readLock();
+        lock.lock();
+        try {
+            return call.get();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    static List<String> tokenize(String text) {
+        String trimmed = text.trim();
+        if (trimmed.isEmpty()) return Collections.emptyList();
+        return Arrays.asList(trimmed.split("\\s+"));
+    }
+
+    private static int commonPrefix(List<String> a, List<String> b) {
+        int n = 0;
+        while (n < a.size() && n < b.size() && a.get(n).equals(b.get(n))) n++;
+        return n;
+    }
+
+    private static long seed(List<String> tokens) {
+        long hash = 0xcbf29ce484222325L;
+        for (String token : tokens) {
+            hash = (hash ^ token.hashCode()) * 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    private static long splitMix(long state) {
+        long z = state + 0x9e3779b97f4a7c15L;
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    // Thread.sleep rounds to milliseconds on some JVMs; park until the deadline instead
+    private static void sleepNanos(long nanos) {
+        long deadline = System.nanoTime() + nanos;
+        long remaining = nanos;
+        while (remaining > 0) {
+            LockSupport.parkNanos(remaining);
+            remaining = deadline - System.nanoTime();
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package com.trunotes.v2.core.inference;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Token counts with the loaded model's vocabulary, cached by text, and fitting of prompt
+ * sections into a token budget.
+ *
+ * The same pieces (system prompt, records, recent messages) are counted again on every turn,
+ * so counts are kept in an LRU map and only the misses go to the engine, in one batch. The
+ * engine call is made outside the lock; a count depends only on the vocabulary, so the cache
+ * must be cleared whenever a different model is loaded.
+ */
+public final class TokenBudget {
+    private static final int DEFAULT_CAPACITY = 512;
+
+    /** One piece of a prompt. Required sections are always kept; the rest fill the budget in order. */
+    public static final class Section {
+        public final String text;
+        public final boolean required;
+        // Truncation keeps the end of the text instead of the start, e.g. for chat history
+        public final boolean keepTail;
+
+        public Section(String text, boolean required, boolean keepTail) {
+            this.text = text == null ? "" : text;
+            this.required = required;
+            this.keepTail = keepTail;
+        }
+    }
+
+    public static final class Fitted {
+        public final String text;
+        public final int tokens;
+        public final boolean truncated;
+        public final boolean dropped;
+
+        Fitted(String text, int tokens, boolean truncated, boolean dropped) {
+            this.text = text;
+            this.tokens = tokens;
+            this.truncated = truncated;
+            this.dropped = dropped;
+        }
+    }
+
+    public static final class Result {
+        // Same order as the sections passed in; dropped ones have empty text
+        public final List<Fitted> sections;
+        public final int totalTokens;
+
+        Result(List<Fitted> sections, int totalTokens) {
+            this.sections = sections;
+            this.totalTokens = totalTokens;
+        }
+    }
+
+    private final InferenceEngine engine;
+    private final int capacity;
+    // Guarded by this; access order, so the eldest entry is the least recently used
+    private final LinkedHashMap<String, Integer> counts;
+    private long hits;
+    private long misses;
+
+    public TokenBudget(InferenceEngine engine) {
+        this(engine, DEFAULT_CAPACITY);
+    }
+
+    public TokenBudget(InferenceEngine engine, int capacity) {
+        this.engine = engine;
+        this.capacity = capacity;
+        this.counts = new LinkedHashMap<String, Integer>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Integer> eldest) {
+                return size() > TokenBudget.this.capacity;
+            }
+        };
+    }
+
+    /** Like InferenceEngine.countTokens: null when no generative model is loaded. */
+    public int[] count(String[] texts) {
+        int[] result = new int[texts.length];
+        List<String> missing = new ArrayList<>();
+        Map<String, Integer> missingIndex = new HashMap<>();
+        synchronized (this) {
+            for (int i = 0; i < texts.length; i++) {
+                String text = texts[i] == null ? "" : texts[i];
+                Integer cached = counts.get(text);
+                if (cached != null) {
+                    result[i] = cached;
+                    hits++;
+                } else if (!missingIndex.containsKey(text)) {
+                    missingIndex.put(text, missing.size());
+                    missing.add(text);
+                }
+            }
+        }
+        if (missing.isEmpty()) return result;
+
+        int[] counted = engine.countTokens(missing.toArray(new String[0]));
+        if (counted == null) return null;
+        synchronized (this) {
+            misses += missing.size();
+            for (int i = 0; i < missing.size(); i++) counts.put(missing.get(i), counted[i]);
+        }
+        for (int i = 0; i < texts.length; i++) {
+            Integer index = missingIndex.get(texts[i] == null ? "" : texts[i]);
+            if (index != null) result[i] = counted[index];
+        }
+        return result;
+    }
+
+    /**
+     * Keeps every required section, then adds the optional ones in order while they fit. The
+     * first optional section that does not fit is truncated to the tokens left (or dropped if
+     * it cannot be) and every optional section after it is dropped, so the kept ones are a
+     * prefix of the priority order. The total can exceed maxTokens only when the required
+     * sections alone do. Null when no generative model is loaded.
+     */
+    public Result fit(List<Section> sections, int maxTokens) {
+        String[] texts = new String[sections.size()];
+        for (int i = 0; i < texts.length; i++) texts[i] = sections.get(i).text;
+        int[] tokens = count(texts);
+        if (tokens == null) return null;
+
+        int total = 0;
+        for (int i = 0; i < tokens.length; i++) {
+            if (sections.get(i).required) total += tokens[i];
+        }
+
+        List<Fitted> fitted = new ArrayList<>(sections.size());
+        boolean full = false;
+        for (int i = 0; i < sections.size(); i++) {
+            Section section = sections.get(i);
+            int left = maxTokens - total;
+            if (section.required) {
+                fitted.add(new Fitted(section.text, tokens[i], false, false));
+            } else if (full) {
+                fitted.add(new Fitted("", 0, false, true));
+            } else if (tokens[i] <= left) {
+                fitted.add(new Fitted(section.text, tokens[i], false, false));
+                total += tokens[i];
+            } else {
+                full = true;
+                Fitted cut = left > 0 ? truncate(section, left) : null;
+                if (cut == null) {
+                    fitted.add(new Fitted("", 0, false, true));
+                } else {
+                    fitted.add(cut);
+                    total += cut.tokens;
+                }
+            }
+        }
+        return new Result(Collections.unmodifiableList(fitted), total);
+    }
+
+    // Detokenized text can tokenize a little differently, so the cut is recounted and, if it
+    // grew past the limit, cut once more by the overshoot
+    private Fitted truncate(Section section, int maxTokens) {
+        int limit = maxTokens;
+        for (int attempt = 0; attempt < 2 && limit > 0; attempt++) {
+            String text = engine.truncate(section.text, limit, section.keepTail);
+            if (text == null) return null;
+            int[] recount = count(new String[] { text });
+            if (recount == null) return null;
+            if (recount[0] <= maxTokens) {
+                return text.isEmpty() ? null : new Fitted(text, recount[0], true, false);
+            }
+            limit -= recount[0] - maxTokens;
+        }
+        return null;
+    }
+
+    public synchronized void clear() {
+        counts.clear();
+    }
+
+    public synchronized long hits() {
+        return hits;
+    }
+
+    public synchronized long misses() {
+        return misses;
+    }
+
+    public synchronized int size() {
+        return counts.size();
+    }
+}
@@ -0,0 +1,191 @@
+package com.trunotes.v2.core.rag;
+
+import com.trunotes.v2.core.inference.InferenceEngine;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+
+/**
+ * "Ask my notes" in one call: embed the query, score the indexed chunks, fit the best ones
+ * into the context with the model's own token counts, and stream the answer.
+ *
+ * Every prompt starts with the same SYSTEM_PREFIX. While chunks are being scored (plain
+ * Java, no engine lock) the prefix is prefilled on the executor with a zero-token
+ * generation, so the final generate finds it in the KV cache and only prefills the records
+ * and the question.
+ */
+public final class AskPipeline {
+
+    /** The indexed chunks as of now; called once per ask. */
+    public interface ChunkSource {
+        List<NoteChunk> chunks();
+    }
+
+    static final String SYSTEM_PREFIX = "<|im_start|>system\n"
+            + "You are Akitsu, a personal assistant in TruNotes. Answer based solely on the records below. "
+            + "If they do not contain the answer, say \"I don't have that info.\" Do not invent facts.\n";
+    private static final String RECORDS_HEADER = "### RELEVANT RECORDS\n";
+    private static final String NO_RECORDS = "### NOTE\nNo relevant notes, tasks, or logs were found.\n";
+    // Room left after prompt + answer, as in VoiceNotesWorker
+    static final int CONTEXT_MARGIN = 64;
+    // The native engine cuts prompts at n_ctx - 128
+    static final int PROMPT_CAP_MARGIN = 128;
+
+    public static final class Options {
+        public final int k;
+        // Lines placed before the records, e.g. today's date
+        public final String preamble;
+        public final InferenceEngine.GenerationParams generation;
+
+        public Options(int k, String preamble, InferenceEngine.GenerationParams generation) {
+            this.k = k;
+            this.preamble = preamble;
+            this.generation = generation;
+        }
+    }
+
+    /** Wall time per stage in milliseconds; warm overlaps retrieve. */
+    public static final class Timings {
+        public long embedMs;
+        public long retrieveMs;
+        public long warmMs;
+        public long assembleMs;
+        // From the start of ask to the first streamed piece
+        public long ttftMs;
+        public long generateMs;
+        public long totalMs;
+        public int scanned;
+        public int used;
+        public int promptTokens;
+    }
+
+    public static final class Result {
+        public final String answer;
+        public final List<Retriever.Scored> sources;
+        public final Timings timings;
+
+        Result(String answer, List<Retriever.Scored> sources, Timings timings) {
+            this.answer = answer;
+            this.sources = sources;
+            this.timings = timings;
+        }
+    }
+
+    private final InferenceEngine engine;
+    private final ChunkSource source;
+    private final Executor warmExecutor;
+
+    public AskPipeline(InferenceEngine engine, ChunkSource source, Executor warmExecutor) {
+        this.engine = engine;
+        this.source = source;
+        this.warmExecutor = warmExecutor;
+    }
+
+    /** Like InferenceEngine.generate, failures come back as an answer starting with "Error:". */
+    public Result ask(String query, Options options, InferenceEngine.TokenListener listener) throws InterruptedException {
+        return ask(query, options, listener, null);
+    }
+
+    /** ask whose generation ends early once stop (may be null) is stopped. */
+    public Result ask(String query, Options options, InferenceEngine.TokenListener listener,
+                      InferenceEngine.StopSignal stop) throws InterruptedException {
+        long started = System.nanoTime();
+        Timings timings = new Timings();
+        int nCtx = engine.contextSize();
+        if (nCtx <= 0) {
+            return new Result("Error: Model not loaded", Collections.emptyList(), timings);
+        }
+
+        long stage = System.nanoTime();
+        // Null without an embedding model: retrieval falls back to keywords
+        float[] queryVector = NoteChunk.normalize(engine.embed(query));
+        timings.embedMs = msSince(stage);
+
+        long[] warmMs = {0};
+        FutureTask<Void> warm = new FutureTask<>(() -> {
+            long warmStarted = System.nanoTime();
+            engine.generate(SYSTEM_PREFIX, prefillOnly(options.generation), null);
+            warmMs[0] = msSince(warmStarted);
+            return null;
+        });
+        warmExecutor.execute(warm);
+
+        stage = System.nanoTime();
+        List<NoteChunk> chunks = source.chunks();
+        List<Retriever.Scored> ranked = Retriever.topK(query, queryVector, chunks, options.k, System.currentTimeMillis());
+        timings.scanned = chunks.size();
+        timings.retrieveMs = msSince(stage);
+
+        try {
+            warm.get();
+        } catch (ExecutionException e) {
+            // Only a lost optimization; the real generate reports engine failures
+        }
+        timings.warmMs = warmMs[0];
+
+        stage = System.nanoTime();
+        String head = SYSTEM_PREFIX + (options.preamble.isEmpty() ? "" : options.preamble + "\n");
+        String tail = "<|im_end|>\n<|im_start|>user\n" + query + "<|im_end|>\n<|im_start|>assistant\n";
+        String[] texts = new String[ranked.size() + 3];
+        texts[0] = head + RECORDS_HEADER;
+        texts[1] = tail;
+        texts[2] = NO_RECORDS;
+        for (int i = 0; i < ranked.size(); i++) {
+            texts[i + 3] = recordLine(ranked.get(i).chunk);
+        }
+        // One tokenizer call for every candidate
+        int[] counts = engine.countTokens(texts);
+        if (counts == null) {
+            return new Result("Error: Model not loaded", Collections.emptyList(), timings);
+        }
+
+        int budget = Math.min(nCtx - PROMPT_CAP_MARGIN, nCtx - options.generation.nPredict - CONTEXT_MARGIN);
+        StringBuilder prompt = new StringBuilder(texts[0]);
+        int promptTokens = counts[0] + counts[1];
+        List<Retriever.Scored> used = new ArrayList<>();
+        for (int i = 0; i < ranked.size(); i++) {
+            // +1: pieces tokenized apart can split one token more than when joined
+            int cost = counts[i + 3] + 1;
+            if (promptTokens + cost > budget) continue;
+            prompt.append(texts[i + 3]);
+            promptTokens += cost;
+            used.add(ranked.get(i));
+        }
+        if (used.isEmpty()) {
+            prompt.setLength(0);
+            prompt.append(head).append(NO_RECORDS);
+            promptTokens = counts[0] + counts[1] + counts[2];
+        }
+        prompt.append(tail);
+        timings.used = used.size();
+        timings.promptTokens = promptTokens;
+        timings.assembleMs = msSince(stage);
+
+        stage = System.nanoTime();
+        long[] firstPiece = {0};
+        String answer = engine.generate(prompt.toString(), options.generation, piece -> {
+            if (firstPiece[0] == 0) firstPiece[0] = System.nanoTime();
+            if (listener != null) listener.onToken(piece);
+        }, stop);
+        timings.generateMs = msSince(stage);
+        if (firstPiece[0] != 0) timings.ttftMs = (firstPiece[0] - started) / 1_000_000L;
+        timings.totalMs = msSince(started);
+        return new Result(answer, used, timings);
+    }
+
+    static String recordLine(NoteChunk chunk) {
+        return "> [" + chunk.title + "]: " + chunk.text + "\n";
+    }
+
+    private static InferenceEngine.GenerationParams prefillOnly(InferenceEngine.GenerationParams params) {
+        return new InferenceEngine.GenerationParams(0, params.temperature, params.topK, params.topP, params.penalty, params.threads);
+    }
+
+    private static long msSince(long nanos) {
+        return (System.nanoTime() - nanos) / 1_000_000L;
+    }
+}
@@ -0,0 +1,244 @@
+package com.trunotes.v2.core.rag;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/**
+ * In-memory inverted index over note chunks with BM25 ranking, for keyword search that needs
+ * no model. Exact terms such as names and codes score by how rare they are, which the
+ * fixed keyword weight of Retriever cannot do.
+ *
+ * Each chunk gets an increasing int id, so a postings list is an append-only byte array
+ * of varint (id delta, term frequency) pairs. Removing an item only marks its ids dead and
+ * corrects the statistics; once dead ids outnumber live ones the postings are rebuilt.
+ */
+public final class Bm25Index {
+    static final float K1 = 1.2f;
+    static final float B = 0.75f;
+    // Below this many dead ids compaction is not worth a rebuild
+    private static final int MIN_DEAD_FOR_COMPACTION = 64;
+
+    public static final class Hit {
+        public final NoteChunk chunk;
+        public final float score;
+
+        Hit(NoteChunk chunk, float score) {
+            this.chunk = chunk;
+            this.score = score;
+        }
+    }
+
+    // Varint-packed (id delta, tf) pairs; live counts the pairs whose id is not dead
+    static final class Postings {
+        byte[] data = new byte[8];
+        int size;
+        int lastId = -1;
+        int live;
+
+        void append(int id, int tf) {
+            ensure(10);
+            size = writeVarint(data, size, id - lastId);
+            size = writeVarint(data, size, tf);
+            lastId = id;
+            live++;
+        }
+
+        private void ensure(int extra) {
+            if (size + extra > data.length) {
+                byte[] grown = new byte[Math.max(data.length * 2, size + extra)];
+                System.arraycopy(data, 0, grown, 0, size);
+                data = grown;
+            }
+        }
+    }
+
+    private final Map<String, Postings> postings = new HashMap<>();
+    private final Map<String, List<Integer>> idsByItem = new HashMap<>();
+    private final List<NoteChunk> docs = new ArrayList<>();
+    private int[] lengths = new int[64];
+    private final BitSet dead = new BitSet();
+    private int liveDocs;
+    private long liveLength;
+
+    public synchronized int size() {
+        return liveDocs;
+    }
+
+    /** Indexes the chunks of one item, replacing whatever was indexed for it before. */
+    public synchronized void replaceItem(String itemId, List<NoteChunk> chunks) {
+        removeItemLocked(itemId);
+        List<Integer> ids = new ArrayList<>(chunks.size());
+        for (NoteChunk chunk : chunks) ids.add(add(chunk));
+        idsByItem.put(itemId, ids);
+        compactIfSparse();
+    }
+
+    public synchronized void removeItem(String itemId) {
+        removeItemLocked(itemId);
+        compactIfSparse();
+    }
+
+    /** Best first; chunks that match no query term are never returned. */
+    public synchronized List<Hit> search(String query, int k) {
+        Set<String> terms = new LinkedHashSet<>(terms(query));
+        if (k <= 0 || terms.isEmpty() || liveDocs == 0) return Collections.emptyList();
+
+        float avgLength = Math.max(1f, liveLength / (float) liveDocs);
+        float[] scores = new float[docs.size()];
+        int[] touched = new int[docs.size()];
+        int touchedCount = 0;
+        int[] cursor = new int[1];
+        for (String term : terms) {
+            Postings list = postings.get(term);
+            if (list == null || list.live == 0) continue;
+            float idf = (float) Math.log(1 + (liveDocs - list.live + 0.5) / (list.live + 0.5));
+            cursor[0] = 0;
+            int id = -1;
+            while (cursor[0] < list.size) {
+                id += readVarint(list.data, cursor);
+                int tf = readVarint(list.data, cursor);
+                if (dead.get(id)) continue;
+                float norm = K1 * (1 - B + B * lengths[id] / avgLength);
+                if (scores[id] == 0) touched[touchedCount++] = id;
+                scores[id] += idf * tf * (K1 + 1) / (tf + norm);
+            }
+        }
+
+        PriorityQueue<Integer> best = new PriorityQueue<>(k + 1, (a, b) -> Float.compare(scores[a], scores[b]));
+        for (int i = 0; i < touchedCount; i++) {
+            int id = touched[i];
+            if (best.size() < k) {
+                best.add(id);
+            } else if (scores[id] > scores[best.peek()]) {
+                best.poll();
+                best.add(id);
+            }
+        }
+        List<Hit> hits = new ArrayList<>(best.size());
+        for (int id : best) hits.add(new Hit(docs.get(id), scores[id]));
+        hits.sort((a, b) -> Float.compare(b.score, a.score));
+        return hits;
+    }
+
+    /** Bytes held by the postings lists, for stats. */
+    public synchronized long postingsBytes() {
+        long bytes = 0;
+        for (Postings list : postings.values()) bytes += list.size;
+        return bytes;
+    }
+
+    /**
+     * Lower-cased runs of letters and digits. Single characters are dropped unless they are
+     * digits, so "v2" and "7" stay searchable but "a" does not.
+     */
+    static List<String> terms(String text) {
+        List<String> terms = new ArrayList<>();
+        if (text == null) return terms;
+        int length = text.length();
+        int start = -1;
+        for (int i = 0; i <= length; i++) {
+            boolean word = i < length && Character.isLetterOrDigit(text.charAt(i));
+            if (word && start < 0) {
+                start = i;
+            } else if (!word && start >= 0) {
+                if (i - start > 1 || Character.isDigit(text.charAt(start))) {
+                    terms.add(text.substring(start, i).toLowerCase(Locale.ROOT));
+                }
+                start = -1;
+            }
+        }
+        return terms;
+    }
+
+    private int add(NoteChunk chunk) {
+        int id = docs.size();
+        docs.add(chunk);
+        List<String> words = terms(chunk.title + " " + chunk.text);
+        if (id == lengths.length) {
+            int[] grown = new int[lengths.length * 2];
+            System.arraycopy(lengths, 0, grown, 0, lengths.length);
+            lengths = grown;
+        }
+        lengths[id] = words.size();
+        liveDocs++;
+        liveLength += words.size();
+
+        Map<String, Integer> counts = new HashMap<>();
+        for (String word : words) counts.merge(word, 1, Integer::sum);
+        for (Map.Entry<String, Integer> entry : counts.entrySet()) {
+            postings.computeIfAbsent(entry.getKey(), term -> new Postings()).append(id, entry.getValue());
+        }
+        return id;
+    }
+
+    private void removeItemLocked(String itemId) {
+        List<Integer> ids = idsByItem.remove(itemId);
+        if (ids == null) return;
+        for (int id : ids) {
+            if (dead.get(id)) continue;
+            dead.set(id);
+            liveDocs--;
+            liveLength -= lengths[id];
+            NoteChunk chunk = docs.get(id);
+            for (String term : new LinkedHashSet<>(terms(chunk.title + " " + chunk.text))) {
+                Postings list = postings.get(term);
+                if (list != null) list.live--;
+            }
+            docs.set(id, null);
+        }
+    }
+
+    private void compactIfSparse() {
+        int deadIds = docs.size() - liveDocs;
+        if (deadIds >= MIN_DEAD_FOR_COMPACTION && deadIds > liveDocs) compact();
+    }
+
+    private void compact() {
+        Map<String, List<NoteChunk>> items = new HashMap<>();
+        for (Map.Entry<String, List<Integer>> entry : idsByItem.entrySet()) {
+            List<NoteChunk> chunks = new ArrayList<>(entry.getValue().size());
+            for (int id : entry.getValue()) chunks.add(docs.get(id));
+            items.put(entry.getKey(), chunks);
+        }
+        postings.clear();
+        idsByItem.clear();
+        docs.clear();
+        dead.clear();
+        liveDocs = 0;
+        liveLength = 0;
+        for (Map.Entry<String, List<NoteChunk>> entry : items.entrySet()) {
+            List<Integer> ids = new ArrayList<>(entry.getValue().size());
+            for (NoteChunk chunk : entry.getValue()) ids.add(add(chunk));
+            idsByItem.put(entry.getKey(), ids);
+        }
+    }
+
+    static int writeVarint(byte[] out, int pos, int value) {
+        while ((value & ~0x7F) != 0) {
+            out[pos++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out[pos++] = (byte) value;
+        return pos;
+    }
+
+    static int readVarint(byte[] in, int[] pos) {
+        int value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = in[pos[0]++];
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+}
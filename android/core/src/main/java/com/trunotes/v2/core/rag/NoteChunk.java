@@ -0,0 +1,49 @@
+package com.trunotes.v2.core.rag;
+
+import java.util.Locale;
+
+/** One retrievable piece of a note, task or journal day, as stored in the native note index. */
+public final class NoteChunk {
+    public final String id;
+    public final String itemId;
+    public final String type;
+    public final String title;
+    public final String text;
+    public final long updatedAt;
+    // Unit length, so cosine similarity is a dot product; null until embedded
+    public final float[] embedding;
+    // Lower-cased title and text for keyword matching
+    final String searchText;
+
+    public NoteChunk(String id, String itemId, String type, String title, String text, long updatedAt, float[] embedding) {
+        this.id = id;
+        this.itemId = itemId;
+        this.type = type;
+        this.title = title;
+        this.text = text;
+        this.updatedAt = updatedAt;
+        this.embedding = embedding;
+        this.searchText = (title + " " + text).toLowerCase(Locale.ROOT);
+    }
+
+    public NoteChunk withEmbedding(float[] vector) {
+        return new NoteChunk(id, itemId, type, title, text, updatedAt, normalize(vector));
+    }
+
+    /** What gets embedded: the title gives short chunks their topic. */
+    public String embeddingText() {
+        return title + ". " + text;
+    }
+
+    /** A unit-length copy, or null for null or all-zero input. */
+    public static float[] normalize(float[] vector) {
+        if (vector == null) return null;
+        double norm = 0;
+        for (float v : vector) norm += v * v;
+        if (norm == 0) return null;
+        float scale = (float) (1 / Math.sqrt(norm));
+        float[] unit = new float[vector.length];
+        for (int i = 0; i < vector.length; i++) unit[i] = vector[i] * scale;
+        return unit;
+    }
+}
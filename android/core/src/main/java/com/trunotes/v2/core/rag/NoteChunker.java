@@ -0,0 +1,64 @@
+package com.trunotes.v2.core.rag;
+
+import com.trunotes.v2.core.SummaryText;
+import com.trunotes.v2.core.TranscriptChunker;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Cuts note content into chunks for the index. Chunks are sized in characters, since
+ * indexing runs without a generative model; at roughly four characters a token,
+ * MAX_CHUNK_CHARS keeps a few chunks inside the prompt budget of a 1280-token context.
+ */
+public final class NoteChunker {
+    public static final int MAX_CHUNK_CHARS = 600;
+
+    private NoteChunker() {}
+
+    /** Chunk ids are "itemId#n". Empty content still yields one chunk so the title is searchable. */
+    public static List<NoteChunk> split(String itemId, String type, String title, String content, long updatedAt) {
+        String text = clean(content);
+        List<String> sentences = TranscriptChunker.splitSentences(text);
+        int[] lengths = new int[sentences.size()];
+        for (int i = 0; i < lengths.length; i++) lengths[i] = sentences.get(i).length();
+        List<String> pieces = sentences.isEmpty()
+                ? new ArrayList<>()
+                : TranscriptChunker.pack(sentences, lengths, MAX_CHUNK_CHARS);
+        if (pieces.isEmpty()) pieces.add("");
+
+        List<NoteChunk> chunks = new ArrayList<>(pieces.size());
+        for (int i = 0; i < pieces.size(); i++) {
+            chunks.add(new NoteChunk(itemId + "#" + i, itemId, type, title, pieces.get(i), updatedAt, null));
+        }
+        return chunks;
+    }
+
+    /** Drops HTML tags, entities for spaces and inline base64 images; same cleanup as the JS context builder. */
+    static String clean(String content) {
+        if (content == null) return "";
+        StringBuilder out = new StringBuilder(content.length());
+        int length = content.length();
+        for (int i = 0; i < length; i++) {
+            char c = content.charAt(i);
+            if (c == '<') {
+                int close = content.indexOf('>', i);
+                if (close < 0) break;
+                out.append(' ');
+                i = close;
+            } else if (c == '&' && content.startsWith("&nbsp;", i)) {
+                out.append(' ');
+                i += 5;
+            } else if (c == 'd' && content.startsWith("data:image/", i)) {
+                int end = i;
+                while (end < length && !Character.isWhitespace(content.charAt(end))
+                        && content.charAt(end) != '"' && content.charAt(end) != '\'') end++;
+                out.append("[IMAGE]");
+                i = end - 1;
+            } else {
+                out.append(c);
+            }
+        }
+        return SummaryText.normalizeWhitespace(out.toString());
+    }
+}
@@ -0,0 +1,46 @@
+package com.trunotes.v2.core.rag;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reciprocal-rank fusion: merges rankings whose scores are not comparable (BM25 and cosine)
+ * by rank alone. Each list adds 1 / (K + rank) for every key it contains, rank starting at 1.
+ */
+public final class RankFusion {
+    // The constant from the original RRF paper; damps the weight of the very top ranks
+    public static final int K = 60;
+
+    public static final class Fused {
+        public final String key;
+        public final double score;
+
+        Fused(String key, double score) {
+            this.key = key;
+            this.score = score;
+        }
+    }
+
+    private RankFusion() {}
+
+    /** Best first; ties keep the order in which keys were first seen. */
+    public static List<Fused> fuse(List<List<String>> rankings) {
+        Map<String, Double> scores = new HashMap<>();
+        List<String> order = new ArrayList<>();
+        for (List<String> ranking : rankings) {
+            for (int i = 0; i < ranking.size(); i++) {
+                String key = ranking.get(i);
+                Double previous = scores.get(key);
+                if (previous == null) order.add(key);
+                scores.put(key, (previous == null ? 0 : previous) + 1.0 / (K + i + 1));
+            }
+        }
+        List<Fused> fused = new ArrayList<>(order.size());
+        for (String key : order) fused.add(new Fused(key, scores.get(key)));
+        // List.sort is stable
+        fused.sort((a, b) -> Double.compare(b.score, a.score));
+        return fused;
+    }
+}
@@ -0,0 +1,107 @@
+package com.trunotes.v2.core.rag;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.PriorityQueue;
+
+/**
+ * Top-k chunks for a query. Scores follow the JS hybrid search this replaces: cosine
+ * similarity plus a recency boost of 0.15 / days since the update, with keyword matches
+ * added on top. Without a query vector (no embedding model) only chunks that match a
+ * keyword are candidates.
+ */
+public final class Retriever {
+    static final double RECENCY_WEIGHT = 0.15;
+    static final double KEYWORD_WEIGHT = 0.3;
+    private static final long DAY_MS = 24L * 60 * 60 * 1000;
+
+    public static final class Scored {
+        public final NoteChunk chunk;
+        public final double score;
+
+        Scored(NoteChunk chunk, double score) {
+            this.chunk = chunk;
+            this.score = score;
+        }
+    }
+
+    private Retriever() {}
+
+    /** Best first. queryVector must be unit length or null. */
+    public static List<Scored> topK(String query, float[] queryVector, List<NoteChunk> chunks, int k, long now) {
+        if (k <= 0) return Collections.emptyList();
+        List<String> words = keywords(query);
+
+        // Min-heap of the best k so far
+        PriorityQueue<Scored> best = new PriorityQueue<>(k + 1, (a, b) -> Double.compare(a.score, b.score));
+        for (NoteChunk chunk : chunks) {
+            double keyword = keywordScore(words, chunk);
+            boolean semantic = queryVector != null && chunk.embedding != null && chunk.embedding.length == queryVector.length;
+            if (!semantic && keyword == 0) continue;
+
+            double score = KEYWORD_WEIGHT * keyword + recency(chunk.updatedAt, now);
+            if (semantic) score += dot(queryVector, chunk.embedding);
+
+            if (best.size() < k) {
+                best.add(new Scored(chunk, score));
+            } else if (score > best.peek().score) {
+                best.poll();
+                best.add(new Scored(chunk, score));
+            }
+        }
+
+        List<Scored> ranked = new ArrayList<>(best);
+        ranked.sort((a, b) -> Double.compare(b.score, a.score));
+        return ranked;
+    }
+
+    /** Best first by cosine alone; chunks without a matching embedding are skipped. */
+    public static List<Scored> nearest(float[] queryVector, List<NoteChunk> chunks, int k) {
+        if (k <= 0 || queryVector == null) return Collections.emptyList();
+        PriorityQueue<Scored> best = new PriorityQueue<>(k + 1, (a, b) -> Double.compare(a.score, b.score));
+        for (NoteChunk chunk : chunks) {
+            if (chunk.embedding == null || chunk.embedding.length != queryVector.length) continue;
+            double score = dot(queryVector, chunk.embedding);
+            if (best.size() < k) {
+                best.add(new Scored(chunk, score));
+            } else if (score > best.peek().score) {
+                best.poll();
+                best.add(new Scored(chunk, score));
+            }
+        }
+        List<Scored> ranked = new ArrayList<>(best);
+        ranked.sort((a, b) -> Double.compare(b.score, a.score));
+        return ranked;
+    }
+
+    static List<String> keywords(String query) {
+        List<String> words = new ArrayList<>();
+        for (String word : query.toLowerCase(Locale.ROOT).split("[^\\p{L}\\p{N}]+")) {
+            if (word.length() > 2 && !words.contains(word)) words.add(word);
+        }
+        return words;
+    }
+
+    // Fraction of query words found in the chunk
+    static double keywordScore(List<String> words, NoteChunk chunk) {
+        if (words.isEmpty()) return 0;
+        int hits = 0;
+        for (String word : words) {
+            if (chunk.searchText.contains(word)) hits++;
+        }
+        return hits / (double) words.size();
+    }
+
+    static double recency(long updatedAt, long now) {
+        double days = Math.max(1, (now - updatedAt) / (double) DAY_MS);
+        return RECENCY_WEIGHT / days;
+    }
+
+    private static double dot(float[] a, float[] b) {
+        double sum = 0;
+        for (int i = 0; i < a.length; i++) sum += a[i] * b[i];
+        return sum;
+    }
+}
@@ -0,0 +1,76 @@
+package com.trunotes.v2.core;
+
+import static org.junit.Assert.*;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs the extractive summarizer over the transcript corpus in src/test/resources/transcripts.
+ * Its speed is measured by TranscriptBenchmark (./gradlew :core:jmh), not here.
+ */
+public class ExtractiveSummarizerTest {
+    private static final String[] CORPUS = {
+        "grocery-errands.txt",
+        "project-standup.txt",
+        "dentist-insurance.txt",
+        "trip-planning.txt",
+        "rambling-idea.txt",
+        "short.txt"
+    };
+
+    private static final List<String> transcripts = new ArrayList<>();
+
+    @BeforeClass
+    public static void loadCorpus() throws IOException {
+        for (String name : CORPUS) {
+            try (InputStream in = ExtractiveSummarizerTest.class.getResourceAsStream("/transcripts/" + name)) {
+                assertNotNull("Missing corpus file " + name, in);
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                byte[] buffer = new byte[4096];
+                int read;
+                while ((read = in.read(buffer)) != -1) out.write(buffer, 0, read);
+                transcripts.add(new String(out.toByteArray(), StandardCharsets.UTF_8));
+            }
+        }
+    }
+
+    @Test
+    public void summariesStayWithinFieldLimits() {
+        ExtractiveSummarizer summarizer = new ExtractiveSummarizer();
+        for (int i = 0; i < transcripts.size(); i++) {
+            ExtractiveSummarizer.Result result = summarizer.summarize(transcripts.get(i));
+            assertFalse(CORPUS[i], result.title.isEmpty());
+            assertFalse(CORPUS[i], result.summary.isEmpty());
+            assertFalse(CORPUS[i], result.excerpt.isEmpty());
+            assertTrue(CORPUS[i], result.summary.length() <= 260);
+            assertTrue(CORPUS[i], result.excerpt.length() <= 120);
+        }
+    }
+
+    @Test
+    public void emptyTranscriptGetsDefaultTitle() {
+        ExtractiveSummarizer.Result result = new ExtractiveSummarizer().summarize("   ");
+        assertEquals("Voice Note", result.title);
+        assertEquals("", result.summary);
+    }
+
+    @Test
+    public void sameTranscriptGivesSameSummary() {
+        ExtractiveSummarizer summarizer = new ExtractiveSummarizer();
+        for (int i = 0; i < transcripts.size(); i++) {
+            ExtractiveSummarizer.Result first = summarizer.summarize(transcripts.get(i));
+            ExtractiveSummarizer.Result second = new ExtractiveSummarizer().summarize(transcripts.get(i));
+            assertEquals(CORPUS[i], first.title, second.title);
+            assertEquals(CORPUS[i], first.summary, second.summary);
+            assertEquals(CORPUS[i], first.excerpt, second.excerpt);
+        }
+    }
+}
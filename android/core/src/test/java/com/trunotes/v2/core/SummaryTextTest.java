@@ -0,0 +1,42 @@
+package com.trunotes.v2.core;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class SummaryTextTest {
+
+    @Test
+    public void normalizeCollapsesWhitespaceRuns() {
+        assertEquals("a b c", SummaryText.normalizeWhitespace("  a \n\t b   c\n"));
+        assertEquals("", SummaryText.normalizeWhitespace(null));
+        assertEquals("", SummaryText.normalizeWhitespace(" \n "));
+    }
+
+    @Test
+    public void normalizeReturnsCleanInputAsIs() {
+        String clean = "Already clean text.";
+        assertSame(clean, SummaryText.normalizeWhitespace(clean));
+    }
+
+    @Test
+    public void shortenAddsEllipsisOnlyWhenCut() {
+        assertEquals("short", SummaryText.shorten("short", 10));
+        assertEquals("abcd…", SummaryText.shorten("abcdefghij", 5));
+    }
+
+    @Test
+    public void buildTitleTakesFirstWordsSentenceCased() {
+        assertEquals("Pick up the dry", SummaryText.buildTitle("PICK up the dry-cleaning today", 4));
+        assertEquals("Voice Note", SummaryText.buildTitle("...", 4));
+    }
+
+    @Test
+    public void extractJsonObjectStripsFencesAndChatter() {
+        assertEquals("{\"title\":\"x\"}", SummaryText.extractJsonObject("Sure!\n```json\n{\"title\":\"x\"}\n```"));
+        assertEquals("{\"a\":{\"b\":1}}", SummaryText.extractJsonObject("{\"a\":{\"b\":1}} trailing"));
+        assertNull(SummaryText.extractJsonObject("no json here"));
+        assertNull(SummaryText.extractJsonObject("} backwards {"));
+        assertNull(SummaryText.extractJsonObject(null));
+    }
+}
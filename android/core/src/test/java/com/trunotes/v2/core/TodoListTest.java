@@ -0,0 +1,79 @@
+package com.trunotes.v2.core;
+
+import static org.junit.Assert.*;
+
+import org.json.JSONException;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class TodoListTest {
+
+    @Test
+    public void parseSkipsEntriesWithoutId() throws JSONException {
+        List<TodoItem> items = TodoList.parse("[{\"id\":\"a\",\"text\":\"Milk\",\"completed\":true,\"createdAt\":5},"
+            + "{\"text\":\"no id\"}, 7, {\"id\":\"b\"}]");
+        assertEquals(2, items.size());
+        assertEquals("a", items.get(0).id);
+        assertEquals("Milk", items.get(0).text);
+        assertTrue(items.get(0).completed);
+        assertEquals(5, items.get(0).createdAt);
+        assertEquals("", items.get(1).text);
+    }
+
+    @Test(expected = JSONException.class)
+    public void parseRejectsMalformedJson() throws JSONException {
+        TodoList.parse("{\"id\":");
+    }
+
+    @Test
+    public void displayOrderPutsUnfinishedFirstThenNewest() {
+        List<TodoItem> sorted = TodoList.sortedForDisplay(Arrays.asList(
+            todo("done-new", true, 30),
+            todo("open-old", false, 10),
+            todo("open-new", false, 20),
+            todo("done-old", true, 5)
+        ));
+        assertEquals(Arrays.asList("open-new", "open-old", "done-new", "done-old"), ids(sorted));
+    }
+
+    @Test
+    public void applyOpsTogglesExistingAndAddsNew() {
+        List<TodoItem> base = TodoList.sortedForDisplay(Arrays.asList(todo("a", false, 10), todo("b", false, 20)));
+        List<TodoItem> result = TodoList.applyOps(base, Arrays.asList(
+            new WidgetOp(1, "op1", WidgetOp.TYPE_TOGGLE, 100, "b", true, null, null, -1),
+            new WidgetOp(2, "op2", WidgetOp.TYPE_ADD, 50, "c", false, "Call mum", null, -1),
+            new WidgetOp(3, "op3", WidgetOp.TYPE_HOURLY, 60, null, false, "ignored", "2026-01-01", 9)
+        ));
+        assertEquals(Arrays.asList("c", "a", "b"), ids(result));
+        assertTrue(result.get(2).completed);
+        assertEquals(100, result.get(2).updatedAt);
+        assertEquals("Call mum", result.get(0).text);
+    }
+
+    @Test
+    public void applyOpsReturnsBaseWhenNothingChanges() {
+        List<TodoItem> base = TodoList.sortedForDisplay(Collections.singletonList(todo("a", false, 10)));
+        assertSame(base, TodoList.applyOps(base, Collections.emptyList()));
+        assertSame(base, TodoList.applyOps(base, Collections.singletonList(
+            new WidgetOp(1, "op1", WidgetOp.TYPE_TOGGLE, 100, "missing", true, null, null, -1))));
+    }
+
+    @Test
+    public void stableIdDependsOnlyOnId() {
+        assertEquals(todo("a", false, 1).stableId, todo("a", true, 2).stableId);
+        assertNotEquals(todo("a", false, 1).stableId, todo("b", false, 1).stableId);
+    }
+
+    private static TodoItem todo(String id, boolean completed, long createdAt) {
+        return new TodoItem(id, id, completed, createdAt, createdAt);
+    }
+
+    private static List<String> ids(List<TodoItem> items) {
+        String[] ids = new String[items.size()];
+        for (int i = 0; i < ids.length; i++) ids[i] = items.get(i).id;
+        return Arrays.asList(ids);
+    }
+}
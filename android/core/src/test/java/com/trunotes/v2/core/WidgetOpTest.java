@@ -0,0 +1,66 @@
+package com.trunotes.v2.core;
+
+import static org.junit.Assert.*;
+
+import org.json.JSONException;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+public class WidgetOpTest {
+
+    @Test
+    public void compactKeepsLastEditPerKeyWithNewestSeq() {
+        List<WidgetOp> compacted = WidgetOp.compact(Arrays.asList(
+            toggle(1, "a", true),
+            hourly(2, 9, "first"),
+            toggle(3, "a", false),
+            hourly(4, 9, "second"),
+            hourly(5, 10, "other hour")
+        ));
+        assertEquals(3, compacted.size());
+        assertEquals(3, compacted.get(0).seq);
+        assertFalse(compacted.get(0).completed);
+        assertEquals("second", compacted.get(1).text);
+        assertEquals(4, compacted.get(1).seq);
+        assertEquals(10, compacted.get(2).hour);
+    }
+
+    @Test
+    public void toggleAfterAddFoldsIntoAdd() {
+        List<WidgetOp> compacted = WidgetOp.compact(Arrays.asList(
+            new WidgetOp(1, "add-op", WidgetOp.TYPE_ADD, 10, "n", false, "New task", null, -1),
+            toggle(2, "n", true)
+        ));
+        assertEquals(1, compacted.size());
+        WidgetOp op = compacted.get(0);
+        assertEquals(WidgetOp.TYPE_ADD, op.type);
+        assertEquals("add-op", op.opId);
+        assertEquals("New task", op.text);
+        assertTrue(op.completed);
+        assertEquals(2, op.seq);
+    }
+
+    @Test
+    public void jsonRoundTrip() throws JSONException {
+        WidgetOp hourly = WidgetOp.fromJson(hourly(7, 23, "Late").toJson());
+        assertEquals(7, hourly.seq);
+        assertEquals("2026-03-01", hourly.date);
+        assertEquals(23, hourly.hour);
+        assertEquals("Late", hourly.text);
+
+        WidgetOp toggle = WidgetOp.fromJson(toggle(8, "x", true).toJson());
+        assertEquals(WidgetOp.TYPE_TOGGLE, toggle.type);
+        assertEquals("x", toggle.todoId);
+        assertTrue(toggle.completed);
+    }
+
+    private static WidgetOp toggle(long seq, String todoId, boolean completed) {
+        return new WidgetOp(seq, "op" + seq, WidgetOp.TYPE_TOGGLE, seq * 10, todoId, completed, null, null, -1);
+    }
+
+    private static WidgetOp hourly(long seq, int hour, String text) {
+        return new WidgetOp(seq, "op" + seq, WidgetOp.TYPE_HOURLY, seq * 10, null, false, text, "2026-03-01", hour);
+    }
+}
@@ -0,0 +1,45 @@
+package com.trunotes.v2.core.inference;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class InferenceLoadHarnessTest {
+
+    @Test
+    public void reportsEveryRequestPerKind() throws Exception {
+        SimulatedEngine engine = new SimulatedEngine(new SimulatedEngine.Latencies(0, 20, 200, 20));
+        engine.load("model.gguf", new InferenceEngine.ModelOptions(true, 4, 0, 1280));
+        engine.load("bge-small.gguf", new InferenceEngine.ModelOptions(true, 4, 0, 512));
+
+        InferenceLoadHarness.Report report = InferenceLoadHarness.run(engine, new InferenceLoadHarness.Scenario(3, 2, 1, 4, 0));
+
+        assertEquals(12, report.latency.get(InferenceLoadHarness.Kind.CHAT).count);
+        assertEquals(8, report.latency.get(InferenceLoadHarness.Kind.EMBED).count);
+        assertEquals(4, report.latency.get(InferenceLoadHarness.Kind.WORKER).count);
+        for (InferenceLoadHarness.Stats stats : report.latency.values()) {
+            assertEquals(0, stats.errors);
+            assertTrue(stats.p50Ms <= stats.p99Ms && stats.p99Ms <= stats.maxMs);
+        }
+        assertEquals(12, report.chatTtft.count);
+        assertEquals(12 * 48 + 4 * 96, report.generatedPieces);
+        assertTrue(report.requestsPerSecond() > 0);
+    }
+
+    @Test
+    public void countsErrorsWhenModelsAreMissing() throws Exception {
+        SimulatedEngine engine = new SimulatedEngine(new SimulatedEngine.Latencies(0, 0, 0, 0));
+        InferenceLoadHarness.Report report = InferenceLoadHarness.run(engine, new InferenceLoadHarness.Scenario(1, 1, 0, 3, 0));
+        assertEquals(3, report.latency.get(InferenceLoadHarness.Kind.CHAT).errors);
+        assertEquals(3, report.latency.get(InferenceLoadHarness.Kind.EMBED).errors);
+        assertFalse(report.latency.containsKey(InferenceLoadHarness.Kind.WORKER));
+    }
+
+    @Test
+    public void percentileUsesNearestRank() {
+        double[] sorted = {1, 2, 3, 4, 5, 6, 7, 8, 9, 10};
+        assertEquals(5, InferenceLoadHarness.percentile(sorted, 50), 0);
+        assertEquals(10, InferenceLoadHarness.percentile(sorted, 99), 0);
+        assertEquals(0, InferenceLoadHarness.percentile(new double[0], 50), 0);
+    }
+}
@@ -0,0 +1,178 @@
+package com.trunotes.v2.core.inference;
+
+import static org.junit.Assert.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+public class ResponseCacheTest {
+    private static final InferenceEngine.ModelOptions OPTIONS = new InferenceEngine.ModelOptions(true, 4, 0, 1280);
+    private static final InferenceEngine.GenerationParams LOW_TEMPERATURE = new InferenceEngine.GenerationParams(40, 0.2f, 32, 0.9f, 1.1f, 4);
+
+    private File dir;
+
+    @Before
+    public void createDir() throws IOException {
+        dir = Files.createTempDirectory("response-cache").toFile();
+    }
+
+    @After
+    public void deleteDir() {
+        File[] files = dir.listFiles();
+        if (files != null) for (File file : files) file.delete();
+        dir.delete();
+    }
+
+    @Test
+    public void repeatedRequestIsServedFromDisk() {
+        // 5 ms per decoded token: 40 tokens take 200 ms
+        SimulatedEngine engine = loaded(new SimulatedEngine.Latencies(0, 0, 5000, 0));
+        ResponseCache cache = new ResponseCache(dir, 1 << 20);
+        String first = cache.generate(engine, "summarize my day", LOW_TEMPERATURE, null);
+
+        List<String> pieces = new ArrayList<>();
+        String[] second = new String[1];
+        long secondMs = timeMs(() -> second[0] = cache.generate(engine, "summarize my day", LOW_TEMPERATURE, pieces::add));
+        assertEquals(first, second[0]);
+        assertEquals(first, String.join("", pieces));
+        assertTrue("hit took " + secondMs + " ms", secondMs < 100);
+        assertEquals(1, cache.stats().hits);
+        assertEquals(1, cache.stats().misses);
+        assertEquals(0.5, cache.stats().hitRate(), 1e-9);
+
+        // A new process reads the same directory
+        ResponseCache reopened = new ResponseCache(dir, 1 << 20);
+        assertEquals(first, reopened.generate(engine, "summarize my day", LOW_TEMPERATURE, null));
+        assertEquals(1, reopened.stats().hits);
+    }
+
+    @Test
+    public void cachesOnlySeededOrLowTemperatureRequests() {
+        SimulatedEngine engine = loaded(new SimulatedEngine.Latencies(0, 0, 0, 0));
+        ResponseCache cache = new ResponseCache(dir, 1 << 20);
+        InferenceEngine.GenerationParams warm = new InferenceEngine.GenerationParams(8, 0.8f, 32, 0.9f, 1.1f, 4);
+        cache.generate(engine, "write a poem", warm, null);
+        cache.generate(engine, "write a poem", warm, null);
+        assertEquals(0, cache.stats().hits + cache.stats().misses);
+        assertEquals(0, cache.stats().entries);
+
+        InferenceEngine.GenerationParams seeded = new InferenceEngine.GenerationParams(8, 0.8f, 32, 0.9f, 1.1f, 4, 7);
+        cache.generate(engine, "write a poem", seeded, null);
+        cache.generate(engine, "write a poem", seeded, null);
+        assertEquals(1, cache.stats().hits);
+
+        // No generative model, no caching
+        engine.unload();
+        cache.generate(engine, "write a poem", seeded, null);
+        assertEquals(1, cache.stats().hits);
+    }
+
+    @Test
+    public void keyCoversSamplingAndPrompt() {
+        SimulatedEngine engine = loaded(new SimulatedEngine.Latencies(0, 0, 0, 0));
+        ResponseCache cache = new ResponseCache(dir, 1 << 20);
+        cache.generate(engine, "plan my week", LOW_TEMPERATURE, null);
+        cache.generate(engine, "plan my week", new InferenceEngine.GenerationParams(40, 0.2f, 32, 0.9f, 1.2f, 4), null);
+        cache.generate(engine, "plan my week", new InferenceEngine.GenerationParams(40, 0.2f, 32, 0.9f, 1.1f, 4, 3), null);
+        cache.generate(engine, "plan my weekend", LOW_TEMPERATURE, null);
+        assertEquals(0, cache.stats().hits);
+        assertEquals(4, cache.stats().entries);
+
+        // Threads do not change the output
+        cache.generate(engine, "plan my week", new InferenceEngine.GenerationParams(40, 0.2f, 32, 0.9f, 1.1f, 2), null);
+        assertEquals(1, cache.stats().hits);
+    }
+
+    @Test
+    public void keyFollowsWhateverModelTheEngineHasLoaded() {
+        SimulatedEngine engine = loaded(new SimulatedEngine.Latencies(0, 0, 0, 0));
+        ResponseCache cache = new ResponseCache(dir, 1 << 20);
+        cache.generate(engine, "plan my week", LOW_TEMPERATURE, null);
+
+        // Another caller swaps the model, then its context size
+        engine.load("other.gguf", OPTIONS);
+        cache.generate(engine, "plan my week", LOW_TEMPERATURE, null);
+        engine.load("model.gguf", new InferenceEngine.ModelOptions(true, 4, 0, 2048));
+        cache.generate(engine, "plan my week", LOW_TEMPERATURE, null);
+        assertEquals(0, cache.stats().hits);
+
+        engine.load("model.gguf", OPTIONS);
+        cache.generate(engine, "plan my week", LOW_TEMPERATURE, null);
+        assertEquals(1, cache.stats().hits);
+    }
+
+    @Test
+    public void evictsTheLeastRecentlyUsedPastMaxBytes() {
+        SimulatedEngine engine = loaded(new SimulatedEngine.Latencies(0, 0, 0, 0));
+        long total = 0;
+        for (String prompt : new String[] {"a", "b", "c"}) {
+            total += engine.generate(prompt, LOW_TEMPERATURE, null).getBytes().length;
+        }
+        // Room for any two of the three
+        ResponseCache cache = new ResponseCache(dir, total - 1);
+        cache.generate(engine, "a", LOW_TEMPERATURE, null);
+        cache.generate(engine, "b", LOW_TEMPERATURE, null);
+        cache.generate(engine, "a", LOW_TEMPERATURE, null);
+        cache.generate(engine, "c", LOW_TEMPERATURE, null);
+        assertEquals(2, cache.stats().entries);
+        assertTrue(cache.stats().bytes <= total - 1);
+
+        long hits = cache.stats().hits;
+        cache.generate(engine, "c", LOW_TEMPERATURE, null);
+        cache.generate(engine, "a", LOW_TEMPERATURE, null);
+        assertEquals(hits + 2, cache.stats().hits);
+        cache.generate(engine, "b", LOW_TEMPERATURE, null);
+        assertEquals(hits + 2, cache.stats().hits);
+    }
+
+    @Test
+    public void stoppedAndFailedGenerationsAreNotStored() throws Exception {
+        SimulatedEngine engine = loaded(new SimulatedEngine.Latencies(0, 0, 5000, 0));
+        ResponseCache cache = new ResponseCache(dir, 1 << 20);
+        InferenceEngine.GenerationParams longRun = new InferenceEngine.GenerationParams(200, 0.2f, 32, 0.9f, 1.1f, 4);
+        CountDownLatch started = new CountDownLatch(1);
+        Thread generation = new Thread(() -> cache.generate(engine, "go", longRun, piece -> started.countDown()));
+        generation.start();
+        started.await();
+        cache.stop();
+        engine.stop();
+        generation.join(2000);
+        assertFalse(generation.isAlive());
+        assertEquals(0, cache.stats().entries);
+
+        // A caller stopping just its own generation
+        InferenceEngine.StopSignal stop = new InferenceEngine.StopSignal();
+        CountDownLatch ownStarted = new CountDownLatch(1);
+        Thread own = new Thread(() -> cache.generate(engine, "go", longRun, piece -> ownStarted.countDown(), stop));
+        own.start();
+        ownStarted.await();
+        stop.stop();
+        own.join(2000);
+        assertFalse(own.isAlive());
+        assertEquals(0, cache.stats().entries);
+
+        engine.unload();
+        assertTrue(cache.generate(engine, "go", LOW_TEMPERATURE, null).startsWith("Error:"));
+        assertEquals(0, cache.stats().entries);
+    }
+
+    private static SimulatedEngine loaded(SimulatedEngine.Latencies latencies) {
+        SimulatedEngine engine = new SimulatedEngine(latencies);
+        engine.load("model.gguf", OPTIONS);
+        return engine;
+    }
+
+    private static long timeMs(Runnable call) {
+        long began = System.nanoTime();
+        call.run();
+        return (System.nanoTime() - began) / 1_000_000L;
+    }
+}
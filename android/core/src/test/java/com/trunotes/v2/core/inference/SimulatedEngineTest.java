@@ -0,0 +1,220 @@
+package com.trunotes.v2.core.inference;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class SimulatedEngineTest {
+    private static final InferenceEngine.ModelOptions OPTIONS = new InferenceEngine.ModelOptions(true, 4, 0, 1280);
+    private static final InferenceEngine.GenerationParams PARAMS = new InferenceEngine.GenerationParams(8, 0.2f, 32, 0.9f, 1.1f, 4);
+
+    @Test
+    public void sameInputGivesSameOutput() {
+        SimulatedEngine a = loaded(new SimulatedEngine.Latencies(0, 0, 0, 0));
+        SimulatedEngine b = loaded(new SimulatedEngine.Latencies(0, 0, 0, 0));
+        assertEquals(a.generate("plan my week", PARAMS, null), b.generate("plan my week", PARAMS, null));
+        assertArrayEquals(a.embed("groceries"), b.embed("groceries"), 0f);
+        assertNotEquals(a.generate("plan my day", PARAMS, null), b.generate("plan my week", PARAMS, null));
+    }
+
+    @Test
+    public void streamsEveryPieceOfTheResponse() {
+        SimulatedEngine engine = loaded(new SimulatedEngine.Latencies(0, 0, 0, 0));
+        List<String> pieces = new ArrayList<>();
+        String response = engine.generate("hello there", PARAMS, pieces::add);
+        assertEquals(PARAMS.nPredict, pieces.size());
+        assertEquals(response, String.join("", pieces));
+    }
+
+    @Test
+    public void reportsMissingModelsLikeTheNativeEngine() {
+        SimulatedEngine engine = new SimulatedEngine(new SimulatedEngine.Latencies(0, 0, 0, 0));
+        assertTrue(engine.generate("hi", PARAMS, null).startsWith("Error:"));
+        assertNull(engine.embed("hi"));
+        assertNull(engine.countTokens(new String[] {"hi"}));
+        assertEquals(0, engine.contextSize());
+        assertNull(engine.modelPath());
+
+        engine.load("bge-small.gguf", OPTIONS);
+        assertNotNull(engine.embed("hi"));
+        assertEquals(0, engine.contextSize());
+        assertNull(engine.modelPath());
+        assertEquals("bge-small.gguf", engine.embeddingModelPath());
+
+        engine.load("qwen.gguf", OPTIONS);
+        assertEquals("qwen.gguf", engine.modelPath());
+        engine.unload();
+        assertNull(engine.modelPath());
+        assertNull(engine.embeddingModelPath());
+    }
+
+    @Test
+    public void sharedPrefixSkipsPrefill() {
+        // 1 ms per prefilled token, nothing else
+        SimulatedEngine engine = loaded(new SimulatedEngine.Latencies(0, 1000, 0, 0));
+        String system = "word ".repeat(200);
+        long first = timeMs(() -> engine.generate(system + "first question", PARAMS, null));
+        long second = timeMs(() -> engine.generate(system + "second question", PARAMS, null));
+        assertTrue("first " + first + " ms", first >= 200);
+        assertTrue("second " + second + " ms", second < first / 2);
+    }
+
+    @Test
+    public void stopEndsARunningGenerationButNotTheNextOne() throws Exception {
+        // 5 ms per decoded token: 200 tokens would take a second
+        SimulatedEngine engine = loaded(new SimulatedEngine.Latencies(0, 0, 5000, 0));
+        InferenceEngine.GenerationParams longRun = new InferenceEngine.GenerationParams(200, 0.2f, 32, 0.9f, 1.1f, 4);
+        CountDownLatch started = new CountDownLatch(1);
+        AtomicReference<String> result = new AtomicReference<>();
+        Thread generation = new Thread(() -> result.set(engine.generate("go", longRun, piece -> started.countDown())));
+        generation.start();
+        started.await();
+        engine.stop();
+        generation.join(2000);
+        assertFalse(generation.isAlive());
+        assertTrue(result.get().split(" ").length < 200);
+
+        // A stop before the call does not apply to it
+        engine.stop();
+        assertEquals(PARAMS.nPredict, engine.generate("go again", PARAMS, null).split(" ").length);
+    }
+
+    @Test
+    public void stopSignalEndsOnlyItsOwnGeneration() throws Exception {
+        SimulatedEngine engine = loaded(new SimulatedEngine.Latencies(0, 0, 5000, 0));
+        InferenceEngine.GenerationParams run = new InferenceEngine.GenerationParams(40, 0.2f, 32, 0.9f, 1.1f, 4);
+        InferenceEngine.StopSignal mine = new InferenceEngine.StopSignal();
+        CountDownLatch started = new CountDownLatch(2);
+        AtomicReference<String> stopped = new AtomicReference<>();
+        AtomicReference<String> other = new AtomicReference<>();
+        Thread first = new Thread(() -> stopped.set(engine.generate("chat", run, piece -> started.countDown(), mine)));
+        Thread second = new Thread(() -> other.set(engine.generate("summary", run, piece -> started.countDown(), new InferenceEngine.StopSignal())));
+        first.start();
+        second.start();
+        started.await();
+        mine.stop();
+        first.join(2000);
+        second.join(2000);
+        assertTrue(stopped.get().split(" ").length < run.nPredict);
+        assertEquals(run.nPredict, other.get().split(" ").length);
+
+        // Stopped before the call: nothing is generated
+        assertEquals("", engine.generate("chat", run, null, mine));
+    }
+
+    @Test
+    public void concurrentGenerationsAreDecodedTogether() throws Exception {
+        // 5 ms per decoded token: one 40-token generation takes 200 ms
+        SimulatedEngine engine = loaded(new SimulatedEngine.Latencies(0, 0, 5000, 0));
+        InferenceEngine.GenerationParams run = new InferenceEngine.GenerationParams(40, 0.2f, 32, 0.9f, 1.1f, 4);
+        String expected = engine.generate("question 0", run, null);
+        long single = timeMs(() -> engine.generate("question 0", run, null));
+
+        int streams = SimulatedEngine.SEQUENCES;
+        List<Thread> threads = new ArrayList<>();
+        String[] results = new String[streams];
+        for (int i = 0; i < streams; i++) {
+            int index = i;
+            threads.add(new Thread(() -> results[index] = engine.generate("question " + index, run, null)));
+        }
+        long parallel = timeMs(() -> {
+            threads.forEach(Thread::start);
+            for (Thread thread : threads) {
+                try {
+                    thread.join();
+                } catch (InterruptedException e) {
+                    throw new AssertionError(e);
+                }
+            }
+        });
+        assertEquals(expected, results[0]);
+        for (String result : results) assertEquals(run.nPredict, result.split(" ").length);
+        assertTrue("single " + single + " ms, " + streams + " streams " + parallel + " ms", parallel < single * 2);
+    }
+
+    @Test
+    public void embedAndCountDoNotWaitForARunningGeneration() throws Exception {
+        // 5 ms per decoded token: the generation runs for a second
+        SimulatedEngine engine = loaded(new SimulatedEngine.Latencies(0, 0, 5000, 0));
+        InferenceEngine.GenerationParams longRun = new InferenceEngine.GenerationParams(200, 0.2f, 32, 0.9f, 1.1f, 4);
+        CountDownLatch started = new CountDownLatch(1);
+        Thread generation = new Thread(() -> engine.generate("go", longRun, piece -> started.countDown()));
+        generation.start();
+        started.await();
+
+        long embedMs = timeMs(() -> assertNotNull(engine.embed("search query")));
+        long countMs = timeMs(() -> assertNotNull(engine.countTokens(new String[] {"search query"})));
+        assertTrue(generation.isAlive());
+        assertTrue("embed " + embedMs + " ms", embedMs < 100);
+        assertTrue("count " + countMs + " ms", countMs < 100);
+        engine.stop();
+        generation.join(2000);
+    }
+
+    @Test
+    public void unloadStopsTheGenerationAndFreesBothModels() throws Exception {
+        SimulatedEngine engine = loaded(new SimulatedEngine.Latencies(0, 0, 5000, 0));
+        InferenceEngine.GenerationParams longRun = new InferenceEngine.GenerationParams(200, 0.2f, 32, 0.9f, 1.1f, 4);
+        CountDownLatch started = new CountDownLatch(1);
+        Thread generation = new Thread(() -> engine.generate("go", longRun, piece -> started.countDown()));
+        generation.start();
+        started.await();
+
+        long unloadMs = timeMs(engine::unload);
+        assertTrue("unload " + unloadMs + " ms", unloadMs < 500);
+        generation.join(2000);
+        assertFalse(generation.isAlive());
+        assertNull(engine.embed("hi"));
+        assertEquals(0, engine.contextSize());
+    }
+
+    @Test
+    public void unloadByPathLeavesOtherModelsInPlace() {
+        SimulatedEngine engine = loaded(new SimulatedEngine.Latencies(0, 0, 0, 0));
+        // Someone else's model took the slot
+        engine.load("other.gguf", OPTIONS);
+        assertFalse(engine.unload("model.gguf"));
+        assertEquals("other.gguf", engine.modelPath());
+
+        assertTrue(engine.unload("other.gguf"));
+        assertNull(engine.modelPath());
+        assertEquals("bge-small.gguf", engine.embeddingModelPath());
+        assertNotNull(engine.embed("hi"));
+    }
+
+    @Test
+    public void countsWhitespaceTokensAndCapsContext() {
+        SimulatedEngine engine = loaded(new SimulatedEngine.Latencies(0, 0, 0, 0));
+        assertArrayEquals(new int[] {3, 0, 0}, engine.countTokens(new String[] {" a b  c ", "", null}));
+        assertEquals(1280, engine.contextSize());
+    }
+
+    @Test
+    public void truncatesFromEitherEnd() {
+        SimulatedEngine engine = loaded(new SimulatedEngine.Latencies(0, 0, 0, 0));
+        assertEquals("one two", engine.truncate("one two three four", 2, false));
+        assertEquals("three four", engine.truncate("one two three four", 2, true));
+        assertEquals("one  two", engine.truncate("one  two", 5, false));
+        int[][] ids = engine.tokenize(new String[] {"one two", "two"});
+        assertEquals(2, ids[0].length);
+        assertEquals(ids[0][1], ids[1][0]);
+    }
+
+    private static SimulatedEngine loaded(SimulatedEngine.Latencies latencies) {
+        SimulatedEngine engine = new SimulatedEngine(latencies);
+        engine.load("model.gguf", OPTIONS);
+        engine.load("bge-small.gguf", OPTIONS);
+        return engine;
+    }
+
+    private static long timeMs(Runnable call) {
+        long began = System.nanoTime();
+        call.run();
+        return (System.nanoTime() - began) / 1_000_000L;
+    }
+}
@@ -0,0 +1,95 @@
+package com.trunotes.v2.core.inference;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+public class TokenBudgetTest {
+    private static final InferenceEngine.ModelOptions OPTIONS = new InferenceEngine.ModelOptions(true, 4, 0, 1280);
+
+    @Test
+    public void countsOnlyTextsItHasNotSeen() {
+        TokenBudget budget = new TokenBudget(loaded());
+        assertArrayEquals(new int[] {2, 3, 2}, budget.count(new String[] {"a b", "c d e", "a b"}));
+        assertEquals(2, budget.misses());
+        assertArrayEquals(new int[] {3, 1}, budget.count(new String[] {"c d e", "f"}));
+        assertEquals(3, budget.misses());
+        assertEquals(1, budget.hits());
+    }
+
+    @Test
+    public void evictsTheLeastRecentlyUsedCount() {
+        TokenBudget budget = new TokenBudget(loaded(), 2);
+        budget.count(new String[] {"a"});
+        budget.count(new String[] {"b"});
+        budget.count(new String[] {"a"});
+        budget.count(new String[] {"c"});
+        assertEquals(2, budget.size());
+        budget.count(new String[] {"a"});
+        assertEquals(2, budget.hits());
+        budget.count(new String[] {"b"});
+        assertEquals(4, budget.misses());
+    }
+
+    @Test
+    public void keepsRequiredSectionsAndTruncatesTheFirstThatDoesNotFit() {
+        TokenBudget budget = new TokenBudget(loaded());
+        TokenBudget.Result result = budget.fit(Arrays.asList(
+                new TokenBudget.Section("system prompt here", true, false),
+                new TokenBudget.Section("first record", false, false),
+                new TokenBudget.Section("one two three four five", false, true),
+                new TokenBudget.Section("never fits", false, false),
+                new TokenBudget.Section("question?", true, false)), 8);
+
+        assertEquals(8, result.totalTokens);
+        assertEquals("first record", result.sections.get(1).text);
+        assertEquals("four five", result.sections.get(2).text);
+        assertTrue(result.sections.get(2).truncated);
+        assertTrue(result.sections.get(3).dropped);
+        assertEquals("question?", result.sections.get(4).text);
+    }
+
+    @Test
+    public void dropsEverySectionAfterTheFirstThatDoesNotFit() {
+        TokenBudget.Result result = new TokenBudget(loaded()).fit(Arrays.asList(
+                new TokenBudget.Section("a b", false, false),
+                new TokenBudget.Section("c d e f", false, false),
+                new TokenBudget.Section("g", false, false)), 3);
+        assertEquals("c", result.sections.get(1).text);
+        assertTrue(result.sections.get(2).dropped);
+        assertEquals(3, result.totalTokens);
+
+        // Also when the overflowing section could not be truncated at all
+        result = new TokenBudget(loaded()).fit(Arrays.asList(
+                new TokenBudget.Section("a b c", false, false),
+                new TokenBudget.Section("d e", false, false),
+                new TokenBudget.Section("f", false, false)), 3);
+        assertTrue(result.sections.get(1).dropped);
+        assertTrue(result.sections.get(2).dropped);
+        assertEquals(3, result.totalTokens);
+    }
+
+    @Test
+    public void requiredSectionsMayExceedTheBudget() {
+        TokenBudget.Result result = new TokenBudget(loaded()).fit(Arrays.asList(
+                new TokenBudget.Section("a b c d", true, false),
+                new TokenBudget.Section("e", false, false)), 2);
+        assertEquals(4, result.totalTokens);
+        assertTrue(result.sections.get(1).dropped);
+    }
+
+    @Test
+    public void returnsNullWithoutAModel() {
+        TokenBudget budget = new TokenBudget(new SimulatedEngine(new SimulatedEngine.Latencies(0, 0, 0, 0)));
+        assertNull(budget.count(new String[] {"hi"}));
+        assertNull(budget.fit(Arrays.asList(new TokenBudget.Section("hi", true, false)), 10));
+    }
+
+    private static SimulatedEngine loaded() {
+        SimulatedEngine engine = new SimulatedEngine(new SimulatedEngine.Latencies(0, 0, 0, 0));
+        engine.load("model.gguf", OPTIONS);
+        return engine;
+    }
+}
@@ -0,0 +1,94 @@
+package com.trunotes.v2.core.rag;
+
+import static org.junit.Assert.*;
+
+import com.trunotes.v2.core.inference.InferenceEngine;
+import com.trunotes.v2.core.inference.SimulatedEngine;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+public class AskPipelineTest {
+    private static final InferenceEngine.GenerationParams PARAMS = new InferenceEngine.GenerationParams(16, 0.2f, 32, 0.9f, 1.1f, 4);
+
+    @Test
+    public void answersFromTheBestChunksAndStreams() throws Exception {
+        SimulatedEngine engine = loaded(1280);
+        List<NoteChunk> chunks = new ArrayList<>();
+        chunks.add(indexed(engine, "Dentist", "The dentist appointment is on Friday at ten."));
+        for (int i = 0; i < 30; i++) chunks.add(indexed(engine, "Note " + i, "Unrelated filler text number " + i + "."));
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            AskPipeline pipeline = new AskPipeline(engine, () -> chunks, executor);
+            List<String> pieces = new ArrayList<>();
+            AskPipeline.Result result = pipeline.ask("when is the dentist appointment",
+                    new AskPipeline.Options(4, "Date: Friday", PARAMS), pieces::add);
+
+            assertFalse(result.answer.startsWith("Error:"));
+            assertEquals(result.answer, String.join("", pieces));
+            assertEquals("Dentist", result.sources.get(0).chunk.title);
+            assertEquals(4, result.timings.used);
+            assertEquals(chunks.size(), result.timings.scanned);
+            assertTrue(result.timings.ttftMs <= result.timings.totalMs);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void dropsChunksThatWouldOverflowTheContext() throws Exception {
+        // 400 tokens of context: room for the fixed parts and only a few records
+        SimulatedEngine engine = loaded(400);
+        List<NoteChunk> chunks = new ArrayList<>();
+        for (int i = 0; i < 10; i++) chunks.add(indexed(engine, "Trip " + i, "trip packing list item ".repeat(15)));
+
+        AskPipeline pipeline = new AskPipeline(engine, () -> chunks, Runnable::run);
+        AskPipeline.Result result = pipeline.ask("trip packing", new AskPipeline.Options(10, "", PARAMS), null);
+
+        int budget = Math.min(400 - AskPipeline.PROMPT_CAP_MARGIN, 400 - PARAMS.nPredict - AskPipeline.CONTEXT_MARGIN);
+        assertTrue(result.timings.used > 0);
+        assertTrue(result.timings.used < 10);
+        assertTrue(result.timings.promptTokens <= budget);
+    }
+
+    @Test
+    public void fallsBackToKeywordsWithoutAnEmbeddingModel() throws Exception {
+        SimulatedEngine engine = new SimulatedEngine(new SimulatedEngine.Latencies(0, 0, 0, 0));
+        engine.load("qwen.gguf", new InferenceEngine.ModelOptions(true, 4, 0, 1280));
+        List<NoteChunk> chunks = List.of(
+                new NoteChunk("a#0", "a", "note", "Passport", "Renew the passport in May.", 0, null),
+                new NoteChunk("b#0", "b", "note", "Plants", "Water the plants.", 0, null));
+
+        AskPipeline.Result result = new AskPipeline(engine, () -> chunks, Runnable::run)
+                .ask("passport", new AskPipeline.Options(5, "", PARAMS), null);
+        assertEquals(1, result.sources.size());
+        assertEquals("a", result.sources.get(0).chunk.itemId);
+    }
+
+    @Test
+    public void reportsAMissingModel() throws Exception {
+        SimulatedEngine engine = new SimulatedEngine(new SimulatedEngine.Latencies(0, 0, 0, 0));
+        AskPipeline.Result result = new AskPipeline(engine, ArrayList::new, Runnable::run)
+                .ask("anything", new AskPipeline.Options(5, "", PARAMS), null);
+        assertEquals("Error: Model not loaded", result.answer);
+        assertTrue(result.sources.isEmpty());
+    }
+
+    private static SimulatedEngine loaded(int nCtx) {
+        SimulatedEngine engine = new SimulatedEngine(new SimulatedEngine.Latencies(0, 0, 0, 0));
+        InferenceEngine.ModelOptions options = new InferenceEngine.ModelOptions(true, 4, 0, nCtx);
+        engine.load("qwen.gguf", options);
+        engine.load("bge-small.gguf", options);
+        return engine;
+    }
+
+    private static NoteChunk indexed(SimulatedEngine engine, String title, String text) {
+        NoteChunk chunk = new NoteChunk(title + "#0", title, "note", title, text, 0, null);
+        return chunk.withEmbedding(engine.embed(chunk.embeddingText()));
+    }
+}
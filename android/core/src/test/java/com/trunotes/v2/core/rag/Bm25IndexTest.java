@@ -0,0 +1,88 @@
+package com.trunotes.v2.core.rag;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class Bm25IndexTest {
+
+    @Test
+    public void rareTermsOutrankCommonOnes() {
+        Bm25Index index = new Bm25Index();
+        for (int i = 0; i < 50; i++) index.replaceItem("n" + i, chunks("n" + i, "Meeting notes", "weekly meeting about the project plan"));
+        index.replaceItem("code", chunks("code", "Wifi", "the router password is XK-4471 for the meeting room"));
+
+        List<Bm25Index.Hit> hits = index.search("meeting xk 4471", 3);
+        assertEquals("code", hits.get(0).chunk.itemId);
+        assertTrue(hits.get(0).score > hits.get(1).score);
+    }
+
+    @Test
+    public void returnsOnlyMatchesBestFirst() {
+        Bm25Index index = new Bm25Index();
+        index.replaceItem("a", chunks("a", "Garden", "water the tomatoes, tomatoes need sun"));
+        index.replaceItem("b", chunks("b", "Garden", "tomatoes"));
+        index.replaceItem("c", chunks("c", "Errands", "buy stamps"));
+
+        List<Bm25Index.Hit> hits = index.search("Tomatoes!", 10);
+        assertEquals(2, hits.size());
+        for (Bm25Index.Hit hit : hits) assertNotEquals("c", hit.chunk.itemId);
+        assertTrue(index.search("", 10).isEmpty());
+        assertTrue(index.search("nothing matches", 10).isEmpty());
+    }
+
+    @Test
+    public void replacingAndRemovingItemsUpdatesResults() {
+        Bm25Index index = new Bm25Index();
+        index.replaceItem("a", chunks("a", "Trip", "pack the passport"));
+        index.replaceItem("b", chunks("b", "Shopping", "milk and bread"));
+        assertEquals("a", index.search("passport", 5).get(0).chunk.itemId);
+
+        index.replaceItem("a", chunks("a", "Trip", "pack sunscreen"));
+        assertTrue(index.search("passport", 5).isEmpty());
+        assertEquals(1, index.search("sunscreen", 5).size());
+
+        index.removeItem("b");
+        assertTrue(index.search("milk", 5).isEmpty());
+        assertEquals(1, index.size());
+    }
+
+    @Test
+    public void compactionKeepsLiveDocuments() {
+        Bm25Index index = new Bm25Index();
+        index.replaceItem("keep", chunks("keep", "Keeper", "lighthouse keeper log"));
+        // Enough rewrites to leave far more dead ids than live ones
+        for (int round = 0; round < 100; round++) {
+            index.replaceItem("churn", chunks("churn", "Draft", "draft number " + round));
+        }
+        assertEquals(2, index.size());
+        assertEquals("keep", index.search("lighthouse", 5).get(0).chunk.itemId);
+        assertEquals(1, index.search("99", 5).size());
+        assertTrue(index.search("42", 5).isEmpty());
+    }
+
+    @Test
+    public void varintsRoundTrip() {
+        byte[] buffer = new byte[64];
+        int[] values = {0, 1, 127, 128, 16_383, 16_384, Integer.MAX_VALUE};
+        int end = 0;
+        for (int value : values) end = Bm25Index.writeVarint(buffer, end, value);
+        int[] cursor = {0};
+        for (int value : values) assertEquals(value, Bm25Index.readVarint(buffer, cursor));
+        assertEquals(end, cursor[0]);
+    }
+
+    @Test
+    public void termsKeepDigitsAndDropSingleLetters() {
+        assertEquals(List.of("v2", "7", "café"), Bm25Index.terms("a v2 7 Café"));
+    }
+
+    private static List<NoteChunk> chunks(String itemId, String title, String text) {
+        List<NoteChunk> chunks = new ArrayList<>();
+        chunks.add(new NoteChunk(itemId + "#0", itemId, "note", title, text, 0, null));
+        return chunks;
+    }
+}
@@ -0,0 +1,41 @@
+package com.trunotes.v2.core.rag;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import java.util.List;
+
+public class NoteChunkerTest {
+
+    @Test
+    public void stripsMarkupAndInlineImages() {
+        String html = "<p>Buy&nbsp;milk</p> data:image/png;base64,AAAA <b>and eggs</b>";
+        assertEquals("Buy milk [IMAGE] and eggs", NoteChunker.clean(html));
+    }
+
+    @Test
+    public void longContentSplitsAtSentencesWithinTheLimit() {
+        StringBuilder content = new StringBuilder();
+        for (int i = 0; i < 40; i++) content.append("Sentence number ").append(i).append(" is about the garden. ");
+        List<NoteChunk> chunks = NoteChunker.split("n1", "note", "Garden", content.toString(), 42L);
+
+        assertTrue(chunks.size() > 1);
+        for (int i = 0; i < chunks.size(); i++) {
+            NoteChunk chunk = chunks.get(i);
+            assertEquals("n1#" + i, chunk.id);
+            assertEquals("n1", chunk.itemId);
+            assertEquals(42L, chunk.updatedAt);
+            assertTrue(chunk.text.length() <= NoteChunker.MAX_CHUNK_CHARS);
+            assertTrue(chunk.text.endsWith("."));
+        }
+    }
+
+    @Test
+    public void emptyContentKeepsTheTitleSearchable() {
+        List<NoteChunk> chunks = NoteChunker.split("t1", "task", "Call the dentist", "", 0L);
+        assertEquals(1, chunks.size());
+        assertEquals("", chunks.get(0).text);
+        assertTrue(chunks.get(0).searchText.contains("dentist"));
+    }
+}
@@ -0,0 +1,29 @@
+package com.trunotes.v2.core.rag;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import java.util.List;
+
+public class RankFusionTest {
+
+    @Test
+    public void keysRankedHighInBothListsWin() {
+        List<RankFusion.Fused> fused = RankFusion.fuse(List.of(
+                List.of("a", "b", "c"),
+                List.of("b", "d", "a")));
+        assertEquals("b", fused.get(0).key);
+        assertEquals("a", fused.get(1).key);
+        assertEquals(4, fused.size());
+        assertEquals(1.0 / 62 + 1.0 / 61, fused.get(0).score, 1e-12);
+    }
+
+    @Test
+    public void aSingleRankingKeepsItsOrder() {
+        List<RankFusion.Fused> fused = RankFusion.fuse(List.of(List.of("x", "y", "z")));
+        assertEquals("x", fused.get(0).key);
+        assertEquals("z", fused.get(2).key);
+        assertTrue(RankFusion.fuse(List.of()).isEmpty());
+    }
+}
@@ -0,0 +1,56 @@
+package com.trunotes.v2.core.rag;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class RetrieverTest {
+    private static final long NOW = 1_000L * 24 * 60 * 60 * 1000;
+    private static final long DAY = 24L * 60 * 60 * 1000;
+
+    @Test
+    public void ranksByCosineAndKeepsOnlyK() {
+        List<NoteChunk> chunks = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            chunks.add(chunk("c" + i, "filler", NOW - 30 * DAY, new float[] {1, i / 20f}));
+        }
+        NoteChunk closest = chunk("best", "filler", NOW - 30 * DAY, new float[] {0, 1});
+        chunks.add(closest);
+
+        List<Retriever.Scored> top = Retriever.topK("anything", NoteChunk.normalize(new float[] {0, 1}), chunks, 3, NOW);
+        assertEquals(3, top.size());
+        assertSame(closest, top.get(0).chunk);
+        assertTrue(top.get(0).score >= top.get(1).score && top.get(1).score >= top.get(2).score);
+    }
+
+    @Test
+    public void keywordsAndRecencyBreakTies() {
+        float[] same = {1, 0};
+        NoteChunk old = chunk("old", "dentist appointment", NOW - 100 * DAY, same);
+        NoteChunk fresh = chunk("fresh", "dentist appointment", NOW, same);
+        NoteChunk unrelated = chunk("other", "groceries", NOW - 100 * DAY, same);
+        List<NoteChunk> chunks = List.of(old, unrelated, fresh);
+
+        List<Retriever.Scored> top = Retriever.topK("when is the dentist", NoteChunk.normalize(same), chunks, 3, NOW);
+        assertSame(fresh, top.get(0).chunk);
+        assertSame(old, top.get(1).chunk);
+        assertSame(unrelated, top.get(2).chunk);
+    }
+
+    @Test
+    public void withoutAQueryVectorOnlyKeywordMatchesCount() {
+        List<NoteChunk> chunks = List.of(
+                chunk("a", "Renew the passport", NOW, null),
+                chunk("b", "Water the plants", NOW, null));
+        List<Retriever.Scored> top = Retriever.topK("passport renewal", null, chunks, 5, NOW);
+        assertEquals(1, top.size());
+        assertEquals("a", top.get(0).chunk.id);
+    }
+
+    private static NoteChunk chunk(String id, String text, long updatedAt, float[] embedding) {
+        return new NoteChunk(id, id, "note", id, text, updatedAt, NoteChunk.normalize(embedding));
+    }
+}
@@ -0,0 +1,102 @@
+#!/bin/bash
+
+# Cold-start benchmark for TruNotes on a connected device (adb).
+#
+#   ./startup-benchmark.sh [-n runs] [-p package] [--compile speed-profile|speed|verify]
+#   ./startup-benchmark.sh --mapped
+#
+# Every run force-stops the app and launches MainActivity with `am start -W`, which waits
+# for the first frame. The script reports TotalTime (process start to first frame) per run
+# and the min, median and p90. After each run it also checks whether libllama-android.so
+# is mapped in the process, which should be "no" now that the library loads on first AI
+# use. To compare two builds, install each one and run the script with the same -n and
+# --compile. The RESULT line is meant for diffing.
+#
+# QuickEditActivity is not exported, so adb cannot launch it. To check the widget path,
+# force-stop the app, tap a widget's add button, then run with --mapped. It should
+# print "no".
+#
+# Reading /proc/<pid>/maps uses run-as, which needs a debuggable build, or su on a
+# rooted device.
+
+PACKAGE="com.trunotes.v2"
+RUNS=10
+COMPILE=""
+MAPPED_ONLY=0
+
+while [ $# -gt 0 ]; do
+    case "$1" in
+        -n) RUNS="$2"; shift 2 ;;
+        -p) PACKAGE="$2"; shift 2 ;;
+        --compile) COMPILE="$2"; shift 2 ;;
+        --mapped) MAPPED_ONLY=1; shift ;;
+        *) echo "Unknown option: $1"; exit 1 ;;
+    esac
+done
+
+if ! adb get-state >/dev/null 2>&1; then
+    echo "❌ Error: no device connected"
+    exit 1
+fi
+
+llama_mapped() {
+    local pid
+    pid=$(adb shell pidof "$PACKAGE" | tr -d '\r')
+    if [ -z "$pid" ]; then
+        echo "not running"
+        return
+    fi
+    local maps
+    maps=$(adb shell run-as "$PACKAGE" cat "/proc/$pid/maps" 2>/dev/null || adb shell su -c "cat /proc/$pid/maps" 2>/dev/null)
+    if [ -z "$maps" ]; then
+        echo "unknown"
+    elif echo "$maps" | grep -q "libllama-android.so"; then
+        echo "yes"
+    else
+        echo "no"
+    fi
+}
+
+if [ "$MAPPED_ONLY" = 1 ]; then
+    echo "libllama-android.so mapped: $(llama_mapped)"
+    exit 0
+fi
+
+if [ -n "$COMPILE" ]; then
+    # Same ART compilation state for every build being compared
+    echo "Compiling $PACKAGE with $COMPILE..."
+    adb shell cmd package compile -m "$COMPILE" -f "$PACKAGE" >/dev/null
+fi
+
+ACTIVITY="$PACKAGE/.MainActivity"
+TIMES=()
+MAPPED_RUNS=0
+
+for i in $(seq 1 "$RUNS"); do
+    adb shell am force-stop "$PACKAGE"
+    sleep 1
+    OUTPUT=$(adb shell am start -W -n "$ACTIVITY" | tr -d '\r')
+    TOTAL=$(echo "$OUTPUT" | awk -F': ' '/TotalTime/ {print $2}')
+    if [ -z "$TOTAL" ]; then
+        echo "run $i: no TotalTime in am output"
+        echo "$OUTPUT"
+        exit 1
+    fi
+    # Let anything deferred run before looking at the process
+    sleep 3
+    MAPPED=$(llama_mapped)
+    [ "$MAPPED" = "yes" ] && MAPPED_RUNS=$((MAPPED_RUNS + 1))
+    echo "run $i: ${TOTAL}ms, llama mapped: $MAPPED"
+    TIMES+=("$TOTAL")
+done
+
+adb shell am force-stop "$PACKAGE"
+
+SORTED=$(printf '%s\n' "${TIMES[@]}" | sort -n)
+COUNT=${#TIMES[@]}
+MIN=$(echo "$SORTED" | head -n 1)
+MEDIAN=$(echo "$SORTED" | sed -n "$(( (COUNT + 1) / 2 ))p")
+P90=$(echo "$SORTED" | sed -n "$(( (COUNT * 9 + 9) / 10 ))p")
+
+echo ""
+echo "RESULT cold_start_ms runs=$COUNT min=$MIN median=$MEDIAN p90=$P90 llama_mapped_runs=$MAPPED_RUNS"
@@ -37,9 +37,11 @@ export const showToast = (msg: string, type: 'error' | 'success' = 'success') =>
 (window as any).showToast = showToast;
 
 import { useWidgetSync } from './hooks/useWidgetSync';
+import { useNoteIndexSync } from './hooks/useNoteIndexSync';
 
 function AuthenticatedApp() {
   useWidgetSync();
+  useNoteIndexSync();
   const { notes, loading, addNote, updateNote, deleteNote, saveReorder } = useNotes();
   const { isAuthenticated, logout } = useAuth();
   const { journalBg: customJournalBg, bgDarknessLight, bgDarknessDark, tasksBg, tomorrowBg, bgBlurLight, bgBlurDark, dashboardBg } = useSettings();
@@ -1,6 +1,112 @@
 import { registerPlugin } from '@capacitor/core';
 
+// One benchmark configuration; omitted fields use the loaded model's settings
+export interface AIBenchmarkConfig {
+    threads?: number,
+    n_batch?: number,
+    n_ctx?: number,
+    kv_type?: 'f16' | 'q8_0' | 'q4_0'
+}
+
+export interface AIBenchmarkResult {
+    threads: number,
+    nBatch: number,
+    nCtx: number,
+    kvType: string,
+    reps: number,
+    pp: number,
+    tg: number,
+    // Concurrent streams; the rates below are their sum
+    parallel: number,
+    prefillTokensPerSec: number,
+    decodeTokensPerSec: number,
+    ttftMs: number,
+    // -1 when the platform does not let the process reset its peak
+    peakRssKb: number,
+    error?: string
+}
+
+// One note, todo or journal log for the native index behind ask()
+export interface AIIndexItem {
+    id: string,
+    type: 'note' | 'todo' | 'log',
+    title: string,
+    content: string,
+    updatedAt: number,
+    // Items whose version is unchanged since the last indexNotes are skipped
+    version: string,
+    embedding?: number[]
+}
+
+export interface AIAskSource {
+    id: string,
+    chunkId: string,
+    type: string,
+    title: string,
+    score: number
+}
+
+export interface AISearchResult extends AIAskSource {
+    // Which rankings found the chunk; score is the reciprocal-rank fusion of them
+    keyword: boolean,
+    semantic: boolean
+}
+
+export interface AIIndexRun {
+    startedAt: number,
+    durationMs: number,
+    chunksEmbedded: number,
+    chunksFailed: number,
+    chunksPerMinute: number,
+    pendingAfter: number,
+    stoppedForHeat: boolean
+}
+
+export interface AIIndexStats {
+    items: number,
+    chunks: number,
+    // Chunks without an embedding yet
+    pending: number,
+    pendingChars: number,
+    oldestPendingUpdatedAt: number,
+    runs: AIIndexRun[]
+}
+
+// Milliseconds per stage; warmMs overlaps retrieveMs, ttftMs counts from the start of ask
+export interface AIAskTimings {
+    embedMs: number,
+    retrieveMs: number,
+    warmMs: number,
+    assembleMs: number,
+    ttftMs: number,
+    generateMs: number,
+    totalMs: number,
+    scanned: number,
+    used: number,
+    promptTokens: number
+}
+
+export interface AIBudgetSection {
+    text: string,
+    required?: boolean,
+    // Which end survives when the section is cut; 'tail' suits chat history
+    keep?: 'head' | 'tail'
+}
+
+export interface AIFittedSection {
+    // Empty when dropped
+    text: string,
+    tokens: number,
+    truncated: boolean,
+    dropped: boolean
+}
+
+// Native inference library: loaded on first use, not at app start
+export type AIEngineStatus = 'idle' | 'loading' | 'ready' | 'error';
+
 export interface AIBridgePlugin {
+    // Starts loading the native library in the background; 'engineStatus' events follow
+    prepareEngine(): Promise<{ status: AIEngineStatus, message?: string }>;
     loadModel(options: { path: string, use_mmap?: boolean, threads?: number, n_gpu_layers?: number, n_ctx?: number }): Promise<{ status: string, path: string, cached?: boolean }>;
     downloadModel(options: { url: string, filename: string }): Promise<{ downloadId: number, path: string, alreadyExists?: boolean }>;
     getLastModelPath(): Promise<{ path: string | null }>;
@@ -15,15 +121,53 @@ export interface AIBridgePlugin {
         top_k?: number,
         top_p?: number,
         penalty?: number,
+        // Same seed, prompt and model give the same response. Seeded requests and those at
+        // temperature <= 0.3 are answered from a disk cache when repeated
+        seed?: number,
         stop?: string[]
     }): Promise<{ started: boolean }>;
     stopGenerate(): Promise<void>;
+    // hitRate counts cacheable generate calls since the app started
+    getResponseCacheStats(): Promise<{ hits: number, misses: number, hitRate: number, entries: number, bytes: number }>;
+    clearResponseCache(): Promise<void>;
     unloadModel(): Promise<void>;
     embed(options: { text: string }): Promise<{ vector: number[] }>;
+    // Prefill/decode throughput of the loaded model, through the same native path as generate
+    benchmark(options: { pp?: number, tg?: number, reps?: number, configs?: AIBenchmarkConfig[] }): Promise<{ results: AIBenchmarkResult[] }>;
+    // System trace sections (Perfetto) for the AI and widget pipelines; persisted across restarts
+    setTracing(options: { enabled: boolean }): Promise<{ enabled: boolean }>;
     pickModel(): Promise<{ name: string, path: string }>;
+    // Keeps the native note index in sync; only changed items need to be sent. New chunks are
+    // embedded later by a background worker (idle or charging)
+    indexNotes(options: { items: AIIndexItem[], removeIds?: string[] }): Promise<{ indexed: number, chunks: number, removed: number, pendingEmbeddings: number }>;
+    getIndexedVersions(): Promise<{ versions: Record<string, string> }>;
+    // One result per item. 'keyword' is BM25 and needs no model; 'hybrid' (default) fuses BM25
+    // with vector ranks and degrades to BM25 when the embedding model is not loaded
+    searchNotes(options: { query: string, k?: number, mode?: 'hybrid' | 'keyword' | 'vector' }): Promise<{ results: AISearchResult[], tookMs: number }>;
+    getIndexStats(): Promise<AIIndexStats>;
+    scheduleIndexing(): Promise<{ scheduled: boolean, pending: number }>;
+    // Retrieval, prompt assembly and generation in one call; streams 'token' events
+    ask(options: {
+        query: string,
+        k?: number,
+        preamble?: string,
+        n_predict?: number,
+        threads?: number,
+        temperature?: number,
+        top_k?: number,
+        top_p?: number,
+        penalty?: number
+    }): Promise<{ answer: string, sources: AIAskSource[], timings: AIAskTimings }>;
+    // Token ids and counts with the loaded model's vocabulary; counts are cached per text
+    tokenize(options: { texts: string[] }): Promise<{ tokens: number[][] }>;
+    countTokens(options: { texts: string[] }): Promise<{ counts: number[], nCtx: number }>;
+    // Keeps required sections, fills maxTokens with the others in order and cuts the first
+    // that does not fit; the rest come back dropped
+    fitToBudget(options: { sections: AIBudgetSection[], maxTokens: number }): Promise<{ sections: AIFittedSection[], totalTokens: number }>;
     addListener(eventName: 'token', listenerFunc: (data: { token: string }) => void): Promise<any>;
     addListener(eventName: 'modelStatus', listenerFunc: (data: { status: string, path?: string, message?: string }) => void): Promise<any>;
     addListener(eventName: 'done', listenerFunc: (data: { fullResponse: string }) => void): Promise<any>;
+    addListener(eventName: 'engineStatus', listenerFunc: (data: { status: AIEngineStatus, message?: string }) => void): Promise<any>;
 }
 
 interface AIBridgeWithSync extends AIBridgePlugin {
@@ -35,6 +179,7 @@ const AIBridgeBase = registerPlugin<AIBridgePlugin>('AIBridge');
 const AIBridge: AIBridgeWithSync = {
     // Explicitly delegate native methods because registerPlugin returns a Proxy
     // Spreading a Proxy does NOT copy its methods
+    prepareEngine: () => AIBridgeBase.prepareEngine(),
     loadModel: (options) => AIBridgeBase.loadModel(options),
     downloadModel: (options) => AIBridgeBase.downloadModel(options),
     getLastModelPath: () => AIBridgeBase.getLastModelPath(),
@@ -43,9 +188,22 @@ const AIBridge: AIBridgeWithSync = {
     deleteModel: (options) => AIBridgeBase.deleteModel(options),
     generate: (options) => AIBridgeBase.generate(options),
     stopGenerate: () => AIBridgeBase.stopGenerate(),
+    getResponseCacheStats: () => AIBridgeBase.getResponseCacheStats(),
+    clearResponseCache: () => AIBridgeBase.clearResponseCache(),
     unloadModel: () => AIBridgeBase.unloadModel(),
     embed: (options) => AIBridgeBase.embed(options),
+    benchmark: (options) => AIBridgeBase.benchmark(options),
+    setTracing: (options) => AIBridgeBase.setTracing(options),
     pickModel: () => AIBridgeBase.pickModel(),
+    indexNotes: (options) => AIBridgeBase.indexNotes(options),
+    getIndexedVersions: () => AIBridgeBase.getIndexedVersions(),
+    searchNotes: (options) => AIBridgeBase.searchNotes(options),
+    getIndexStats: () => AIBridgeBase.getIndexStats(),
+    scheduleIndexing: () => AIBridgeBase.scheduleIndexing(),
+    ask: (options) => AIBridgeBase.ask(options),
+    tokenize: (options) => AIBridgeBase.tokenize(options),
+    countTokens: (options) => AIBridgeBase.countTokens(options),
+    fitToBudget: (options) => AIBridgeBase.fitToBudget(options),
     addListener: (eventName: any, listenerFunc: any) => AIBridgeBase.addListener(eventName, listenerFunc),
 
     /**
@@ -0,0 +1,63 @@
+import { registerPlugin } from '@capacitor/core';
+
+export type VoiceNoteStatus = 'queued' | 'processing' | 'completed' | 'failed';
+
+export interface VoiceNote {
+    id: string;
+    status: VoiceNoteStatus | string;
+    transcript?: string;
+    title?: string;
+    summary?: string;
+    excerpt?: string;
+    summaryProvider?: string;
+    createdAt: number;
+    updatedAt: number;
+    queuedAt?: number;
+    completedAt?: number;
+    [key: string]: any;
+}
+
+export interface VoiceNotesCursor {
+    updatedAt: number;
+    id: string;
+}
+
+export interface QueueWait {
+    id: string;
+    queuedAt: number;
+    completedAt: number;
+    waitMs: number;
+}
+
+export interface WorkerRunStats {
+    mode: 'expedited' | 'batch' | 'periodic';
+    startedAt: number;
+    durationMs: number;
+    notesCompleted: number;
+    notesPerMinute: number;
+    modelLoaded: boolean;
+    throttleEvents: number;
+    pausedMs: number;
+    maxThermalLevel: number;
+    minThreads: number;
+    stoppedForHeat: boolean;
+}
+
+interface BackgroundVoiceAIPlugin {
+    // Small backlogs run expedited off the charger; large ones are sharded and wait for charging
+    scheduleProcessing(): Promise<{ scheduled: boolean, mode: 'expedited' | 'batch' | 'periodic', pending: number, estimatedTokens: number, shards: number }>;
+    cancelProcessing(): Promise<{ cancelled: boolean }>;
+    getRunStats(): Promise<{ runs: WorkerRunStats[] }>;
+    getQueueStats(options?: { limit?: number }): Promise<{ pending: number, estimatedTokens: number, oldestQueuedAt: number, oldestWaitMs: number, p50WaitMs: number, p90WaitMs: number, recent: QueueWait[] }>;
+    // Newest first; pass the returned cursor back for the next page (null = no more)
+    listNotes(options?: { status?: string, limit?: number, cursor?: VoiceNotesCursor | null }): Promise<{ notes: VoiceNote[], cursor: VoiceNotesCursor | null }>;
+    getNote(options: { id: string }): Promise<{ note: VoiceNote | null }>;
+    // Saving an unfinished note schedules processing unless schedule is false
+    saveNote(options: { note: VoiceNote, schedule?: boolean }): Promise<void>;
+    deleteNote(options: { id: string }): Promise<{ deleted: boolean }>;
+}
+
+const BackgroundVoiceAI = registerPlugin<BackgroundVoiceAIPlugin>('BackgroundVoiceAI');
+
+export { BackgroundVoiceAI };
+export type { BackgroundVoiceAIPlugin };
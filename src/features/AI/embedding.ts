@@ -1,4 +1,6 @@
+import { Capacitor } from '@capacitor/core';
 import AIBridge from './AIBridge';
+import type { AIIndexItem } from './AIBridge';
 import { cosineSimilarity } from '../../utils/vector';
 import type { Note, Todo } from '../../types';
 
@@ -115,8 +117,26 @@ export function keywordSearch(query: string, items: SearchableItem[], limit: num
         .map(s => s.item);
 }
 
+// Native index: ready vectors plus keyword matches, without embedding anything but the query
+async function nativeSearch(query: string, items: SearchableItem[]) {
+    const { results } = await AIBridge.searchNotes({ query, k: 7 });
+    const byId = new Map(items.map(item => [item.id, item]));
+    return results
+        .map(result => byId.get(result.id))
+        .filter((item): item is SearchableItem => item !== undefined);
+}
+
 // STEP 9 - HYBRID RETRIEVAL (keyword-first, skip embedding if model not loaded to avoid chat model swap)
 export async function hybridSearch(query: string, items: SearchableItem[]) {
+    if (Capacitor.isNativePlatform()) {
+        try {
+            const found = await nativeSearch(query, items);
+            if (found.length > 0) return found;
+        } catch {
+            // Fall through to the in-memory search
+        }
+    }
+
     const keywords = keywordSearch(query, items, 5);
 
     // Only do semantic search if embedding model is already loaded
@@ -207,6 +227,45 @@ Queries:<|im_end|>
     }
 }
 
+// Cheap content fingerprint. updatedAt cannot tell what changed: journal logs have none that
+// is stable, and cloud merges and late widget ops can save older timestamps over newer text
+function itemVersion(item: SearchableItem) {
+    let hash = 5381;
+    const text = item.title + '\u0000' + item.content;
+    for (let i = 0; i < text.length; i++) {
+        hash = ((hash << 5) + hash + text.charCodeAt(i)) | 0;
+    }
+    return `${text.length}:${hash >>> 0}`;
+}
+
+// Sends only new, changed and deleted items to the native index used by AIBridge.ask and
+// searchNotes. No embedding happens here: the native side embeds in the background.
+export async function syncNoteIndex(items: SearchableItem[]) {
+    const { versions } = await AIBridge.getIndexedVersions();
+    const seen = new Set<string>();
+    const changed: AIIndexItem[] = [];
+
+    for (const item of items) {
+        seen.add(item.id);
+        const version = itemVersion(item);
+        if (versions[item.id] === version) continue;
+        changed.push({
+            id: item.id,
+            type: item.type,
+            title: item.title,
+            content: item.content,
+            updatedAt: item.updatedAt,
+            version,
+            embedding: item.embedding
+        });
+    }
+    const removeIds = Object.keys(versions).filter(id => !seen.has(id));
+
+    if (changed.length > 0 || removeIds.length > 0) {
+        await AIBridge.indexNotes({ items: changed, removeIds });
+    }
+}
+
 // Helper to prepare data for search
 export function prepareSearchItems(notes: Note[], todos: Todo[], hourlyLogs: any[]): SearchableItem[] {
     const items: SearchableItem[] = [];
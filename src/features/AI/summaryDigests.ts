@@ -34,6 +34,8 @@ interface SummaryWindowContext {
 const STORAGE_KEY = 'trunotes-ai-summary-digests';
 const MAX_NOTES_IN_PROMPT = 16;
 const MAX_NOTE_CHARS = 320;
+// Fixed so an unchanged window gets the same digest, straight from the native response cache
+const DIGEST_SEED = 42;
 
 function safeJsonParse<T>(value: string | null): T | null {
     if (!value) return null;
@@ -226,6 +228,7 @@ export async function generateSummaryDigest(
             top_p: Math.min(aiConfig.top_p ?? 0.85, 0.9),
             penalty: aiConfig.penalty ?? 1.15,
             threads: aiConfig.threads ?? 4,
+            seed: DIGEST_SEED,
         });
 
         return {
@@ -132,6 +132,26 @@ const isFollowUp = (msg: string) => {
     return false;
 };
 
+// Room left after prompt + answer, as on the native side
+const CONTEXT_MARGIN = 64;
+
+// Cuts the retrieved context so prompt and answer fit the context window, instead of the
+// native side dropping the start of the prompt. Any bridge failure keeps the prompt as it is
+const fitPromptToContext = async (prompt: string, context: string, nPredict: number, rebuild: (context: string) => string) => {
+    try {
+        const { counts: [promptTokens, contextTokens], nCtx } = await AIBridge.countTokens({ texts: [prompt, context] });
+        const limit = nCtx - nPredict - CONTEXT_MARGIN;
+        if (nCtx <= 0 || promptTokens <= limit) return prompt;
+        const { sections } = await AIBridge.fitToBudget({
+            sections: [{ text: context }],
+            maxTokens: Math.max(0, contextTokens - (promptTokens - limit))
+        });
+        return rebuild(sections[0].text);
+    } catch {
+        return prompt;
+    }
+};
+
 const getGenerationOverrides = (aiConfig: any, inputText: string) => {
     if (!isSmallTalkMessage(inputText)) {
         return {
@@ -210,8 +230,12 @@ if (!aiConfig.disableContext && !shouldUseFastPath) {
     }
 
 }
-            const prompt = formatPrompt(loadedModel, chatMessages, userMsg.text, contextGrounding, aiConfig);
             const generationOverrides = getGenerationOverrides(aiConfig, userMsg.text);
+            let prompt = formatPrompt(loadedModel, chatMessages, userMsg.text, contextGrounding, aiConfig);
+            if (contextGrounding) {
+                prompt = await fitPromptToContext(prompt, contextGrounding, generationOverrides.n_predict,
+                    context => formatPrompt(loadedModel, chatMessages, userMsg.text, context, aiConfig));
+            }
 
             await AIBridge.generate({
                 prompt: prompt,
@@ -197,6 +197,10 @@ export const useAIModels = (setError: (err: string | null) => void) => {
 
     useEffect(() => {
         refreshModels();
+        // Warm the native library while the user picks a model, so loadModel does not wait on it
+        AIBridge.prepareEngine().catch(() => {
+            // Web and desktop builds have no native engine
+        });
     }, []);
 
     useEffect(() => {
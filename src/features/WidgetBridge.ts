@@ -1,7 +1,40 @@
 import { registerPlugin } from '@capacitor/core';
 
+// One edit made from a home-screen widget, as recorded by the native op log
+export type WidgetOp =
+    | { seq: number; id: string; type: 'add'; ts: number; todoId: string; text: string; completed: boolean }
+    | { seq: number; id: string; type: 'toggle'; ts: number; todoId: string; completed: boolean }
+    | { seq: number; id: string; type: 'hourly'; ts: number; date: string; hour: number; text: string };
+
+export interface WidgetTodo {
+    id: string;
+    text: string;
+    completed: boolean;
+    createdAt: number;
+    updatedAt: number;
+}
+
+export interface WidgetRefreshCounts {
+    requested: number;
+    performed: number;
+    layoutRebuilds: number;
+}
+
 interface WidgetBridgePlugin {
-    refreshWidgets(): Promise<{ refreshed: boolean; todoWidgets: number; hourlyWidgets: number }>;
+    // Debounced natively; bursts of calls merge into one refresh per widget type.
+    // layout: true also rebuilds the todo widget's views, not just its list data.
+    refreshWidgets(options?: { layout?: boolean }): Promise<{ refreshed: boolean; todoWidgets: number; hourlyWidgets: number }>;
+    // Stores what the widgets show (todos already sorted for display) and refreshes them
+    pushSnapshot(options: { date: string; todos: WidgetTodo[]; hourly: { [hour: number]: string } }): Promise<{ refreshed: boolean; todoWidgets: number; hourlyWidgets: number; todos: number }>;
+    // Parsed widget data cache in the app process; cachedTodos is -1 when the list is not loaded
+    getCacheStats(): Promise<{ hits: number; misses: number; invalidations: number; cachedTodos: number; pendingOps: number }>;
+    getRefreshStats(): Promise<{ todo: WidgetRefreshCounts; hourly: WidgetRefreshCounts }>;
+    // Compacted widget edits since the last ack; ack with upToSeq once they are applied
+    drainOps(): Promise<{ ops: WidgetOp[]; upToSeq: number }>;
+    ackOps(options: { upToSeq: number }): Promise<{ remaining: number }>;
+    // Finished hourly days moved aside at midnight, oldest first; ack each date once saved
+    drainHourlyArchive(): Promise<{ days: { date: string; logs: { [hour: number]: string } }[] }>;
+    ackHourlyArchive(options: { dates: string[] }): Promise<void>;
 }
 
 const WidgetBridge = registerPlugin<WidgetBridgePlugin>('WidgetBridge');
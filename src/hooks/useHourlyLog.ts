@@ -1,6 +1,5 @@
 import { useState, useEffect, useCallback, useRef } from 'react';
 import { storage } from '../lib/storage';
-import { generateEmbedding } from '../features/AI/embedding';
 
 export function useHourlyLog(dateKey: string) {
     const [logs, setLogs] = useState<{ [hour: number]: string }>({});
@@ -45,11 +44,7 @@ export function useHourlyLog(dateKey: string) {
             const updated = { ...prev, [hour]: text };
 
             // Sync with DB using a separate async call to avoid blocking state update
-            (async () => {
-                const fullDayText = Object.values(updated).join(" ");
-                const embedding = await generateEmbedding(fullDayText);
-                await storage.saveHourlyLog(activeKey, updated, embedding || undefined);
-            })();
+            storage.saveHourlyLog(activeKey, updated);
 
             return updated;
         });
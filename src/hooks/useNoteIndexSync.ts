@@ -0,0 +1,40 @@
+import { useEffect } from 'react';
+import { Capacitor } from '@capacitor/core';
+import { storage } from '../lib/storage';
+import { prepareSearchItems, syncNoteIndex } from '../features/AI/embedding';
+
+// Edits often come in bursts (typing, widget ops); one sync per burst is enough
+const SYNC_DELAY_MS = 3000;
+
+async function syncAll() {
+    const [notes, todos, hourlyLogs] = await Promise.all([
+        storage.getAllNotes(),
+        storage.getAllTodos(),
+        storage.getAllHourlyLogs()
+    ]);
+    await syncNoteIndex(prepareSearchItems(notes, todos, hourlyLogs));
+}
+
+// Keeps the native note index behind AI search and ask up to date. Only changed items cross
+// the bridge, and embedding them is left to the native background worker.
+export function useNoteIndexSync() {
+    useEffect(() => {
+        if (!Capacitor.isNativePlatform()) return;
+
+        let timer: ReturnType<typeof setTimeout> | null = null;
+        const schedule = (delay: number) => {
+            if (timer) clearTimeout(timer);
+            timer = setTimeout(() => {
+                timer = null;
+                syncAll().catch(err => console.error("RAG: native index sync failed", err));
+            }, delay);
+        };
+
+        schedule(SYNC_DELAY_MS);
+        const unsubscribe = storage.onDataChange(() => schedule(SYNC_DELAY_MS));
+        return () => {
+            unsubscribe();
+            if (timer) clearTimeout(timer);
+        };
+    }, []);
+}
@@ -1,7 +1,6 @@
 import { useState, useEffect, useCallback } from 'react';
 import type { Note } from '../types';
 import { storage } from '../lib/storage';
-import { generateEmbedding } from '../features/AI/embedding';
 
 const generateId = () => {
     try {
@@ -62,22 +61,7 @@ export function useNotes() {
             await storage.saveNote(newNote);
             console.log("useNotes: Note saved to storage", id);
             await refreshNotes();
-
-            // Generate embedding in the background
-            setTimeout(async () => {
-                try {
-                    const vector = await generateEmbedding(`${title} ${content}`);
-                    if (vector) {
-                        const latestNote = await storage.getNote(id);
-                        if (latestNote) {
-                            await storage.saveNote({ ...latestNote, embedding: vector });
-                            // No need to refreshNotes again, unless we want search to be instant
-                        }
-                    }
-                } catch (e) {
-                    console.error("Background embedding failed", e);
-                }
-            }, 100);
+            // The native note index embeds it in the background (useNoteIndexSync)
 
             return newNote;
         } catch (error) {
@@ -105,28 +89,6 @@ export function useNotes() {
             await storage.saveNote(updatedNote);
             console.log("useNotes: Note updated in storage", id);
             await refreshNotes();
-
-            // Regenerate embedding in the background if title or content has changed
-            if ((updates.title !== undefined && updates.title !== oldNote.title) ||
-                (updates.content !== undefined && updates.content !== oldNote.content)) {
-
-                setTimeout(async () => {
-                    try {
-                        const newTitle = updates.title !== undefined ? updates.title : oldNote.title;
-                        const newContent = updates.content !== undefined ? updates.content : oldNote.content;
-                        const vector = await generateEmbedding(`${newTitle} ${newContent}`);
-                        if (vector) {
-                            const latestNote = await storage.getNote(id);
-                            if (latestNote) {
-                                await storage.saveNote({ ...latestNote, embedding: vector });
-                                console.log("useNotes: Background embedding updated (update)", id);
-                            }
-                        }
-                    } catch (e) {
-                        console.error("Background embedding update failed", e);
-                    }
-                }, 500);
-            }
         } catch (error) {
             console.error("useNotes: updateNote failed", error);
             throw error;
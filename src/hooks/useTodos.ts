@@ -2,7 +2,6 @@ import { useState, useEffect, useCallback } from 'react';
 import type { Todo } from '../types';
 import { storage } from '../lib/storage';
 import { format, addDays } from 'date-fns';
-import { generateEmbedding } from '../features/AI/embedding';
 
 let globalRefreshInProgress = false;
 
@@ -30,7 +29,6 @@ export function useTodos() {
                     newDailyTodos.some(t => t.dailyParentId === template.id);
 
                 if (!alreadyGenerated) {
-                    const vector = await generateEmbedding(template.text);
                     const newDailyTodo: Todo = {
                         id: crypto.randomUUID(),
                         text: template.text,
@@ -38,8 +36,7 @@ export function useTodos() {
                         createdAt: Date.now(),
                         updatedAt: Date.now(),
                         targetDate: todayStr,
-                        dailyParentId: template.id,
-                        embedding: vector || undefined
+                        dailyParentId: template.id
                     };
                     newDailyTodos.push(newDailyTodo);
                 }
@@ -71,15 +68,13 @@ export function useTodos() {
     }, [refreshTodos]);
 
     const addTodo = async (text: string, targetDate: string) => {
-        const vector = await generateEmbedding(text);
         const newTodo: Todo = {
             id: crypto.randomUUID(),
             text: text.trim(),
             completed: false,
             createdAt: Date.now(),
             updatedAt: Date.now(),
-            targetDate,
-            embedding: vector || undefined
+            targetDate
         };
         await storage.saveTodo(newTodo);
         await refreshTodos();
@@ -2,13 +2,80 @@ import { useEffect } from 'react';
 import { App as CapacitorApp } from '@capacitor/app';
 import { Preferences } from '@capacitor/preferences';
 import { storage } from '../lib/storage';
+import { WidgetBridge } from '../features/WidgetBridge';
 import { format } from 'date-fns';
 import type { Todo } from '../types';
+import type { WidgetOp } from '../features/WidgetBridge';
+
+// Applies one widget edit. Ops can be delivered again if the app dies before acking, so
+// every case is safe to repeat.
+async function applyWidgetOp(op: WidgetOp) {
+    if (op.type === 'hourly') {
+        const existing = await storage.getHourlyLog(op.date);
+        await storage.saveHourlyLog(op.date, { ...(existing?.logs || {}), [op.hour]: op.text });
+        return;
+    }
+
+    const todo = await storage.getTodo(op.todoId);
+    if (todo) {
+        await storage.saveTodo({ ...todo, completed: op.completed, updatedAt: op.ts });
+    } else if (op.type === 'add') {
+        // Empty targetDate puts widget-added tasks in the pending list
+        await storage.saveTodo({
+            id: op.todoId,
+            text: op.text,
+            completed: op.completed,
+            targetDate: '',
+            createdAt: op.ts,
+            updatedAt: op.ts,
+        });
+    }
+}
+
+async function drainWidgetOps() {
+    try {
+        return await WidgetBridge.drainOps();
+    } catch (e) {
+        // Only implemented on Android
+        return null;
+    }
+}
+
+// Days the native rollover archived. The app already has whatever it pushed for those
+// days, so its own entries win and the archive only fills hours it is missing.
+async function applyHourlyArchive() {
+    let drained;
+    try {
+        drained = await WidgetBridge.drainHourlyArchive();
+    } catch (e) {
+        // Only implemented on Android
+        return;
+    }
+    if (drained.days.length === 0) return;
+
+    console.log("WidgetSync: Restoring", drained.days.length, "archived hourly days");
+    for (const day of drained.days) {
+        const existing = await storage.getHourlyLog(day.date);
+        await storage.saveHourlyLog(day.date, { ...day.logs, ...(existing?.logs || {}) });
+    }
+    await WidgetBridge.ackHourlyArchive({ dates: drained.days.map(day => day.date) });
+}
 
 export function useWidgetSync() {
     useEffect(() => {
         const syncFromNative = async () => {
             try {
+                // Widget edits since the last sync; cost follows the number of edits, not tasks
+                const drained = await drainWidgetOps();
+                if (drained && drained.ops.length > 0) {
+                    console.log("WidgetSync: Applying", drained.ops.length, "widget edits");
+                    for (const op of drained.ops) {
+                        await applyWidgetOp(op);
+                    }
+                }
+                await applyHourlyArchive();
+
+                // Builds before the op log rewrote widget_todos in place and set this flag
                 const { value: needsSync } = await Preferences.get({ key: 'needs_native_sync' });
                 if (needsSync === 'true') {
                     console.log("WidgetSync: Pulling changes from native widgets...");
@@ -43,9 +110,20 @@ export function useWidgetSync() {
                             } catch (e) {
                                 console.error("WidgetSync: Hourly parse error", e);
                             }
+                        } else if (widgetDate) {
+                            // An earlier day: keep its entries under that day instead of dropping them
+                            try {
+                                const nativeLogs = JSON.parse(hourlyJson);
+                                const existing = await storage.getHourlyLog(widgetDate);
+                                await storage.saveHourlyLog(widgetDate, { ...(existing?.logs || {}), ...nativeLogs });
+                            } catch (e) {
+                                console.error("WidgetSync: Hourly parse error", e);
+                            }
+                            await Preferences.set({ key: 'widget_hourly', value: '{}' });
+                            await Preferences.set({ key: 'widget_hourly_date', value: today });
                         } else {
-                            // If the date is stale OR missing, we MUST treat it as old data and clear it
-                            console.warn("WidgetSync: Stale widget date detected. Clearing native storage.", widgetDate, "vs today", today);
+                            // Without a date there is no day to file the entries under
+                            console.warn("WidgetSync: Widget hourly logs have no date. Clearing native storage.");
                             await Preferences.set({ key: 'widget_hourly', value: '{}' });
                             await Preferences.set({ key: 'widget_hourly_date', value: today });
                         }
@@ -66,6 +144,11 @@ export function useWidgetSync() {
                 // Always push the latest app data to widgets on resume
                 // This ensures the widget shows up-to-date data even if needs_native_sync was false
                 await storage.triggerWidgetSync();
+
+                // Ack only once the widgets have data that already includes the edits
+                if (drained && drained.ops.length > 0) {
+                    await WidgetBridge.ackOps({ upToSeq: drained.upToSeq });
+                }
             } catch (e) {
                 console.error("WidgetSync: Sync failed", e);
             }
@@ -1,5 +1,6 @@
 import { openDB, type DBSchema } from 'idb';
 import type { Note, Todo } from '../types';
+import { Capacitor } from '@capacitor/core';
 import { Preferences } from '@capacitor/preferences';
 import { format } from 'date-fns';
 import { WidgetBridge } from '../features/WidgetBridge';
@@ -91,6 +92,12 @@ export const storage = {
         return all.filter(t => !t.deleted);
     },
 
+    async getTodo(id: string): Promise<Todo | undefined> {
+        const db = await dbPromise;
+        const todo = await db.get('todos', id);
+        return todo?.deleted ? undefined : todo;
+    },
+
     async getTodosByDate(date: string): Promise<Todo[]> {
         const db = await dbPromise;
         const all = await db.getAllFromIndex('todos', 'by-target-date', date);
@@ -343,19 +350,36 @@ export const storage = {
 
             const hourlyLog = await this.getHourlyLog(today);
 
-            // Save to Capacitor Preferences (which maps to Android SharedPreferences)
-            const data = [
-                { key: 'widget_todos', value: JSON.stringify(pendingTodos) },
-                { key: 'widget_hourly', value: JSON.stringify(hourlyLog?.logs || {}) },
-                { key: 'widget_hourly_date', value: today },
-                { key: 'needs_native_sync', value: 'false' } // Reset flag after app-to-widget sync
-            ];
-
-            for (const item of data) {
-                await Preferences.set({
-                    key: item.key,
-                    value: item.value
-                });
+            // Android: push just what the widgets show, pre-sorted, straight into the native
+            // snapshot (this also refreshes the widgets)
+            let pushed = false;
+            if (Capacitor.getPlatform() === 'android') {
+                try {
+                    const visibleTodos = [...pendingTodos]
+                        .sort((a, b) => b.createdAt - a.createdAt)
+                        .map(({ id, text, completed, createdAt, updatedAt }) => ({ id, text, completed, createdAt, updatedAt }));
+                    await WidgetBridge.pushSnapshot({ date: today, todos: visibleTodos, hourly: hourlyLog?.logs || {} });
+                    pushed = true;
+                } catch (e) {
+                    console.warn("storage: Widget snapshot push failed, falling back to Preferences", e);
+                }
+            }
+
+            if (!pushed) {
+                // Save to Capacitor Preferences (which maps to Android SharedPreferences)
+                const data = [
+                    { key: 'widget_todos', value: JSON.stringify(pendingTodos) },
+                    { key: 'widget_hourly', value: JSON.stringify(hourlyLog?.logs || {}) },
+                    { key: 'widget_hourly_date', value: today },
+                    { key: 'needs_native_sync', value: 'false' } // Reset flag after app-to-widget sync
+                ];
+
+                for (const item of data) {
+                    await Preferences.set({
+                        key: item.key,
+                        value: item.value
+                    });
+                }
             }
 
             console.log("storage: Widget data updated - ", pendingTodos.length, "pending tasks");
@@ -371,12 +395,14 @@ export const storage = {
                 // Not running in Electron — safe to ignore
             }
 
-            // Trigger native widget refresh broadcast (Android only)
-            try {
-                await WidgetBridge.refreshWidgets();
-                console.log("storage: Native widgets refreshed");
-            } catch (e) {
-                // Expected to fail on web/desktop — only works on Android
+            // Trigger native widget refresh broadcast (Android only; pushSnapshot already did it)
+            if (!pushed) {
+                try {
+                    await WidgetBridge.refreshWidgets();
+                    console.log("storage: Native widgets refreshed");
+                } catch (e) {
+                    // Expected to fail on web/desktop — only works on Android
+                }
             }
         } catch (e) {
             console.warn('Widget sync failed:', e);